@@ -88,11 +88,14 @@ public class EndToEndTransactionsBenchmark {
         System.out.println("# Start building Oram with " + ORAM_ELTS + " leaves");
 
         Stopwatch buildBanks = Stopwatch.createStarted();
+        ExecutorService buildExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                new DaemonThreadFactory("PvormBuilder"));
         LocalBank bankA = new LocalBank(params, TREE_DEPTH, BUCKET_SIZE, STASH_SIZE, bankAPrivateEncKey,
-                BigInteger.valueOf(3L), users1);
+                BigInteger.valueOf(3L), users1, buildExecutor);
 
         LocalBank bankB = new LocalBank(params, TREE_DEPTH, BUCKET_SIZE, STASH_SIZE, bankBPrivateEncKey,
-                BigInteger.valueOf(5L), users1);
+                BigInteger.valueOf(5L), users1, buildExecutor);
+        buildExecutor.shutdown();
 
         // take a snapshot before updating. Not timing it because in this
         // doesn't happen in real blockchain
@@ -26,6 +26,7 @@ import solidus.state.LocalBank;
 import solidus.state.RemoteBank;
 import solidus.state.User;
 import solidus.trans.TransactionRequest;
+import solidus.util.CanonicalKey;
 import solidus.util.CryptoConstants;
 import solidus.util.EncryptionParams;
 import solidus.zookeeper.ZooKeeperDriver;
@@ -155,7 +156,7 @@ public class SolidusOnZooKeeperCircular {
     }
 
     private static String _getIdFromKey(ECPoint point) {
-        return Base64.getUrlEncoder().encodeToString(point.getEncoded(true));
+        return CanonicalKey.of(point).getStringId();
     }
 
     private static void _testBatchTransactions(ZooKeeperDriver driver, User user, ECPoint recvBankKey,
@@ -26,7 +26,14 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
-import java.util.Random;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.bouncycastle.crypto.ec.ECPair;
 import org.bouncycastle.math.ec.ECPoint;
@@ -34,36 +41,124 @@ import org.bouncycastle.math.ec.ECPoint;
 import com.google.common.base.Stopwatch;
 
 import solidus.io.SerialHelpers;
+import solidus.util.BatchNormalizer;
 import solidus.util.CryptoConstants;
 import solidus.util.EncryptionParams;
-import solidus.util.Encryptor;
+import solidus.util.FromFileEncryptor;
 
+/**
+ * Command line tool to generate stored encryptions of zero for use by
+ * {@link solidus.util.FromFileEncryptor FromFileEncryptor}.
+ *
+ * Arguments: {@code output secretKey count [workers] [shards] [compressed]}.
+ * With a single shard {@code output} is the file to write. Otherwise it is a
+ * directory which will hold one file per shard. Workers default to one per
+ * processor and there is a single shard unless more are requested. Each
+ * worker generates its own shards with the fixed-base tables for the key and
+ * generator, normalizes them in batches, and writes them through its own
+ * stream, so generation scales with the number of processors once there are
+ * at least as many shards as workers. The cursor of every file written is
+ * reset, so regenerated files are read from the beginning. If the last
+ * argument is {@code compressed}, points are written in compressed form,
+ * which halves the size of the files at the cost of a square root per point
+ * when reading them back.
+ */
 public class EncryptionPrecomputer {
-    public static void main(String[] args) throws IOException {
-        Path outputFile = Paths.get(args[0]);
+    /**
+     * The prefix of the name of each shard file written into a directory.
+     */
+    public static final String SHARD_PREFIX = "shard-";
+
+    // The number of encryptions to normalize together before writing them out.
+    private static final int WRITE_BATCH_SIZE = 1024;
+    private static final int OUTPUT_BUFFER_SIZE = 1 << 20;
+    private static final long REPORT_INTERVAL_SECONDS = 10;
+
+    private EncryptionPrecomputer() {}
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 3) {
+            System.out.println("Usage: output secretKey count [workers] [shards] [compressed]");
+            System.exit(-1);
+        }
+        Path outputPath = Paths.get(args[0]);
         BigInteger secretKey = new BigInteger(args[1]);
-        int numEncryptions = Integer.parseInt(args[2]);
-        int threadCount = (args.length < 4 ? 0 : Integer.parseInt(args[3]));
+        long numEncryptions = Long.parseLong(args[2]);
+        int workerCount = (args.length < 4 ? Runtime.getRuntime().availableProcessors() : Integer.parseInt(args[3]));
+        int shardCount = (args.length < 5 ? 1 : Integer.parseInt(args[4]));
+        boolean compressed = (args.length >= 6 && args[5].equals("compressed"));
+        if (numEncryptions < 0 || workerCount < 1 || shardCount < 1)
+            throw new IllegalArgumentException("Counts must be positive");
 
-        EncryptionParams params = new EncryptionParams.Builder(new Random(1), CryptoConstants.CURVE,
-                CryptoConstants.DIGEST).normalizePoints().setEncryptorThreads(threadCount).forTesting().build();
+        EncryptionParams params = new EncryptionParams.Builder(CryptoConstants.buildPrng(), CryptoConstants.CURVE,
+                CryptoConstants.DIGEST).forTesting().build();
+        ECPoint publicKey = params.multiplyFixed(params.getGenerator(), secretKey).normalize();
+        params.registerFixedBase(publicKey);
 
-        System.out.println(secretKey);
-        ECPoint publicKey = params.getGenerator().multiply(secretKey).normalize();
-        Encryptor encryptor = params.getEncryptor(publicKey);
+        List<Path> shardFiles = new ArrayList<>();
+        if (shardCount == 1) {
+            shardFiles.add(outputPath);
+        } else {
+            Files.createDirectories(outputPath);
+            int digits = Integer.toString(shardCount - 1).length();
+            for (int i = 0; i < shardCount; i++)
+                shardFiles.add(outputPath.resolve(SHARD_PREFIX + String.format("%0" + digits + "d", i)));
+        }
 
-        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(outputFile, StandardOpenOption.WRITE,
-                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.CREATE))) {
-            SerialHelpers.writeString(out, params.getCurveName());
-            SerialHelpers.writeECPoint(out, publicKey, false);
+        Stopwatch watch = Stopwatch.createStarted();
+        AtomicLong written = new AtomicLong();
+        ExecutorService executor = Executors.newFixedThreadPool(workerCount);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < shardCount; i++) {
+            Path shardFile = shardFiles.get(i);
+            long shardSize = numEncryptions / shardCount + (i < numEncryptions % shardCount ? 1 : 0);
+            futures.add(executor.submit(() -> {
+                _writeShard(shardFile, params, publicKey, shardSize, compressed, written);
+                return null;
+            }));
+        }
+        executor.shutdown();
 
-            Stopwatch watch = Stopwatch.createStarted();
-            for (int i = 0; i < numEncryptions; i++) {
-                ECPair encryption = encryptor.encryptZero();
-                SerialHelpers.writeECPair(out, encryption, false);
+        while (!executor.awaitTermination(REPORT_INTERVAL_SECONDS, TimeUnit.SECONDS))
+            _reportProgress(written.get(), numEncryptions, watch);
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                throw new RuntimeException("Failed to write stored encryptions", e.getCause());
             }
-            watch.stop();
-            System.out.println("Time taken: " + watch);
         }
+        watch.stop();
+        _reportProgress(written.get(), numEncryptions, watch);
+        System.out.println("Time taken: " + watch);
+    }
+
+    private static void _writeShard(Path shardFile, EncryptionParams params, ECPoint publicKey, long count,
+            boolean compressed, AtomicLong written) throws IOException {
+        FromFileEncryptor.resetCursor(shardFile);
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(shardFile, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.CREATE), OUTPUT_BUFFER_SIZE)) {
+            FromFileEncryptor.writeHeader(out, params, publicKey, count, compressed);
+
+            List<ECPair> batch = new ArrayList<>(WRITE_BATCH_SIZE);
+            for (long shardWritten = 0; shardWritten < count; shardWritten += batch.size()) {
+                batch.clear();
+                for (int i = 0; i < Math.min(WRITE_BATCH_SIZE, count - shardWritten); i++) {
+                    BigInteger r = params.getRandomIndex();
+                    batch.add(new ECPair(params.multiplyFixed(publicKey, r),
+                            params.multiplyFixed(params.getGenerator(), r)));
+                }
+                for (ECPair encryption : BatchNormalizer.normalizePairs(batch)) {
+                    SerialHelpers.writeECPair(out, encryption, compressed);
+                }
+                written.addAndGet(batch.size());
+            }
+        }
+    }
+
+    private static void _reportProgress(long written, long total, Stopwatch watch) {
+        double seconds = watch.elapsed(TimeUnit.MILLISECONDS) / 1000.0;
+        System.out.printf("Wrote %d of %d encryptions (%.0f per second)\n", written, total,
+                seconds > 0 ? written / seconds : 0.0);
     }
 }
@@ -118,14 +118,37 @@ public class SerialHelpers {
      * @throws IOException if there is a problem reading from {@code stream}.
      */
     public static ECPoint readECPoint(InputStream stream, EncryptionParams params) throws IOException {
+        return params.decodePoint(_readPointEncoding(stream));
+    }
+
+    /**
+     * Reads an {@code ECPoint} in the same format as
+     * {@link #readECPoint(InputStream, EncryptionParams) readECPoint}, but
+     * decodes it through
+     * {@link solidus.util.EncryptionParams#decodeInternedPoint(byte[])
+     * params.decodeInternedPoint}. This should be used for points that recur
+     * across many messages, such as bank and account keys, and not for
+     * ciphertexts or proof values, which would only push keys out of the
+     * cache.
+     *
+     * @param stream the {@code InputStream} from which to read.
+     * @param params the {@code EncryptionParams} used to decode the point.
+     * @return the shared, normalized instance of the read {@code ECPoint}
+     * @throws EOFException if there are not enough bytes in {@code stream}.
+     * @throws IOException if there is a problem reading from {@code stream}.
+     */
+    public static ECPoint readInternedECPoint(InputStream stream, EncryptionParams params) throws IOException {
+        return params.decodeInternedPoint(_readPointEncoding(stream));
+    }
+
+    private static byte[] _readPointEncoding(InputStream stream) throws IOException {
         int length = stream.read();
         if (length < 0) throw new EOFException();
 
         byte[] buffer = new byte[length];
         int bytesRead = stream.read(buffer);
         if (bytesRead < length) throw new EOFException();
-
-        return params.decodePoint(buffer);
+        return buffer;
     }
 
     /**
@@ -34,13 +34,16 @@ import solidus.state.pvorm.PvormUpdate;
 import solidus.trans.Transaction;
 import solidus.trans.TransactionHeader;
 import solidus.trans.TransactionRequest;
+import solidus.util.CanonicalKey;
 import solidus.util.Decryptor;
 import solidus.util.EncryptionParams;
 import solidus.util.Utils;
+import solidus.zkproofs.CommitmentPool;
 import solidus.zkproofs.MaxwellRangeProof;
 import solidus.zkproofs.PlaintextEqDisKeyProof;
 import solidus.zkproofs.PlaintextEqProof;
 import solidus.zkproofs.SchnorrSignature;
+import solidus.zkproofs.SigmaCommitment;
 
 /**
  * This class implements a local bank over which the current node has complete
@@ -70,11 +73,19 @@ public class LocalBank {
     private final BigInteger m_secretDecryptionKey;
 
     private final ECPoint m_publicEncKey;
+    private final CanonicalKey m_publicEncKeyId;
     private final ECPoint m_publicSigKey;
 
     private final OwnedPvorm m_pvorm;
     private final List<User> m_users;
 
+    // Commitments under the bank's encryption key, or null to compute every
+    // commitment inline.
+    private volatile CommitmentPool m_commitmentPool;
+    // The current pool if the bank closes it when it is replaced. Guarded by
+    // this.
+    private CommitmentPool m_ownedCommitmentPool;
+
     /**
      * Constructs a new local back using a PVORM of the specified size with the
      * given secret keys and populates it with the specified users, all with
@@ -110,7 +121,34 @@ public class LocalBank {
     public LocalBank(EncryptionParams params, int treeDepth, int bucketSize, int stashSize,
             BigInteger secretDecryptionKey, BigInteger secretSigningKey, List<User> users) {
         this(params, treeDepth, bucketSize, stashSize, secretDecryptionKey, secretSigningKey, users,
-                Utils.buildRepeatList(0L, users.size()));
+                Utils.buildRepeatList(0L, users.size()), null);
+    }
+
+    /**
+     * Constructs a new local bank as with
+     * {@link #LocalBank(EncryptionParams, int, int, int, BigInteger, BigInteger, List)},
+     * but encrypts the new PVORM in the given thread pool. The pool is only
+     * used during construction and is not shut down. If {@code executor} is
+     * {@code null}, the PVORM is encrypted in the calling thread.
+     *
+     * @param params The public parameter configuration
+     * @param treeDepth The depth of the PVORM tree (the root is depth 0), must
+     *            be in [1, 29].
+     * @param bucketSize The size of buckets in the PVORM.
+     * @param stashSize The size of the PVORM stash.
+     * @param secretDecryptionKey The decryption key to use for this bank.
+     * @param secretSigningKey The key to use when generating signatures.
+     * @param users The set of users at this bank.
+     * @param executor The thread pool in which to encrypt the PVORM, or
+     *            {@code null}.
+     * @throws IllegalArgumentException under the same circumstances as
+     *             {@link #LocalBank(EncryptionParams, int, int, int, BigInteger, BigInteger, List)}.
+     * @see solidus.state.pvorm.OwnedPvorm.Builder#setExecutor
+     */
+    public LocalBank(EncryptionParams params, int treeDepth, int bucketSize, int stashSize,
+            BigInteger secretDecryptionKey, BigInteger secretSigningKey, List<User> users, ExecutorService executor) {
+        this(params, treeDepth, bucketSize, stashSize, secretDecryptionKey, secretSigningKey, users,
+                Utils.buildRepeatList(0L, users.size()), executor);
     }
 
     /**
@@ -154,6 +192,35 @@ public class LocalBank {
      */
     public LocalBank(EncryptionParams params, int treeDepth, int bucketSize, int stashSize,
             BigInteger secretDecryptionKey, BigInteger secretSigningKey, List<User> users, List<Long> initBalances) {
+        this(params, treeDepth, bucketSize, stashSize, secretDecryptionKey, secretSigningKey, users, initBalances,
+                null);
+    }
+
+    /**
+     * (FOR TESTING ONLY) Constructs a new local bank with the specified
+     * starting balances as with
+     * {@link #LocalBank(EncryptionParams, int, int, int, BigInteger, BigInteger, List, List)},
+     * encrypting the new PVORM in the given thread pool. The pool is only used
+     * during construction and is not shut down.
+     *
+     * @param params The public parameter configuration
+     * @param treeDepth The depth of the PVORM tree (the root is depth 0), must
+     *            be in [1, 29].
+     * @param bucketSize The size of buckets in the PVORM.
+     * @param stashSize The size of the PVORM stash.
+     * @param secretDecryptionKey The decryption key to use for this bank.
+     * @param secretSigningKey The key to use when generating signatures.
+     * @param users The set of users at this bank.
+     * @param initBalances The initial balances of each user in the same order
+     *            as {@code users}.
+     * @param executor The thread pool in which to encrypt the PVORM, or
+     *            {@code null} to encrypt it in the calling thread.
+     * @throws IllegalArgumentException under the same circumstances as
+     *             {@link #LocalBank(EncryptionParams, int, int, int, BigInteger, BigInteger, List, List)}.
+     */
+    public LocalBank(EncryptionParams params, int treeDepth, int bucketSize, int stashSize,
+            BigInteger secretDecryptionKey, BigInteger secretSigningKey, List<User> users, List<Long> initBalances,
+            ExecutorService executor) {
         if (users.size() != initBalances.size())
             throw new IllegalArgumentException("Must provide the same number of users and balances");
         if (treeDepth < 1 || bucketSize < 0 || stashSize < 0)
@@ -166,19 +233,22 @@ public class LocalBank {
         m_secretSigningKey = secretSigningKey;
         m_secretDecryptionKey = secretDecryptionKey;
 
-        m_publicEncKey = m_params.getGenerator().multiply(m_secretDecryptionKey).normalize();
-        m_publicSigKey = m_params.getGenerator().multiply(m_secretSigningKey).normalize();
+        m_publicEncKey = m_params.multiplyFixed(m_params.getGenerator(), m_secretDecryptionKey).normalize();
+        m_publicEncKeyId = CanonicalKey.of(m_publicEncKey);
+        m_publicSigKey = m_params.multiplyFixed(m_params.getGenerator(), m_secretSigningKey).normalize();
 
         m_users = ImmutableList.copyOf(users);
+        m_commitmentPool = null;
+        m_ownedCommitmentPool = null;
 
         OwnedPvorm.Builder pvormBuilder = new OwnedPvorm.Builder(m_params, m_secretDecryptionKey, treeDepth, bucketSize,
                 stashSize);
 
         for (int i = 0; i < users.size(); i++) {
-            pvormBuilder.insert(users.get(i).getAccountKey(), initBalances.get(i));
+            pvormBuilder.insert(users.get(i).getCanonicalAccountKey(), initBalances.get(i));
         }
 
-        m_pvorm = pvormBuilder.build();
+        m_pvorm = pvormBuilder.setExecutor(executor).build();
     }
 
     /**
@@ -190,6 +260,16 @@ public class LocalBank {
         return m_publicEncKey;
     }
 
+    /**
+     * Gets the canonical form of this bank's public encryption key, which
+     * identifies the bank.
+     *
+     * @return the canonical public encryption key of this bank.
+     */
+    public CanonicalKey getPublicEncryptionKeyId() {
+        return m_publicEncKeyId;
+    }
+
     /**
      * Gets the public signature verification key for this bank.
      *
@@ -199,12 +279,70 @@ public class LocalBank {
         return m_publicSigKey;
     }
 
+    /**
+     * Returns the pool of precomputed proof commitments under this bank's
+     * public encryption key. Signatures, the proofs in transaction headers,
+     * and the rerandomization of each transaction value take their nonces
+     * from this pool. A new bank has no pool and computes every commitment
+     * inline until one is {@link #setCommitmentPool(CommitmentPool) set}.
+     *
+     * @return the commitment pool used by this bank, or {@code null} if there
+     *         is none.
+     */
+    public CommitmentPool getCommitmentPool() {
+        return m_commitmentPool;
+    }
+
+    /**
+     * Sets the pool of precomputed proof commitments used by this bank. The
+     * caller owns the pool and decides how many background threads it uses
+     * and whether it is loaded from a file. If the bank owns the pool it
+     * replaces, that pool is closed.
+     *
+     * @param pool the new commitment pool, or {@code null} to compute every
+     *            commitment inline.
+     * @throws IllegalArgumentException if {@code pool} is not for this bank's
+     *             public encryption key.
+     * @see #setCommitmentPool(CommitmentPool, boolean)
+     */
+    public void setCommitmentPool(CommitmentPool pool) {
+        setCommitmentPool(pool, false);
+    }
+
+    /**
+     * Sets the pool of precomputed proof commitments used by this bank, as
+     * with {@link #setCommitmentPool(CommitmentPool)}, and optionally hands
+     * ownership of it to the bank. The bank closes a pool it owns as soon as
+     * the pool is replaced, so its background threads do not outlive it.
+     *
+     * @param pool the new commitment pool, or {@code null} to compute every
+     *            commitment inline.
+     * @param ownsPool whether the bank should close {@code pool} once it is
+     *            replaced.
+     * @throws IllegalArgumentException if {@code pool} is not for this bank's
+     *             public encryption key.
+     */
+    public void setCommitmentPool(CommitmentPool pool, boolean ownsPool) {
+        if (pool != null && !pool.getKey().equals(m_publicEncKey))
+            throw new IllegalArgumentException("Commitment pool is not for this bank's encryption key.");
+
+        CommitmentPool replacedPool;
+        synchronized (this) {
+            replacedPool = m_ownedCommitmentPool;
+            m_commitmentPool = pool;
+            m_ownedCommitmentPool = (ownsPool ? pool : null);
+        }
+        // Proofs already running may still take from the replaced pool, which
+        // keeps handing out commitments after it is closed.
+        if (replacedPool != null && replacedPool != pool) replacedPool.close();
+    }
+
     /**
      * Gets a snapshot copy of the public {@link EncryptedPvorm} of this bank at
      * the current time. This returns a copy of the {@link EncryptedPvorm} that
-     * is no longer linked to this bank's internal state in any way. This method
-     * can also be quite expensive as it needs to copy the entire encrypted
-     * state of this bank.
+     * is no longer linked to this bank's internal state in any way. The copy
+     * shares structure with the bank's PVORM, so this takes constant time and
+     * later updates to either copy only the paths they touch.
      *
      * @return a copy of the current {@link EncryptedPvorm} of this bank.
      */
@@ -262,7 +400,7 @@ public class LocalBank {
 
         Decryptor decryptor = m_params.getDecryptor(m_secretDecryptionKey);
 
-        ECPoint sourceAccountKey = decryptor.decryptPoint(request.getSourceAccountCipher());
+        CanonicalKey sourceAccountKey = CanonicalKey.of(decryptor.decryptPoint(request.getSourceAccountCipher()));
         if (!m_pvorm.containsUser(sourceAccountKey)) throw new IllegalArgumentException("Unknown source user!");
 
         ECPair txValueCipher = request.getValueCipher();
@@ -278,24 +416,32 @@ public class LocalBank {
                 m_publicEncKey, m_secretDecryptionKey, executor);
 
         // Reencrypt the transaction value cipher so we know the randomness
-        // and prove that the reencryption was correct.
-        BigInteger r1 = m_params.getRandomIndex();
-        ECPair rerandValueCipher = new ECPair(m_params.getGenerator().multiply(BigInteger.valueOf(txValue))
-                .add(m_publicEncKey.multiply(r1)).normalize(), m_params.getGenerator().multiply(r1).normalize());
+        // and prove that the reencryption was correct. A commitment under our
+        // key is exactly the randomness of an encryption of zero.
+        CommitmentPool commitmentPool = m_commitmentPool;
+        SigmaCommitment r1Commitment = (commitmentPool == null
+                ? SigmaCommitment.generate(m_params, m_publicEncKey) : commitmentPool.take());
+        BigInteger r1 = r1Commitment.getNonce();
+        ECPair rerandValueCipher = new ECPair(
+                m_params.multiplyFixed(m_params.getGenerator(), BigInteger.valueOf(txValue))
+                        .add(r1Commitment.getKeyPoint(m_params, m_publicEncKey)).normalize(),
+                r1Commitment.getGeneratorPoint().normalize());
         Future<PlaintextEqProof> proofOfReRandomize = Utils.submitJob(() -> PlaintextEqProof.buildProof(m_params,
-                txValueCipher, rerandValueCipher, m_publicEncKey, m_secretDecryptionKey), executor);
+                txValueCipher, rerandValueCipher, m_publicEncKey, m_secretDecryptionKey, commitmentPool), executor);
 
         // Reencrypt the transaction value under the receiving bank's key with
         // known randomness
         // and prove that the reencryption was correct.
         BigInteger r2 = m_params.getRandomIndex();
-        ECPair reencValueCipher = new ECPair(m_params.getGenerator().multiply(BigInteger.valueOf(txValue))
-                .add(request.getDestBankKey().multiply(r2)).normalize(),
-                m_params.getGenerator().multiply(r2).normalize());
+        ECPair reencValueCipher = new ECPair(
+                m_params.multiplyFixed(m_params.getGenerator(), BigInteger.valueOf(txValue))
+                        .add(m_params.multiplyFixed(request.getDestBankKey(), r2)).normalize(),
+                m_params.multiplyFixed(m_params.getGenerator(), r2).normalize());
         Future<PlaintextEqDisKeyProof> proofOfReencryption = Utils
                 .submitJob(
                         () -> PlaintextEqDisKeyProof.buildProof(m_params, rerandValueCipher, reencValueCipher,
-                                m_publicEncKey, request.getDestBankKey(), BigInteger.valueOf(txValue), r1, r2),
+                                m_publicEncKey, request.getDestBankKey(), BigInteger.valueOf(txValue), r1, r2,
+                                commitmentPool),
                 executor);
 
         return new TransactionHeader(request, valueRangeProof, rerandValueCipher, reencValueCipher,
@@ -319,7 +465,7 @@ public class LocalBank {
      */
     public Transaction.SenderInfo sendTransaction(TransactionHeader header, ExecutorService executor) {
         TransactionRequest request = header.getRequest();
-        if (!request.getSourceBankKey().equals(m_publicEncKey)) {
+        if (!request.getSourceBankId().equals(m_publicEncKeyId)) {
             throw new IllegalArgumentException("Requests was not sending from this bank.");
         }
 
@@ -327,7 +473,8 @@ public class LocalBank {
                 request.getValueCipher().getY().negate());
         PvormUpdate update = m_pvorm.update(request.getSourceAccountCipher(), negatedTxValueCipher, true, executor);
 
-        SchnorrSignature signature = SchnorrSignature.sign(m_params, m_secretSigningKey, header, update);
+        SchnorrSignature signature = SchnorrSignature.sign(m_params, m_secretSigningKey, m_commitmentPool, header,
+                update);
 
         return new Transaction.SenderInfo(header, update, signature);
     }
@@ -348,7 +495,7 @@ public class LocalBank {
      *             public encryption key.
      */
     public Transaction.ReceiverInfo receiveTransaction(TransactionHeader header, ExecutorService executor) {
-        if (!header.getDestBankKey().equals(m_publicEncKey)) {
+        if (!header.getDestBankId().equals(m_publicEncKeyId)) {
             throw new IllegalArgumentException("Request was not directed to this bank.");
         }
 
@@ -377,7 +524,7 @@ public class LocalBank {
         }
 
         PvormUpdate update = m_pvorm.update(request.getDestAccountCipher(), reencValueCipher, false, executor);
-        SchnorrSignature signature = SchnorrSignature.sign(m_params, m_secretSigningKey, update);
+        SchnorrSignature signature = SchnorrSignature.sign(m_params, m_secretSigningKey, m_commitmentPool, update);
         return new Transaction.ReceiverInfo(update, signature);
     }
 }
@@ -21,6 +21,7 @@ package solidus.state;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.file.Path;
 import java.util.List;
 
 import org.bouncycastle.math.ec.ECPoint;
@@ -62,14 +63,32 @@ public class RemoteBank implements SerialWriter {
     }
 
     public static RemoteBank serialReadIn(InputStream inStream, EncryptionParams params) throws IOException {
-        ECPoint encryptionKey = SerialHelpers.readECPoint(inStream, params);
-        ECPoint sigVerKey = SerialHelpers.readECPoint(inStream, params);
+        return serialReadIn(inStream, params, null);
+    }
+
+    /**
+     * Reads a serialized bank, storing its PVORM in a memory-mapped file rather
+     * than on the heap if {@code pvormStorageFile} is not {@code null}.
+     *
+     * @param inStream The stream from which to read the bank.
+     * @param params The encryption parameters in use.
+     * @param pvormStorageFile The file in which to store the bank's PVORM or
+     *            {@code null} to store it on the heap.
+     * @return the bank read from {@code inStream}.
+     * @throws IOException if reading from {@code inStream} fails.
+     * @see solidus.state.pvorm.EncryptedPvorm#serialReadIn(InputStream,
+     *      EncryptionParams, Path)
+     */
+    public static RemoteBank serialReadIn(InputStream inStream, EncryptionParams params, Path pvormStorageFile)
+            throws IOException {
+        ECPoint encryptionKey = SerialHelpers.readInternedECPoint(inStream, params);
+        ECPoint sigVerKey = SerialHelpers.readInternedECPoint(inStream, params);
         int numberOfUsers = SerialHelpers.readInt(inStream);
         ImmutableList.Builder<ECPoint> userKeysBuilder = new ImmutableList.Builder<>();
         for (int i = 0; i < numberOfUsers; i++) {
-            userKeysBuilder.add(SerialHelpers.readECPoint(inStream, params));
+            userKeysBuilder.add(SerialHelpers.readInternedECPoint(inStream, params));
         }
-        EncryptedPvorm pvorm = EncryptedPvorm.serialReadIn(inStream, params);
+        EncryptedPvorm pvorm = EncryptedPvorm.serialReadIn(inStream, params, pvormStorageFile);
 
         return new RemoteBank(encryptionKey, sigVerKey, userKeysBuilder.build(), pvorm);
     }
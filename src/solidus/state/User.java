@@ -21,7 +21,9 @@ package solidus.state;
 import org.bouncycastle.math.ec.ECPoint;
 
 import solidus.trans.TransactionRequest;
+import solidus.util.CanonicalKey;
 import solidus.util.EncryptionParams;
+import solidus.zkproofs.CommitmentPool;
 
 import java.math.BigInteger;
 
@@ -33,22 +35,46 @@ public class User {
     private final ECPoint m_hostBankPublicKey;
 
     private final BigInteger m_secretKey;
-    private final ECPoint m_accountKey;
+    private final CanonicalKey m_accountKey;
+
+    private final CommitmentPool m_commitmentPool;
 
     public User(EncryptionParams params, ECPoint hostBankPublicKey, BigInteger secretKey) {
+        this(params, hostBankPublicKey, secretKey, null);
+    }
+
+    /**
+     * Constructs a user that builds its transaction requests with commitments
+     * taken from {@code commitmentPool}, which should be for the host bank's
+     * public key.
+     *
+     * @param params the public parameter configuration.
+     * @param hostBankPublicKey the encryption key of the user's bank.
+     * @param secretKey the user's secret signing key.
+     * @param commitmentPool the pool to take commitments from, or
+     *            {@code null} to generate them inline.
+     */
+    public User(EncryptionParams params, ECPoint hostBankPublicKey, BigInteger secretKey,
+            CommitmentPool commitmentPool) {
         m_params = params;
         m_hostBankPublicKey = hostBankPublicKey;
 
         m_secretKey = secretKey;
-        m_accountKey = params.getGenerator().multiply(secretKey).normalize();
+        m_accountKey = CanonicalKey.of(params.multiplyFixed(params.getGenerator(), secretKey));
+
+        m_commitmentPool = commitmentPool;
     }
 
     public TransactionRequest buildTransactionRequest(ECPoint destBank, ECPoint destAccount, long value) {
         return TransactionRequest.buildRequest(m_params, m_hostBankPublicKey, destBank, destAccount, value,
-                m_secretKey);
+                m_secretKey, m_commitmentPool);
     }
 
     public ECPoint getAccountKey() {
+        return m_accountKey.getPoint();
+    }
+
+    public CanonicalKey getCanonicalAccountKey() {
         return m_accountKey;
     }
 
@@ -0,0 +1,57 @@
+/*
+ * Solidus - Confidential Distributed Ledger Transactions via PVORM
+ *
+ * Copyright 2016-2017 Ethan Cecchetti, Fan Zhang and Yan Ji
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package solidus.state.pvorm;
+
+import solidus.state.pvorm.EncryptedPvorm.Block;
+
+/**
+ * The storage behind an {@link solidus.state.pvorm.EncryptedPvorm
+ * EncryptedPvorm}. Blocks are addressed by bucket and position in the bucket,
+ * with the temp bucket and stash at their usual indices.
+ *
+ * Implementations must allow {@code getBlock} to be called from several
+ * threads at once, but need not allow writes concurrently with any other
+ * access.
+ */
+/* default */ interface BlockStore extends AutoCloseable {
+    public int getBucketCount();
+
+    public int getBucketCapacity(int bucketIndex);
+
+    /**
+     * Returns the block at the given position or {@code null} if nothing has
+     * been written there yet.
+     */
+    public Block getBlock(int bucketIndex, int blockIndex);
+
+    public void setBlock(int bucketIndex, int blockIndex, Block block);
+
+    /**
+     * Returns an independent copy of this store. Writes to either store are
+     * not visible in the other.
+     */
+    public BlockStore copy();
+
+    /**
+     * Releases any resources held outside of the heap. The store must not be
+     * used after it is closed. By default this does nothing.
+     */
+    @Override
+    public default void close() {}
+}
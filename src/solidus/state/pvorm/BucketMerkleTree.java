@@ -0,0 +1,182 @@
+/*
+ * Solidus - Confidential Distributed Ledger Transactions via PVORM
+ *
+ * Copyright 2016-2017 Ethan Cecchetti, Fan Zhang and Yan Ji
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package solidus.state.pvorm;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.util.BitSet;
+
+import org.bouncycastle.math.ec.ECPoint;
+
+import solidus.state.pvorm.EncryptedPvorm.Block;
+import solidus.util.CryptoConstants;
+
+/**
+ * A Merkle tree over the buckets of an encrypted PVORM, giving a short digest
+ * of its entire contents that can be kept up to date as it changes.
+ *
+ * The tree has the same shape as the PVORM. The digest of each bucket covers
+ * the blocks in that bucket and the digests of its two children, so the
+ * digest of the stash covers the whole tree. The root digest then binds the
+ * stash digest to the temp block, the public key, and the dimensions of the
+ * PVORM. Digests are kept in one flat array in bucket order.
+ *
+ * Nothing is hashed until the root digest is first requested, which hashes
+ * every bucket once. After that, writes only mark their buckets dirty, and
+ * the next request rehashes the dirty buckets and their ancestors, which for
+ * an update is a few paths. Copies share the digest array until one of them
+ * needs to change it.
+ */
+/* default */ class BucketMerkleTree {
+    private static final byte ROOT_TAG = 0;
+    private static final byte BUCKET_TAG = 1;
+
+    private final BlockStore m_store;
+    private final int m_treeDepth;
+    private final ECPoint m_publicKey;
+    private final int m_bucketSize;
+    private final int m_stashSize;
+
+    private final MessageDigest m_digest;
+    private final int m_digestLength;
+
+    // The digest of bucket i is at offset i * m_digestLength. The temp bucket
+    // is hashed directly into the root, so index 0 is unused. This is null
+    // until the root digest is first requested.
+    private byte[] m_bucketDigests;
+    // Whether m_bucketDigests may be shared with a copy and must be copied
+    // before it is modified.
+    private boolean m_isShared;
+    private final BitSet m_dirtyBuckets;
+    private byte[] m_rootDigest;
+
+    /* default */ BucketMerkleTree(BlockStore store, int treeDepth, ECPoint publicKey, int bucketSize,
+            int stashSize) {
+        m_store = store;
+        m_treeDepth = treeDepth;
+        m_publicKey = publicKey;
+        m_bucketSize = bucketSize;
+        m_stashSize = stashSize;
+
+        m_digest = CryptoConstants.DIGEST.get();
+        m_digestLength = m_digest.getDigestLength();
+
+        m_bucketDigests = null;
+        m_isShared = false;
+        m_dirtyBuckets = new BitSet();
+        m_rootDigest = null;
+    }
+
+    /**
+     * Returns a tree over {@code store}, which must hold the same blocks as
+     * the store of this tree. Any digests already computed are shared.
+     */
+    /* default */ BucketMerkleTree copy(BlockStore store) {
+        BucketMerkleTree copy = new BucketMerkleTree(store, m_treeDepth, m_publicKey, m_bucketSize, m_stashSize);
+        if (m_bucketDigests != null) {
+            _refresh();
+            copy.m_bucketDigests = m_bucketDigests;
+            copy.m_rootDigest = m_rootDigest;
+            copy.m_isShared = true;
+            m_isShared = true;
+        }
+        return copy;
+    }
+
+    /**
+     * Records that a block in the given bucket has changed.
+     */
+    /* default */ void markDirty(int bucketIndex) {
+        if (m_bucketDigests == null) return;
+
+        m_rootDigest = null;
+        if (bucketIndex != PvormUtils.TEMP_BUCKET_INDEX) m_dirtyBuckets.set(bucketIndex);
+    }
+
+    /* default */ byte[] getRootDigest() {
+        if (m_bucketDigests == null) {
+            m_bucketDigests = new byte[m_store.getBucketCount() * m_digestLength];
+            m_dirtyBuckets.set(PvormUtils.STASH_INDEX, m_store.getBucketCount());
+        }
+        _refresh();
+
+        if (m_rootDigest == null) {
+            m_digest.update(ROOT_TAG);
+            m_digest.update(m_publicKey.getEncoded(true));
+            _updateInt(m_treeDepth);
+            _updateInt(m_bucketSize);
+            _updateInt(m_stashSize);
+            _updateBucket(PvormUtils.TEMP_BUCKET_INDEX);
+            m_digest.update(m_bucketDigests, PvormUtils.STASH_INDEX * m_digestLength, m_digestLength);
+            m_rootDigest = m_digest.digest();
+        }
+        return m_rootDigest.clone();
+    }
+
+    // Rehashes every dirty bucket and its ancestors. Children have larger
+    // indices than their parents, so hashing in decreasing order of index
+    // always hashes both children before the parent.
+    private void _refresh() {
+        if (m_dirtyBuckets.isEmpty()) return;
+        if (m_isShared) {
+            m_bucketDigests = m_bucketDigests.clone();
+            m_isShared = false;
+        }
+
+        final int firstLeaf = 1 << m_treeDepth;
+        int i = m_dirtyBuckets.length() - 1;
+        for (; i >= PvormUtils.STASH_INDEX; i = m_dirtyBuckets.previousSetBit(i - 1)) {
+            m_digest.update(BUCKET_TAG);
+            _updateBucket(i);
+            if (i < firstLeaf) m_digest.update(m_bucketDigests, 2 * i * m_digestLength, 2 * m_digestLength);
+            _digestInto(i);
+
+            if (i > PvormUtils.STASH_INDEX) m_dirtyBuckets.set(i >>> 1);
+        }
+        m_dirtyBuckets.clear();
+    }
+
+    private void _updateBucket(int bucketIndex) {
+        for (int j = 0; j < m_store.getBucketCapacity(bucketIndex); j++) {
+            Block block = m_store.getBlock(bucketIndex, j);
+            if (block == null) {
+                _updateInt(-1);
+            } else {
+                byte[] encoding = block.getDigestEncoding();
+                _updateInt(encoding.length);
+                m_digest.update(encoding);
+            }
+        }
+    }
+
+    private void _updateInt(int value) {
+        m_digest.update((byte) (value >>> 24));
+        m_digest.update((byte) (value >>> 16));
+        m_digest.update((byte) (value >>> 8));
+        m_digest.update((byte) value);
+    }
+
+    private void _digestInto(int bucketIndex) {
+        try {
+            m_digest.digest(m_bucketDigests, bucketIndex * m_digestLength, m_digestLength);
+        } catch (DigestException e) {
+            throw new IllegalStateException("Digest did not fit in its own length", e);
+        }
+    }
+}
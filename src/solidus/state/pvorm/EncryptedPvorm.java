@@ -22,14 +22,18 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.math.BigInteger;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Deque;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.function.ObjLongConsumer;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -40,6 +44,7 @@ import org.bouncycastle.math.ec.ECPoint;
 import solidus.io.SerialHelpers;
 import solidus.io.SerialWriter;
 import solidus.state.pvorm.PvormUpdate.Swap;
+import solidus.util.BatchNormalizer;
 import solidus.util.Decryptor;
 import solidus.util.EncryptionParams;
 import solidus.util.Encryptor;
@@ -55,20 +60,27 @@ import solidus.zkproofs.PlaintextEqProof;
  *
  * @author ethan@cs.cornell.edu
  */
-public class EncryptedPvorm implements SerialWriter {
+public class EncryptedPvorm implements SerialWriter, AutoCloseable {
+    // The number of blocks to normalize together when serializing.
+    private static final int SERIALIZATION_BATCH_SIZE = 256;
+    // The number of blocks decrypted together by decryptAll, and the number
+    // of decrypted batches that may wait for the consumer at once.
+    private static final int DECRYPTION_BATCH_SIZE = 512;
+    private static final int MAX_PENDING_DECRYPTION_BATCHES = 64;
+
     private final ECPoint m_publicKey;
 
     private final int m_treeDepth;
     private final int m_bucketSize;
     private final int m_stashSize;
 
-    private final List<OramBucket<Block>> m_buckets;
+    private final BlockStore m_store;
+    private final BucketMerkleTree m_merkleTree;
 
-    // Saves the most-recently-verified update as a ShadowPvorm to make it fast
-    // to apply the update. Because one update's verification relies on all
-    // previous updates, (successfully) verifying a new update will overwrite a
-    // previous one and prevent it from being applied without re-verifying.
-    private transient ShadowPvorm m_lastVerifiedShadowPvorm;
+    // Updates verified but not yet applied, oldest first, each as a
+    // ShadowPvorm layered on the one before it. An update's verification
+    // relies on all previous updates, so they can only be applied in order.
+    private transient Deque<ShadowPvorm> m_verifiedShadows;
 
     private EncryptedPvorm(Builder builder) {
         m_publicKey = builder.m_publicKey;
@@ -77,9 +89,23 @@ public class EncryptedPvorm implements SerialWriter {
         m_bucketSize = builder.m_bucketSize;
         m_stashSize = builder.m_stashSize;
 
-        m_buckets = ImmutableList.copyOf(builder.m_buckets);
+        m_store = builder.m_store;
+        m_merkleTree = new BucketMerkleTree(m_store, m_treeDepth, m_publicKey, m_bucketSize, m_stashSize);
+
+        m_verifiedShadows = new ArrayDeque<>();
+    }
+
+    private EncryptedPvorm(EncryptedPvorm pvorm, BlockStore store) {
+        m_publicKey = pvorm.m_publicKey;
+
+        m_treeDepth = pvorm.m_treeDepth;
+        m_bucketSize = pvorm.m_bucketSize;
+        m_stashSize = pvorm.m_stashSize;
+
+        m_store = store;
+        m_merkleTree = pvorm.m_merkleTree.copy(store);
 
-        m_lastVerifiedShadowPvorm = null;
+        m_verifiedShadows = new ArrayDeque<>();
     }
 
     public ECPoint getPublicKey() {
@@ -87,11 +113,28 @@ public class EncryptedPvorm implements SerialWriter {
     }
 
     public Block getBlock(int bucketIndex, int blockIndex) {
-        return m_buckets.get(bucketIndex).getBlock(blockIndex);
+        return m_store.getBlock(bucketIndex, blockIndex);
     }
 
     /* default */ void setBlock(int bucketIndex, int blockIndex, Block block) {
-        m_buckets.get(bucketIndex).set(blockIndex, block);
+        m_store.setBlock(bucketIndex, blockIndex, block);
+        m_merkleTree.markDirty(bucketIndex);
+    }
+
+    /**
+     * Returns a digest committing to the entire contents of this PVORM: every
+     * block, the public key, and the dimensions. Two PVORMs have the same root
+     * digest exactly when they are equal (up to collisions of the hash), so
+     * replicas can compare digests rather than blocks.
+     *
+     * The first call hashes every block. After that the digest is maintained
+     * incrementally, and a call following an update only rehashes the buckets
+     * along the paths the update touched.
+     *
+     * @return the root digest of a Merkle tree over the buckets of this PVORM.
+     */
+    public byte[] getRootDigest() {
+        return m_merkleTree.getRootDigest();
     }
 
     /**
@@ -119,7 +162,8 @@ public class EncryptedPvorm implements SerialWriter {
      * verifyUpdate()}, if the verification succeeds, the update is saved and
      * can be applied immediately. If a future update is verified before
      * applying this one, this update will need to be re-verified in order to
-     * apply it.
+     * apply it. This also discards any updates queued with
+     * {@link #verifyChained(PvormUpdate, ExecutorService) verifyChained}.
      *
      * @param update The {@link solidus.state.pvorm.PvormUpdate PvormUpdate} to
      *            verify.
@@ -129,12 +173,44 @@ public class EncryptedPvorm implements SerialWriter {
      * @see #verifyUpdate(PvormUpdate)
      */
     public boolean verifyUpdate(PvormUpdate update, ExecutorService executor) {
+        discardVerifiedUpdates();
+        if (!verifyChained(update, executor)) return false;
+
+        if (m_verifiedShadows.getFirst().awaitResult()) {
+            return true;
+        } else {
+            discardVerifiedUpdates();
+            return false;
+        }
+    }
+
+    /**
+     * Starts verifying the specified {@link solidus.state.pvorm.PvormUpdate
+     * PvormUpdate} as it would be applied after every update already queued by
+     * this method and not yet applied or discarded, and returns without
+     * waiting for the proofs. The update's changes are layered on those of the
+     * updates before it, so a whole backlog of updates to this PVORM can be
+     * verified concurrently in {@code executor}. Queued updates are applied
+     * in order with {@link #applyNextVerifiedUpdate()}.
+     *
+     * @param update The {@link solidus.state.pvorm.PvormUpdate PvormUpdate} to
+     *            verify.
+     * @param executor The {@code ExecutorService} to use to execute the
+     *            verification tasks. If {@code null}, they run in this thread
+     *            before this method returns.
+     * @return {@code false} if the update is malformed for this PVORM and was
+     *         not queued, {@code true} if it was queued.
+     */
+    public boolean verifyChained(PvormUpdate update, ExecutorService executor) {
         if (!update.isValidPvormSize(m_treeDepth, m_bucketSize, m_stashSize)) return false;
         if (!update.getPublicKey().equals(m_publicKey)) return false;
 
-        ShadowPvorm shadowPvorm = new ShadowPvorm();
-        List<Future<Boolean>> verificationList = new ArrayList<>();
-        Block tempBlock = getBlock(PvormUtils.TEMP_BUCKET_INDEX, 0);
+        // Every swap writes one slot, and the final temp block writes one more.
+        int writeCount = update.getPreUpdateSwaps().size() + update.getPostUpdateSwaps().size() + 1;
+
+        ShadowPvorm shadowPvorm = new ShadowPvorm(m_verifiedShadows.peekLast(), writeCount);
+        List<Future<Boolean>> verificationList = shadowPvorm.m_verifications;
+        Block tempBlock = shadowPvorm.getBlock(PvormUtils.TEMP_BUCKET_INDEX, 0);
         for (Swap swap : update.getPreUpdateSwaps()) {
             verificationList.add(_scheduleVerification(swap, tempBlock, shadowPvorm, executor));
             tempBlock = swap.getPostSwapTemp();
@@ -165,12 +241,8 @@ public class EncryptedPvorm implements SerialWriter {
 
         shadowPvorm.setBlock(PvormUtils.TEMP_BUCKET_INDEX, 0, tempBlock);
 
-        if (verificationList.stream().allMatch(Utils::getFuture)) {
-            m_lastVerifiedShadowPvorm = shadowPvorm;
-            return true;
-        } else {
-            return false;
-        }
+        m_verifiedShadows.addLast(shadowPvorm);
+        return true;
     }
 
     private Future<Boolean> _scheduleVerification(Swap swap, Block tempBlock, ShadowPvorm shadowPvorm,
@@ -179,25 +251,88 @@ public class EncryptedPvorm implements SerialWriter {
         return Utils.submitJob(new SwapVerifier(tempBlock, inPvormBlock, m_publicKey, swap), executor);
     }
 
+    /**
+     * Returns the number of updates queued by
+     * {@link #verifyChained(PvormUpdate, ExecutorService) verifyChained} that
+     * have been neither applied nor discarded.
+     *
+     * @return the number of pending verified updates.
+     */
+    public int getPendingVerificationCount() {
+        return m_verifiedShadows.size();
+    }
+
+    /**
+     * Waits for the oldest queued update to finish verifying and applies it if
+     * it is valid. If it is invalid, it and every update queued after it are
+     * discarded, since those were verified on top of its changes.
+     *
+     * @return {@code true} if the update was valid and applied, {@code false}
+     *         if the queue was discarded.
+     * @throws IllegalStateException If no update is queued.
+     */
+    public boolean applyNextVerifiedUpdate() {
+        ShadowPvorm shadowPvorm = m_verifiedShadows.peekFirst();
+        if (shadowPvorm == null) throw new IllegalStateException("No unapplied verified update");
+
+        if (!shadowPvorm.awaitResult()) {
+            discardVerifiedUpdates();
+            return false;
+        }
+
+        m_verifiedShadows.removeFirst();
+        shadowPvorm.flushUpdates();
+        // The changes this shadow held are now in the store itself.
+        if (!m_verifiedShadows.isEmpty()) m_verifiedShadows.getFirst().m_parent = null;
+        return true;
+    }
+
+    /**
+     * Discards every update that has been verified but not applied, cancelling
+     * any of their verification tasks that have not started.
+     */
+    public void discardVerifiedUpdates() {
+        for (ShadowPvorm shadowPvorm : m_verifiedShadows) {
+            for (Future<Boolean> verification : shadowPvorm.m_verifications)
+                verification.cancel(false);
+        }
+        m_verifiedShadows.clear();
+    }
+
     /**
      * Applies the update most recently verified against this PVORM. Some update
-     * must have been successfully verified since the last application.
+     * must have been successfully verified since the last application. If
+     * several updates were queued with
+     * {@link #verifyChained(PvormUpdate, ExecutorService) verifyChained}, all
+     * of them are applied in order.
      *
      * @throws IllegalStateException If no update has been successfully verified
-     *             against this PVORM since the last update was applied.
+     *             against this PVORM since the last update was applied, or if a
+     *             queued update turns out to be invalid. In the latter case the
+     *             valid updates before it are still applied.
      */
     public void applyLastVerifiedUpdate() {
-        if (m_lastVerifiedShadowPvorm == null) throw new IllegalStateException("No unapplied verified update");
+        if (m_verifiedShadows.isEmpty()) throw new IllegalStateException("No unapplied verified update");
 
-        m_lastVerifiedShadowPvorm.flushUpdates();
-        m_lastVerifiedShadowPvorm = null;
+        while (!m_verifiedShadows.isEmpty()) {
+            if (!applyNextVerifiedUpdate()) throw new IllegalStateException("A queued update failed to verify");
+        }
     }
 
+    /**
+     * Applies the update directly to this PVORM without checking any of its
+     * proofs. Any verified updates that have not been applied are discarded.
+     *
+     * @param update The update to apply.
+     * @throws IllegalArgumentException If the update is for a different PVORM
+     *             size or public key.
+     */
     public void applyUpdateWithoutVerification(PvormUpdate update) {
         if (!update.isValidPvormSize(m_treeDepth, m_bucketSize, m_stashSize))
             throw new IllegalArgumentException("Update was for wrong-sized pvorm");
         if (!update.getPublicKey().equals(m_publicKey))
             throw new IllegalArgumentException("Update was encrypted with wrong public key");
+        discardVerifiedUpdates();
 
         Block tempBlock = getBlock(PvormUtils.TEMP_BUCKET_INDEX, 0);
         for (Swap swap : update.getPreUpdateSwaps()) {
@@ -215,7 +350,45 @@ public class EncryptedPvorm implements SerialWriter {
         setBlock(PvormUtils.TEMP_BUCKET_INDEX, 0, tempBlock);
     }
 
+    /**
+     * Decrypts every account in this PVORM into a map from account key to
+     * balance. For large PVORMs, prefer
+     * {@link #decryptAll(EncryptionParams, BigInteger, ExecutorService, ObjLongConsumer)}
+     * which can run in parallel and does not hold every account in memory.
+     *
+     * @param params The encryption parameters in use.
+     * @param secretKey The secret key corresponding to this PVORM's public key.
+     * @return a map from each account key to its balance.
+     * @throws IllegalArgumentException if {@code secretKey} does not match the
+     *             public key of this PVORM.
+     */
     public Map<ECPoint, Long> decryptAll(EncryptionParams params, BigInteger secretKey) {
+        ImmutableMap.Builder<ECPoint, Long> mapBuilder = ImmutableMap.builder();
+        decryptAll(params, secretKey, null, mapBuilder::put);
+        return mapBuilder.build();
+    }
+
+    /**
+     * Decrypts every account in this PVORM and passes each account key
+     * (normalized) and its balance to {@code consumer}.
+     *
+     * Blocks are decrypted in batches so that each batch costs a single field
+     * inversion for its account keys and one for its balances. If
+     * {@code executor} is not {@code null}, batches are decrypted in parallel
+     * in that pool with a bounded number outstanding at once. Either way,
+     * {@code consumer} is only ever invoked from the calling thread and sees
+     * accounts in the order they appear in the PVORM.
+     *
+     * @param params The encryption parameters in use.
+     * @param secretKey The secret key corresponding to this PVORM's public key.
+     * @param executor The thread pool in which to decrypt or {@code null} to
+     *            decrypt in the current thread.
+     * @param consumer The callback to receive each account key and balance.
+     * @throws IllegalArgumentException if {@code secretKey} does not match the
+     *             public key of this PVORM.
+     */
+    public void decryptAll(EncryptionParams params, BigInteger secretKey, ExecutorService executor,
+            ObjLongConsumer<ECPoint> consumer) {
         if (!params.getGenerator().multiply(secretKey).equals(m_publicKey)) {
             throw new IllegalArgumentException(
                     "Secret key and params did not correspond to public key for this pvorm.");
@@ -223,41 +396,155 @@ public class EncryptedPvorm implements SerialWriter {
 
         Decryptor decryptor = params.getDecryptor(secretKey);
 
-        ImmutableMap.Builder<ECPoint, Long> mapBuilder = ImmutableMap.builder();
-        for (OramBucket<Block> bucket : m_buckets) {
-            for (Block block : bucket) {
-                ECPoint accountKey = decryptor.decryptPoint(block.getEncryptedKey());
-                if (!accountKey.equals(params.getInfinity())) {
-                    mapBuilder.put(accountKey, decryptor.decryptBalance(block.getEncryptedBalance()));
+        Deque<Future<DecryptedBatch>> pendingBatches = new ArrayDeque<>();
+        List<Block> batch = new ArrayList<>(DECRYPTION_BATCH_SIZE);
+        for (int i = 0; i < m_store.getBucketCount(); i++) {
+            for (int j = 0; j < m_store.getBucketCapacity(i); j++) {
+                Block block = m_store.getBlock(i, j);
+                if (block == null) continue;
+
+                batch.add(block);
+                if (batch.size() == DECRYPTION_BATCH_SIZE) {
+                    final List<Block> fullBatch = batch;
+                    pendingBatches.add(Utils.submitJob(() -> _decryptBatch(fullBatch, decryptor), executor));
+                    batch = new ArrayList<>(DECRYPTION_BATCH_SIZE);
+
+                    if (pendingBatches.size() >= MAX_PENDING_DECRYPTION_BATCHES)
+                        Utils.getFuture(pendingBatches.remove()).forEach(consumer);
                 }
             }
         }
-        return mapBuilder.build();
+        if (!batch.isEmpty()) {
+            final List<Block> lastBatch = batch;
+            pendingBatches.add(Utils.submitJob(() -> _decryptBatch(lastBatch, decryptor), executor));
+        }
+
+        while (!pendingBatches.isEmpty())
+            Utils.getFuture(pendingBatches.remove()).forEach(consumer);
+    }
+
+    private static DecryptedBatch _decryptBatch(List<Block> blocks, Decryptor decryptor) {
+        List<ECPair> encryptedKeys = new ArrayList<>(blocks.size());
+        for (Block block : blocks)
+            encryptedKeys.add(block.getEncryptedKey());
+        ECPoint[] keys = decryptor.decryptPoints(encryptedKeys);
+
+        // Empty blocks encrypt the point at infinity and have no balance.
+        List<ECPoint> accountKeys = new ArrayList<>(blocks.size());
+        List<ECPair> encryptedBalances = new ArrayList<>(blocks.size());
+        for (int i = 0; i < keys.length; i++) {
+            if (!keys[i].isInfinity()) {
+                accountKeys.add(keys[i]);
+                encryptedBalances.add(blocks.get(i).getEncryptedBalance());
+            }
+        }
+        return new DecryptedBatch(accountKeys, decryptor.decryptBalances(encryptedBalances));
+    }
+
+    private static class DecryptedBatch {
+        private final List<ECPoint> m_accountKeys;
+        private final long[] m_balances;
+
+        private DecryptedBatch(List<ECPoint> accountKeys, long[] balances) {
+            m_accountKeys = accountKeys;
+            m_balances = balances;
+        }
+
+        private void forEach(ObjLongConsumer<ECPoint> consumer) {
+            for (int i = 0; i < m_balances.length; i++)
+                consumer.accept(m_accountKeys.get(i), m_balances[i]);
+        }
     }
 
+    /**
+     * Creates an independent copy of this PVORM held on the heap. Updates to
+     * either PVORM are not visible in the other. Any update verified but not
+     * yet applied to this PVORM is not carried over.
+     *
+     * If this PVORM is on the heap, the copy takes constant time and shares
+     * its blocks with this one. Each later update then copies only the parts
+     * of the tree it touches, so duplicates are cheap to use as snapshots. If
+     * this PVORM is stored in a file, every block must be read to copy it.
+     *
+     * @return a copy of this PVORM.
+     */
     public EncryptedPvorm duplicate() {
-        Builder builder = new Builder(m_publicKey, m_treeDepth, m_bucketSize, m_stashSize);
-        for (int i = 0; i < m_buckets.size(); i++) {
-            OramBucket<Block> bucket = m_buckets.get(i);
-            for (int j = 0; j < bucket.getCapacity(); j++) {
-                builder._setValue(i, j, bucket.getBlock(j));
+        return new EncryptedPvorm(this, m_store.copy());
+    }
+
+    /**
+     * Creates an independent copy of this PVORM stored in a memory-mapped file
+     * as described in
+     * {@link Builder#Builder(ECPoint, int, int, int, Path) Builder}.
+     *
+     * @param storageFile The file in which to store the copy. Any existing
+     *            file at this path is overwritten.
+     * @return a copy of this PVORM.
+     */
+    public EncryptedPvorm duplicate(Path storageFile) {
+        return duplicate(storageFile, Builder.DEFAULT_MAPPED_CACHE_BLOCKS);
+    }
+
+    /**
+     * Creates an independent copy of this PVORM stored in a memory-mapped file
+     * as described in
+     * {@link Builder#Builder(ECPoint, int, int, int, Path, int) Builder},
+     * caching the given number of decoded blocks.
+     *
+     * @param storageFile The file in which to store the copy. Any existing
+     *            file at this path is overwritten.
+     * @param cacheBlocks The number of decoded blocks to keep on the heap.
+     * @return a copy of this PVORM.
+     * @throws IllegalArgumentException if {@code cacheBlocks} is negative.
+     */
+    public EncryptedPvorm duplicate(Path storageFile, int cacheBlocks) {
+        Builder builder = new Builder(m_publicKey, m_treeDepth, m_bucketSize, m_stashSize, storageFile, cacheBlocks);
+        for (int i = 0; i < m_store.getBucketCount(); i++) {
+            for (int j = 0; j < m_store.getBucketCapacity(i); j++) {
+                Block block = m_store.getBlock(i, j);
+                if (block != null) builder._setValue(i, j, block);
             }
         }
         return builder.build();
     }
 
+    /**
+     * Releases the memory-mapped file behind this PVORM, if there is one. A
+     * PVORM on the heap holds nothing to release, so closing it does nothing.
+     * A PVORM stored in a file cannot be used after it is closed, though the
+     * file itself is left in place.
+     */
+    @Override
+    public void close() {
+        m_store.close();
+    }
+
     @Override
     public boolean equals(Object o) {
         if (o == this) return true;
         if (!(o instanceof EncryptedPvorm)) return false;
 
         EncryptedPvorm pvorm = (EncryptedPvorm) o;
-        return Objects.equals(m_publicKey, pvorm.m_publicKey) && Objects.equals(m_buckets, pvorm.m_buckets);
+        if (!Objects.equals(m_publicKey, pvorm.m_publicKey) || m_treeDepth != pvorm.m_treeDepth
+                || m_bucketSize != pvorm.m_bucketSize || m_stashSize != pvorm.m_stashSize)
+            return false;
+
+        for (int i = 0; i < m_store.getBucketCount(); i++) {
+            for (int j = 0; j < m_store.getBucketCapacity(i); j++) {
+                if (!Objects.equals(m_store.getBlock(i, j), pvorm.m_store.getBlock(i, j))) return false;
+            }
+        }
+        return true;
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(m_publicKey, m_buckets);
+        int hash = Objects.hash(m_publicKey, m_treeDepth, m_bucketSize, m_stashSize);
+        for (int i = 0; i < m_store.getBucketCount(); i++) {
+            for (int j = 0; j < m_store.getBucketCapacity(i); j++)
+                hash = 31 * hash + Objects.hashCode(m_store.getBlock(i, j));
+        }
+        return hash;
     }
 
     @Override
@@ -267,35 +554,63 @@ public class EncryptedPvorm implements SerialWriter {
         SerialHelpers.writeInt(outStream, m_bucketSize);
         SerialHelpers.writeInt(outStream, m_stashSize);
 
-        for (OramBucket<Block> bucket : m_buckets) {
-            if (!bucket.isFull())
-                throw new IllegalStateException("Cannot serialize EncryptedPvorm with non-full buckets");
-
-            for (Block block : bucket)
-                block.serialWriteOut(outStream, compressPoints);
+        // Normalize blocks in batches so each point encodes without its own
+        // field inversion.
+        List<Block> batch = new ArrayList<>(SERIALIZATION_BATCH_SIZE);
+        for (int i = 0; i < m_store.getBucketCount(); i++) {
+            for (int j = 0; j < m_store.getBucketCapacity(i); j++) {
+                Block block = m_store.getBlock(i, j);
+                if (block == null)
+                    throw new IllegalStateException("Cannot serialize EncryptedPvorm with non-full buckets");
+
+                batch.add(block);
+                if (batch.size() == SERIALIZATION_BATCH_SIZE)
+                    _writeBatch(outStream, batch, compressPoints);
+            }
         }
+        _writeBatch(outStream, batch, compressPoints);
+    }
+
+    private static void _writeBatch(OutputStream outStream, List<Block> batch, boolean compressPoints)
+            throws IOException {
+        for (Block block : Block.normalizeAll(batch))
+            block.serialWriteOut(outStream, compressPoints);
+        batch.clear();
     }
 
     public static EncryptedPvorm serialReadIn(InputStream inStream, EncryptionParams params) throws IOException {
-        ECPoint publicKey = SerialHelpers.readECPoint(inStream, params);
+        return serialReadIn(inStream, params, null);
+    }
+
+    /**
+     * Reads a serialized PVORM as with
+     * {@link #serialReadIn(InputStream, EncryptionParams) serialReadIn}, but
+     * stores it in a memory-mapped file rather than on the heap if
+     * {@code storageFile} is not {@code null}. Blocks are written to the file
+     * as they are read, so the whole PVORM is never on the heap at once.
+     *
+     * @param inStream The stream from which to read the PVORM.
+     * @param params The encryption parameters in use.
+     * @param storageFile The file in which to store the PVORM or {@code null}
+     *            to store it on the heap. Any existing file at this path is
+     *            overwritten.
+     * @return the PVORM read from {@code inStream}.
+     * @throws IOException if reading from {@code inStream} fails.
+     * @see Builder#Builder(ECPoint, int, int, int, Path)
+     */
+    public static EncryptedPvorm serialReadIn(InputStream inStream, EncryptionParams params, Path storageFile)
+            throws IOException {
+        ECPoint publicKey = SerialHelpers.readInternedECPoint(inStream, params);
         int treeDepth = SerialHelpers.readInt(inStream);
         int bucketSize = SerialHelpers.readInt(inStream);
         int stashSize = SerialHelpers.readInt(inStream);
 
-        EncryptedPvorm.Builder builder = new Builder(publicKey, treeDepth, bucketSize, stashSize);
+        EncryptedPvorm.Builder builder = (storageFile == null ? new Builder(publicKey, treeDepth, bucketSize, stashSize)
+                : new Builder(publicKey, treeDepth, bucketSize, stashSize, storageFile));
 
-        int totalBucketCount = _getTotalBucketCount(treeDepth);
+        int totalBucketCount = PvormUtils.getTotalBucketCount(treeDepth);
         for (int bucketIndex = 0; bucketIndex < totalBucketCount; bucketIndex++) {
-            final int thisBucketSize;
-            if (bucketIndex < PvormUtils.TEMP_BUCKET_INDEX)
-                thisBucketSize = 0;
-            else if (bucketIndex == PvormUtils.TEMP_BUCKET_INDEX)
-                thisBucketSize = PvormUtils.TEMP_BUCKET_SIZE;
-            else if (bucketIndex == PvormUtils.STASH_INDEX)
-                thisBucketSize = stashSize;
-            else
-                thisBucketSize = bucketSize;
-
+            final int thisBucketSize = PvormUtils.getBucketCapacity(bucketIndex, bucketSize, stashSize);
             for (int blockIndex = 0; blockIndex < thisBucketSize; blockIndex++) {
                 builder._setValue(bucketIndex, blockIndex, Block.serialReadIn(inStream, params));
             }
@@ -303,10 +618,6 @@ public class EncryptedPvorm implements SerialWriter {
         return builder.build();
     }
 
-    private static int _getTotalBucketCount(int treeDepth) {
-        return 1 << (treeDepth + 1) - 1 + PvormUtils.STASH_INDEX;
-    }
-
     /**
      * A single immutable block in the encrypted portion of a PVORM. A block
      * contains a pair of El Gamal ciphertexts: one for the account's public key
@@ -318,9 +629,23 @@ public class EncryptedPvorm implements SerialWriter {
         private final ECPair m_encryptedKey;
         private final ECPair m_encryptedBalance;
 
+        // Each block is hashed into the challenges of two swap proofs (once
+        // after it's written and once when it's read back out of its bucket),
+        // so the encoding is computed on first use and kept.
+        private volatile byte[] m_challengeEncoding;
+
         private Block(ECPair encryptedKey, ECPair encryptedBalance) {
+            this(encryptedKey, encryptedBalance, null);
+        }
+
+        /**
+         * Constructs a block whose challenge encoding is already known, as it
+         * is when the block is read from a mapped block store.
+         */
+        /* default */ Block(ECPair encryptedKey, ECPair encryptedBalance, byte[] challengeEncoding) {
             m_encryptedKey = encryptedKey;
             m_encryptedBalance = encryptedBalance;
+            m_challengeEncoding = challengeEncoding;
         }
 
         /**
@@ -365,10 +690,31 @@ public class EncryptedPvorm implements SerialWriter {
             return getEncryptedBalance();
         }
 
+        // Returns the challenge encoding without caching it, so that hashing
+        // every block of a PVORM does not keep an encoding of each one alive.
+        /* default */ byte[] getDigestEncoding() {
+            byte[] encoding = m_challengeEncoding;
+            return (encoding != null ? encoding
+                    : DoubleSwapProof.encodeForChallenge(m_encryptedKey, m_encryptedBalance));
+        }
+
+        @Override
+        public byte[] getChallengeEncoding() {
+            byte[] encoding = m_challengeEncoding;
+            if (encoding == null) {
+                encoding = DoubleSwapProof.encodeForChallenge(m_encryptedKey, m_encryptedBalance);
+                m_challengeEncoding = encoding;
+            }
+            return encoding;
+        }
+
         /**
          * Creates a new block that's ciphertexts are reencryptions of the
          * current block's ciphertext.
          *
+         * The points in the new block are normalized if and only if the
+         * encryptor is configured to normalize.
+         *
          * @param encryptor An {@link Encryptor} to use for the reencryption.
          * @return A new {@code Block} encrypting the same values.
          */
@@ -376,6 +722,24 @@ public class EncryptedPvorm implements SerialWriter {
             return new Block(encryptor.reencrypt(m_encryptedKey), encryptor.reencrypt(m_encryptedBalance));
         }
 
+        /**
+         * Reencrypts this block as {@link #reencrypt(Encryptor) reencrypt}
+         * does, but with encryptions of zero drawn in advance. This costs only
+         * point additions, so the expensive part of a reencryption can be done
+         * elsewhere before it is known which block is being reencrypted.
+         *
+         * The points in the new block are never normalized. Callers
+         * reencrypting many blocks should normalize them together with
+         * {@link #normalizeAll normalizeAll}.
+         *
+         * @param keyZero An encryption of zero to add to the account key.
+         * @param balanceZero An encryption of zero to add to the balance.
+         * @return A new {@code Block} encrypting the same values.
+         */
+        public Block reencrypt(ECPair keyZero, ECPair balanceZero) {
+            return new Block(_addCiphers(m_encryptedKey, keyZero), _addCiphers(m_encryptedBalance, balanceZero));
+        }
+
         /**
          * Constructs a new block with the same account ciphertext and balance
          * that homomorphically combines this block's balance ciphertext with
@@ -386,9 +750,34 @@ public class EncryptedPvorm implements SerialWriter {
          * @return A new {@code Block} with the updated balance ciphertext.
          */
         public Block updateBalance(ECPair balanceChange) {
-            ECPair newBalance = new ECPair(m_encryptedBalance.getX().add(balanceChange.getX()),
-                    m_encryptedBalance.getY().add(balanceChange.getY()));
-            return new Block(m_encryptedKey, newBalance);
+            return new Block(m_encryptedKey, _addCiphers(m_encryptedBalance, balanceChange));
+        }
+
+        /**
+         * Returns blocks equal to the given ones with all of their points
+         * normalized. All points are normalized together with a single field
+         * inversion, which is far cheaper than normalizing each block
+         * separately.
+         *
+         * @param blocks the blocks to normalize.
+         * @return a list of normalized blocks in the same order.
+         */
+        public static List<Block> normalizeAll(List<Block> blocks) {
+            List<ECPair> pairs = new ArrayList<>(2 * blocks.size());
+            for (Block block : blocks) {
+                pairs.add(block.m_encryptedKey);
+                pairs.add(block.m_encryptedBalance);
+            }
+            List<ECPair> normalizedPairs = BatchNormalizer.normalizePairs(pairs);
+
+            ImmutableList.Builder<Block> normalizedBuilder = ImmutableList.builder();
+            for (int i = 0; i < blocks.size(); i++)
+                normalizedBuilder.add(new Block(normalizedPairs.get(2 * i), normalizedPairs.get(2 * i + 1)));
+            return normalizedBuilder.build();
+        }
+
+        private static ECPair _addCiphers(ECPair cipher1, ECPair cipher2) {
+            return new ECPair(cipher1.getX().add(cipher2.getX()), cipher1.getY().add(cipher2.getY()));
         }
 
         @Override
@@ -430,6 +819,13 @@ public class EncryptedPvorm implements SerialWriter {
      * construct its own PVORM.
      */
     public static class Builder {
+        /**
+         * The number of decoded blocks a PVORM stored in a memory-mapped file
+         * keeps on the heap. This comfortably covers the paths touched by a
+         * single update.
+         */
+        public static final int DEFAULT_MAPPED_CACHE_BLOCKS = 1 << 12;
+
         private final ECPoint m_publicKey;
 
         private final int m_totalBlocks;
@@ -438,13 +834,60 @@ public class EncryptedPvorm implements SerialWriter {
         private final int m_bucketSize;
         private final int m_stashSize;
 
-        private final List<OramBucket<Block>> m_buckets;
+        private final BlockStore m_store;
 
         private int m_blocksSet;
 
         private boolean m_isBuilt;
 
         public Builder(ECPoint publicKey, int treeDepth, int bucketSize, int stashSize) {
+            this(publicKey, treeDepth, bucketSize, stashSize, new HeapBlockStore(treeDepth, bucketSize, stashSize));
+        }
+
+        /**
+         * Creates a builder for a PVORM whose blocks are stored off the heap in
+         * a memory-mapped file. Each block is kept in compressed form and only
+         * decoded when read, with a cache of
+         * {@link #DEFAULT_MAPPED_CACHE_BLOCKS} recently-used blocks. Updates
+         * write through to the file. This allows a node to track many large
+         * PVORMs with a small heap.
+         *
+         * The file is created (or overwritten) immediately. It only holds the
+         * state of this PVORM while it is in use and cannot be reopened later.
+         *
+         * @param publicKey The public key of the PVORM.
+         * @param treeDepth The depth of the PVORM tree.
+         * @param bucketSize The number of blocks in each bucket.
+         * @param stashSize The number of blocks in the stash.
+         * @param storageFile The file in which to store the blocks.
+         * @throws IllegalArgumentException if the file cannot be created.
+         */
+        public Builder(ECPoint publicKey, int treeDepth, int bucketSize, int stashSize, Path storageFile) {
+            this(publicKey, treeDepth, bucketSize, stashSize, storageFile, DEFAULT_MAPPED_CACHE_BLOCKS);
+        }
+
+        /**
+         * Creates a builder for a PVORM stored in a memory-mapped file as with
+         * {@link #Builder(ECPoint, int, int, int, Path)}, but caching the
+         * given number of decoded blocks rather than
+         * {@link #DEFAULT_MAPPED_CACHE_BLOCKS}.
+         *
+         * @param publicKey The public key of the PVORM.
+         * @param treeDepth The depth of the PVORM tree.
+         * @param bucketSize The number of blocks in each bucket.
+         * @param stashSize The number of blocks in the stash.
+         * @param storageFile The file in which to store the blocks.
+         * @param cacheBlocks The number of decoded blocks to keep on the heap.
+         * @throws IllegalArgumentException if the file cannot be created or
+         *             {@code cacheBlocks} is negative.
+         */
+        public Builder(ECPoint publicKey, int treeDepth, int bucketSize, int stashSize, Path storageFile,
+                int cacheBlocks) {
+            this(publicKey, treeDepth, bucketSize, stashSize, new MappedBlockStore(publicKey.getCurve(), treeDepth,
+                    bucketSize, stashSize, storageFile, cacheBlocks));
+        }
+
+        private Builder(ECPoint publicKey, int treeDepth, int bucketSize, int stashSize, BlockStore store) {
             m_publicKey = publicKey.normalize();
 
             // The number of non-stash buckets is 2^(treeDepth + 1) - 1
@@ -456,20 +899,7 @@ public class EncryptedPvorm implements SerialWriter {
             m_bucketSize = bucketSize;
             m_stashSize = stashSize;
 
-            ImmutableList.Builder<OramBucket<Block>> bucketsBuilder = ImmutableList.builder();
-            int bucketListLength = _getTotalBucketCount(treeDepth);
-            for (int i = 0; i < bucketListLength; i++) {
-                if (i < PvormUtils.TEMP_BUCKET_INDEX) {
-                    bucketsBuilder.add(new OramBucket<>(0));
-                } else if (i == PvormUtils.TEMP_BUCKET_INDEX) {
-                    bucketsBuilder.add(new OramBucket<>(PvormUtils.TEMP_BUCKET_SIZE));
-                } else if (i == PvormUtils.STASH_INDEX) {
-                    bucketsBuilder.add(new OramBucket<>(m_stashSize));
-                } else {
-                    bucketsBuilder.add(new OramBucket<>(m_bucketSize));
-                }
-            }
-            m_buckets = bucketsBuilder.build();
+            m_store = store;
 
             m_blocksSet = 0;
 
@@ -483,11 +913,11 @@ public class EncryptedPvorm implements SerialWriter {
         private Builder _setValue(int bucketIndex, int blockIndex, Block block) {
             if (m_isBuilt) throw new IllegalStateException("Cannot set EncryptedPvorm.Builder values after building.");
 
-            if (m_buckets.get(bucketIndex).isSet(blockIndex)) {
+            if (m_store.getBlock(bucketIndex, blockIndex) != null) {
                 throw new IllegalArgumentException(
                         "Cannot set the same block twice: (" + bucketIndex + "," + blockIndex + ")");
             }
-            m_buckets.get(bucketIndex).set(blockIndex, block);
+            m_store.setBlock(bucketIndex, blockIndex, block);
             m_blocksSet++;
             return this;
         }
@@ -528,38 +958,57 @@ public class EncryptedPvorm implements SerialWriter {
     /**
      * This class creates a copy-on-write style shadow PVORM that allows us to
      * "apply" updates during validation without requiring work for a rollback.
-     * All updates are inserted into an overlay map, and lookups hit the overlay
-     * map first and then fall back to the underlying PVORM.
+     * All updates are inserted into an overlay, and lookups hit the overlay
+     * first, then the overlays of the unapplied shadows below it, and then fall
+     * back to the underlying PVORM.
+     *
+     * The overlay is an open-addressing table keyed by the slot number of each
+     * written block. An update touches only a few paths, so the table is sized
+     * for the number of writes in the update and never grows.
      */
     private class ShadowPvorm {
-        private final Map<Integer, OramBucket<Block>> m_overwritten;
+        private static final int EMPTY_SLOT = -1;
+
+        // The unapplied shadow this one is layered on, or null if there is
+        // none and lookups fall back to the store directly.
+        private ShadowPvorm m_parent;
+
+        private final int[] m_slots;
+        private final int[] m_bucketIndices;
+        private final int[] m_blockIndices;
+        private final Block[] m_blocks;
+        private final int m_hashShift;
+
+        private final List<Future<Boolean>> m_verifications;
+
+        private ShadowPvorm(ShadowPvorm parent, int maxWrites) {
+            m_parent = parent;
 
-        private ShadowPvorm() {
-            m_overwritten = new HashMap<>();
+            // Keep the table at most half full.
+            int capacity = Integer.highestOneBit(2 * Math.max(maxWrites, 1) - 1) << 1;
+            m_slots = new int[capacity];
+            Arrays.fill(m_slots, EMPTY_SLOT);
+            m_bucketIndices = new int[capacity];
+            m_blockIndices = new int[capacity];
+            m_blocks = new Block[capacity];
+            m_hashShift = Integer.numberOfLeadingZeros(capacity) + 1;
+
+            m_verifications = new ArrayList<>();
         }
 
         /**
          * Returns the block associated with the given location. If the location
-         * has been overwritten in this shadow PVORM, it will be the
-         * most-recently-written value. Otherwise it will be the block in the
-         * underlying PVORM.
+         * has been overwritten in this shadow PVORM or one below it, it will be
+         * the most-recently-written value. Otherwise it will be the block in
+         * the underlying PVORM.
          */
         public Block getBlock(int bucketIndex, int blockIndex) {
-            OramBucket<Block> dirtyBucket = m_overwritten.get(bucketIndex);
-            Block dirtyBlock = null;
-            // If we've overwritten anything in the bucket, try to pull this
-            // block out.
-            if (dirtyBucket != null) {
-                dirtyBlock = dirtyBucket.getBlock(blockIndex);
-            }
-
-            // Even if something in the bucket was overwritten, this block may
-            // not have been, so always check and pull the block from the
-            // underlying PVORM if needed.
-            if (dirtyBlock == null) {
-                dirtyBlock = EncryptedPvorm.this.getBlock(bucketIndex, blockIndex);
+            int slot = PvormUtils.getBlockSlot(bucketIndex, blockIndex, m_bucketSize, m_stashSize);
+            for (ShadowPvorm shadow = this; shadow != null; shadow = shadow.m_parent) {
+                int position = shadow._find(slot);
+                if (shadow.m_slots[position] == slot) return shadow.m_blocks[position];
             }
-            return dirtyBlock;
+            return EncryptedPvorm.this.getBlock(bucketIndex, blockIndex);
         }
 
         /**
@@ -568,33 +1017,43 @@ public class EncryptedPvorm implements SerialWriter {
          * that.
          */
         public void setBlock(int bucketIndex, int blockIndex, Block block) {
-            OramBucket<Block> dirtyBucket = m_overwritten.get(bucketIndex);
-            if (dirtyBucket == null) {
-                int bucketSize = (bucketIndex == PvormUtils.STASH_INDEX ? m_stashSize : m_bucketSize);
-                dirtyBucket = new OramBucket<Block>(bucketSize);
-                m_overwritten.put(bucketIndex, dirtyBucket);
+            int slot = PvormUtils.getBlockSlot(bucketIndex, blockIndex, m_bucketSize, m_stashSize);
+            int position = _find(slot);
+            if (m_slots[position] == EMPTY_SLOT) {
+                m_slots[position] = slot;
+                m_bucketIndices[position] = bucketIndex;
+                m_blockIndices[position] = blockIndex;
             }
+            m_blocks[position] = block;
+        }
 
-            dirtyBucket.set(blockIndex, block);
+        /**
+         * Waits for every verification task of this shadow's update and
+         * returns whether they all succeeded.
+         */
+        public boolean awaitResult() {
+            return m_verifications.stream().allMatch(Utils::getFuture);
         }
 
         /**
          * Flushes all pending updates to the underlying PVORM. This will
-         * actually modify the underlying PVORM and clean out the overlay table
-         * in this shadow object.
+         * actually modify the underlying PVORM, so it must only be called on
+         * the oldest unapplied shadow.
          */
         public void flushUpdates() {
-            for (Map.Entry<Integer, OramBucket<Block>> indexAndBucket : m_overwritten.entrySet()) {
-                int bucketIndex = indexAndBucket.getKey();
-                OramBucket<Block> bucket = indexAndBucket.getValue();
-
-                for (int blockIndex = 0; blockIndex < bucket.getCapacity(); blockIndex++) {
-                    if (bucket.isSet(blockIndex)) {
-                        m_buckets.get(bucketIndex).set(blockIndex, bucket.getBlock(blockIndex));
-                    }
-                }
+            for (int i = 0; i < m_slots.length; i++) {
+                if (m_slots[i] != EMPTY_SLOT)
+                    EncryptedPvorm.this.setBlock(m_bucketIndices[i], m_blockIndices[i], m_blocks[i]);
+            }
+        }
+
+        // Returns the position of the slot in the table, or of the empty
+        // position where it would be inserted.
+        private int _find(int slot) {
+            int mask = m_slots.length - 1;
+            for (int i = (slot * 0x9e3779b9) >>> m_hashShift;; i = (i + 1) & mask) {
+                if (m_slots[i] == slot || m_slots[i] == EMPTY_SLOT) return i;
             }
-            m_overwritten.clear();
         }
     }
 }
@@ -0,0 +1,149 @@
+/*
+ * Solidus - Confidential Distributed Ledger Transactions via PVORM
+ *
+ * Copyright 2016-2017 Ethan Cecchetti, Fan Zhang and Yan Ji
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package solidus.state.pvorm;
+
+import solidus.state.pvorm.EncryptedPvorm.Block;
+
+/**
+ * A {@link BlockStore} holding every block on the heap in a persistent
+ * (structurally shared) tree, so that copies take constant time.
+ *
+ * Blocks are kept in the leaves of a trie with {@value #WIDTH} children per
+ * node, indexed by their slot in the PVORM. Every node records the store that
+ * may modify it in place. {@link #copy()} gives both the original and the copy
+ * new identities, so every existing node becomes shared and is read-only to
+ * both. A write then replaces the nodes on the path to its slot that the
+ * writer does not own with copies that it does. Each update to a copied store
+ * therefore allocates only the few nodes along the paths it touches, while
+ * the untouched remainder of the tree stays shared.
+ */
+/* default */ class HeapBlockStore implements BlockStore {
+    private static final int BITS_PER_LEVEL = 5;
+    private static final int WIDTH = 1 << BITS_PER_LEVEL;
+    private static final int MASK = WIDTH - 1;
+
+    private final int m_bucketSize;
+    private final int m_stashSize;
+    private final int m_bucketCount;
+
+    // The shift that selects the child of the root. Leaves are at shift 0.
+    private final int m_rootShift;
+
+    private Node m_root;
+    private Object m_owner;
+
+    /* default */ HeapBlockStore(int treeDepth, int bucketSize, int stashSize) {
+        m_bucketSize = bucketSize;
+        m_stashSize = stashSize;
+        m_bucketCount = PvormUtils.getTotalBucketCount(treeDepth);
+
+        int totalBlocks = PvormUtils.getBlockSlot(m_bucketCount, 0, m_bucketSize, m_stashSize);
+        int shift = 0;
+        while (shift + BITS_PER_LEVEL < Integer.SIZE && (totalBlocks - 1) >>> (shift + BITS_PER_LEVEL) != 0)
+            shift += BITS_PER_LEVEL;
+        m_rootShift = shift;
+
+        m_owner = new Object();
+        m_root = new Node(m_owner);
+    }
+
+    private HeapBlockStore(HeapBlockStore store) {
+        m_bucketSize = store.m_bucketSize;
+        m_stashSize = store.m_stashSize;
+        m_bucketCount = store.m_bucketCount;
+        m_rootShift = store.m_rootShift;
+
+        m_owner = new Object();
+        m_root = store.m_root;
+    }
+
+    @Override
+    public int getBucketCount() {
+        return m_bucketCount;
+    }
+
+    @Override
+    public int getBucketCapacity(int bucketIndex) {
+        return PvormUtils.getBucketCapacity(bucketIndex, m_bucketSize, m_stashSize);
+    }
+
+    @Override
+    public Block getBlock(int bucketIndex, int blockIndex) {
+        int slot = _checkedSlot(bucketIndex, blockIndex);
+        Node node = m_root;
+        for (int shift = m_rootShift; shift > 0 && node != null; shift -= BITS_PER_LEVEL)
+            node = (Node) node.m_children[(slot >>> shift) & MASK];
+        return (node == null ? null : (Block) node.m_children[slot & MASK]);
+    }
+
+    @Override
+    public void setBlock(int bucketIndex, int blockIndex, Block block) {
+        int slot = _checkedSlot(bucketIndex, blockIndex);
+        m_root = _editable(m_root);
+        Node node = m_root;
+        for (int shift = m_rootShift; shift > 0; shift -= BITS_PER_LEVEL) {
+            int index = (slot >>> shift) & MASK;
+            Node child = (Node) node.m_children[index];
+            child = (child == null ? new Node(m_owner) : _editable(child));
+            node.m_children[index] = child;
+            node = child;
+        }
+        node.m_children[slot & MASK] = block;
+    }
+
+    /**
+     * Returns a copy of this store in constant time. The two stores share all
+     * existing nodes and each copies only what it later writes.
+     */
+    @Override
+    public BlockStore copy() {
+        // Neither store may modify the nodes they now share.
+        m_owner = new Object();
+        return new HeapBlockStore(this);
+    }
+
+    private Node _editable(Node node) {
+        return (node.m_owner == m_owner ? node : new Node(m_owner, node.m_children.clone()));
+    }
+
+    private int _checkedSlot(int bucketIndex, int blockIndex) {
+        if (bucketIndex < 0 || bucketIndex >= m_bucketCount || blockIndex < 0
+                || blockIndex >= getBucketCapacity(bucketIndex))
+            throw new IndexOutOfBoundsException("No block " + blockIndex + " in bucket " + bucketIndex);
+        return PvormUtils.getBlockSlot(bucketIndex, blockIndex, m_bucketSize, m_stashSize);
+    }
+
+    /**
+     * A node of the trie. Children of interior nodes are nodes and children of
+     * leaves are blocks. Missing children are {@code null}.
+     */
+    private static class Node {
+        private final Object m_owner;
+        private final Object[] m_children;
+
+        private Node(Object owner) {
+            this(owner, new Object[WIDTH]);
+        }
+
+        private Node(Object owner, Object[] children) {
+            m_owner = owner;
+            m_children = children;
+        }
+    }
+}
@@ -0,0 +1,297 @@
+/*
+ * Solidus - Confidential Distributed Ledger Transactions via PVORM
+ *
+ * Copyright 2016-2017 Ethan Cecchetti, Fan Zhang and Yan Ji
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package solidus.state.pvorm;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.bouncycastle.crypto.ec.ECPair;
+import org.bouncycastle.math.ec.ECCurve;
+import org.bouncycastle.math.ec.ECPoint;
+
+import solidus.state.pvorm.EncryptedPvorm.Block;
+
+/**
+ * A {@link BlockStore} that keeps blocks off the heap in a memory-mapped file.
+ *
+ * Each block is stored as a fixed-width record of its four points in
+ * compressed form, so the file for a tree with {@code n} blocks is
+ * {@code n * 4 * (fieldBytes + 1)} bytes and a block's record is found by
+ * arithmetic on its position. The point at infinity is written as a single
+ * zero byte followed by padding. Blocks are decoded when read and writes go
+ * straight to the file. A small least-recently-used cache of decoded blocks
+ * holds the paths an update is working on, so that each block along them is
+ * decoded at most once.
+ *
+ * Blocks may be read from several threads at once. Each read decodes outside
+ * of any lock, so two threads that miss the cache on the same block may both
+ * decode it. Writes and {@link #close()} exclude all reads.
+ *
+ * The file is overwritten when the store is created and is only meaningful
+ * while the store is in use. Its contents are written back by the operating
+ * system and are not forced to disk. Closing the store unmaps the file
+ * immediately rather than waiting for the mappings to be garbage collected.
+ */
+/* default */ class MappedBlockStore implements BlockStore {
+    // Each mapping must be addressable by an int, so large trees are split
+    // across several mappings of this size (rounded down to whole records).
+    private static final int SEGMENT_SIZE = 1 << 30;
+    private static final int POINTS_PER_BLOCK = 4;
+
+    private final ECCurve m_curve;
+
+    private final int m_treeDepth;
+    private final int m_bucketSize;
+    private final int m_stashSize;
+    private final int m_bucketCount;
+
+    private final int m_pointSize;
+    private final int m_recordSize;
+    private final int m_recordsPerSegment;
+    private final MappedByteBuffer[] m_segments;
+
+    // Reads hold the read lock, while writes and closing hold the write lock.
+    // The cache has its own monitor so that reads can share it.
+    private final ReadWriteLock m_lock;
+    private final BitSet m_written;
+    private final Map<Integer, Block> m_cache;
+    private boolean m_isClosed;
+
+    /**
+     * Creates a new, empty store for a PVORM of the given shape in the given
+     * file. Any existing file at that path is overwritten.
+     *
+     * @throws IllegalArgumentException if the file cannot be created or
+     *             mapped, or if {@code cacheSize} is negative.
+     */
+    /* default */ MappedBlockStore(ECCurve curve, int treeDepth, int bucketSize, int stashSize, Path file,
+            int cacheSize) {
+        if (cacheSize < 0) throw new IllegalArgumentException("Cache size cannot be negative: " + cacheSize);
+        m_curve = curve;
+
+        m_treeDepth = treeDepth;
+        m_bucketSize = bucketSize;
+        m_stashSize = stashSize;
+        m_bucketCount = PvormUtils.getTotalBucketCount(treeDepth);
+
+        m_pointSize = (m_curve.getFieldSize() + 7) / 8 + 1;
+        m_recordSize = POINTS_PER_BLOCK * m_pointSize;
+        m_recordsPerSegment = SEGMENT_SIZE / m_recordSize;
+
+        int totalBlocks = PvormUtils.getBlockSlot(m_bucketCount, 0, m_bucketSize, m_stashSize);
+        m_segments = new MappedByteBuffer[(totalBlocks + m_recordsPerSegment - 1) / m_recordsPerSegment];
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (int i = 0; i < m_segments.length; i++) {
+                long records = Math.min(m_recordsPerSegment, totalBlocks - (long) i * m_recordsPerSegment);
+                m_segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, (long) i * m_recordsPerSegment
+                        * m_recordSize, records * m_recordSize);
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Could not map block store file " + file, e);
+        }
+
+        m_lock = new ReentrantReadWriteLock();
+        m_written = new BitSet(totalBlocks);
+        m_isClosed = false;
+        m_cache = new LinkedHashMap<Integer, Block>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Block> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    @Override
+    public int getBucketCount() {
+        return m_bucketCount;
+    }
+
+    @Override
+    public int getBucketCapacity(int bucketIndex) {
+        return PvormUtils.getBucketCapacity(bucketIndex, m_bucketSize, m_stashSize);
+    }
+
+    @Override
+    public Block getBlock(int bucketIndex, int blockIndex) {
+        int slot = _checkedSlot(bucketIndex, blockIndex);
+        m_lock.readLock().lock();
+        try {
+            _checkOpen();
+            if (!m_written.get(slot)) return null;
+
+            Block block;
+            synchronized (m_cache) {
+                block = m_cache.get(slot);
+            }
+            if (block == null) {
+                block = _readBlock(slot);
+                synchronized (m_cache) {
+                    m_cache.put(slot, block);
+                }
+            }
+            return block;
+        } finally {
+            m_lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void setBlock(int bucketIndex, int blockIndex, Block block) {
+        if (block == null) throw new IllegalArgumentException("Cannot clear a block in a mapped PVORM.");
+        int slot = _checkedSlot(bucketIndex, blockIndex);
+
+        m_lock.writeLock().lock();
+        try {
+            _checkOpen();
+            MappedByteBuffer segment = m_segments[slot / m_recordsPerSegment];
+            int offset = (slot % m_recordsPerSegment) * m_recordSize;
+            offset = _writePoint(segment, offset, block.getEncryptedKey().getX());
+            offset = _writePoint(segment, offset, block.getEncryptedKey().getY());
+            offset = _writePoint(segment, offset, block.getEncryptedBalance().getX());
+            _writePoint(segment, offset, block.getEncryptedBalance().getY());
+
+            m_written.set(slot);
+            synchronized (m_cache) {
+                m_cache.put(slot, block);
+            }
+        } finally {
+            m_lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns a copy of this store held on the heap. Unlike copies of heap
+     * stores, this must decode every block.
+     */
+    @Override
+    public BlockStore copy() {
+        HeapBlockStore copy = new HeapBlockStore(m_treeDepth, m_bucketSize, m_stashSize);
+        for (int i = 0; i < m_bucketCount; i++) {
+            for (int j = 0; j < getBucketCapacity(i); j++) {
+                Block block = getBlock(i, j);
+                if (block != null) copy.setBlock(i, j, block);
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Drops the cache and unmaps the file. Any later access to this store
+     * throws an {@code IllegalStateException}. Closing a closed store does
+     * nothing.
+     */
+    @Override
+    public void close() {
+        m_lock.writeLock().lock();
+        try {
+            if (m_isClosed) return;
+            m_isClosed = true;
+            synchronized (m_cache) {
+                m_cache.clear();
+            }
+            for (int i = 0; i < m_segments.length; i++) {
+                _unmap(m_segments[i]);
+                m_segments[i] = null;
+            }
+        } finally {
+            m_lock.writeLock().unlock();
+        }
+    }
+
+    private void _checkOpen() {
+        if (m_isClosed) throw new IllegalStateException("Cannot access a closed block store.");
+    }
+
+    private int _checkedSlot(int bucketIndex, int blockIndex) {
+        if (bucketIndex < 0 || bucketIndex >= m_bucketCount || blockIndex < 0
+                || blockIndex >= getBucketCapacity(bucketIndex))
+            throw new IndexOutOfBoundsException("No block " + blockIndex + " in bucket " + bucketIndex);
+        return PvormUtils.getBlockSlot(bucketIndex, blockIndex, m_bucketSize, m_stashSize);
+    }
+
+    private Block _readBlock(int slot) {
+        MappedByteBuffer segment = m_segments[slot / m_recordsPerSegment];
+        int offset = (slot % m_recordsPerSegment) * m_recordSize;
+        byte[] record = new byte[m_recordSize];
+        boolean hasInfinity = false;
+        for (int i = 0; i < m_recordSize; i++) {
+            record[i] = segment.get(offset + i);
+            if (i % m_pointSize == 0 && record[i] == 0) hasInfinity = true;
+        }
+
+        ECPoint[] points = new ECPoint[POINTS_PER_BLOCK];
+        for (int i = 0; i < POINTS_PER_BLOCK; i++) {
+            byte[] encoding = new byte[m_pointSize];
+            System.arraycopy(record, i * m_pointSize, encoding, 0, m_pointSize);
+            points[i] = (encoding[0] == 0 ? m_curve.getInfinity() : m_curve.decodePoint(encoding));
+        }
+
+        // Without any infinite points, the record is exactly the encoding the
+        // block would compute for swap proof challenges.
+        return new Block(new ECPair(points[0], points[1]), new ECPair(points[2], points[3]),
+                hasInfinity ? null : record);
+    }
+
+    private int _writePoint(MappedByteBuffer segment, int offset, ECPoint point) {
+        byte[] encoding = point.getEncoded(true);
+        if (encoding.length > m_pointSize)
+            throw new IllegalArgumentException("Point encoding does not fit in a block record.");
+        for (int i = 0; i < m_pointSize; i++)
+            segment.put(offset + i, i < encoding.length ? encoding[i] : 0);
+        return offset + m_pointSize;
+    }
+
+    // Java 8 only unmaps a buffer when it is garbage collected. Unmapping
+    // sooner uses Unsafe.invokeCleaner on Java 9 and later and the buffer's
+    // cleaner before that. Neither is public API, so if both fail the mapping
+    // is left for the garbage collector.
+    private static void _unmap(MappedByteBuffer buffer) {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field unsafeField = unsafeClass.getDeclaredField("theUnsafe");
+            unsafeField.setAccessible(true);
+            unsafeClass.getMethod("invokeCleaner", ByteBuffer.class).invoke(unsafeField.get(null), buffer);
+            return;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Fall back to the Java 8 cleaner below.
+        }
+        try {
+            Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            Object cleaner = cleanerMethod.invoke(buffer);
+            if (cleaner != null) cleaner.getClass().getMethod("clean").invoke(cleaner);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Leave the mapping for the garbage collector.
+        }
+    }
+}
@@ -19,11 +19,16 @@
 package solidus.state.pvorm;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Uninterruptibles;
 import org.bouncycastle.crypto.ec.ECPair;
 import org.bouncycastle.math.ec.ECPoint;
 
 import solidus.state.pvorm.PlaintextCircuitOram.BlockPosition;
 import solidus.util.AbstractEncryptor;
+import solidus.util.BatchNormalizer;
+import solidus.util.CanonicalKey;
+import solidus.util.DaemonThreadFactory;
 import solidus.util.Decryptor;
 import solidus.util.EncryptionParams;
 import solidus.util.Encryptor;
@@ -34,10 +39,19 @@ import solidus.zkproofs.MaxwellRangeProof;
 import solidus.zkproofs.PlaintextEqProof;
 
 import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.Iterator;
+import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 
 /**
@@ -51,6 +65,11 @@ import java.util.function.Consumer;
  * @author ethan@cs.cornell.edu
  */
 public class OwnedPvorm {
+    // The number of slots of a pass reencrypted together in one job. The
+    // blocks are not normalized by these jobs, so this only sets how finely
+    // the reencryption is spread across threads.
+    private static final int REENCRYPTION_CHUNK_SIZE = 8;
+
     private final EncryptionParams m_params;
 
     private final int m_treeDepth;
@@ -96,10 +115,18 @@ public class OwnedPvorm {
         return m_plainOram.containsUser(accountKey);
     }
 
+    public boolean containsUser(CanonicalKey accountKey) {
+        return m_plainOram.containsUser(accountKey);
+    }
+
     public long getBalance(ECPoint accountKey) {
         return m_plainOram.getBalance(accountKey);
     }
 
+    public long getBalance(CanonicalKey accountKey) {
+        return m_plainOram.getBalance(accountKey);
+    }
+
     public EncryptedPvorm getEncryptedPvorm() {
         return m_encryptedPvorm;
     }
@@ -165,13 +192,45 @@ public class OwnedPvorm {
      * @throws IllegalArgumentException If the specified account does not exist
      *             in this PVORM.
      * @see #update(ECPair, ECPair, boolean, ExecutorService)
+     * @see #newUpdatePipeline(ExecutorService, int)
      */
     public PvormUpdate update(final ECPair encryptedAccountKey, final ECPair encryptedBalanceChange,
             final boolean includeRangeProof, final ExecutorService executor) {
+        return _finishUpdate(_startUpdate(encryptedAccountKey, encryptedBalanceChange, includeRangeProof, executor),
+                executor);
+    }
+
+    /**
+     * Creates a pipeline that runs updates on this PVORM with up to
+     * {@code maxInFlight} of them in progress at once. While the pipeline is
+     * open, this PVORM should only be updated through it.
+     *
+     * @param executor The thread pool in which to generate proofs. Can be
+     *            {@code null}, in which case updates are generated entirely in
+     *            the calling thread and the pipeline gains nothing.
+     * @param maxInFlight The maximum number of updates whose proofs may be
+     *            outstanding at once.
+     * @return a new pipeline for updates to this PVORM.
+     * @throws IllegalArgumentException if {@code maxInFlight} is not positive.
+     * @see UpdatePipeline
+     */
+    public UpdatePipeline newUpdatePipeline(ExecutorService executor, int maxInFlight) {
+        if (maxInFlight < 1) throw new IllegalArgumentException("Pipeline must allow at least one update in flight.");
+        return new UpdatePipeline(executor, maxInFlight);
+    }
+
+    /**
+     * Performs the part of an update that must happen in order: moving the
+     * plaintext ORAM and the chain of reencryptions through the temp block.
+     * This leaves both halves of this PVORM in their updated states, while the
+     * proofs of the update may still be outstanding in {@code executor}.
+     */
+    private StartedUpdate _startUpdate(final ECPair encryptedAccountKey, final ECPair encryptedBalanceChange,
+            final boolean includeRangeProof, final ExecutorService executor) {
         final PvormUpdate.Builder updateBuilder = new PvormUpdate.Builder(m_treeDepth, m_bucketSize, m_stashSize,
                 m_publicKey);
 
-        final ECPoint accountKey = m_decryptor.decryptPoint(encryptedAccountKey);
+        final CanonicalKey accountKey = CanonicalKey.of(m_decryptor.decryptPoint(encryptedAccountKey));
         final long balanceChange = m_decryptor.decryptBalance(encryptedBalanceChange);
         final PlaintextCircuitOram.UpdateTranscript transcript = m_plainOram.update(accountKey, balanceChange);
 
@@ -189,14 +248,9 @@ public class OwnedPvorm {
         Future<PlaintextEqProof> accountKeyProof = Utils.submitJob(() -> PlaintextEqProof.buildProof(m_params,
                 updateBlockAccountKey, encryptedAccountKey, m_publicKey, m_secretKey), executor);
 
-        if (includeRangeProof) {
-            final ECPair encryptedBalance = tempBlock.getEncryptedBalance();
-            final long balance = m_decryptor.decryptBalance(encryptedBalance);
-
-            MaxwellRangeProof rangeProof = MaxwellRangeProof.buildProof(m_params, encryptedBalance, balance,
-                    m_publicKey, m_secretKey, executor);
-            updateBuilder.setMaxwellRangeProof(rangeProof);
-        }
+        // The range proof only depends on this ciphertext, so it is built when
+        // the update is finished, after the eviction proofs are queued.
+        final ECPair encryptedBalance = (includeRangeProof ? tempBlock.getEncryptedBalance() : null);
 
         // Evict
         for (PlaintextCircuitOram.Eviction eviction : transcript.getEvictions()) {
@@ -206,14 +260,57 @@ public class OwnedPvorm {
 
         m_encryptedPvorm.setBlock(PvormUtils.TEMP_BUCKET_INDEX, 0, tempBlock);
 
-        updateBuilder.setAccountKeyProof(Utils.getFuture(accountKeyProof));
+        return new StartedUpdate(updateBuilder, accountKeyProof, encryptedBalance);
+    }
+
+    /**
+     * Builds the range proof for a started update, if it needs one, and waits
+     * for all of its other proofs. This reads no state of the PVORM, so it can
+     * run while later updates are started.
+     */
+    private PvormUpdate _finishUpdate(StartedUpdate started, ExecutorService executor) {
+        if (started.m_encryptedBalance != null) {
+            final long balance = m_decryptor.decryptBalance(started.m_encryptedBalance);
+
+            MaxwellRangeProof rangeProof = MaxwellRangeProof.buildProof(m_params, started.m_encryptedBalance, balance,
+                    m_publicKey, m_secretKey, executor);
+            started.m_updateBuilder.setMaxwellRangeProof(rangeProof);
+        }
 
-        return updateBuilder.build();
+        started.m_updateBuilder.setAccountKeyProof(Utils.getFuture(started.m_accountKeyProof));
+
+        return started.m_updateBuilder.build();
     }
 
+    /**
+     * Swaps the temp block with every slot in the stash and along the path to
+     * {@code leafId}, really swapping only at {@code realSwaps}. Only the chain
+     * of temp blocks is sequential, and it needs nothing but point additions
+     * once the encryptions of zero are known. So this draws the encryptions of
+     * zero and reencrypts every block that does not depend on the chain in
+     * parallel, resolves the chain in this thread, and then normalizes every
+     * new block of the pass together with a single field inversion before
+     * queuing the proofs.
+     */
     private EncryptedPvorm.Block _performAllSwaps(EncryptedPvorm.Block tempBlock, int leafId,
             Iterable<BlockPosition> realSwaps, ExecutorService executor,
             Consumer<Future<PvormUpdate.Swap>> swapConsumer) {
+        final List<PendingSwap> pendingSwaps = _listSwaps(leafId, realSwaps);
+
+        final List<List<PendingSwap>> chunks = Lists.partition(pendingSwaps, REENCRYPTION_CHUNK_SIZE);
+        _runOnChunks(chunks, this::_reencryptIndependent, executor);
+
+        EncryptedPvorm.Block chainedTempBlock = tempBlock;
+        for (PendingSwap swap : pendingSwaps) {
+            chainedTempBlock = swap.resolve(chainedTempBlock);
+        }
+
+        _normalizePass(pendingSwaps);
+
+        return _finishSwaps(tempBlock, pendingSwaps, executor, swapConsumer);
+    }
+
+    private List<PendingSwap> _listSwaps(int leafId, Iterable<BlockPosition> realSwaps) {
         final Iterator<BlockPosition> swapPositionIter = realSwaps.iterator();
 
         BlockPosition nextSwapPosition;
@@ -222,12 +319,14 @@ public class OwnedPvorm {
         else
             nextSwapPosition = PlaintextCircuitOram.FAKE_POSITION;
 
+        final List<PendingSwap> pendingSwaps = new ArrayList<>(m_stashSize + m_treeDepth * m_bucketSize);
         for (int blockIndex = 0; blockIndex < m_stashSize; blockIndex++) {
             boolean doSwap = nextSwapPosition.equals(PvormUtils.STASH_INDEX, blockIndex);
             if (doSwap && swapPositionIter.hasNext()) {
                 nextSwapPosition = swapPositionIter.next();
             }
-            tempBlock = _performSwap(tempBlock, PvormUtils.STASH_INDEX, blockIndex, doSwap, executor, swapConsumer);
+            pendingSwaps.add(new PendingSwap(PvormUtils.STASH_INDEX, blockIndex, doSwap,
+                    m_encryptedPvorm.getBlock(PvormUtils.STASH_INDEX, blockIndex)));
         }
         for (int depth = 1; depth <= m_treeDepth; depth++) {
             final int bucketIndex = PvormUtils.getBucketIndex(m_treeDepth, leafId, depth);
@@ -236,36 +335,278 @@ public class OwnedPvorm {
                 if (doSwap && swapPositionIter.hasNext()) {
                     nextSwapPosition = swapPositionIter.next();
                 }
-                tempBlock = _performSwap(tempBlock, bucketIndex, blockIndex, doSwap, executor, swapConsumer);
+                pendingSwaps.add(new PendingSwap(bucketIndex, blockIndex, doSwap,
+                        m_encryptedPvorm.getBlock(bucketIndex, blockIndex)));
+            }
+        }
+        return pendingSwaps;
+    }
+
+    /**
+     * Runs {@code task} on every chunk, sharing them between this thread and
+     * {@code executor}. This thread claims chunks as well, so it never waits
+     * for a job still queued behind the proofs of earlier swaps; jobs that
+     * start after every chunk is claimed return at once.
+     */
+    private static <T> void _runOnChunks(final List<T> chunks, final Consumer<T> task, ExecutorService executor) {
+        final AtomicInteger nextChunk = new AtomicInteger();
+        final CountDownLatch finished = new CountDownLatch(chunks.size());
+        final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        final Runnable worker = () -> {
+            for (int i = nextChunk.getAndIncrement(); i < chunks.size(); i = nextChunk.getAndIncrement()) {
+                try {
+                    task.accept(chunks.get(i));
+                } catch (RuntimeException e) {
+                    failure.compareAndSet(null, e);
+                } finally {
+                    finished.countDown();
+                }
             }
+        };
+
+        if (executor != null) {
+            for (int i = 1; i < chunks.size(); i++)
+                executor.execute(worker);
+        }
+        worker.run();
+        Uninterruptibles.awaitUninterruptibly(finished);
+
+        if (failure.get() != null) throw failure.get();
+    }
+
+    private void _reencryptIndependent(List<PendingSwap> chunk) {
+        for (PendingSwap swap : chunk) {
+            swap.setIndependentBlock(swap.prepare(m_encryptor));
+        }
+    }
+
+    /**
+     * Normalizes the independent and chained blocks of every swap in the pass
+     * together. The chain was resolved with the unnormalized blocks, which
+     * encrypt the same values, so the normalized copies simply replace them.
+     */
+    private static void _normalizePass(List<PendingSwap> pendingSwaps) {
+        List<EncryptedPvorm.Block> blocks = new ArrayList<>(2 * pendingSwaps.size());
+        for (PendingSwap swap : pendingSwaps) {
+            blocks.add(swap.getIndependentBlock());
+            blocks.add(swap.getChainedBlock());
+        }
+        List<EncryptedPvorm.Block> normalizedBlocks = EncryptedPvorm.Block.normalizeAll(blocks);
+        for (int i = 0; i < pendingSwaps.size(); i++) {
+            pendingSwaps.get(i).setIndependentBlock(normalizedBlocks.get(2 * i));
+            pendingSwaps.get(i).setChainedBlock(normalizedBlocks.get(2 * i + 1));
+        }
+    }
+
+    private EncryptedPvorm.Block _finishSwaps(EncryptedPvorm.Block tempBlock, List<PendingSwap> pendingSwaps,
+            ExecutorService executor, Consumer<Future<PvormUpdate.Swap>> swapConsumer) {
+        for (final PendingSwap swap : pendingSwaps) {
+            // Each swap's input temp block is the previous swap's output, so
+            // this picks up the normalized copy of that output.
+            final EncryptedPvorm.Block oldTempBlock = tempBlock;
+            final EncryptedPvorm.Block newTempBlock = swap.getNewTempBlock();
+            final EncryptedPvorm.Block newEncBlock = swap.getNewEncBlock();
+
+            Callable<PvormUpdate.Swap> swapBuilder = () -> {
+                DoubleSwapProof swapProof = DoubleSwapProof.buildProof(m_params, oldTempBlock, swap.m_oldEncBlock,
+                        newTempBlock, newEncBlock, m_publicKey, m_secretKey, !swap.m_doSwap);
+                return new PvormUpdate.Swap(swap.m_bucketIndex, swap.m_blockIndex, newTempBlock, newEncBlock,
+                        swapProof);
+            };
+
+            swapConsumer.accept(Utils.submitJob(swapBuilder, executor));
+
+            m_encryptedPvorm.setBlock(swap.m_bucketIndex, swap.m_blockIndex, newEncBlock);
+            tempBlock = newTempBlock;
         }
         return tempBlock;
     }
 
-    private EncryptedPvorm.Block _performSwap(final EncryptedPvorm.Block tempBlock, final int bucketIndex,
-            final int blockIndex, boolean doSwap, final ExecutorService executor,
-            final Consumer<Future<PvormUpdate.Swap>> swapConsumer) {
-        final EncryptedPvorm.Block encBlock = m_encryptedPvorm.getBlock(bucketIndex, blockIndex);
+    /**
+     * Runs updates on an {@code OwnedPvorm} with several in flight at once.
+     *
+     * Only the plaintext ORAM update and the chain of reencryptions through
+     * the temp block are inherently sequential. A call to
+     * {@link #update(ECPair, ECPair, boolean) update} performs those in the
+     * calling thread, queues the update's proofs in the thread pool, and
+     * returns without waiting for them, so the next update can start right
+     * away. A single background thread then finishes the updates (building
+     * range proofs and collecting the other proofs) in the order they were
+     * started. Once {@code maxInFlight} updates are unfinished, further calls
+     * block until the oldest finishes.
+     *
+     * Each returned {@code PvormUpdate} applies to the state left by the one
+     * before it, so they must be published or verified in order. If an update
+     * fails to finish, none of the updates after it can be verified either.
+     * Its future fails with the cause, and every later update in flight fails
+     * with an {@code IllegalStateException} instead of finishing. From then on
+     * the pipeline rejects new updates. This PVORM has already been advanced
+     * past all of those updates, so it no longer matches the published state
+     * and must be restored (for instance from a
+     * {@link EncryptedPvorm#duplicate() snapshot}) before it is used again.
+     */
+    public class UpdatePipeline implements AutoCloseable {
+        private final ExecutorService m_executor;
+        private final ExecutorService m_finisher;
+        private final Semaphore m_inFlight;
+
+        // The first failure to finish an update, set only by the finisher.
+        private volatile Throwable m_failure;
+
+        private UpdatePipeline(ExecutorService executor, int maxInFlight) {
+            m_executor = executor;
+            m_finisher = Executors.newSingleThreadExecutor(new DaemonThreadFactory("PvormUpdateFinisher"));
+            m_inFlight = new Semaphore(maxInFlight);
+            m_failure = null;
+        }
+
+        /**
+         * Starts an update as in
+         * {@link OwnedPvorm#update(ECPair, ECPair, boolean, ExecutorService)
+         * OwnedPvorm.update} and returns a future for the finished update.
+         * The PVORM is in its updated state as soon as this returns.
+         *
+         * @param encryptedAccountKey An El Gamal encryption of the identifier
+         *            of the account to update.
+         * @param encryptedBalanceChange An El Gamal encryption of the balance
+         *            change value.
+         * @param includeRangeProof Whether or not to include a range proof on
+         *            the resulting account balance.
+         * @return a future for the record of the update.
+         * @throws IllegalArgumentException If the specified account does not
+         *             exist in this PVORM.
+         * @throws IllegalStateException If the pipeline has been closed or an
+         *             earlier update failed.
+         */
+        public synchronized Future<PvormUpdate> update(ECPair encryptedAccountKey, ECPair encryptedBalanceChange,
+                boolean includeRangeProof) {
+            _checkUsable();
+
+            m_inFlight.acquireUninterruptibly();
+            final StartedUpdate started;
+            try {
+                started = _startUpdate(encryptedAccountKey, encryptedBalanceChange, includeRangeProof, m_executor);
+            } catch (RuntimeException e) {
+                m_inFlight.release();
+                throw e;
+            }
+
+            return _submitFinish(started);
+        }
+
+        private void _checkUsable() {
+            if (m_finisher.isShutdown()) throw new IllegalStateException("Cannot update through a closed pipeline.");
+            if (m_failure != null)
+                throw new IllegalStateException("Cannot update through a pipeline after an update failed.", m_failure);
+        }
+
+        private Future<PvormUpdate> _submitFinish(StartedUpdate started) {
+            return m_finisher.submit(() -> {
+                try {
+                    if (m_failure != null)
+                        throw new IllegalStateException("An earlier update in the pipeline failed.", m_failure);
+                    try {
+                        return _finishUpdate(started, m_executor);
+                    } catch (RuntimeException | Error e) {
+                        m_failure = e;
+                        throw e;
+                    }
+                } finally {
+                    m_inFlight.release();
+                }
+            });
+        }
+
+        /**
+         * Stops accepting new updates. Updates already started still finish.
+         */
+        @Override
+        public synchronized void close() {
+            m_finisher.shutdown();
+        }
+    }
+
+    /**
+     * An update whose sequential part is done and whose proofs may still be
+     * outstanding.
+     */
+    private static class StartedUpdate {
+        private final PvormUpdate.Builder m_updateBuilder;
+        private final Future<PlaintextEqProof> m_accountKeyProof;
+        // The updated balance ciphertext if a range proof is needed.
+        private final ECPair m_encryptedBalance;
+
+        private StartedUpdate(PvormUpdate.Builder updateBuilder, Future<PlaintextEqProof> accountKeyProof,
+                ECPair encryptedBalance) {
+            m_updateBuilder = updateBuilder;
+            m_accountKeyProof = accountKeyProof;
+            m_encryptedBalance = encryptedBalance;
+        }
+    }
 
-        final EncryptedPvorm.Block newEncBlock, newTempBlock;
-        if (doSwap) {
-            newEncBlock = tempBlock.reencrypt(m_encryptor);
-            newTempBlock = encBlock.reencrypt(m_encryptor);
-        } else {
-            newEncBlock = encBlock.reencrypt(m_encryptor);
-            newTempBlock = tempBlock.reencrypt(m_encryptor);
+    /**
+     * One slot of a pass, reencrypted in two halves. The independent block is
+     * the one whose new value does not depend on the chain of temp blocks: the
+     * old block in the PVORM if it stays there, or the block swapped into temp
+     * otherwise. The chained block is the other one, built by adding the
+     * encryptions of zero drawn for it to the incoming temp block.
+     */
+    private static class PendingSwap {
+        private final int m_bucketIndex;
+        private final int m_blockIndex;
+        private final boolean m_doSwap;
+        private final EncryptedPvorm.Block m_oldEncBlock;
+
+        private ECPair m_chainKeyZero;
+        private ECPair m_chainBalanceZero;
+        private EncryptedPvorm.Block m_independentBlock;
+        private EncryptedPvorm.Block m_chainedBlock;
+
+        private PendingSwap(int bucketIndex, int blockIndex, boolean doSwap, EncryptedPvorm.Block oldEncBlock) {
+            m_bucketIndex = bucketIndex;
+            m_blockIndex = blockIndex;
+            m_doSwap = doSwap;
+            m_oldEncBlock = oldEncBlock;
         }
 
-        Callable<PvormUpdate.Swap> swapBuilder = () -> {
-            DoubleSwapProof swapProof = DoubleSwapProof.buildProof(m_params, tempBlock, encBlock, newTempBlock,
-                    newEncBlock, m_publicKey, m_secretKey, !doSwap);
-            return new PvormUpdate.Swap(bucketIndex, blockIndex, newTempBlock, newEncBlock, swapProof);
-        };
+        // Draws the encryptions of zero for the chained block and returns the
+        // unnormalized independent block.
+        private EncryptedPvorm.Block prepare(Encryptor encryptor) {
+            m_chainKeyZero = encryptor.encryptZero();
+            m_chainBalanceZero = encryptor.encryptZero();
+            return m_oldEncBlock.reencrypt(encryptor.encryptZero(), encryptor.encryptZero());
+        }
+
+        private EncryptedPvorm.Block getIndependentBlock() {
+            return m_independentBlock;
+        }
+
+        private void setIndependentBlock(EncryptedPvorm.Block independentBlock) {
+            m_independentBlock = independentBlock;
+        }
 
-        swapConsumer.accept(Utils.submitJob(swapBuilder, executor));
+        // Builds the chained block from the incoming temp block and returns
+        // the outgoing temp block.
+        private EncryptedPvorm.Block resolve(EncryptedPvorm.Block tempBlock) {
+            m_chainedBlock = tempBlock.reencrypt(m_chainKeyZero, m_chainBalanceZero);
+            return (m_doSwap ? m_independentBlock : m_chainedBlock);
+        }
+
+        private EncryptedPvorm.Block getChainedBlock() {
+            return m_chainedBlock;
+        }
+
+        private void setChainedBlock(EncryptedPvorm.Block chainedBlock) {
+            m_chainedBlock = chainedBlock;
+        }
+
+        private EncryptedPvorm.Block getNewTempBlock() {
+            return (m_doSwap ? m_independentBlock : m_chainedBlock);
+        }
 
-        m_encryptedPvorm.setBlock(bucketIndex, blockIndex, newEncBlock);
-        return newTempBlock;
+        private EncryptedPvorm.Block getNewEncBlock() {
+            return (m_doSwap ? m_chainedBlock : m_independentBlock);
+        }
     }
 
     /**
@@ -274,9 +615,18 @@ public class OwnedPvorm {
      *
      * When {@code build()} is called, the contents of the plaintext ORAM
      * structure are encrypted into an {@code EncryptedPvorm} object which will
-     * thereafter be updated in tandem automatically.
+     * thereafter be updated in tandem automatically. The tree is encrypted in
+     * ranges of consecutive buckets, each normalized together, and the ranges
+     * are encrypted in parallel if an executor is provided with
+     * {@link #setExecutor(ExecutorService) setExecutor}.
      */
     public static class Builder {
+        // The approximate number of blocks encrypted together in one range,
+        // and the number of encrypted ranges that may wait to be stored at
+        // once.
+        private static final int BUILD_RANGE_SIZE = 1024;
+        private static final int MAX_PENDING_BUILD_RANGES = 64;
+
         private final EncryptionParams m_params;
         private final BigInteger m_secretKey;
         private final ECPoint m_publicKey;
@@ -287,12 +637,15 @@ public class OwnedPvorm {
 
         private final PlaintextCircuitOram m_plainOram;
 
+        private ExecutorService m_executor;
+        private ProgressListener m_progressListener;
+
         private boolean m_isBuilt;
 
         public Builder(EncryptionParams params, BigInteger secretKey, int treeDepth, int bucketSize, int stashSize) {
             m_params = params;
             m_secretKey = secretKey;
-            m_publicKey = m_params.getGenerator().multiply(m_secretKey).normalize();
+            m_publicKey = m_params.multiplyFixed(m_params.getGenerator(), m_secretKey).normalize();
 
             m_treeDepth = treeDepth;
             m_bucketSize = bucketSize;
@@ -300,6 +653,9 @@ public class OwnedPvorm {
 
             m_plainOram = new PlaintextCircuitOram(m_treeDepth, m_bucketSize, m_stashSize, m_params.getRandomSource());
 
+            m_executor = null;
+            m_progressListener = null;
+
             m_isBuilt = false;
 
             if (treeDepth < 1 || bucketSize < 0 || stashSize < 0)
@@ -313,6 +669,47 @@ public class OwnedPvorm {
             m_plainOram.insert(accountKey, balance);
         }
 
+        public void insert(CanonicalKey accountKey, long balance) {
+            if (m_isBuilt) throw new IllegalStateException("Cannot add new account after building PVORM.");
+            m_plainOram.insert(accountKey, balance);
+        }
+
+        /**
+         * Sets the thread pool used to encrypt the tree when building. If
+         * {@code executor} is {@code null} (the default) the entire tree is
+         * encrypted in the thread that calls {@code build()}.
+         *
+         * The encryptor for the PVORM's public key is called from every thread
+         * in the pool, so this should only be used with thread-safe encryptors
+         * such as those returned by
+         * {@link solidus.util.EncryptionParams#getEncryptor(ECPoint)
+         * EncryptionParams.getEncryptor}.
+         *
+         * @param executor the thread pool in which to encrypt or {@code null}.
+         * @return this builder.
+         * @throws IllegalStateException if the PVORM has already been built.
+         */
+        public Builder setExecutor(ExecutorService executor) {
+            if (m_isBuilt) throw new IllegalStateException("Cannot set parameters after building.");
+            m_executor = executor;
+            return this;
+        }
+
+        /**
+         * Sets a listener to be told how much of the tree has been encrypted
+         * as the PVORM is built. The listener is only ever called from the
+         * thread that calls {@code build()}.
+         *
+         * @param listener the listener to notify or {@code null} for none.
+         * @return this builder.
+         * @throws IllegalStateException if the PVORM has already been built.
+         */
+        public Builder setProgressListener(ProgressListener listener) {
+            if (m_isBuilt) throw new IllegalStateException("Cannot set parameters after building.");
+            m_progressListener = listener;
+            return this;
+        }
+
         public OwnedPvorm build() {
             return _build(m_params.getEncryptor(m_publicKey));
         }
@@ -333,41 +730,112 @@ public class OwnedPvorm {
             EncryptedPvorm.Builder encPvormBuilder = new EncryptedPvorm.Builder(m_publicKey, m_treeDepth, m_bucketSize,
                     m_stashSize);
 
-            // The temp bucket and stash are a different sizes than normal
-            // buckets, so we need to populate them separately.
-            for (int i = 0; i < PvormUtils.TEMP_BUCKET_SIZE; i++) {
-                _setEncryption(encPvormBuilder, PvormUtils.TEMP_BUCKET_INDEX, i, encryptor);
-            }
-            for (int i = 0; i < m_stashSize; i++) {
-                _setEncryption(encPvormBuilder, PvormUtils.STASH_INDEX, i, encryptor);
-            }
-
             // This could take a while for a large PVORM as we may be encrypting
-            // millions of values here.
-            for (int i = PvormUtils.STASH_INDEX + 1; i < m_plainOram.getNumberOfBuckets()
-                    + PvormUtils.STASH_INDEX; i++) {
-                for (int j = 0; j < m_bucketSize; j++) {
-                    _setEncryption(encPvormBuilder, i, j, encryptor);
+            // millions of values here. Ranges run in the executor, but are
+            // stored in order by this thread since the builder is not
+            // thread-safe.
+            int endBucket = m_plainOram.getNumberOfBuckets() + PvormUtils.STASH_INDEX;
+            long totalBlocks = 0;
+            for (int i = PvormUtils.TEMP_BUCKET_INDEX; i < endBucket; i++)
+                totalBlocks += _getBucketCapacity(i);
+
+            Deque<Future<EncryptedRange>> pendingRanges = new ArrayDeque<>();
+            long blocksStored = 0;
+            int rangeStart = PvormUtils.TEMP_BUCKET_INDEX;
+            int rangeBlocks = 0;
+            for (int i = PvormUtils.TEMP_BUCKET_INDEX; i < endBucket; i++) {
+                rangeBlocks += _getBucketCapacity(i);
+                if (rangeBlocks < BUILD_RANGE_SIZE && i < endBucket - 1) continue;
+
+                final int firstBucket = rangeStart;
+                final int lastBucket = i;
+                pendingRanges.add(
+                        Utils.submitJob(() -> _encryptRange(firstBucket, lastBucket + 1, encryptor), m_executor));
+                rangeStart = i + 1;
+                rangeBlocks = 0;
+
+                if (pendingRanges.size() >= MAX_PENDING_BUILD_RANGES) {
+                    blocksStored += _storeRange(encPvormBuilder, Utils.getFuture(pendingRanges.remove()));
+                    _reportProgress(blocksStored, totalBlocks);
                 }
             }
+            while (!pendingRanges.isEmpty()) {
+                blocksStored += _storeRange(encPvormBuilder, Utils.getFuture(pendingRanges.remove()));
+                _reportProgress(blocksStored, totalBlocks);
+            }
 
             EncryptedPvorm encryptedPvorm = encPvormBuilder.build();
             return new OwnedPvorm(this, encryptedPvorm);
         }
 
-        private void _setEncryption(EncryptedPvorm.Builder encPvormBuilder, int bucketIndex, int blockIndex,
-                Encryptor encryptor) {
-            final PlaintextCircuitOram.Block block = m_plainOram.getBlock(bucketIndex, blockIndex);
-            final ECPair encryptedKey;
-            final ECPair encryptedBalance;
-            if (block == null) {
-                encryptedKey = encryptor.encryptZero();
-                encryptedBalance = encryptor.encryptZero();
-            } else {
-                encryptedKey = encryptor.encryptPoint(block.getAccountKey());
-                encryptedBalance = encryptor.encryptBalance(block.getBalance());
+        private int _getBucketCapacity(int bucketIndex) {
+            // The temp bucket and stash are a different sizes than normal
+            // buckets.
+            if (bucketIndex == PvormUtils.TEMP_BUCKET_INDEX) return PvormUtils.TEMP_BUCKET_SIZE;
+            if (bucketIndex == PvormUtils.STASH_INDEX) return m_stashSize;
+            return m_bucketSize;
+        }
+
+        private EncryptedRange _encryptRange(int firstBucket, int endBucket, Encryptor encryptor) {
+            // Keys and balances alternate so the whole range can be normalized
+            // with a single field inversion.
+            List<ECPair> encryptions = new ArrayList<>();
+            for (int i = firstBucket; i < endBucket; i++) {
+                for (int j = 0; j < _getBucketCapacity(i); j++) {
+                    final PlaintextCircuitOram.Block block = m_plainOram.getBlock(i, j);
+                    if (block == null) {
+                        encryptions.add(encryptor.encryptZero());
+                        encryptions.add(encryptor.encryptZero());
+                    } else {
+                        encryptions.add(encryptor.encryptPoint(block.getAccountKey()));
+                        encryptions.add(encryptor.encryptBalance(block.getBalance()));
+                    }
+                }
+            }
+            return new EncryptedRange(firstBucket, endBucket, BatchNormalizer.normalizePairs(encryptions));
+        }
+
+        private int _storeRange(EncryptedPvorm.Builder encPvormBuilder, EncryptedRange range) {
+            Iterator<ECPair> encryptions = range.m_encryptions.iterator();
+            for (int i = range.m_firstBucket; i < range.m_endBucket; i++) {
+                for (int j = 0; j < _getBucketCapacity(i); j++) {
+                    encPvormBuilder.setValue(i, j, encryptions.next(), encryptions.next());
+                }
+            }
+            return range.m_encryptions.size() / 2;
+        }
+
+        private void _reportProgress(long blocksEncrypted, long totalBlocks) {
+            if (m_progressListener != null) m_progressListener.blocksEncrypted(blocksEncrypted, totalBlocks);
+        }
+
+        /**
+         * A callback that is told how many blocks of a PVORM have been
+         * encrypted while it is being built.
+         */
+        @FunctionalInterface
+        public static interface ProgressListener {
+            /**
+             * Called after each range of the tree has been encrypted and
+             * stored.
+             *
+             * @param blocksEncrypted the number of blocks encrypted so far.
+             * @param totalBlocks the total number of blocks in the PVORM,
+             *            including the temp bucket and the stash.
+             */
+            public void blocksEncrypted(long blocksEncrypted, long totalBlocks);
+        }
+
+        private static class EncryptedRange {
+            private final int m_firstBucket;
+            private final int m_endBucket;
+            private final List<ECPair> m_encryptions;
+
+            private EncryptedRange(int firstBucket, int endBucket, List<ECPair> encryptions) {
+                m_firstBucket = firstBucket;
+                m_endBucket = endBucket;
+                m_encryptions = encryptions;
             }
-            encPvormBuilder.setValue(bucketIndex, blockIndex, encryptedKey, encryptedBalance);
         }
     }
 }
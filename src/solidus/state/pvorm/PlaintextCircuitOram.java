@@ -18,25 +18,38 @@
 
 package solidus.state.pvorm;
 
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 import java.util.Objects;
 import java.util.Random;
-import java.util.function.Function;
 
 import org.bouncycastle.math.ec.ECPoint;
 
 import com.google.common.collect.ImmutableList;
 
+import solidus.util.CanonicalKey;
+
 /**
  * This class implements the contents of an ORAM entirely in plaintext so that a
  * bank can prepare transactions efficiently.
+ *
+ * The ORAM runs on every update, so its state is kept in primitive arrays
+ * rather than as a graph of objects. Each account is identified by a dense
+ * block ID assigned on insertion, and its balance, leaf, and position are
+ * stored in parallel arrays under that ID. The slots of every bucket are laid
+ * out back to back in a single array holding the ID of the block in each
+ * slot. Accounts are found through an open-addressing table keyed by the
+ * fingerprint of their {@link solidus.util.CanonicalKey CanonicalKey}.
+ * Evictions allocate nothing beyond the positions they report.
  */
 public class PlaintextCircuitOram {
     private static final int NO_INDEX = Integer.MIN_VALUE;
     /* default */ static final BlockPosition FAKE_POSITION = new BlockPosition(NO_INDEX, NO_INDEX);
 
+    // Marks empty slots and index entries, and stands in for a null block.
+    private static final int NO_BLOCK = -1;
+    private static final int INITIAL_BLOCK_CAPACITY = 16;
+
     // The tree depth is the number of layers of the tree BELOW the stash
     // (which is used as the root). That is, a tree consisting of only the
     // stash has depth 0, a tree with a stash and two leaves has depth 1, etc.
@@ -49,8 +62,28 @@ public class PlaintextCircuitOram {
 
     private final Random m_rand;
 
-    private final List<OramBucket<Block>> m_buckets;
-    private final Map<ECPoint, Block> m_accountToBlock;
+    // The block ID in each slot of each bucket and the number of occupied
+    // slots in each bucket (including the temp bucket at index 0).
+    private final int[] m_slotBlocks;
+    private final int[] m_bucketCounts;
+
+    // Per-block state indexed by block ID. A block that has been pulled out
+    // of the tree during eviction has bucket NO_INDEX.
+    private CanonicalKey[] m_accountKeys;
+    private long[] m_balances;
+    private int[] m_leafIds;
+    private int[] m_blockBuckets;
+    private int[] m_blockIndices;
+
+    // Open-addressing table from account key fingerprints to block IDs, kept
+    // at most half full.
+    private long[] m_indexFingerprints;
+    private int[] m_indexBlocks;
+
+    // Scratch space for evictions. Entries are offset by one so the temp
+    // bucket at depth -1 is at index 0.
+    private final int[] m_deepest;
+    private final int[] m_target;
 
     private int m_size;
     private int m_evictLeafCounter;
@@ -90,23 +123,24 @@ public class PlaintextCircuitOram {
 
         m_rand = rand;
 
-        // m_buckets has one more entry than we have logical buckets because of
+        // There is one more bucket than we have logical buckets because of
         // the temp bucket.
-        ImmutableList.Builder<OramBucket<Block>> bucketsBuilder = ImmutableList.builder();
-        for (int i = 0; i < m_numBuckets + PvormUtils.STASH_INDEX; i++) {
-            if (i < PvormUtils.TEMP_BUCKET_INDEX) {
-                bucketsBuilder.add(new OramBucket<>(0));
-            } else if (i == PvormUtils.TEMP_BUCKET_INDEX) {
-                bucketsBuilder.add(new OramBucket<>(PvormUtils.TEMP_BUCKET_SIZE));
-            } else if (i == PvormUtils.STASH_INDEX) {
-                bucketsBuilder.add(new OramBucket<>(m_stashSize));
-            } else {
-                bucketsBuilder.add(new OramBucket<>(m_bucketSize));
-            }
-        }
-        m_buckets = bucketsBuilder.build();
+        m_bucketCounts = new int[m_numBuckets + PvormUtils.STASH_INDEX];
+        m_slotBlocks = new int[_getSlotOffset(m_bucketCounts.length)];
+        Arrays.fill(m_slotBlocks, NO_BLOCK);
+
+        m_accountKeys = new CanonicalKey[INITIAL_BLOCK_CAPACITY];
+        m_balances = new long[INITIAL_BLOCK_CAPACITY];
+        m_leafIds = new int[INITIAL_BLOCK_CAPACITY];
+        m_blockBuckets = new int[INITIAL_BLOCK_CAPACITY];
+        m_blockIndices = new int[INITIAL_BLOCK_CAPACITY];
 
-        m_accountToBlock = new HashMap<>();
+        m_indexFingerprints = new long[2 * INITIAL_BLOCK_CAPACITY];
+        m_indexBlocks = new int[2 * INITIAL_BLOCK_CAPACITY];
+        Arrays.fill(m_indexBlocks, NO_BLOCK);
+
+        m_deepest = new int[m_treeDepth + PvormUtils.STASH_INDEX + 1];
+        m_target = new int[m_treeDepth + PvormUtils.STASH_INDEX + 1];
 
         m_size = 0;
         m_evictLeafCounter = 0;
@@ -136,21 +170,43 @@ public class PlaintextCircuitOram {
         return m_numBuckets;
     }
 
+    /**
+     * Returns a snapshot of the block at the given position or {@code null} if
+     * that position is empty. The snapshot does not change as the ORAM is
+     * updated.
+     *
+     * @param bucketIndex The index of the bucket.
+     * @param blockIndex The index of the block within that bucket.
+     * @return the block at the given position or {@code null}.
+     * @throws IndexOutOfBoundsException if the position does not exist.
+     */
     public Block getBlock(int bucketIndex, int blockIndex) {
-        return m_buckets.get(bucketIndex).getBlock(blockIndex);
+        if (blockIndex < 0 || blockIndex >= _getBucketCapacity(bucketIndex))
+            throw new IndexOutOfBoundsException("No block " + blockIndex + " in bucket " + bucketIndex);
+
+        int blockId = m_slotBlocks[_getSlotOffset(bucketIndex) + blockIndex];
+        return blockId == NO_BLOCK ? null : new Block(m_accountKeys[blockId], m_balances[blockId]);
     }
 
     public boolean containsUser(ECPoint accountKey) {
-        return m_accountToBlock.containsKey(accountKey);
+        return containsUser(CanonicalKey.of(accountKey));
+    }
+
+    public boolean containsUser(CanonicalKey accountKey) {
+        return _findBlock(accountKey) != NO_BLOCK;
     }
 
     public long getBalance(ECPoint accountKey) {
-        Block block = m_accountToBlock.get(accountKey);
-        if (block == null) throw new IllegalArgumentException("Attempted to read an account that does not exist.");
-        if (block.getBucket() == null) throw new IllegalStateException("Block did not have bucket specified.");
-        if (block.getLeafId() == NO_INDEX) throw new IllegalStateException("Block did not have leaf specified.");
+        return getBalance(CanonicalKey.of(accountKey));
+    }
+
+    public long getBalance(CanonicalKey accountKey) {
+        int blockId = _findBlock(accountKey);
+        if (blockId == NO_BLOCK)
+            throw new IllegalArgumentException("Attempted to read an account that does not exist.");
+        _checkPlaced(blockId);
 
-        return block.getBalance();
+        return m_balances[blockId];
     }
 
     /**
@@ -166,28 +222,43 @@ public class PlaintextCircuitOram {
      *             in an eviction failure.
      */
     public void insert(ECPoint accountKey, long balance) {
-        if (m_accountToBlock.containsKey(accountKey))
+        insert(CanonicalKey.of(accountKey), balance);
+    }
+
+    /**
+     * Inserts a new account as in {@link #insert(ECPoint, long) insert}, but
+     * with a key that has already been canonicalized.
+     *
+     * @param accountKey the public key of the new account to insert.
+     * @param balance the balance of the new account to insert (must be
+     *            non-negative).
+     * @throws IllegalArgumentException if the account already exists or the
+     *             balance is negative.
+     * @throws IllegalStateException if the ORAM is full or the insert results
+     *             in an eviction failure.
+     */
+    public void insert(CanonicalKey accountKey, long balance) {
+        if (_findBlock(accountKey) != NO_BLOCK)
             throw new IllegalArgumentException("Cannot add account that already exists.");
         if (balance < 0) throw new IllegalArgumentException("Cannot add new account with negative balance.");
         if (m_size >= m_numBuckets) throw new IllegalStateException("Oram is already full. Cannot add a new account.");
 
         int leafId = m_rand.nextInt(m_numLeaves);
 
-        Block newBlock = new Block(accountKey, balance);
-        newBlock.setLeafId(leafId);
-        int indexInBucket = m_buckets.get(PvormUtils.TEMP_BUCKET_INDEX).add(newBlock);
-        newBlock.setPosition(m_buckets.get(PvormUtils.TEMP_BUCKET_INDEX), PvormUtils.TEMP_BUCKET_INDEX, indexInBucket);
-
-        m_accountToBlock.put(accountKey, newBlock);
+        int blockId = m_size++;
+        _ensureBlockCapacity(m_size);
+        m_accountKeys[blockId] = accountKey;
+        m_balances[blockId] = balance;
+        m_leafIds[blockId] = leafId;
+        _addToBucket(PvormUtils.TEMP_BUCKET_INDEX, blockId);
+        _addToIndex(accountKey, blockId);
 
         // Evict out an independent random leaf.
         _evict();
 
-        m_size++;
-
-        if (!m_buckets.get(PvormUtils.TEMP_BUCKET_INDEX).isEmpty()) {
-            throw new IllegalStateException("Temp bucket contained block "
-                    + m_buckets.get(PvormUtils.TEMP_BUCKET_INDEX).getBlock(0).toString());
+        if (m_bucketCounts[PvormUtils.TEMP_BUCKET_INDEX] != 0) {
+            throw new IllegalStateException(
+                    "Temp bucket contained block " + getBlock(PvormUtils.TEMP_BUCKET_INDEX, 0).toString());
         }
     }
 
@@ -208,25 +279,43 @@ public class PlaintextCircuitOram {
      *             eviction fails to free enough space in the stash.
      */
     public UpdateTranscript update(ECPoint accountKey, long balanceChange) {
-        Block block = m_accountToBlock.get(accountKey);
+        return update(CanonicalKey.of(accountKey), balanceChange);
+    }
 
-        if (block == null) throw new IllegalArgumentException("Attempted to update account that does not exist.");
-        if (block.getBucket() == null) throw new IllegalStateException("Block did not have bucket specified.");
-        if (block.getLeafId() == NO_INDEX) throw new IllegalStateException("Block did not have leaf specified.");
+    /**
+     * Performs an update as in {@link #update(ECPoint, long) update}, but with
+     * a key that has already been canonicalized.
+     *
+     * @param accountKey the public key of the account to update.
+     * @param balanceChange the amount by which to change the balance (can be
+     *            negative).
+     * @return a transcript describing exactly which blocks were moved where
+     *         during the update.
+     * @throws IllegalArgumentException if the account does not exist or the
+     *             balance would become negative.
+     * @throws IllegalStateException if something is misconfigured or if
+     *             eviction fails to free enough space in the stash.
+     */
+    public UpdateTranscript update(CanonicalKey accountKey, long balanceChange) {
+        int blockId = _findBlock(accountKey);
 
-        block.updateBalance(balanceChange);
+        if (blockId == NO_BLOCK) throw new IllegalArgumentException("Attempted to update account that does not exist.");
+        _checkPlaced(blockId);
 
-        int oldLeafId = block.getLeafId();
-        BlockPosition oldBlockPosition = block.getPosition();
+        if (m_balances[blockId] + balanceChange < 0)
+            throw new IllegalArgumentException("Attempted to set balance to negative value.");
+        m_balances[blockId] += balanceChange;
 
-        block.getBucket().remove(block.getPosition().getBlockIndexInBucket());
-        int newBucketIndex = m_buckets.get(PvormUtils.TEMP_BUCKET_INDEX).add(block);
-        block.setPosition(m_buckets.get(PvormUtils.TEMP_BUCKET_INDEX), PvormUtils.TEMP_BUCKET_INDEX, newBucketIndex);
-        block.setLeafId(m_rand.nextInt(m_numLeaves));
+        int oldLeafId = m_leafIds[blockId];
+        BlockPosition oldBlockPosition = new BlockPosition(m_blockBuckets[blockId], m_blockIndices[blockId]);
+
+        _removeFromBucket(blockId);
+        _addToBucket(PvormUtils.TEMP_BUCKET_INDEX, blockId);
+        m_leafIds[blockId] = m_rand.nextInt(m_numLeaves);
 
         List<Eviction> swapsWithTemp = _evict();
 
-        if (!m_buckets.get(PvormUtils.TEMP_BUCKET_INDEX).isEmpty()) {
+        if (m_bucketCounts[PvormUtils.TEMP_BUCKET_INDEX] != 0) {
             throw new IllegalStateException("Temp index was not evicted. This means the stash was full!");
         }
 
@@ -246,65 +335,67 @@ public class PlaintextCircuitOram {
     }
 
     private Eviction _evictOnce(int leafId) {
-        Block[] deepest = _prepareDeepest(leafId);
-        int[] target = _prepareTarget(leafId, deepest);
-        return _evictOnceFast(leafId, deepest, target);
+        _prepareDeepest(leafId);
+        _prepareTarget(leafId);
+        return _evictOnceFast(leafId);
     }
 
     private int _getMaxOverlapDepth(int leafId1, int leafId2) {
-        int maxDepth = 0;
-        int levelBit = 1 << (m_treeDepth - 1);
-        int pathXor = leafId1 ^ leafId2;
-        while (levelBit > 0 && (pathXor & levelBit) == 0) {
-            maxDepth++;
-            levelBit /= 2;
-        }
-        return maxDepth;
+        // The number of leading bits (out of m_treeDepth) the leaves share.
+        return m_treeDepth - (Integer.SIZE - Integer.numberOfLeadingZeros(leafId1 ^ leafId2));
+    }
+
+    private static int _getDepth(int bucketIndex) {
+        // The temp bucket (index 0) is at depth -1 and the stash at depth 0.
+        return Integer.SIZE - 1 - Integer.numberOfLeadingZeros(bucketIndex);
     }
 
-    private int _getDepth(Block block) {
-        int depth = -1;
-        int bucketIdx = block.getPosition().getBucketIndex();
-        while (bucketIdx > 0) {
-            depth++;
-            bucketIdx /= 2;
+    // Returns the first block in the bucket whose path overlaps the most with
+    // the given leaf, or NO_BLOCK if the bucket is empty.
+    private int _getDeepestBlock(int bucketIndex, int leafId) {
+        int bestBlock = NO_BLOCK;
+        int bestDepth = NO_INDEX;
+        int offset = _getSlotOffset(bucketIndex);
+        int end = offset + _getBucketCapacity(bucketIndex);
+        for (int slot = offset; slot < end; slot++) {
+            int blockId = m_slotBlocks[slot];
+            if (blockId == NO_BLOCK) continue;
+
+            int depth = _getMaxOverlapDepth(leafId, m_leafIds[blockId]);
+            if (bestBlock == NO_BLOCK || bestDepth < depth) {
+                bestDepth = depth;
+                bestBlock = blockId;
+            }
         }
-        return depth;
+        return bestBlock;
     }
 
-    private Block[] _prepareDeepest(final int leafId) {
+    private void _prepareDeepest(final int leafId) {
         // We need to include a block for the temp bucket, the stash, and each
         // real level of the tree.
-        Block[] deepest = new Block[m_treeDepth + PvormUtils.STASH_INDEX + 1];
-        OramBucket<Block> tempBucket = m_buckets.get(PvormUtils.TEMP_BUCKET_INDEX);
-        Function<Block, Integer> blockToDepth = (block) -> _getMaxOverlapDepth(leafId, block.getLeafId());
-
-        Block src = tempBucket.argMax(blockToDepth);
-        int goal = (src == null ? NO_INDEX : blockToDepth.apply(src));
+        int src = _getDeepestBlock(PvormUtils.TEMP_BUCKET_INDEX, leafId);
+        int goal = (src == NO_BLOCK ? NO_INDEX : _getMaxOverlapDepth(leafId, m_leafIds[src]));
 
         // We start by evicting from the temp block, which is resides at depth
         // -1.
         // Array indices are offset by one as a result.
         for (int i = -1; i <= m_treeDepth; i++) {
             if (goal >= i)
-                deepest[i + 1] = src;
+                m_deepest[i + 1] = src;
             else
-                deepest[i + 1] = null;
+                m_deepest[i + 1] = NO_BLOCK;
 
             int bucketIdx = PvormUtils.getBucketIndex(m_treeDepth, leafId, i);
-            Block maxBlock = m_buckets.get(bucketIdx).argMax(blockToDepth);
-            int maxDepth = (maxBlock == null ? NO_INDEX : blockToDepth.apply(maxBlock));
+            int maxBlock = _getDeepestBlock(bucketIdx, leafId);
+            int maxDepth = (maxBlock == NO_BLOCK ? NO_INDEX : _getMaxOverlapDepth(leafId, m_leafIds[maxBlock]));
             if (maxDepth > goal) {
                 goal = maxDepth;
                 src = maxBlock;
             }
         }
-
-        return deepest;
     }
 
-    private int[] _prepareTarget(int leafId, Block[] deepest) {
-        int[] target = new int[m_treeDepth + PvormUtils.STASH_INDEX + 1];
+    private void _prepareTarget(int leafId) {
         int dest = NO_INDEX;
         int src = NO_INDEX;
         // We start by evicting from the temp block, which is resides at depth
@@ -312,62 +403,56 @@ public class PlaintextCircuitOram {
         // Array indices are offset by one as a result.
         for (int i = m_treeDepth; i >= -1; i--) {
             if (i == src) {
-                target[i + 1] = dest;
+                m_target[i + 1] = dest;
                 src = NO_INDEX;
                 dest = NO_INDEX;
             } else {
-                target[i + 1] = NO_INDEX;
+                m_target[i + 1] = NO_INDEX;
             }
 
             int bucketIdx = PvormUtils.getBucketIndex(m_treeDepth, leafId, i);
-            if (deepest[i + 1] != null
-                    && (target[i + 1] != NO_INDEX || (dest == NO_INDEX && !m_buckets.get(bucketIdx).isFull()))) {
-                src = _getDepth(deepest[i + 1]);
+            if (m_deepest[i + 1] != NO_BLOCK && (m_target[i + 1] != NO_INDEX
+                    || (dest == NO_INDEX && m_bucketCounts[bucketIdx] < _getBucketCapacity(bucketIdx)))) {
+                src = _getDepth(m_blockBuckets[m_deepest[i + 1]]);
                 dest = i;
             }
         }
-        return target;
     }
 
-    private Eviction _evictOnceFast(int leafId, Block[] deepest, int[] target) {
+    private Eviction _evictOnceFast(int leafId) {
         ImmutableList.Builder<BlockPosition> swapsWithTempBuilder = ImmutableList.builder();
 
-        Block hold = null;
+        int hold = NO_BLOCK;
         int dest = NO_INDEX;
         for (int i = -1; i <= m_treeDepth; i++) {
             BlockPosition holdPosition = null;
             BlockPosition writePosition = null;
             int bucketIdx = PvormUtils.getBucketIndex(m_treeDepth, leafId, i);
-            OramBucket<Block> bucket = m_buckets.get(bucketIdx);
 
-            Block toWrite = null;
-            if (hold != null && i == dest) {
+            int toWrite = NO_BLOCK;
+            if (hold != NO_BLOCK && i == dest) {
                 toWrite = hold;
-                hold = null;
+                hold = NO_BLOCK;
                 dest = NO_INDEX;
             }
 
-            if (target[i + 1] != NO_INDEX) {
-                hold = deepest[target[i + 1] + 1];
-                if (bucket != hold.getBucket())
+            if (m_target[i + 1] != NO_INDEX) {
+                hold = m_deepest[m_target[i + 1] + 1];
+                if (m_blockBuckets[hold] != bucketIdx)
                     throw new IllegalStateException("Trying to evict block that is in the wrong bucket!");
 
                 // Do not record removal from the temp block as a "swap".
                 if (i > -1) {
-                    holdPosition = hold.getPosition();
+                    holdPosition = new BlockPosition(bucketIdx, m_blockIndices[hold]);
                 }
 
-                bucket.remove(hold.getPosition().getBlockIndexInBucket());
-                hold.unsetPosition();
+                _removeFromBucket(hold);
 
-                dest = target[i + 1];
+                dest = m_target[i + 1];
             }
 
-            if (toWrite != null) {
-                int newIndexInBucket = bucket.add(toWrite);
-                toWrite.setPosition(bucket, bucketIdx, newIndexInBucket);
-
-                writePosition = toWrite.getPosition();
+            if (toWrite != NO_BLOCK) {
+                writePosition = new BlockPosition(bucketIdx, _addToBucket(bucketIdx, toWrite));
                 swapsWithTempBuilder.add(writePosition);
             }
 
@@ -381,14 +466,117 @@ public class PlaintextCircuitOram {
         return new Eviction(leafId, swapsWithTempBuilder.build());
     }
 
+    private int _getSlotOffset(int bucketIndex) {
+        if (bucketIndex <= PvormUtils.TEMP_BUCKET_INDEX) return 0;
+        if (bucketIndex == PvormUtils.STASH_INDEX) return PvormUtils.TEMP_BUCKET_SIZE;
+        return PvormUtils.TEMP_BUCKET_SIZE + m_stashSize + (bucketIndex - PvormUtils.STASH_INDEX - 1) * m_bucketSize;
+    }
+
+    private int _getBucketCapacity(int bucketIndex) {
+        if (bucketIndex == PvormUtils.TEMP_BUCKET_INDEX) return PvormUtils.TEMP_BUCKET_SIZE;
+        if (bucketIndex == PvormUtils.STASH_INDEX) return m_stashSize;
+        return m_bucketSize;
+    }
+
+    // Places the block in the first open slot of the bucket and returns the
+    // index of that slot within the bucket.
+    private int _addToBucket(int bucketIndex, int blockId) {
+        int capacity = _getBucketCapacity(bucketIndex);
+        if (m_bucketCounts[bucketIndex] >= capacity)
+            throw new IllegalStateException("Cannot add a block, already full.");
+
+        int offset = _getSlotOffset(bucketIndex);
+        for (int i = 0; i < capacity; i++) {
+            if (m_slotBlocks[offset + i] == NO_BLOCK) {
+                m_slotBlocks[offset + i] = blockId;
+                m_bucketCounts[bucketIndex]++;
+                m_blockBuckets[blockId] = bucketIndex;
+                m_blockIndices[blockId] = i;
+                return i;
+            }
+        }
+        throw new RuntimeException("The bucket was not full, but all of the cells were taken.");
+    }
+
+    private void _removeFromBucket(int blockId) {
+        int bucketIndex = m_blockBuckets[blockId];
+        m_slotBlocks[_getSlotOffset(bucketIndex) + m_blockIndices[blockId]] = NO_BLOCK;
+        m_bucketCounts[bucketIndex]--;
+        m_blockBuckets[blockId] = NO_INDEX;
+        m_blockIndices[blockId] = NO_INDEX;
+    }
+
+    private void _checkPlaced(int blockId) {
+        if (m_blockBuckets[blockId] == NO_INDEX)
+            throw new IllegalStateException("Block did not have bucket specified.");
+        if (m_leafIds[blockId] == NO_INDEX) throw new IllegalStateException("Block did not have leaf specified.");
+    }
+
+    private void _ensureBlockCapacity(int blockCount) {
+        if (blockCount <= m_balances.length) return;
+
+        int newCapacity = Math.max(blockCount, 2 * m_balances.length);
+        m_accountKeys = Arrays.copyOf(m_accountKeys, newCapacity);
+        m_balances = Arrays.copyOf(m_balances, newCapacity);
+        m_leafIds = Arrays.copyOf(m_leafIds, newCapacity);
+        m_blockBuckets = Arrays.copyOf(m_blockBuckets, newCapacity);
+        m_blockIndices = Arrays.copyOf(m_blockIndices, newCapacity);
+    }
+
+    private int _findBlock(CanonicalKey accountKey) {
+        long fingerprint = accountKey.getFingerprint();
+        int mask = m_indexBlocks.length - 1;
+        // Fingerprints are keyed hashes, so their low bits are already uniform.
+        for (int i = (int) fingerprint & mask;; i = (i + 1) & mask) {
+            int blockId = m_indexBlocks[i];
+            if (blockId == NO_BLOCK) return NO_BLOCK;
+            if (m_indexFingerprints[i] == fingerprint && m_accountKeys[blockId].equals(accountKey)) return blockId;
+        }
+    }
+
+    private void _addToIndex(CanonicalKey accountKey, int blockId) {
+        if (2 * m_size > m_indexBlocks.length) {
+            long[] oldFingerprints = m_indexFingerprints;
+            int[] oldBlocks = m_indexBlocks;
+            m_indexFingerprints = new long[2 * oldBlocks.length];
+            m_indexBlocks = new int[2 * oldBlocks.length];
+            Arrays.fill(m_indexBlocks, NO_BLOCK);
+            for (int i = 0; i < oldBlocks.length; i++) {
+                if (oldBlocks[i] != NO_BLOCK) _putInIndex(oldFingerprints[i], oldBlocks[i]);
+            }
+        }
+        _putInIndex(accountKey.getFingerprint(), blockId);
+    }
+
+    private void _putInIndex(long fingerprint, int blockId) {
+        int mask = m_indexBlocks.length - 1;
+        int i = (int) fingerprint & mask;
+        while (m_indexBlocks[i] != NO_BLOCK)
+            i = (i + 1) & mask;
+        m_indexFingerprints[i] = fingerprint;
+        m_indexBlocks[i] = blockId;
+    }
+
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < m_buckets.size(); i++) {
-            if (i > PvormUtils.STASH_INDEX && m_buckets.get(i).isEmpty()) continue;
+        for (int i = 0; i < m_bucketCounts.length; i++) {
+            if (i > PvormUtils.STASH_INDEX && m_bucketCounts[i] == 0) continue;
 
             if (i != 0) sb.append("\n");
-            sb.append(Integer.toString(i, 2)).append(": ").append(m_buckets.get(i));
+            sb.append(Integer.toString(i, 2)).append(": [");
+            for (int j = 0; j < _getBucketCapacity(i); j++) {
+                if (j != 0) sb.append(", ");
+                int blockId = m_slotBlocks[_getSlotOffset(i) + j];
+                if (blockId == NO_BLOCK) {
+                    sb.append("null");
+                } else {
+                    sb.append("(").append(m_balances[blockId]).append(",")
+                            .append(Integer.toBinaryString(m_leafIds[blockId])).append(",(").append(i).append(",")
+                            .append(j).append("))");
+                }
+            }
+            sb.append("] (").append(m_bucketCounts[i]).append(")");
         }
         return sb.toString();
     }
@@ -476,27 +664,23 @@ public class PlaintextCircuitOram {
         }
     }
 
+    /**
+     * An immutable snapshot of the account stored in one slot of the ORAM.
+     */
     public static class Block {
-        private final ECPoint m_accountKey;
-
-        private long m_balance;
+        private final CanonicalKey m_accountKey;
+        private final long m_balance;
 
-        private OramBucket<Block> m_bucket;
-        private BlockPosition m_position;
-        private int m_leafId;
-
-        private Block(ECPoint accountKey, long balance) {
+        private Block(CanonicalKey accountKey, long balance) {
             m_accountKey = accountKey;
             m_balance = balance;
-
-            m_bucket = null;
-            m_position = null;
-            m_leafId = NO_INDEX;
-
-            if (m_balance < 0) throw new IllegalArgumentException("All blocks must have non-negative balances.");
         }
 
         public ECPoint getAccountKey() {
+            return m_accountKey.getPoint();
+        }
+
+        public CanonicalKey getCanonicalAccountKey() {
             return m_accountKey;
         }
 
@@ -504,46 +688,9 @@ public class PlaintextCircuitOram {
             return m_balance;
         }
 
-        private void updateBalance(long balanceChange) {
-            if (m_balance + balanceChange < 0)
-                throw new IllegalArgumentException("Attempted to set balance to negative value.");
-            m_balance += balanceChange;
-        }
-
-        private OramBucket<Block> getBucket() {
-            return m_bucket;
-        }
-
-        private BlockPosition getPosition() {
-            return m_position;
-        }
-
-        /**
-         * Performs a functional update on the current position of the Block.
-         * This creates a new BlockPosition object so the old one can be easily
-         * saved.
-         */
-        private void setPosition(OramBucket<Block> bucket, int bucketIndex, int indexInBucket) {
-            m_bucket = bucket;
-            m_position = new BlockPosition(bucketIndex, indexInBucket);
-        }
-
-        private void unsetPosition() {
-            m_bucket = null;
-            m_position = null;
-        }
-
-        private int getLeafId() {
-            return m_leafId;
-        }
-
-        private void setLeafId(int leafId) {
-            m_leafId = leafId;
-        }
-
         @Override
         public String toString() {
-            return "(" + m_balance + "," + Integer.toBinaryString(m_leafId) + "," + m_position + ")";
+            return "(" + m_accountKey + "," + m_balance + ")";
         }
     }
 }
@@ -151,7 +151,7 @@ public class PvormUpdate implements SerialWriter {
         int stashSize = inStream.read();
         if (bucketSize < 0 || stashSize < 0) throw new EOFException();
 
-        ECPoint publicKey = SerialHelpers.readECPoint(inStream, params);
+        ECPoint publicKey = SerialHelpers.readInternedECPoint(inStream, params);
 
         PvormUpdate.Builder builder = new PvormUpdate.Builder(treeDepth, bucketSize, stashSize, publicKey);
 
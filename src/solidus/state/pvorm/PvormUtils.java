@@ -32,6 +32,30 @@ package solidus.state.pvorm;
             return (leafId >> (totalTreeDepth - bucketDepth)) + (1 << bucketDepth);
     }
 
+    public static int getTotalBucketCount(int treeDepth) {
+        // The temp bucket takes the unused index 0 of the heap-ordered tree.
+        return 1 << (treeDepth + 1);
+    }
+
+    public static int getBucketCapacity(int bucketIndex, int bucketSize, int stashSize) {
+        if (bucketIndex < TEMP_BUCKET_INDEX)
+            return 0;
+        else if (bucketIndex == TEMP_BUCKET_INDEX)
+            return TEMP_BUCKET_SIZE;
+        else if (bucketIndex == STASH_INDEX)
+            return stashSize;
+        else
+            return bucketSize;
+    }
+
+    // Gives every block in a PVORM a distinct index, with the temp bucket
+    // first, then the stash, then the rest of the tree in heap order.
+    public static int getBlockSlot(int bucketIndex, int blockIndex, int bucketSize, int stashSize) {
+        if (bucketIndex == TEMP_BUCKET_INDEX) return blockIndex;
+        if (bucketIndex == STASH_INDEX) return TEMP_BUCKET_SIZE + blockIndex;
+        return TEMP_BUCKET_SIZE + stashSize + (bucketIndex - STASH_INDEX - 1) * bucketSize + blockIndex;
+    }
+
     public static int reverseBits(final int treeDepth, int val) {
         int result = 0;
         for (int i = 0; i < treeDepth; i++) {
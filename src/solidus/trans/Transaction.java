@@ -37,6 +37,7 @@ import solidus.io.SerialHelpers;
 import solidus.io.SerialWriter;
 import solidus.state.pvorm.EncryptedPvorm;
 import solidus.state.pvorm.PvormUpdate;
+import solidus.util.CanonicalKey;
 import solidus.util.EncryptionParams;
 import solidus.util.Utils;
 import solidus.zkproofs.SchnorrSignature;
@@ -89,6 +90,21 @@ public class Transaction implements SerialWriter {
         return m_header.getDestBankKey();
     }
 
+    /**
+     * @return The canonical form of the sending bank's public encryption key.
+     */
+    public CanonicalKey getSourceBankId() {
+        return m_header.getSourceBankId();
+    }
+
+    /**
+     * @return The canonical form of the receiving bank's public encryption
+     *         key.
+     */
+    public CanonicalKey getDestBankId() {
+        return m_header.getDestBankId();
+    }
+
     /**
      * @return The header of this transaction.
      */
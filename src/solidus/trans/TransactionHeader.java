@@ -28,6 +28,7 @@ import org.bouncycastle.math.ec.ECPoint;
 
 import solidus.io.SerialHelpers;
 import solidus.io.SerialWriter;
+import solidus.util.CanonicalKey;
 import solidus.util.EncryptionParams;
 import solidus.zkproofs.MaxwellRangeProof;
 import solidus.zkproofs.PlaintextEqDisKeyProof;
@@ -62,6 +63,14 @@ public class TransactionHeader implements SerialWriter {
         return m_request.getDestBankKey();
     }
 
+    public CanonicalKey getSourceBankId() {
+        return m_request.getSourceBankId();
+    }
+
+    public CanonicalKey getDestBankId() {
+        return m_request.getDestBankId();
+    }
+
     public TransactionRequest getRequest() {
         return m_request;
     }
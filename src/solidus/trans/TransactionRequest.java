@@ -30,8 +30,11 @@ import org.bouncycastle.math.ec.ECPoint;
 
 import solidus.io.SerialHelpers;
 import solidus.io.SerialWriter;
+import solidus.util.CanonicalKey;
 import solidus.util.EncryptionParams;
+import solidus.zkproofs.CommitmentPool;
 import solidus.zkproofs.ProofOfKnowledgeOfRep;
+import solidus.zkproofs.SigmaCommitment;
 
 /**
  * This class represents a transaction request from a user to its bank. It
@@ -73,6 +76,31 @@ public class TransactionRequest implements SerialWriter {
      */
     public static TransactionRequest buildRequest(EncryptionParams params, ECPoint sourceBankKey, ECPoint destBankKey,
             ECPoint destAccountKey, long value, BigInteger signerKey) {
+        return buildRequest(params, sourceBankKey, destBankKey, destAccountKey, value, signerKey, null);
+    }
+
+    /**
+     * Constructs a new transaction request as
+     * {@link #buildRequest(EncryptionParams, ECPoint, ECPoint, ECPoint, long, BigInteger)
+     * buildRequest} does, taking the randomness of the encrypted signer key
+     * and the nonces of its proof from {@code pool}. If the pool is for
+     * {@code sourceBankKey}, neither needs any scalar multiplications.
+     *
+     * @param params the encryption parameters for this Solidus instance.
+     * @param sourceBankKey the encryption key of the source bank.
+     * @param destBankKey the encryption key of the destination bank.
+     * @param destAccountKey the public verification key for the destination
+     *            account.
+     * @param value the value of assets to transfer
+     * @param signerKey the private signing key of the sending account.
+     * @param pool the pool to take commitments from, or {@code null} to
+     *            generate them inline.
+     * @return a new transaction request to transfer {@code value} from the
+     *         account controlled by {@code signerKey} to the account
+     *         {@code destAccountKey}.
+     */
+    public static TransactionRequest buildRequest(EncryptionParams params, ECPoint sourceBankKey, ECPoint destBankKey,
+            ECPoint destAccountKey, long value, BigInteger signerKey, CommitmentPool pool) {
         Transaction.ID id = new Transaction.ID(Instant.now().getEpochSecond(), params.getRandomSource().nextLong());
 
         ECPair destAccountCipher = params.getEncryptor(destBankKey).encryptPoint(destAccountKey);
@@ -80,14 +108,16 @@ public class TransactionRequest implements SerialWriter {
 
         Details details = new Details(id, sourceBankKey, destBankKey, destAccountCipher, valueCipher);
 
-        BigInteger sigRandomness = params.getRandomIndex();
-        ECPoint sigCipherX = params.getGenerator().multiply(signerKey).add(sourceBankKey.multiply(sigRandomness))
-                .normalize();
-        ECPoint sigCipherY = params.getGenerator().multiply(sigRandomness).normalize();
+        SigmaCommitment sigCommitment = (pool == null ? SigmaCommitment.generate(params, sourceBankKey)
+                : pool.take());
+        BigInteger sigRandomness = sigCommitment.getNonce();
+        ECPoint sigCipherX = params.multiplyFixed(params.getGenerator(), signerKey)
+                .add(sigCommitment.getKeyPoint(params, sourceBankKey)).normalize();
+        ECPoint sigCipherY = sigCommitment.getGeneratorPoint().normalize();
         ECPair sigCipher = new ECPair(sigCipherX, sigCipherY);
 
         ProofOfKnowledgeOfRep proof = ProofOfKnowledgeOfRep.buildProof(params, sigCipher, sourceBankKey, signerKey,
-                sigRandomness, details.toByteArray());
+                sigRandomness, pool, details.toByteArray());
 
         return new TransactionRequest(params, details, proof);
     }
@@ -113,6 +143,22 @@ public class TransactionRequest implements SerialWriter {
         return m_details.m_destBankKey;
     }
 
+    /**
+     * @return the canonical form of the source bank's public encryption key,
+     *         for use as an identifier.
+     */
+    public CanonicalKey getSourceBankId() {
+        return m_details.m_sourceBankId;
+    }
+
+    /**
+     * @return the canonical form of the destination bank's public encryption
+     *         key, for use as an identifier.
+     */
+    public CanonicalKey getDestBankId() {
+        return m_details.m_destBankId;
+    }
+
     /**
      * @return an encryption of the source account's public verification key
      *         under the source bank's encryption key.
@@ -199,6 +245,8 @@ public class TransactionRequest implements SerialWriter {
 
         private final ECPoint m_sourceBankKey;
         private final ECPoint m_destBankKey;
+        private final CanonicalKey m_sourceBankId;
+        private final CanonicalKey m_destBankId;
 
         private final ECPair m_destAccountCipher;
         private final ECPair m_valueCipher;
@@ -209,6 +257,8 @@ public class TransactionRequest implements SerialWriter {
 
             m_sourceBankKey = sourceBankKey;
             m_destBankKey = destBankKey;
+            m_sourceBankId = CanonicalKey.of(sourceBankKey);
+            m_destBankId = CanonicalKey.of(destBankKey);
 
             m_destAccountCipher = destAccountCipher;
             m_valueCipher = valueCipher;
@@ -217,8 +267,8 @@ public class TransactionRequest implements SerialWriter {
         public static Details serialReadIn(InputStream inStream, EncryptionParams params) throws IOException {
             Transaction.ID id = Transaction.ID.serialReadIn(inStream);
 
-            ECPoint sourceBankKey = SerialHelpers.readECPoint(inStream, params);
-            ECPoint destBankKey = SerialHelpers.readECPoint(inStream, params);
+            ECPoint sourceBankKey = SerialHelpers.readInternedECPoint(inStream, params);
+            ECPoint destBankKey = SerialHelpers.readInternedECPoint(inStream, params);
 
             ECPair destAccountCipher = SerialHelpers.readECPair(inStream, params);
             ECPair valueCipher = SerialHelpers.readECPair(inStream, params);
@@ -243,15 +293,15 @@ public class TransactionRequest implements SerialWriter {
             if (!(o instanceof Details)) return false;
 
             Details dtls = (Details) o;
-            return Objects.equals(m_id, dtls.m_id) && Objects.equals(m_sourceBankKey, dtls.m_sourceBankKey)
-                    && Objects.equals(m_destBankKey, dtls.m_destBankKey)
+            return Objects.equals(m_id, dtls.m_id) && Objects.equals(m_sourceBankId, dtls.m_sourceBankId)
+                    && Objects.equals(m_destBankId, dtls.m_destBankId)
                     && Objects.equals(m_destAccountCipher, dtls.m_destAccountCipher)
                     && Objects.equals(m_valueCipher, dtls.m_valueCipher);
         }
 
         @Override
         public int hashCode() {
-            return Objects.hash(m_id, m_sourceBankKey, m_destBankKey, m_destAccountCipher, m_valueCipher);
+            return Objects.hash(m_id, m_sourceBankId, m_destBankId, m_destAccountCipher, m_valueCipher);
         }
     }
 }
@@ -19,6 +19,8 @@
 package solidus.util;
 
 import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.bouncycastle.crypto.ec.ECPair;
 import org.bouncycastle.math.ec.ECPoint;
@@ -41,6 +43,12 @@ import org.bouncycastle.math.ec.ECPoint;
  * @author ethan@cs.cornell.edu
  */
 public abstract class AbstractEncryptor implements Encryptor {
+    /**
+     * The number of zero encryptions background workers should generate and
+     * normalize together with {@link #generateZeroEncryptions(int)}.
+     */
+    protected static final int BACKGROUND_BATCH_SIZE = 64;
+
     protected final EncryptionParams m_params;
     protected final ECPoint m_publicKey;
     protected final boolean m_normalize;
@@ -72,10 +80,35 @@ public abstract class AbstractEncryptor implements Encryptor {
     protected ECPair generateZeroEncryption() {
         BigInteger r = m_params.getRandomIndex();
         if (m_normalize) {
-            return new ECPair(m_publicKey.multiply(r).normalize(), m_params.getGenerator().multiply(r).normalize());
+            return new ECPair(m_params.multiplyFixed(m_publicKey, r).normalize(),
+                    m_params.multiplyFixed(m_params.getGenerator(), r).normalize());
         } else {
-            return new ECPair(m_publicKey.multiply(r), m_params.getGenerator().multiply(r));
+            return new ECPair(m_params.multiplyFixed(m_publicKey, r),
+                    m_params.multiplyFixed(m_params.getGenerator(), r));
+        }
+    }
+
+    /**
+     * Generates {@code count} encryptions of zero and normalizes all of their
+     * points together using a single field inversion. This is thread-safe and
+     * intended for classes that compute zero encryptions in the background,
+     * where the results will be used later and should therefore be stored in
+     * their cheapest form to add and to serialize.
+     *
+     * Unlike {@link #generateZeroEncryption()}, the results are always
+     * normalized, since batching makes normalization nearly free.
+     *
+     * @param count the number of encryptions to generate.
+     * @return a list of {@code count} independent encryptions of zero.
+     */
+    protected List<ECPair> generateZeroEncryptions(int count) {
+        List<ECPair> encryptions = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            BigInteger r = m_params.getRandomIndex();
+            encryptions.add(new ECPair(m_params.multiplyFixed(m_publicKey, r),
+                    m_params.multiplyFixed(m_params.getGenerator(), r)));
         }
+        return BatchNormalizer.normalizePairs(encryptions);
     }
 
     /**
@@ -122,7 +155,7 @@ public abstract class AbstractEncryptor implements Encryptor {
         if (BigInteger.ZERO.equals(v)) {
             return encryptZero();
         } else {
-            return encryptPoint(m_params.getGenerator().multiply(v));
+            return encryptPoint(m_params.multiplyFixed(m_params.getGenerator(), v));
         }
     }
 
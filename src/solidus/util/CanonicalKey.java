@@ -0,0 +1,150 @@
+/*
+ * Solidus - Confidential Distributed Ledger Transactions via PVORM
+ *
+ * Copyright 2016-2017 Ethan Cecchetti, Fan Zhang and Yan Ji
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package solidus.util;
+
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+
+import org.bouncycastle.math.ec.ECPoint;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * An immutable public key, such as an account key or a bank's encryption key,
+ * in a canonical form suitable for use as a map key or identifier.
+ *
+ * {@code ECPoint} normalizes itself and converts its coordinates on every call
+ * to {@code hashCode}, {@code equals}, or {@code getEncoded}. A
+ * {@code CanonicalKey} does that work once on construction and keeps the
+ * normalized point, its compressed encoding, a 64-bit hash, and a string ID.
+ * Comparing or hashing two keys never touches the curve.
+ *
+ * The hash is keyed with a secret chosen at startup. Account keys come from
+ * users, so an unkeyed hash would let them pick keys that all land in the same
+ * hash bucket.
+ */
+public final class CanonicalKey implements Comparable<CanonicalKey> {
+    private static final HashFunction FINGERPRINT_FUNCTION;
+
+    static {
+        SecureRandom rand = new SecureRandom();
+        FINGERPRINT_FUNCTION = Hashing.sipHash24(rand.nextLong(), rand.nextLong());
+    }
+
+    /**
+     * Returns the canonical form of the given point.
+     *
+     * @param point the point to canonicalize.
+     * @return a new key for {@code point}.
+     */
+    public static CanonicalKey of(ECPoint point) {
+        return new CanonicalKey(point);
+    }
+
+    /**
+     * Parses a key from a string ID produced by {@link #getStringId()
+     * getStringId}.
+     *
+     * @param stringId the ID to parse.
+     * @param params the params specifying the curve of the key.
+     * @return the key with the given ID.
+     * @throws IllegalArgumentException if {@code stringId} is not a valid ID
+     *             for a point on the curve.
+     */
+    public static CanonicalKey fromStringId(String stringId, EncryptionParams params) {
+        return new CanonicalKey(params.decodePoint(Base64.getUrlDecoder().decode(stringId)));
+    }
+
+    private final ECPoint m_point;
+    private final byte[] m_encoded;
+    private final long m_fingerprint;
+    private final String m_stringId;
+
+    private CanonicalKey(ECPoint point) {
+        m_point = point.normalize();
+        m_encoded = m_point.getEncoded(true);
+        m_fingerprint = FINGERPRINT_FUNCTION.hashBytes(m_encoded).asLong();
+        m_stringId = Base64.getUrlEncoder().encodeToString(m_encoded);
+    }
+
+    /**
+     * @return the normalized point.
+     */
+    public ECPoint getPoint() {
+        return m_point;
+    }
+
+    /**
+     * @return a copy of the compressed encoding of the point.
+     */
+    public byte[] getEncoded() {
+        return m_encoded.clone();
+    }
+
+    /**
+     * Returns a 64-bit hash of the key. It is only consistent within a single
+     * process, so it must never be stored or sent anywhere.
+     *
+     * @return a 64-bit hash of the key.
+     */
+    public long getFingerprint() {
+        return m_fingerprint;
+    }
+
+    /**
+     * Returns a URL-safe Base64 encoding of the compressed point. This is the
+     * same on every node, so it can be used to name banks and accounts
+     * externally.
+     *
+     * @return a string identifying the key.
+     */
+    public String getStringId() {
+        return m_stringId;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) return true;
+        if (!(o instanceof CanonicalKey)) return false;
+
+        CanonicalKey key = (CanonicalKey) o;
+        return m_fingerprint == key.m_fingerprint && Arrays.equals(m_encoded, key.m_encoded);
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (m_fingerprint ^ (m_fingerprint >>> 32));
+    }
+
+    @Override
+    public int compareTo(CanonicalKey other) {
+        for (int i = 0; i < Math.min(m_encoded.length, other.m_encoded.length); i++) {
+            int diff = (m_encoded[i] & 0xff) - (other.m_encoded[i] & 0xff);
+            if (diff != 0) return diff;
+        }
+        return m_encoded.length - other.m_encoded.length;
+    }
+
+    @Override
+    public String toString() {
+        return m_stringId;
+    }
+}
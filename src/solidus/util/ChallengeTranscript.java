@@ -0,0 +1,172 @@
+/*
+ * Solidus - Confidential Distributed Ledger Transactions via PVORM
+ *
+ * Copyright 2016-2017 Ethan Cecchetti, Fan Zhang and Yan Ji
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package solidus.util;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.function.Supplier;
+
+import org.bouncycastle.math.ec.ECPoint;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * A Fiat-Shamir transcript that absorbs a shared prefix once and derives any
+ * number of challenges from it. Each challenge is the hash of everything
+ * absorbed so far followed by a single index byte, reduced modulo the group
+ * size. Deriving a challenge forks the digest state instead of re-feeding the
+ * prefix, so producing {@code k} challenges over {@code n} bytes of prefix
+ * costs one pass over the prefix rather than {@code k}.
+ *
+ * Points are absorbed as their compressed encodings. Callers that already
+ * hold those encodings (for instance ciphertexts that take part in several
+ * proofs) can absorb the bytes directly and skip the encoding work.
+ *
+ * Transcripts are not thread-safe.
+ */
+public class ChallengeTranscript {
+    private final Supplier<MessageDigest> m_digestSupplier;
+    private final BigInteger m_groupSize;
+    private final MessageDigest m_digest;
+
+    // Only used if the digest cannot be cloned, in which case forking replays
+    // the absorbed prefix into a fresh digest.
+    private final ByteArrayOutputStream m_absorbed;
+
+    /* package */ ChallengeTranscript(Supplier<MessageDigest> digestSupplier, BigInteger groupSize,
+            boolean digestCloneable) {
+        m_digestSupplier = digestSupplier;
+        m_groupSize = groupSize;
+        m_digest = digestSupplier.get();
+        m_absorbed = (digestCloneable ? null : new ByteArrayOutputStream());
+    }
+
+    private ChallengeTranscript(ChallengeTranscript parent) {
+        m_digestSupplier = parent.m_digestSupplier;
+        m_groupSize = parent.m_groupSize;
+        m_digest = parent._forkDigest();
+        if (parent.m_absorbed == null) {
+            m_absorbed = null;
+        } else {
+            m_absorbed = new ByteArrayOutputStream();
+            m_absorbed.write(parent.m_absorbed.toByteArray(), 0, parent.m_absorbed.size());
+        }
+    }
+
+    /**
+     * Adds pre-encoded data to the transcript.
+     *
+     * @param data The bytes to absorb.
+     * @return this transcript.
+     */
+    public ChallengeTranscript absorb(byte[] data) {
+        m_digest.update(data);
+        if (m_absorbed != null) m_absorbed.write(data, 0, data.length);
+        return this;
+    }
+
+    /**
+     * Adds the compressed encoding of each point to the transcript in the
+     * order given.
+     *
+     * @param points The points to absorb.
+     * @return this transcript.
+     */
+    public ChallengeTranscript absorb(ECPoint... points) {
+        for (ECPoint point : points)
+            absorb(point.getEncoded(true));
+        return this;
+    }
+
+    /**
+     * Hashes everything absorbed so far into a single challenge without an
+     * index. As with {@link #challenge(byte)}, the transcript is unchanged.
+     *
+     * @return a number between 0 and the group size.
+     */
+    public BigInteger challenge() {
+        return new BigInteger(_forkDigest().digest()).mod(m_groupSize);
+    }
+
+    /**
+     * Derives the challenge for {@code index} from everything absorbed so far.
+     * The transcript itself is unchanged, so further data may be absorbed and
+     * further challenges derived afterward.
+     *
+     * @param index The index distinguishing this challenge from others over
+     *            the same prefix.
+     * @return a number between 0 and the group size.
+     */
+    public BigInteger challenge(byte index) {
+        MessageDigest digest = _forkDigest();
+        digest.update(index);
+        return new BigInteger(digest.digest()).mod(m_groupSize);
+    }
+
+    /**
+     * Derives one challenge for each of the given indices as with
+     * {@link #challenge(byte)}.
+     *
+     * @param indices The indices of the challenges to derive.
+     * @return a list of numbers between 0 and the group size, one for each
+     *         index in order.
+     */
+    public List<BigInteger> challenges(List<Byte> indices) {
+        ImmutableList.Builder<BigInteger> challengesBuilder = new ImmutableList.Builder<>();
+        for (byte index : indices)
+            challengesBuilder.add(challenge(index));
+        return challengesBuilder.build();
+    }
+
+    /**
+     * Creates an independent copy of this transcript. Data absorbed into the
+     * copy does not affect this transcript and vice versa, so a common prefix
+     * can be absorbed once and then extended in several different ways.
+     *
+     * @return a new transcript with the same absorbed state.
+     */
+    public ChallengeTranscript fork() {
+        return new ChallengeTranscript(this);
+    }
+
+    private MessageDigest _forkDigest() {
+        if (m_absorbed != null) {
+            MessageDigest digest = m_digestSupplier.get();
+            digest.update(m_absorbed.toByteArray());
+            return digest;
+        }
+        try {
+            return (MessageDigest) m_digest.clone();
+        } catch (CloneNotSupportedException e) {
+            // The parameters checked that this digest can be cloned.
+            throw new IllegalStateException("Digest stopped supporting clone", e);
+        }
+    }
+
+    /* package */ static boolean isCloneable(MessageDigest digest) {
+        try {
+            digest.clone();
+            return true;
+        } catch (CloneNotSupportedException e) {
+            return false;
+        }
+    }
+}
@@ -19,6 +19,7 @@
 package solidus.util;
 
 import java.math.BigInteger;
+import java.util.List;
 
 import org.bouncycastle.crypto.ec.ECPair;
 import org.bouncycastle.math.ec.ECPoint;
@@ -68,10 +69,10 @@ public class Decryptor {
     public ECPoint decryptPoint(ECPair encryption) {
         if (m_blindDecryption) {
             BigInteger blindFactor = m_params.getRandomIndex();
-            return encryption.getX().subtract(encryption.getY().multiply(blindFactor.add(m_secretKey)))
-                    .add(encryption.getY().multiply(blindFactor));
+            return encryption.getX().subtract(m_params.multiply(encryption.getY(), blindFactor.add(m_secretKey)))
+                    .add(m_params.multiply(encryption.getY(), blindFactor));
         } else {
-            return encryption.getX().subtract(encryption.getY().multiply(m_secretKey));
+            return encryption.getX().subtract(m_params.multiply(encryption.getY(), m_secretKey));
         }
     }
 
@@ -95,4 +96,34 @@ public class Decryptor {
     public long decryptBalance(ECPair encryption) {
         return m_params.lookupDiscreteLog(decryptPoint(encryption));
     }
+
+    /**
+     * Decrypts each of the specified encryptions to an elliptic curve point as
+     * with {@link #decryptPoint(ECPair) decryptPoint}. The results are
+     * normalized together with a single field inversion.
+     *
+     * @param encryptions the encryptions to decrypt
+     * @return the normalized decrypted points, in order.
+     */
+    public ECPoint[] decryptPoints(List<ECPair> encryptions) {
+        ECPoint[] points = new ECPoint[encryptions.size()];
+        for (int i = 0; i < points.length; i++)
+            points[i] = decryptPoint(encryptions.get(i));
+        BatchNormalizer.normalizeAll(points);
+        return points;
+    }
+
+    /**
+     * Decrypts each of the specified encryptions to a balance as with
+     * {@link #decryptBalance(ECPair) decryptBalance}, but decrypts and looks
+     * up all of the values as a batch.
+     *
+     * @param encryptions the encryptions to decrypt
+     * @return the decrypted balances, in order.
+     * @throws IllegalArgumentException if any discrete log is too big to
+     *             determine using the lookup table.
+     */
+    public long[] decryptBalances(List<ECPair> encryptions) {
+        return m_params.lookupDiscreteLogs(decryptPoints(encryptions));
+    }
 }
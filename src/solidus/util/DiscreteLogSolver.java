@@ -0,0 +1,243 @@
+/*
+ * Solidus - Confidential Distributed Ledger Transactions via PVORM
+ *
+ * Copyright 2016-2017 Ethan Cecchetti, Fan Zhang and Yan Ji
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package solidus.util;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Path;
+
+import org.bouncycastle.math.ec.ECMultiplier;
+import org.bouncycastle.math.ec.ECPoint;
+import org.bouncycastle.math.ec.FixedPointCombMultiplier;
+
+/**
+ * Computes small discrete logs relative to a fixed generator using a
+ * baby-step giant-step search. This is how balances are decrypted, so it sits
+ * directly on the transaction latency path.
+ *
+ * The solver stores a {@link solidus.util.DiscreteLogTable table} of baby
+ * steps {@code j*G} for {@code 1 <= j <= m}, keyed by a 64-bit fingerprint of
+ * each point's affine x-coordinate. Since {@code P} and {@code -P} share an
+ * x-coordinate, one entry covers both {@code j} and {@code -j}. To find the
+ * discrete log of {@code P}, the solver takes giant steps {@code P - k*S}
+ * with {@code S = (2m+1)*G}, alternating {@code k = 0, 1, -1, 2, -2, ...} so
+ * that small values are found first, and looks each one up in the table. Giant steps are generated in batches and
+ * normalized together so that each one costs a single point addition and a
+ * few field multiplications. A fingerprint match is always verified against
+ * the full point before a result is returned.
+ *
+ * The number of baby steps is a memory/time tradeoff: the table holds
+ * {@code m} entries and a lookup takes at most about {@code maxLog / m} giant
+ * steps.
+ *
+ * This class is immutable once constructed and is thread-safe.
+ */
+public class DiscreteLogSolver {
+    /**
+     * The largest number of baby steps a solver will store. Requests for
+     * larger tables are clamped to this, leaving more work to giant steps.
+     */
+    public static final int MAX_BABY_STEPS = 1 << 29;
+
+    // Giant step batches start small so that small values, the common case,
+    // are found without wasted work, and double up to the maximum.
+    private static final int MAX_GIANT_STEP_BATCH_SIZE = 64;
+
+    private final ECPoint m_generator;
+    private final ECMultiplier m_verifyMultiplier;
+    private final long m_maxLog;
+    private final int m_babySteps;
+    private final long m_giantStepSize;
+    private final long m_maxGiantSteps;
+    private final ECPoint m_giantStep;
+    private final ECPoint m_negGiantStep;
+
+    private final DiscreteLogTable m_table;
+
+    /**
+     * Constructs a solver for discrete logs in {@code [-maxLog, maxLog]},
+     * building its table in memory outside of the Java heap. If
+     * {@code maxLog} is negative, the solver is empty and every lookup fails.
+     *
+     * @param generator the generator that discrete logs are relative to. If
+     *            it has a precomputed fixed-base comb table, that will be used
+     *            to verify matches.
+     * @param maxLog the largest absolute value that can be found.
+     * @param babySteps the number of baby steps to store. This is clamped to
+     *            {@code [1, }{@link #MAX_BABY_STEPS}{@code ]} and to
+     *            {@code maxLog}.
+     */
+    public DiscreteLogSolver(ECPoint generator, long maxLog, long babySteps) {
+        this(generator, maxLog, babySteps, null);
+    }
+
+    /**
+     * Constructs a solver for discrete logs in {@code [-maxLog, maxLog]}. If
+     * {@code tableFile} is not {@code null}, the table is memory-mapped from
+     * that file, and is built and saved there first if the file does not
+     * already hold a matching table. If {@code maxLog} is negative, the solver
+     * is empty and every lookup fails.
+     *
+     * @param generator the generator that discrete logs are relative to. If
+     *            it has a precomputed fixed-base comb table, that will be used
+     *            to verify matches.
+     * @param maxLog the largest absolute value that can be found.
+     * @param babySteps the number of baby steps to store. This is clamped to
+     *            {@code [1, }{@link #MAX_BABY_STEPS}{@code ]} and to
+     *            {@code maxLog}.
+     * @param tableFile the file storing the table, or {@code null} to keep it
+     *            only in memory.
+     * @throws RuntimeException if the table file cannot be read or written.
+     * @see solidus.util.DiscreteLogTable
+     */
+    public DiscreteLogSolver(ECPoint generator, long maxLog, long babySteps, Path tableFile) {
+        m_generator = generator.normalize();
+        m_verifyMultiplier = new FixedPointCombMultiplier();
+        m_maxLog = maxLog;
+
+        if (maxLog < 0) {
+            m_babySteps = 0;
+        } else {
+            m_babySteps = (int) Math.max(Math.min(Math.min(babySteps, maxLog), MAX_BABY_STEPS), 1);
+        }
+        m_giantStepSize = 2L * m_babySteps + 1;
+        m_maxGiantSteps = Math.max(0, (maxLog - m_babySteps + m_giantStepSize - 1) / m_giantStepSize);
+        m_giantStep = m_generator.multiply(BigInteger.valueOf(m_giantStepSize)).normalize();
+        m_negGiantStep = m_giantStep.negate();
+
+        if (tableFile == null) {
+            m_table = DiscreteLogTable.build(m_generator, m_babySteps);
+        } else {
+            try {
+                m_table = DiscreteLogTable.loadOrBuild(tableFile, m_generator, m_babySteps);
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to load discrete log table from " + tableFile, e);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of baby steps stored in the table.
+     *
+     * @return the number of baby steps stored in the table.
+     */
+    public int getBabySteps() {
+        return m_babySteps;
+    }
+
+    /**
+     * Returns the maximum number of giant steps in each direction that a
+     * lookup may take.
+     *
+     * @return the maximum number of giant steps in each direction.
+     */
+    public long getMaxGiantSteps() {
+        return m_maxGiantSteps;
+    }
+
+    /**
+     * Finds the discrete log of the given point relative to the generator.
+     *
+     * @param point the point to find the discrete log of.
+     * @return the unique {@code v} with {@code |v| <= maxLog} such that
+     *         {@code point = v * G}.
+     * @throws IllegalArgumentException if no such {@code v} exists.
+     */
+    public long lookup(ECPoint point) {
+        if (m_maxLog >= 0) {
+            // Positive giant steps walk down from the point and negative ones
+            // walk up, so k * stepSize + r is the answer when either matches
+            // baby step r.
+            ECPoint[] batch = new ECPoint[2 * MAX_GIANT_STEP_BATCH_SIZE];
+            ECPoint down = point;
+            ECPoint up = point;
+            long k = 0;
+            int batchSize = 1;
+            while (k <= m_maxGiantSteps) {
+                int count = (int) Math.min(batchSize, m_maxGiantSteps - k + 1);
+                for (int i = 0; i < count; i++) {
+                    batch[2 * i] = down;
+                    batch[2 * i + 1] = up;
+                    down = down.add(m_negGiantStep);
+                    up = up.add(m_giantStep);
+                }
+                BatchNormalizer.normalizeAll(batch, 0, 2 * count);
+
+                for (int i = 0; i < count; i++) {
+                    long giantSteps = k + i;
+                    Long result = _findBabyStep(batch[2 * i]);
+                    if (result == null && giantSteps != 0) {
+                        result = _findBabyStep(batch[2 * i + 1]);
+                        giantSteps = -giantSteps;
+                    }
+                    if (result != null) {
+                        long log = giantSteps * m_giantStepSize + result;
+                        if (Math.abs(log) <= m_maxLog) return log;
+                    }
+                }
+                k += count;
+                batchSize = Math.min(2 * batchSize, MAX_GIANT_STEP_BATCH_SIZE);
+            }
+        }
+
+        throw new IllegalArgumentException("Attempted to lookup decryption that is not in table.");
+    }
+
+    /**
+     * Finds the discrete logs of many points at once. All points are
+     * normalized together and checked against the baby steps first, so a
+     * batch of small values costs a single field inversion. Points that need
+     * giant steps fall back to {@link #lookup lookup}.
+     *
+     * @param points the points to find the discrete logs of. This array is
+     *            not modified.
+     * @return the discrete log of each point, in order.
+     * @throws IllegalArgumentException if any point's discrete log is out of
+     *             range.
+     */
+    public long[] lookupAll(ECPoint[] points) {
+        if (m_maxLog < 0 && points.length > 0)
+            throw new IllegalArgumentException("Attempted to lookup decryption that is not in table.");
+
+        ECPoint[] normalized = points.clone();
+        BatchNormalizer.normalizeAll(normalized);
+        long[] logs = new long[points.length];
+        for (int i = 0; i < points.length; i++) {
+            Long result = _findBabyStep(normalized[i]);
+            logs[i] = (result != null && Math.abs(result) <= m_maxLog ? result : lookup(normalized[i]));
+        }
+        return logs;
+    }
+
+    // Returns r with |r| <= m such that point = r * G, or null if none exists.
+    private Long _findBabyStep(ECPoint normalizedPoint) {
+        if (normalizedPoint.isInfinity()) return 0L;
+
+        long fingerprint = DiscreteLogTable.fingerprint(normalizedPoint);
+        int babyStep;
+        for (int skip = 0; (babyStep = m_table.getCandidate(fingerprint, skip)) != 0; skip++) {
+            ECPoint candidate = m_verifyMultiplier.multiply(m_generator, BigInteger.valueOf(babyStep)).normalize();
+            if (candidate.getAffineXCoord().equals(normalizedPoint.getAffineXCoord())) {
+                boolean negated = !candidate.getAffineYCoord().equals(normalizedPoint.getAffineYCoord());
+                return Long.valueOf(negated ? -babyStep : babyStep);
+            }
+        }
+        return null;
+    }
+}
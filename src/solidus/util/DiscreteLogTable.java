@@ -0,0 +1,404 @@
+/*
+ * Solidus - Confidential Distributed Ledger Transactions via PVORM
+ *
+ * Copyright 2016-2017 Ethan Cecchetti, Fan Zhang and Yan Ji
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package solidus.util;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.bouncycastle.math.ec.ECPoint;
+
+/**
+ * The baby-step table of a {@link solidus.util.DiscreteLogSolver
+ * DiscreteLogSolver}, stored outside of the Java heap.
+ *
+ * The table maps baby step indices {@code j} to 64-bit fingerprints of the
+ * affine x-coordinate of {@code j*G} with open addressing and linear probing.
+ * Each slot is 12 bytes: an 8-byte fingerprint followed by a 4-byte index,
+ * where an index of 0 marks an empty slot. Because fingerprints can collide,
+ * callers must verify any candidate index returned by a lookup.
+ *
+ * A table can be backed by a file. The file holds a short header recording
+ * the generator and table size followed by the slots, so a table built once
+ * can be memory-mapped on later starts without recomputing anything. The
+ * table is built in parallel across all available cores. Each round of the
+ * build first computes the fingerprints of a range of baby steps in parallel
+ * and then inserts them in parallel, with each thread owning a disjoint
+ * region of slots, so the threads never contend on a lock.
+ *
+ * Once built, the table is immutable and safe to read from multiple threads.
+ */
+public class DiscreteLogTable {
+    private static final int MAGIC = 0x534c444c;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 128;
+
+    private static final int ENTRY_SIZE = 12;
+    // Slots are split across several buffers since a single buffer cannot
+    // exceed 2GB.
+    private static final int CHUNK_BITS = 26;
+    private static final int CHUNK_MASK = (1 << CHUNK_BITS) - 1;
+
+    // Tables smaller than this are built in the calling thread.
+    private static final int PARALLEL_THRESHOLD = 1 << 14;
+    private static final int BUILD_BATCH_SIZE = 1024;
+    // The number of baby steps each thread computes in one round of a
+    // parallel build. This bounds the on-heap memory used while building.
+    private static final int STEPS_PER_THREAD_ROUND = 1 << 14;
+
+    private final int m_babySteps;
+    private final int m_mask;
+    private final ByteBuffer[] m_chunks;
+
+    private DiscreteLogTable(int babySteps, ByteBuffer[] chunks) {
+        m_babySteps = babySteps;
+        m_mask = _capacity(babySteps) - 1;
+        m_chunks = chunks;
+    }
+
+    /**
+     * Builds a table of baby steps {@code 1 <= j <= babySteps} in direct
+     * (off-heap) memory.
+     *
+     * @param generator the generator the baby steps are multiples of.
+     * @param babySteps the number of baby steps to store.
+     * @return a new table.
+     */
+    public static DiscreteLogTable build(ECPoint generator, int babySteps) {
+        return build(generator, babySteps, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Builds a table of baby steps {@code 1 <= j <= babySteps} in direct
+     * (off-heap) memory using the given number of threads.
+     *
+     * @param generator the generator the baby steps are multiples of.
+     * @param babySteps the number of baby steps to store.
+     * @param threads the number of threads to build the table with.
+     * @return a new table.
+     * @throws IllegalArgumentException if {@code threads} is not positive.
+     */
+    public static DiscreteLogTable build(ECPoint generator, int babySteps, int threads) {
+        if (threads < 1) throw new IllegalArgumentException("Must build with at least one thread.");
+        int capacity = _capacity(babySteps);
+        ByteBuffer[] chunks = new ByteBuffer[_chunkCount(capacity)];
+        for (int i = 0; i < chunks.length; i++)
+            chunks[i] = ByteBuffer.allocateDirect(_chunkSlots(capacity, i) * ENTRY_SIZE);
+
+        DiscreteLogTable table = new DiscreteLogTable(babySteps, chunks);
+        table._fill(generator, threads);
+        return table;
+    }
+
+    /**
+     * Memory-maps the table stored in {@code file} if it was built for the
+     * same generator and number of baby steps. Otherwise builds the table
+     * directly into the file, replacing any previous contents, and maps that.
+     *
+     * @param file the file in which the table is stored.
+     * @param generator the generator the baby steps are multiples of.
+     * @param babySteps the number of baby steps to store.
+     * @return a new table backed by {@code file}.
+     * @throws IOException if the file cannot be read or written.
+     */
+    public static DiscreteLogTable loadOrBuild(Path file, ECPoint generator, int babySteps) throws IOException {
+        int capacity = _capacity(babySteps);
+        byte[] encodedGenerator = generator.getEncoded(true);
+        long fileSize = HEADER_SIZE + (long) capacity * ENTRY_SIZE;
+
+        if (Files.exists(file) && Files.size(file) == fileSize) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+                if (_headerMatches(header, babySteps, encodedGenerator)) {
+                    return new DiscreteLogTable(babySteps, _mapChunks(channel, capacity,
+                            FileChannel.MapMode.READ_ONLY));
+                }
+            }
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer[] chunks = _mapChunks(channel, capacity, FileChannel.MapMode.READ_WRITE);
+            DiscreteLogTable table = new DiscreteLogTable(babySteps, chunks);
+            table._fill(generator, Runtime.getRuntime().availableProcessors());
+            for (MappedByteBuffer chunk : chunks)
+                chunk.force();
+
+            // Write the header last so a partially built file is never
+            // mistaken for a complete one.
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putInt(babySteps).putInt(encodedGenerator.length)
+                    .put(encodedGenerator);
+            header.force();
+            return table;
+        }
+    }
+
+    private static boolean _headerMatches(ByteBuffer header, int babySteps, byte[] encodedGenerator) {
+        if (header.getInt() != MAGIC || header.getInt() != VERSION || header.getInt() != babySteps) return false;
+        if (header.getInt() != encodedGenerator.length) return false;
+        byte[] storedGenerator = new byte[encodedGenerator.length];
+        header.get(storedGenerator);
+        return Arrays.equals(storedGenerator, encodedGenerator);
+    }
+
+    private static MappedByteBuffer[] _mapChunks(FileChannel channel, int capacity, FileChannel.MapMode mode)
+            throws IOException {
+        MappedByteBuffer[] chunks = new MappedByteBuffer[_chunkCount(capacity)];
+        long position = HEADER_SIZE;
+        for (int i = 0; i < chunks.length; i++) {
+            long size = (long) _chunkSlots(capacity, i) * ENTRY_SIZE;
+            chunks[i] = channel.map(mode, position, size);
+            position += size;
+        }
+        return chunks;
+    }
+
+    private static int _capacity(int babySteps) {
+        // Keep the load factor at most 1/2 so probe sequences stay short.
+        return Integer.highestOneBit(Math.max(2 * babySteps - 1, 1)) << 1;
+    }
+
+    private static int _chunkCount(int capacity) {
+        return ((capacity - 1) >>> CHUNK_BITS) + 1;
+    }
+
+    private static int _chunkSlots(int capacity, int chunk) {
+        return Math.min(capacity - (chunk << CHUNK_BITS), 1 << CHUNK_BITS);
+    }
+
+    /**
+     * Computes the table key of a point: the low 64 bits of its affine
+     * x-coordinate. A point and its negation have the same fingerprint.
+     *
+     * @param normalizedPoint a normalized point other than infinity.
+     * @return the fingerprint of the point.
+     */
+    public static long fingerprint(ECPoint normalizedPoint) {
+        return normalizedPoint.getAffineXCoord().toBigInteger().longValue();
+    }
+
+    private void _fill(ECPoint generator, int threads) {
+        if (threads <= 1 || m_babySteps < PARALLEL_THRESHOLD) {
+            _fillSequential(generator);
+            return;
+        }
+
+        // Split the slots into at least as many equal regions as there are
+        // threads. The capacity is a power of two at least twice the
+        // threshold, so every region holds many slots.
+        int regionCount = Math.min(Integer.highestOneBit(threads - 1) << 1, PARALLEL_THRESHOLD);
+        int regionShift = Integer.numberOfTrailingZeros(m_mask + 1) - Integer.numberOfTrailingZeros(regionCount);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new DaemonThreadFactory("DiscreteLogTable"));
+        try {
+            // Entries whose probe sequence runs off the end of their region
+            // are inserted by the calling thread after all regions are done.
+            List<long[]> overflow = new ArrayList<>();
+            long roundSize = (long) threads * STEPS_PER_THREAD_ROUND;
+            for (long roundStart = 1; roundStart <= m_babySteps; roundStart += roundSize) {
+                List<Future<PartitionedSteps>> computeJobs = new ArrayList<>(threads);
+                for (long start = roundStart; start < roundStart + roundSize && start <= m_babySteps;
+                        start += STEPS_PER_THREAD_ROUND) {
+                    final int first = (int) start;
+                    final int last = (int) Math.min(start + STEPS_PER_THREAD_ROUND - 1, m_babySteps);
+                    computeJobs.add(executor.submit(() -> _computeRange(generator, first, last, regionCount,
+                            regionShift)));
+                }
+                List<PartitionedSteps> computed = new ArrayList<>(computeJobs.size());
+                for (Future<PartitionedSteps> job : computeJobs)
+                    computed.add(Utils.getFuture(job));
+
+                List<Future<List<long[]>>> insertJobs = new ArrayList<>(regionCount);
+                for (int region = 0; region < regionCount; region++) {
+                    final int regionIndex = region;
+                    insertJobs.add(executor.submit(() -> _insertRegion(computed, regionIndex, regionShift)));
+                }
+                for (Future<List<long[]>> job : insertJobs)
+                    overflow.addAll(Utils.getFuture(job));
+            }
+
+            for (long[] entry : overflow)
+                _insert(entry[0], (int) entry[1]);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private void _fillSequential(ECPoint generator) {
+        ECPoint[] batch = new ECPoint[BUILD_BATCH_SIZE];
+        ECPoint current = generator.getCurve().getInfinity();
+        for (int start = 1; start <= m_babySteps; start += BUILD_BATCH_SIZE) {
+            int count = Math.min(BUILD_BATCH_SIZE, m_babySteps - start + 1);
+            current = _nextBatch(generator, current, batch, count);
+            for (int i = 0; i < count; i++)
+                _insert(fingerprint(batch[i]), start + i);
+        }
+    }
+
+    // Fills the first count entries of batch with the normalized points
+    // following current and returns the last one.
+    private static ECPoint _nextBatch(ECPoint generator, ECPoint current, ECPoint[] batch, int count) {
+        for (int i = 0; i < count; i++) {
+            current = current.add(generator);
+            batch[i] = current;
+        }
+        BatchNormalizer.normalizeAll(batch, 0, count);
+        return batch[count - 1];
+    }
+
+    // Computes the fingerprints of baby steps first through last and groups
+    // them by the region of slots they hash to.
+    private PartitionedSteps _computeRange(ECPoint generator, int first, int last, int regionCount,
+            int regionShift) {
+        int size = last - first + 1;
+        long[] fingerprints = new long[size];
+        int[] regions = new int[size];
+        int[] offsets = new int[regionCount + 1];
+
+        ECPoint[] batch = new ECPoint[BUILD_BATCH_SIZE];
+        ECPoint current = generator.multiply(BigInteger.valueOf(first - 1));
+        for (int start = 0; start < size; start += BUILD_BATCH_SIZE) {
+            int count = Math.min(BUILD_BATCH_SIZE, size - start);
+            current = _nextBatch(generator, current, batch, count);
+            for (int i = 0; i < count; i++) {
+                fingerprints[start + i] = fingerprint(batch[i]);
+                regions[start + i] = _slot(fingerprints[start + i]) >>> regionShift;
+                offsets[regions[start + i] + 1]++;
+            }
+        }
+
+        for (int region = 0; region < regionCount; region++)
+            offsets[region + 1] += offsets[region];
+        int[] next = Arrays.copyOf(offsets, regionCount);
+        long[] sortedFingerprints = new long[size];
+        int[] sortedSteps = new int[size];
+        for (int i = 0; i < size; i++) {
+            int position = next[regions[i]]++;
+            sortedFingerprints[position] = fingerprints[i];
+            sortedSteps[position] = first + i;
+        }
+        return new PartitionedSteps(sortedFingerprints, sortedSteps, offsets);
+    }
+
+    // Inserts every computed entry that hashes into the given region. Only
+    // slots inside the region are written, so regions can be filled
+    // concurrently. Returns the entries that did not fit before the end of
+    // the region as {fingerprint, babyStep} pairs.
+    private List<long[]> _insertRegion(List<PartitionedSteps> computed, int region, int regionShift) {
+        int regionEnd = (region + 1) << regionShift;
+        List<long[]> overflow = new ArrayList<>();
+        for (PartitionedSteps steps : computed) {
+            for (int i = steps.m_offsets[region]; i < steps.m_offsets[region + 1]; i++) {
+                int slot = _slot(steps.m_fingerprints[i]);
+                while (slot < regionEnd && _valueAt(slot) != 0)
+                    slot++;
+                if (slot < regionEnd) {
+                    _putEntry(slot, steps.m_fingerprints[i], steps.m_babySteps[i]);
+                } else {
+                    overflow.add(new long[] { steps.m_fingerprints[i], steps.m_babySteps[i] });
+                }
+            }
+        }
+        return overflow;
+    }
+
+    private int _slot(long fingerprint) {
+        long mixed = fingerprint * 0x9E3779B97F4A7C15L;
+        return (int) (mixed >>> 32) & m_mask;
+    }
+
+    private void _insert(long fingerprint, int babyStep) {
+        int slot = _slot(fingerprint);
+        while (_valueAt(slot) != 0)
+            slot = (slot + 1) & m_mask;
+        _putEntry(slot, fingerprint, babyStep);
+    }
+
+    private void _putEntry(int slot, long fingerprint, int babyStep) {
+        ByteBuffer chunk = m_chunks[slot >>> CHUNK_BITS];
+        int offset = (slot & CHUNK_MASK) * ENTRY_SIZE;
+        chunk.putLong(offset, fingerprint);
+        chunk.putInt(offset + Long.BYTES, babyStep);
+    }
+
+    private long _keyAt(int slot) {
+        return m_chunks[slot >>> CHUNK_BITS].getLong((slot & CHUNK_MASK) * ENTRY_SIZE);
+    }
+
+    private int _valueAt(int slot) {
+        return m_chunks[slot >>> CHUNK_BITS].getInt((slot & CHUNK_MASK) * ENTRY_SIZE + Long.BYTES);
+    }
+
+    /**
+     * Returns the number of baby steps stored in the table.
+     *
+     * @return the number of baby steps stored in the table.
+     */
+    public int getBabySteps() {
+        return m_babySteps;
+    }
+
+    /**
+     * Returns a baby step index stored under the given fingerprint. There is
+     * almost always at most one, but fingerprint collisions are possible, so
+     * each candidate must be checked against the full point and the next one
+     * requested if it does not match.
+     *
+     * @param fingerprint the fingerprint of a normalized point.
+     * @param skip the number of matching candidates to skip.
+     * @return the index of the {@code skip}-th candidate, or 0 if there are no
+     *         more.
+     * @see #fingerprint(ECPoint)
+     */
+    public int getCandidate(long fingerprint, int skip) {
+        for (int slot = _slot(fingerprint); _valueAt(slot) != 0; slot = (slot + 1) & m_mask) {
+            if (_keyAt(slot) == fingerprint && skip-- == 0) return _valueAt(slot);
+        }
+        return 0;
+    }
+
+    /**
+     * The fingerprints of a range of baby steps grouped by the region of slots
+     * they hash to. The entries for region {@code r} are at indices
+     * {@code [m_offsets[r], m_offsets[r+1])}.
+     */
+    private static class PartitionedSteps {
+        private final long[] m_fingerprints;
+        private final int[] m_babySteps;
+        private final int[] m_offsets;
+
+        private PartitionedSteps(long[] fingerprints, int[] babySteps, int[] offsets) {
+            m_fingerprints = fingerprints;
+            m_babySteps = babySteps;
+            m_offsets = offsets;
+        }
+    }
+}
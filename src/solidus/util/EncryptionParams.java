@@ -20,22 +20,38 @@ package solidus.util;
 
 import java.io.IOException;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
 
 import org.bouncycastle.crypto.ec.ECPair;
 import org.bouncycastle.jce.spec.ECNamedCurveParameterSpec;
+import org.bouncycastle.math.ec.ECCurve;
+import org.bouncycastle.math.ec.ECMultiplier;
 import org.bouncycastle.math.ec.ECPoint;
-
-import com.google.common.collect.ImmutableList;
+import org.bouncycastle.math.ec.FixedPointCombMultiplier;
+import org.bouncycastle.math.ec.FixedPointUtil;
+import org.bouncycastle.math.ec.GLVMultiplier;
+import org.bouncycastle.math.ec.endo.ECEndomorphism;
+import org.bouncycastle.math.ec.endo.GLVEndomorphism;
+
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 
 /**
  * This class provides the main source of dependency induction for the Solidus
@@ -50,9 +66,16 @@ import com.google.common.collect.ImmutableMap;
  * @author ethan@cs.cornell.edu
  */
 public class EncryptionParams {
-    public static final int VERSION_ID = 0x00000001;
+    public static final int VERSION_ID = 0x00000002;
+
+    private static final byte[] DEFAULT_HASH_PREFIX = { 0 };
 
-    private static final List<Byte> DEFAULT_HASH_INDEX = ImmutableList.of((byte) 0);
+    // Each fixed-base table holds 2^width points. Width 8 is 256 affine points
+    // (about 16KB) per base and roughly triples scalar multiplication speed.
+    private static final int FIXED_BASE_COMB_WIDTH = 8;
+
+    // Enough for the keys of every bank and of every account on a bank.
+    private static final int INTERNED_POINT_CACHE_SIZE = 1 << 16;
 
     /**
      * (THIS IS FOR TESTING ONLY) Constructs a new {@code EncryptionParams}
@@ -70,19 +93,22 @@ public class EncryptionParams {
         return new Builder(rand, curveSpec, digestSupplier).forTesting().build();
     }
 
-    private final Random m_random;
+    private final StripedRandom m_random;
     private final ECNamedCurveParameterSpec m_curveSpec;
     private final ECPoint m_infinity;
+    private final ECPoint m_generator;
     private final Supplier<MessageDigest> m_digestSupplier;
+    private final boolean m_digestCloneable;
 
     private final long m_maxDiscreteLog;
     private final int m_maxDiscreteLogBits;
     private final int m_discreteLogTableGap;
+    private final Path m_discreteLogTableFile;
 
     private final boolean m_fastTestEncryptor;
     private final int m_encryptorThreads;
     private final int m_encryptorQueueSize;
-    private final Map<ECPoint, Path> m_storedEncryptionPathMap;
+    private final Map<CanonicalKey, Path> m_storedEncryptionPathMap;
 
     private final boolean m_normalizePoints;
     private final boolean m_compressSerializedPoints;
@@ -90,15 +116,39 @@ public class EncryptionParams {
 
     private final long m_transactionTimeoutMs;
 
-    private final Map<ECPoint, Long> m_discreteLogMap;
+    private final DiscreteLogSolver m_discreteLogSolver;
+
+    private final ECMultiplier m_variableBaseMultiplier;
+    private final boolean m_usesEndomorphism;
+    private final ECMultiplier m_fixedBaseMultiplier;
+    private final MultiScalarMultiplier m_multiScalarMultiplier;
+    private final Map<ECPoint, ECPoint> m_fixedBasePoints;
 
-    private final Map<ECPoint, Encryptor> m_encryptorCache;
+    private final PrecomputeService m_precomputeService;
+    private final Map<CanonicalKey, Encryptor> m_encryptorCache;
+    private final Cache<ByteBuffer, ECPoint> m_internedPoints;
 
     private EncryptionParams(Builder builder) {
-        m_random = builder.m_random;
+        m_random = new StripedRandom(builder.m_random);
         m_curveSpec = builder.m_curveSpec;
         m_infinity = m_curveSpec.getCurve().getInfinity().normalize();
         m_digestSupplier = builder.m_digestSupplier;
+        m_digestCloneable = ChallengeTranscript.isCloneable(m_digestSupplier.get());
+
+        ECCurve curve = m_curveSpec.getCurve();
+        ECEndomorphism endomorphism = curve.getEndomorphism();
+        m_usesEndomorphism = endomorphism instanceof GLVEndomorphism && endomorphism.hasEfficientPointMap();
+        if (m_usesEndomorphism) {
+            m_variableBaseMultiplier = new GLVMultiplier(curve, (GLVEndomorphism) endomorphism);
+        } else {
+            m_variableBaseMultiplier = curve.getMultiplier();
+        }
+        m_fixedBaseMultiplier = new FixedPointCombMultiplier();
+        m_multiScalarMultiplier = new MultiScalarMultiplier(curve, m_curveSpec.getN());
+        m_fixedBasePoints = new ConcurrentHashMap<>();
+        m_generator = _registerFixedBase(m_curveSpec.getG());
+        for (ECPoint point : builder.m_fixedBasePoints)
+            _registerFixedBase(point);
 
         m_maxDiscreteLog = builder.m_maxDiscreteLog;
         if (builder.m_maxDiscreteLogBits == -1) {
@@ -107,11 +157,15 @@ public class EncryptionParams {
             m_maxDiscreteLogBits = builder.m_maxDiscreteLogBits;
         }
         m_discreteLogTableGap = builder.m_discreteLogTableGap;
+        m_discreteLogTableFile = builder.m_discreteLogTableFile;
 
         m_fastTestEncryptor = builder.m_fastTestEncryptor;
         m_encryptorThreads = builder.m_encryptorThreads;
         m_encryptorQueueSize = builder.m_encryptorQueueSize;
-        m_storedEncryptionPathMap = ImmutableMap.copyOf(builder.m_storedEncryptionPathMap);
+        ImmutableMap.Builder<CanonicalKey, Path> storedEncryptionPaths = ImmutableMap.builder();
+        for (Map.Entry<ECPoint, Path> entry : builder.m_storedEncryptionPathMap.entrySet())
+            storedEncryptionPaths.put(CanonicalKey.of(entry.getKey()), entry.getValue());
+        m_storedEncryptionPathMap = storedEncryptionPaths.build();
 
         m_normalizePoints = builder.m_normalizePoints;
         m_compressSerializedPoints = builder.m_compressSerializedPoints;
@@ -119,27 +173,30 @@ public class EncryptionParams {
 
         m_transactionTimeoutMs = builder.m_transactionTimeoutMs;
 
-        m_discreteLogMap = _buildDiscreteLogMap();
-
-        m_encryptorCache = new HashMap<>();
+        // Size the table so a lookup takes at most about gap giant steps, but
+        // never store fewer than sqrt(max) baby steps. That many is cheap to
+        // hold and balances the work of building the table with lookups.
+        long babySteps = (m_maxDiscreteLog + m_discreteLogTableGap - 1) / m_discreteLogTableGap;
+        babySteps = Math.max(babySteps, (long) Math.ceil(Math.sqrt(Math.max(m_maxDiscreteLog, 0))));
+        m_discreteLogSolver = new DiscreteLogSolver(m_generator, m_maxDiscreteLog, babySteps,
+                m_discreteLogTableFile);
+
+        m_precomputeService = new PrecomputeService(m_fastTestEncryptor ? 0 : m_encryptorThreads,
+                m_encryptorQueueSize);
+        m_encryptorCache = new ConcurrentHashMap<>();
+        m_internedPoints = CacheBuilder.newBuilder().maximumSize(INTERNED_POINT_CACHE_SIZE).recordStats().build();
     }
 
-    private Map<ECPoint, Long> _buildDiscreteLogMap() {
-        ImmutableMap.Builder<ECPoint, Long> discreteLogMapBuilder = ImmutableMap.builder();
-        ECPoint genMultiple = getGenerator().multiply(BigInteger.valueOf(m_discreteLogTableGap));
-        ECPoint currentPoint = getInfinity();
-        for (long i = 0; i <= m_maxDiscreteLog; i += m_discreteLogTableGap, currentPoint = currentPoint.add(genMultiple)
-                .normalize()) {
-            discreteLogMapBuilder.put(currentPoint, i);
-        }
-        // We need to ensure that the max balance is in the table because it
-        // means we don't have to worry about directional shifts on decryption.
-        if (m_maxDiscreteLog % m_discreteLogTableGap != 0) {
-            discreteLogMapBuilder.put(getGenerator().multiply(BigInteger.valueOf(m_maxDiscreteLog)).normalize(),
-                    m_maxDiscreteLog);
-        }
+    private ECPoint _registerFixedBase(ECPoint point) {
+        ECPoint normalized = point.normalize();
+        ECPoint existing = m_fixedBasePoints.get(normalized);
+        if (existing != null) return existing;
 
-        return discreteLogMapBuilder.build();
+        // The precomputed table is attached to the point instance itself, so
+        // we must always hand the registered instance to the comb multiplier.
+        FixedPointUtil.precompute(normalized, FIXED_BASE_COMB_WIDTH);
+        existing = m_fixedBasePoints.putIfAbsent(normalized, normalized);
+        return existing == null ? normalized : existing;
     }
 
     /**
@@ -218,7 +275,99 @@ public class EncryptionParams {
      * @return the generator of the elliptic curve group used for encryption.
      */
     public ECPoint getGenerator() {
-        return m_curveSpec.getG();
+        return m_generator;
+    }
+
+    /**
+     * Returns whether or not variable-base multiplication uses a GLV
+     * endomorphism of the curve. This is true for secp256k1.
+     *
+     * @return whether or not {@link #multiply(ECPoint, BigInteger) multiply}
+     *         uses GLV scalar decomposition.
+     */
+    public boolean usesEndomorphism() {
+        return m_usesEndomorphism;
+    }
+
+    /**
+     * Computes {@code point * scalar} for an arbitrary point. If the curve has
+     * an efficiently computable GLV endomorphism, the scalar is split into two
+     * half-length scalars that are each recoded in wNAF form and processed
+     * together, which halves the number of point doublings. Otherwise this is
+     * the curve's default multiplication.
+     *
+     * @param point the point to multiply.
+     * @param scalar the scalar to multiply by. It may be negative or larger
+     *            than the group size.
+     * @return {@code point * scalar}
+     * @see #multiplyFixed(ECPoint, BigInteger)
+     */
+    public ECPoint multiply(ECPoint point, BigInteger scalar) {
+        return m_variableBaseMultiplier.multiply(point, scalar);
+    }
+
+    /**
+     * Computes {@code scalars[0] * points[0] + ... + scalars[n-1] *
+     * points[n-1]} as a single multi-exponentiation. This is significantly
+     * faster than multiplying each point separately and adding the results,
+     * so every verification equation with more than one term should use it.
+     *
+     * @param points the points to multiply.
+     * @param scalars the scalars to multiply each point by. They may be
+     *            negative or larger than the group size.
+     * @return the sum of the products of corresponding entries.
+     * @throws IllegalArgumentException if the arrays have different lengths.
+     * @see solidus.util.MultiScalarMultiplier
+     */
+    public ECPoint sumOfMultiplies(ECPoint[] points, BigInteger[] scalars) {
+        return m_multiScalarMultiplier.sumOfMultiplies(points, scalars);
+    }
+
+    /**
+     * Registers the given point as a fixed base so that future calls to
+     * {@link #multiplyFixed(ECPoint, BigInteger) multiplyFixed} with that point
+     * use a precomputed comb table. The generator is always registered, as is
+     * any public key passed to {@link #getEncryptor(ECPoint) getEncryptor}.
+     * Registering the same point multiple times has no further effect.
+     *
+     * Each registered point permanently holds a table of a few hundred
+     * precomputed points, so this should only be used for long-lived keys.
+     *
+     * @param point the point to register as a fixed base.
+     */
+    public void registerFixedBase(ECPoint point) {
+        _registerFixedBase(point);
+    }
+
+    /**
+     * Returns whether or not the given point has a precomputed fixed-base
+     * table.
+     *
+     * @param point the point to check.
+     * @return whether or not {@code point} has a precomputed fixed-base table.
+     */
+    public boolean isFixedBase(ECPoint point) {
+        return point == m_generator || m_fixedBasePoints.containsKey(point);
+    }
+
+    /**
+     * Computes {@code point * scalar}, using a precomputed comb table if
+     * {@code point} is the generator or has been registered as a fixed base.
+     * Unregistered points fall back to {@link #multiply(ECPoint, BigInteger)
+     * multiply}, so this is always safe to call. The result is the same point
+     * either way, though it may not be in the same coordinate representation.
+     *
+     * @param point the point to multiply.
+     * @param scalar the scalar to multiply by. It may be negative or larger
+     *            than the group size.
+     * @return {@code point * scalar}
+     * @see #registerFixedBase(ECPoint)
+     */
+    public ECPoint multiplyFixed(ECPoint point, BigInteger scalar) {
+        ECPoint base = (point == m_generator ? m_generator : m_fixedBasePoints.get(point));
+        if (base == null) return multiply(point, scalar);
+        // The comb only handles scalars with at most as many bits as the order.
+        return m_fixedBaseMultiplier.multiply(base, scalar.mod(getGroupSize()));
     }
 
     /**
@@ -260,9 +409,57 @@ public class EncryptionParams {
     }
 
     /**
-     * Returns the source of randomness used within this Solidus instance.
+     * Decodes a point that is expected to recur across many messages, such as
+     * a bank or account key. Decoded points are kept in a bounded cache keyed
+     * by their encoding, so decoding a known encoding again (compressed or
+     * not) skips decompression and validation and returns the same normalized
+     * instance. If the point has been registered as a fixed base, the
+     * registered instance is returned. Either way, later {@code equals}
+     * checks against the shared instance succeed on identity.
+     *
+     * @param buffer the byte array to decode.
+     * @return the shared, normalized {@code ECPoint} for {@code buffer}.
+     * @throws IllegalArgumentException if {@code buffer} is not a valid point
+     *             encoding, as with {@link #decodePoint decodePoint}.
+     * @see #getInternedPointStats
+     */
+    public ECPoint decodeInternedPoint(byte[] buffer) {
+        try {
+            return m_internedPoints.get(ByteBuffer.wrap(buffer.clone()), () -> {
+                ECPoint normalized = decodePoint(buffer).normalize();
+                ECPoint registered = m_fixedBasePoints.get(normalized);
+                ECPoint interned = (registered != null ? registered : normalized);
+
+                // Share one instance between the compressed and uncompressed
+                // encodings by also interning under the compressed one.
+                byte[] compressed = normalized.getEncoded(true);
+                if (Arrays.equals(compressed, buffer)) return interned;
+                ECPoint existing = m_internedPoints.asMap().putIfAbsent(ByteBuffer.wrap(compressed), interned);
+                return existing != null ? existing : interned;
+            });
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            Throwables.propagateIfPossible(e.getCause());
+            throw new RuntimeException("Failed to decode point", e.getCause());
+        }
+    }
+
+    /**
+     * Returns the hit and miss counts of the cache used by
+     * {@link #decodeInternedPoint decodeInternedPoint}.
+     *
+     * @return statistics for the interned point cache.
+     */
+    public CacheStats getInternedPointStats() {
+        return m_internedPoints.stats();
+    }
+
+    /**
+     * Returns the source of randomness used within this Solidus instance. Each
+     * thread draws from its own generator seeded from the source given at
+     * construction, so this can be shared freely across threads.
      *
      * @return the source of randomness used within this Solidus instance.
+     * @see solidus.util.StripedRandom
      */
     public Random getRandomSource() {
         return m_random;
@@ -278,12 +475,7 @@ public class EncryptionParams {
      *         getGroupSize}).
      */
     public BigInteger getRandomIndex() {
-        BigInteger r;
-        r = new BigInteger(getGroupSize().bitLength(), m_random);
-        while (r.compareTo(getGroupSize()) >= 0 || r.compareTo(BigInteger.ONE) < 0) {
-            r = new BigInteger(getGroupSize().bitLength(), m_random);
-        }
-        return r;
+        return m_random.nextNonZeroBelow(getGroupSize());
     }
 
     /**
@@ -301,7 +493,7 @@ public class EncryptionParams {
      * @return the combined hash of all specified points.
      */
     public BigInteger hash(ECPoint... points) {
-        return hashEachIndexWithAllPoints(DEFAULT_HASH_INDEX, points).get(0);
+        return newTranscript().absorb(DEFAULT_HASH_PREFIX).absorb(points).challenge();
     }
 
     /**
@@ -322,23 +514,25 @@ public class EncryptionParams {
      * @return the combined hash of all data and points provided.
      */
     public BigInteger hashDataAndPoints(byte[][] data, ECPoint... points) {
-        MessageDigest digest = m_digestSupplier.get();
+        ChallengeTranscript transcript = newTranscript();
         for (byte[] d : data)
-            digest.update(d);
-        for (ECPoint point : points)
-            digest.update(point.getEncoded(true));
-        return new BigInteger(digest.digest()).mod(getGroupSize());
+            transcript.absorb(d);
+        return transcript.absorb(points).challenge();
     }
 
     /**
      * Takes an array of byte indices and any number of {@code ECPoint}s and
-     * produces a hash for each index including that indices and all points in
+     * produces a hash for each index including all points and that index in
      * the hash arguments using the hash algorithm specified on construction.
      * Each output is a {@code BigInteger} between 0 and the group size.
      *
      * This method is useful when we need to generate a sequence of challenges.
+     * The points are encoded and hashed only once; each index is appended to a
+     * copy of the resulting digest state. Callers that hash the same points
+     * in several places should build a {@link ChallengeTranscript} with
+     * {@link #newTranscript newTranscript} instead.
      *
-     * @param indices a list of bytes to prepend to the encoded points with each
+     * @param indices a list of bytes to append to the encoded points with each
      *            hash.
      * @param points any number of points to encode and hash in the order
      *            provided
@@ -346,20 +540,17 @@ public class EncryptionParams {
      *         in {@code indices}.
      */
     public List<BigInteger> hashEachIndexWithAllPoints(List<Byte> indices, ECPoint... points) {
-        // Compressed encodings are marginally faster.
-        byte[][] encodings = new byte[points.length][];
-        for (int i = 0; i < points.length; i++)
-            encodings[i] = points[i].getEncoded(true);
-
-        MessageDigest digest = m_digestSupplier.get();
-        ImmutableList.Builder<BigInteger> hashesBuilder = new ImmutableList.Builder<>();
-        for (byte index : indices) {
-            digest.update(index);
-            for (byte[] d : encodings)
-                digest.update(d);
-            hashesBuilder.add(new BigInteger(digest.digest()).mod(getGroupSize()));
-        }
-        return hashesBuilder.build();
+        return newTranscript().absorb(points).challenges(indices);
+    }
+
+    /**
+     * Creates a new empty Fiat-Shamir transcript using the hash algorithm
+     * specified on construction.
+     *
+     * @return a new {@code ChallengeTranscript}.
+     */
+    public ChallengeTranscript newTranscript() {
+        return new ChallengeTranscript(m_digestSupplier, getGroupSize(), m_digestCloneable);
     }
 
     /**
@@ -376,14 +567,32 @@ public class EncryptionParams {
      *         with the given public key.
      */
     public Encryptor getEncryptor(ECPoint publicKey) {
+        return getEncryptor(CanonicalKey.of(publicKey));
+    }
+
+    /**
+     * Returns the cached El Gamal Encryptor for the given public key, creating
+     * it if necessary, as in {@link #getEncryptor(ECPoint) getEncryptor}.
+     * Looking up an already canonicalized key never touches the curve.
+     *
+     * @param publicKeyId the El Gamal public key to get an
+     *            {@link solidus.util.Encryptor Encryptor} for.
+     * @return an {@link solidus.util.Encryptor Encryptor} object associated
+     *         with the given public key.
+     */
+    public Encryptor getEncryptor(CanonicalKey publicKeyId) {
+        Encryptor encryptor = m_encryptorCache.get(publicKeyId);
+        if (encryptor != null) return encryptor;
+
         synchronized (m_encryptorCache) {
-            Encryptor encryptor = m_encryptorCache.get(publicKey);
+            encryptor = m_encryptorCache.get(publicKeyId);
             if (encryptor == null) {
-                Path storedEncryptionsPath = m_storedEncryptionPathMap.get(publicKey);
+                ECPoint publicKey = _registerFixedBase(publicKeyId.getPoint());
+                Path storedEncryptionsPath = m_storedEncryptionPathMap.get(publicKeyId);
                 if (m_fastTestEncryptor) {
                     final BigInteger r = getRandomIndex();
-                    final ECPoint pubKeyPoint = publicKey.multiply(r).normalize();
-                    final ECPoint genPoint = getGenerator().multiply(r).normalize();
+                    final ECPoint pubKeyPoint = multiplyFixed(publicKey, r).normalize();
+                    final ECPoint genPoint = multiplyFixed(getGenerator(), r).normalize();
                     encryptor = new AbstractEncryptor(this, publicKey, m_normalizePoints) {
                         @Override
                         public ECPair encryptZero() {
@@ -393,7 +602,7 @@ public class EncryptionParams {
                 } else if (storedEncryptionsPath != null) {
                     try {
                         encryptor = new FromFileEncryptor(this, publicKey, storedEncryptionsPath, m_normalizePoints,
-                                m_encryptorThreads, m_encryptorQueueSize);
+                                m_precomputeService, m_encryptorQueueSize);
                     } catch (IOException e) {
                         // This is recoverable by creating an OnlineEncryptor,
                         // but for now, we will blow up because it indicates
@@ -403,15 +612,26 @@ public class EncryptionParams {
                                 e);
                     }
                 } else {
-                    encryptor = new OnlineEncryptor(this, publicKey, m_normalizePoints, m_encryptorThreads,
-                            m_encryptorQueueSize);
+                    encryptor = new OnlineEncryptor(this, publicKey, m_normalizePoints, m_precomputeService);
                 }
-                m_encryptorCache.put(publicKey, encryptor);
+                m_encryptorCache.put(publicKeyId, encryptor);
             }
             return encryptor;
         }
     }
 
+    /**
+     * Returns the service that precomputes encryptions of zero in the
+     * background for every {@link solidus.util.Encryptor Encryptor} returned by
+     * {@link #getEncryptor(ECPoint) getEncryptor}. Its queues expose metrics
+     * on how well precomputation is keeping up with demand.
+     *
+     * @return the shared background precomputation service.
+     */
+    public PrecomputeService getPrecomputeService() {
+        return m_precomputeService;
+    }
+
     /**
      * Constructs an El Gamal {@link solidus.util.Decryptor Decryptor} object
      * with the specified secret key.
@@ -424,34 +644,35 @@ public class EncryptionParams {
     }
 
     /**
-     * This method makes use of a lookup table to attemp to get the discrete log
-     * of the given point. It only works if the absolute value of the discrete
-     * log is at most the maximum balance specified with this object was
-     * constructed.
+     * This method makes use of a baby-step giant-step search to attempt to get
+     * the discrete log of the given point. It only works if the absolute value
+     * of the discrete log is at most the maximum balance specified with this
+     * object was constructed.
      *
      * @param point The elliptic curve point to attempt to find the discrete log
      *            of.
      * @return the discrete log of the point relative to {@link #getGenerator()}
      *         .
      * @throws IllegalArgumentException if the discrete log cannot be found.
+     * @see solidus.util.DiscreteLogSolver
      */
     public long lookupDiscreteLog(ECPoint point) {
-        // This actually decrypts slightly larger negative values
-        // since they'll be pushed up to the maximum value. That's fine.
-        for (int i = 0; i < m_discreteLogTableGap; i++) {
-            Long positiveLookup = m_discreteLogMap.get(point);
-            if (positiveLookup != null) {
-                return positiveLookup.longValue() - i;
-            }
-            Long negativeLookup = m_discreteLogMap.get(point.negate());
-            if (negativeLookup != null) {
-                return (-negativeLookup.longValue()) - i;
-            }
-
-            point = point.add(getGenerator());
-        }
+        return m_discreteLogSolver.lookup(point);
+    }
 
-        throw new IllegalArgumentException("Attempted to lookup decryption that is not in table.");
+    /**
+     * Finds the discrete logs of many points at once, as with
+     * {@link #lookupDiscreteLog lookupDiscreteLog}. This is considerably
+     * cheaper than looking up each point separately when the points are not
+     * normalized.
+     *
+     * @param points the points to find discrete logs of.
+     * @return the discrete log of each point, in order.
+     * @throws IllegalArgumentException if any discrete log is out of range.
+     * @see solidus.util.DiscreteLogSolver#lookupAll
+     */
+    public long[] lookupDiscreteLogs(ECPoint[] points) {
+        return m_discreteLogSolver.lookupAll(points);
     }
 
     /**
@@ -466,6 +687,7 @@ public class EncryptionParams {
         private final Supplier<MessageDigest> m_digestSupplier;
 
         private final Map<ECPoint, Path> m_storedEncryptionPathMap;
+        private final List<ECPoint> m_fixedBasePoints;
 
         private boolean m_normalizePoints = false;
         private boolean m_compressSerializedPoints = false;
@@ -474,6 +696,7 @@ public class EncryptionParams {
         private long m_maxDiscreteLog = -1;
         private int m_maxDiscreteLogBits = -1;
         private int m_discreteLogTableGap = 1;
+        private Path m_discreteLogTableFile = null;
 
         private boolean m_fastTestEncryptor = false;
         private int m_encryptorThreads = 0;
@@ -501,6 +724,7 @@ public class EncryptionParams {
             m_digestSupplier = digestSupplier;
 
             m_storedEncryptionPathMap = new HashMap<>();
+            m_fixedBasePoints = new ArrayList<>();
 
             m_isBuilt = false;
         }
@@ -595,13 +819,16 @@ public class EncryptionParams {
         }
 
         /**
-         * Sets the gap between entries in the discrete log lookup table. Larger
+         * Sets the memory/time tradeoff of the discrete log table. The table
+         * stores about {@code maxDiscreteLog / gap} baby steps and each
+         * decryption takes at most about {@code gap} giant steps, so larger
          * values result in lower memory footprint and faster initialization,
-         * but slow decryption. This value must be at least 1 or the table will
-         * be useless (and may not build properly). Default: 1
+         * but slower decryption. The table never shrinks below
+         * {@code sqrt(maxDiscreteLog)} entries, so gaps above that have no
+         * further effect. This value must be at least 1. Default: 1
          *
-         * @param gap sets the number of discrete log values between each saved
-         *            value.
+         * @param gap the ratio between the max discrete log and the number of
+         *            baby steps stored.
          * @return this {@code Builder} object.
          * @throws IllegalArgumentException if {@code gap < 1}
          * @throws IllegalStateException if {@link #build()} has already been
@@ -615,6 +842,30 @@ public class EncryptionParams {
             return this;
         }
 
+        /**
+         * Sets a file in which to persist the discrete log table. If the file
+         * already holds a table built for the same generator and size, it is
+         * memory-mapped instead of being recomputed, which makes startup with
+         * large maximum balances nearly instant. Otherwise the table is built
+         * in parallel and written to the file. Either way the table lives
+         * outside of the Java heap. Default: build the table in memory.
+         *
+         * @param filePath the file in which to store the discrete log table.
+         * @return this {@code Builder} object.
+         * @throws IllegalArgumentException if {@code filePath} exists and is
+         *             not a regular file.
+         * @throws IllegalStateException if {@link #build()} has already been
+         *             invoked.
+         */
+        public Builder setDiscreteLogTableFile(Path filePath) {
+            if (m_isBuilt) throw new IllegalStateException("Cannot set parameters after building.");
+            if (Files.exists(filePath) && !Files.isRegularFile(filePath))
+                throw new IllegalArgumentException("Discrete log table must be stored in a regular file.");
+
+            m_discreteLogTableFile = filePath;
+            return this;
+        }
+
         /**
          * (THIS IS FOR TESTING ONLY!) Sets the encryption params to always
          * return a fast test encryptor. This will not actually encrypt the
@@ -632,11 +883,12 @@ public class EncryptionParams {
 
         /**
          * Sets the number of background threads used for generating
-         * reencryption factors. If this value is 0, all reencryptions are
-         * generated upon request. Default: 0
+         * reencryption factors. These threads are shared by all
+         * {@link solidus.util.Encryptor Encryptor} objects and divide their
+         * time according to recent demand for each key. If this value is 0,
+         * all reencryptions are generated upon request. Default: 0
          *
-         * @param threads the number of background threads to use for each
-         *            {@link solidus.util.Encryptor Encryptor} object. Zero
+         * @param threads the total number of background threads to use. Zero
          *            means all encryptions will be generated when requested.
          * @return this {@code Builder} object.
          * @throws IllegalArgumentException if {@code threads < 0}
@@ -654,7 +906,8 @@ public class EncryptionParams {
 
         /**
          * Sets the maximum buffer size for background-generated reencryption
-         * factors. This must be a positive value. Default: 10000
+         * factors for each public key. This must be a positive value.
+         * Default: 10000
          *
          * @param queueSize sets the queue size to be used for encryptions
          *            generated in the background by
@@ -673,27 +926,50 @@ public class EncryptionParams {
         }
 
         /**
-         * Provides a file from which to pull precomputed encrypiton
-         * randomization factors for the given El Gamal public key. Once all
-         * randomization factors in the file are used, more will be computed
-         * online using the parameters specified for general online computation.
+         * Provides a file, or a directory of shard files, from which to pull
+         * precomputed encrypiton randomization factors for the given El Gamal
+         * public key. Once all randomization factors in the files are used,
+         * more will be computed online using the parameters specified for
+         * general online computation. How many have been used is recorded
+         * next to each file, so they are never reused across restarts.
          *
          * @param key the public encryption key the randomization factors are
          *            associated with.
-         * @param filePath the local filesystem file containing precomputed
-         *            randomization factors.
+         * @param filePath the local filesystem file or directory containing
+         *            precomputed randomization factors.
          * @return this {@code Builder} object.
          * @throws IllegalArgumentException if {@code filePath} is not a regular
-         *             file.
+         *             file or directory.
          * @throws IllegalStateException if {@link #build()} has already been
          *             invoked.
          */
         public Builder addKeyToEncryptionFile(ECPoint key, Path filePath) {
             if (m_isBuilt) throw new IllegalStateException("Cannot set parameters after building.");
-            if (!Files.isRegularFile(filePath))
-                throw new IllegalArgumentException("Stored encryptions must be in regular files.");
+            if (!Files.isRegularFile(filePath) && !Files.isDirectory(filePath))
+                throw new IllegalArgumentException("Stored encryptions must be in regular files or a directory.");
 
             m_storedEncryptionPathMap.put(key, filePath);
+            m_fixedBasePoints.add(key);
+            return this;
+        }
+
+        /**
+         * Registers a point (generally a bank's public key) for which the
+         * built {@code EncryptionParams} should precompute a fixed-base
+         * multiplication table. The generator is always registered. Keys used
+         * with {@link EncryptionParams#getEncryptor(ECPoint) getEncryptor} or
+         * {@link #addKeyToEncryptionFile(ECPoint, Path)
+         * addKeyToEncryptionFile} are registered automatically.
+         *
+         * @param point the point to precompute a table for.
+         * @return this {@code Builder} object.
+         * @throws IllegalStateException if {@link #build()} has already been
+         *             invoked.
+         * @see EncryptionParams#multiplyFixed(ECPoint, BigInteger)
+         */
+        public Builder addFixedBasePoint(ECPoint point) {
+            if (m_isBuilt) throw new IllegalStateException("Cannot set parameters after building.");
+            m_fixedBasePoints.add(point);
             return this;
         }
 
@@ -19,18 +19,27 @@
 package solidus.util;
 
 import java.io.BufferedInputStream;
-import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Random;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import org.bouncycastle.crypto.ec.ECPair;
 import org.bouncycastle.math.ec.ECPoint;
@@ -40,23 +49,73 @@ import com.google.common.base.Stopwatch;
 import solidus.io.SerialHelpers;
 
 /**
- * Creates an Encryptor that reads stored encryptions from a file on disk. If
- * the entire file is read and used, it begins generating encryptions as a
+ * Creates an Encryptor that reads stored encryptions from files on disk. Once
+ * every stored encryption has been used, it begins generating encryptions as a
  * default encryptor.
  *
- * The file must first contain the name of the curve used in these params
- * followed by an encoding of the public key and then encodings of El Gamal unit
- * encryptions, with no separators. Encodings cannot be compressed.
+ * Stored encryptions can be in a single file or in a directory of shard files,
+ * which are used in name order. Each file must first contain the name of the
+ * curve used in these params followed by an encoding of the public key and
+ * then encodings of El Gamal unit encryptions, with no separators. Files
+ * written by {@link #writeHeader writeHeader} also carry a small index between
+ * the public key and the encryptions recording how many encryptions follow and
+ * whether they are compressed. Within a file every point must use the same
+ * encoding, so every encryption has the same size. That lets the files be
+ * memory-mapped in chunks and decoded by several threads at once, so files can
+ * be far larger than memory.
+ *
+ * Reusing an encryption of zero would leak information, so consumption is
+ * recorded durably. Next to each file is a {@value #CURSOR_SUFFIX} file holding
+ * how many of its encryptions have been handed out. The cursor is advanced and
+ * flushed to disk before a chunk of encryptions is decoded, so a restarted
+ * encryptor resumes where the previous one left off. A crash can skip at most
+ * a few unused chunks but never repeats an encryption. Whenever a file is
+ * rewritten its cursor must be {@link #resetCursor reset}, or the new file
+ * would be read from the old file's position.
+ *
+ * {@link #close() Closing} the encryptor stops its decoding threads, closes
+ * the files, and stops the background service if the encryptor created it.
  *
  * @see solidus.util.Encryptor
  * @author ethan@cs.cornell.edu
  */
-public class FromFileEncryptor extends AbstractEncryptor {
-    private final InputStream m_inStream;
+public class FromFileEncryptor extends AbstractEncryptor implements AutoCloseable {
+    /**
+     * The suffix appended to a file's name to get its cursor file.
+     */
+    public static final String CURSOR_SUFFIX = ".cursor";
+
+    // The number of encryptions claimed by each advance of the cursor.
+    private static final int CHUNK_SIZE = 4096;
+
+    // No point encoding is empty, so a zero length byte where the first
+    // encryption would start marks the index.
+    private static final int INDEX_MARKER = 0;
+    private static final int INDEX_VERSION = 1;
+    // Marker byte, version, point encoding length, and encryption count.
+    private static final int INDEX_SIZE = 1 + Integer.BYTES + Integer.BYTES + Long.BYTES;
+
+    // How long a decoding thread waits for room in the queue before checking
+    // again whether the encryptor has been closed.
+    private static final long QUEUE_OFFER_TIMEOUT_MILLIS = 100;
+
+    private final List<Shard> m_shards;
     private final BlockingQueue<ECPair> m_encryptionQueue;
-    private final int m_workerThreads;
+    private final boolean m_decodeInBackground;
+    private final PrecomputeService.KeyPool m_pool;
+    // The service this encryptor created, or null if it was given one.
+    private final PrecomputeService m_ownedService;
+    private final ExecutorService m_decoderService;
 
-    private boolean m_streamIsOpen;
+    // Guarded by this.
+    private int m_nextShard;
+    private Chunk m_inlineChunk;
+
+    // Only set while holding this, but read by the decoding threads without
+    // it.
+    private volatile boolean m_isClosed;
+
+    private volatile boolean m_filesExhausted;
 
     /**
      * Constructs a new encryptor that pulls randomization factors from a file
@@ -67,18 +126,20 @@ public class FromFileEncryptor extends AbstractEncryptor {
      * @param params configuration parameters specifying the elliptic curve
      *            group and randomization source to use for encryption.
      * @param publicKey the public key to encrypt under.
-     * @param storedEncryptionsPath the path to the file containing stored
-     *            encryptions.
+     * @param storedEncryptionsPath the path to the file or directory of shard
+     *            files containing stored encryptions.
      * @param normalize whether or not to normalize points for fast
      *            serialization.
      * @param workerThreads the number of worker threads to spawn to compute
      *            randomization factors once the given file has been entirely
-     *            used. If {@code workerThreads > 0}, then a bakcground thread
-     *            will be used to pull randomization factors from the file.
+     *            used. If {@code workerThreads > 0}, then that many background
+     *            threads will also decode randomization factors from the file.
      *            Otherwise it will be done inline upon request.
      * @param queueSize the maximum number of randomization factors to be stored
      *            before using any. If this many are awaiting use, background
      *            threads will hang until some randomization factors get used.
+     *            The threads run until the encryptor is {@link #close()
+     *            closed}.
      * @throws IllegalArgumentException if the given file contains randomization
      *             factors for the wrong elliptic curve or wrong public key.
      * @throws IOException if the given file cannot be accessed.
@@ -87,100 +148,411 @@ public class FromFileEncryptor extends AbstractEncryptor {
      */
     public FromFileEncryptor(EncryptionParams params, ECPoint publicKey, Path storedEncryptionsPath, boolean normalize,
             int workerThreads, int queueSize) throws IOException {
+        this(params, publicKey, storedEncryptionsPath, normalize, new PrecomputeService(workerThreads, queueSize),
+                queueSize, true);
+    }
+
+    /**
+     * Constructs a new encryptor that pulls randomization factors from a file
+     * or directory of shard files until they have all been used and then
+     * draws them from the given service. If the service has background
+     * threads, the same number of background threads will decode
+     * randomization factors from the files. Otherwise it will be done inline
+     * upon request.
+     *
+     * @param params configuration parameters specifying the elliptic curve
+     *            group and randomization source to use for encryption.
+     * @param publicKey the public key to encrypt under.
+     * @param storedEncryptionsPath the path to the file or directory of shard
+     *            files containing stored encryptions.
+     * @param normalize whether or not to normalize points for fast
+     *            serialization.
+     * @param service the service to compute randomization factors in the
+     *            background once the files have been entirely used.
+     * @param queueSize the maximum number of randomization factors to decode
+     *            from the files ahead of their use.
+     * @throws IllegalArgumentException if a file contains randomization
+     *             factors for the wrong elliptic curve or wrong public key, or
+     *             if its size does not match a whole number of encryptions.
+     * @throws IOException if the files cannot be accessed.
+     */
+    public FromFileEncryptor(EncryptionParams params, ECPoint publicKey, Path storedEncryptionsPath, boolean normalize,
+            PrecomputeService service, int queueSize) throws IOException {
+        this(params, publicKey, storedEncryptionsPath, normalize, service, queueSize, false);
+    }
+
+    private FromFileEncryptor(EncryptionParams params, ECPoint publicKey, Path storedEncryptionsPath,
+            boolean normalize, PrecomputeService service, int queueSize, boolean ownsService) throws IOException {
         super(params, publicKey, normalize);
 
-        m_inStream = new BufferedInputStream(Files.newInputStream(storedEncryptionsPath));
+        m_shards = new ArrayList<>();
+        try {
+            for (Path file : _listShardFiles(storedEncryptionsPath))
+                m_shards.add(_openShard(file));
+        } catch (IOException | RuntimeException e) {
+            for (Shard shard : m_shards)
+                shard.close();
+            if (ownsService) service.close();
+            throw e;
+        }
+
         m_encryptionQueue = new ArrayBlockingQueue<>(queueSize);
-        m_workerThreads = workerThreads;
+        m_nextShard = 0;
+        m_inlineChunk = null;
+        m_isClosed = false;
+        m_filesExhausted = false;
 
-        try {
-            String curveName = SerialHelpers.readString(m_inStream);
-            if (!params.getCurveName().equals(curveName)) {
+        int decoderThreads = service.getThreadCount();
+        m_decodeInBackground = decoderThreads > 0;
+        // The service only fills the pool once we start drawing from it,
+        // which happens after the files are used up.
+        m_pool = service.register(this);
+        m_ownedService = (ownsService ? service : null);
+
+        if (m_decodeInBackground) {
+            m_decoderService = Executors.newFixedThreadPool(decoderThreads,
+                    new DaemonThreadFactory("PrecomputedEncryptionReader"));
+            for (int i = 0; i < decoderThreads; i++) {
+                m_decoderService.execute(() -> {
+                    for (Chunk chunk = _claimChunk(); chunk != null; chunk = _claimChunk()) {
+                        while (chunk.hasRemaining()) {
+                            if (!_queueEncryption(chunk.decodeRecord(m_params))) return;
+                        }
+                    }
+                });
+            }
+            m_decoderService.shutdown();
+        } else {
+            m_decoderService = null;
+        }
+    }
+
+    private static List<Path> _listShardFiles(Path path) throws IOException {
+        if (!Files.isDirectory(path)) return Collections.singletonList(path);
+
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(path)) {
+            for (Path file : stream) {
+                if (Files.isRegularFile(file) && !file.getFileName().toString().endsWith(CURSOR_SUFFIX))
+                    files.add(file);
+            }
+        }
+        Collections.sort(files);
+        return files;
+    }
+
+    /**
+     * Returns the file holding the cursor of the given file of stored
+     * encryptions.
+     *
+     * @param file a file of stored encryptions.
+     * @return the path of the cursor file for {@code file}.
+     */
+    public static Path getCursorFile(Path file) {
+        return file.resolveSibling(file.getFileName() + CURSOR_SUFFIX);
+    }
+
+    /**
+     * Deletes the cursor of the given file of stored encryptions, if it has
+     * one, so the file will next be read from the beginning. This must be
+     * called whenever the file is written, since an old cursor counts
+     * encryptions of the old file.
+     *
+     * @param file a file of stored encryptions.
+     * @throws IOException if the cursor exists and cannot be deleted.
+     */
+    public static void resetCursor(Path file) throws IOException {
+        Files.deleteIfExists(getCursorFile(file));
+    }
+
+    /**
+     * Writes the header of a file of stored encryptions, including the index
+     * that lets the file be checked for truncation on load. Exactly
+     * {@code encryptionCount} encryptions must be written after the header
+     * with {@link solidus.io.SerialHelpers#writeECPair SerialHelpers.writeECPair},
+     * all compressed or all uncompressed as specified here.
+     *
+     * @param stream the {@code OutputStream} to write to.
+     * @param params the params whose curve the encryptions are on.
+     * @param publicKey the public key the encryptions are under.
+     * @param encryptionCount the number of encryptions that will follow.
+     * @param compressed whether or not the encryptions will use compressed
+     *            point encodings.
+     * @throws IllegalArgumentException if {@code encryptionCount < 0}
+     * @throws IOException if there is a problem writing to {@code stream}.
+     */
+    public static void writeHeader(OutputStream stream, EncryptionParams params, ECPoint publicKey,
+            long encryptionCount, boolean compressed) throws IOException {
+        if (encryptionCount < 0) throw new IllegalArgumentException("Cannot store a negative number of encryptions");
+
+        SerialHelpers.writeString(stream, params.getCurveName());
+        SerialHelpers.writeECPoint(stream, publicKey, false);
+        stream.write(INDEX_MARKER);
+        SerialHelpers.writeInt(stream, INDEX_VERSION);
+        SerialHelpers.writeInt(stream, publicKey.getEncoded(compressed).length);
+        SerialHelpers.writeLong(stream, encryptionCount);
+    }
+
+    private Shard _openShard(Path file) throws IOException {
+        long dataOffset;
+        int encodingLength;
+        long expectedCount = -1;
+        try (InputStream inStream = new BufferedInputStream(Files.newInputStream(file))) {
+            String curveName = SerialHelpers.readString(inStream);
+            if (!m_params.getCurveName().equals(curveName)) {
                 throw new IllegalArgumentException(
                         "Encryptions were for the wrong curve. Saved encryptions were for curve [" + curveName
-                                + "], but [" + params.getCurveName() + "] was expected");
+                                + "], but [" + m_params.getCurveName() + "] was expected");
             }
 
-            ECPoint readPublicKey = SerialHelpers.readECPoint(m_inStream, m_params);
-            if (!publicKey.equals(readPublicKey)) {
+            ECPoint readPublicKey = SerialHelpers.readECPoint(inStream, m_params);
+            if (!m_publicKey.equals(readPublicKey)) {
                 throw new IllegalArgumentException("Wrong public key specified for this file.");
             }
-        } catch (IOException | RuntimeException e) {
-            m_inStream.close();
-            throw e;
-        }
-        m_streamIsOpen = true;
+            // The curve name is null-terminated and the key has a length byte.
+            int curveNameLength = curveName.getBytes(StandardCharsets.UTF_8).length + 1;
+            dataOffset = curveNameLength + 1 + readPublicKey.getEncoded(false).length;
 
-        _startExecutor(Math.min(m_workerThreads, 1), "PrecomputedEncryptionReader", () -> {
-            ECPair enc = _readZeroEncryption();
-            while (enc != null) {
-                _queueEncryption(enc);
-                enc = _readZeroEncryption();
+            // Files without an index start straight into the encryptions, so
+            // the first length byte tells us how they are encoded.
+            int firstByte = inStream.read();
+            if (firstByte == INDEX_MARKER) {
+                if (SerialHelpers.readInt(inStream) != INDEX_VERSION)
+                    throw new IllegalArgumentException("Unknown stored encryption format: " + file);
+                encodingLength = SerialHelpers.readInt(inStream);
+                expectedCount = SerialHelpers.readLong(inStream);
+                dataOffset += INDEX_SIZE;
+            } else {
+                encodingLength = (firstByte < 0 ? readPublicKey.getEncoded(false).length : firstByte);
+            }
+            if (encodingLength != readPublicKey.getEncoded(true).length
+                    && encodingLength != readPublicKey.getEncoded(false).length) {
+                throw new IllegalArgumentException("Invalid point encoding length in " + file);
             }
-        });
+        }
+
+        // Each point is written as a one-byte length followed by its encoding.
+        int recordSize = 2 * (1 + encodingLength);
+        long dataSize = Files.size(file) - dataOffset;
+        if (dataSize % recordSize != 0)
+            throw new IllegalArgumentException("File does not hold a whole number of encryptions: " + file);
+        if (expectedCount >= 0 && dataSize / recordSize != expectedCount)
+            throw new IllegalArgumentException("File does not hold as many encryptions as its index claims: " + file);
+
+        return new Shard(file, dataOffset, encodingLength, dataSize / recordSize, getCursorFile(file));
     }
 
-    private void _queueEncryption(ECPair encryption) {
+    // Returns false, dropping the encryption, if the encryptor has been
+    // closed. An interrupt alone can race a consumer making room in the
+    // queue, so the decoding thread also rechecks for closing while it waits.
+    private boolean _queueEncryption(ECPair encryption) {
         try {
-            m_encryptionQueue.put(encryption);
+            while (!m_isClosed) {
+                if (m_encryptionQueue.offer(encryption, QUEUE_OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS))
+                    return true;
+            }
         } catch (InterruptedException e) {
-            throw new RuntimeException("Interrupted attempting to queue encryption", e);
+            // Closing interrupts the decoding threads.
         }
+        return false;
     }
 
-    private void _startExecutor(int count, String threadPrefix, Runnable job) {
-        if (count < 1) return;
-
-        ExecutorService service = Executors.newFixedThreadPool(count, new DaemonThreadFactory(threadPrefix));
-        for (int i = 0; i < count; i++)
-            service.execute(job);
-        service.shutdown();
+    // Waits for the decoding threads to stop after they have been told to.
+    private void _awaitDecoders() {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    if (m_decoderService.awaitTermination(QUEUE_OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) return;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) Thread.currentThread().interrupt();
+        }
     }
 
-    private ECPair _readZeroEncryption() {
+    // Durably claims the next chunk of unused encryptions and maps it, or
+    // returns null if every file has been used up or the encryptor is closed.
+    private synchronized Chunk _claimChunk() {
+        if (m_isClosed) return null;
         try {
-            return SerialHelpers.readECPair(m_inStream, m_params);
-        } catch (EOFException e) {
-            try {
-                m_inStream.close();
-            } catch (IOException e2) {
-                throw new RuntimeException("Failed to close stream", e2);
-            }
-            m_streamIsOpen = false;
-            _startExecutor(m_workerThreads, "BackgroundEncryptor", () -> {
-                while (true)
-                    _queueEncryption(super.generateZeroEncryption());
-            });
+            while (m_nextShard < m_shards.size()) {
+                Chunk chunk = m_shards.get(m_nextShard).claimChunk();
+                if (chunk != null) return chunk;
 
-            return null;
+                m_shards.get(m_nextShard).close();
+                m_nextShard++;
+            }
         } catch (IOException e) {
+            // Closing interrupts the decoding threads, which closes any
+            // channel they were using.
+            if (m_isClosed) return null;
             // This failure also is probably recoverable by moving into online
             // mode.
             throw new RuntimeException("Failed to read encoded points", e);
         }
+        m_filesExhausted = true;
+        return null;
+    }
+
+    private synchronized ECPair _readInline() {
+        if (m_inlineChunk == null || !m_inlineChunk.hasRemaining()) {
+            m_inlineChunk = _claimChunk();
+            if (m_inlineChunk == null) return null;
+        }
+        return m_inlineChunk.decodeRecord(m_params);
     }
 
     /**
-     * Attempts to read and return a randomization factor from the file or its
-     * stored queue if any exist. Otherwise it will compute one inline.
+     * Attempts to return a randomization factor from the files or the queue
+     * of decoded ones if any exist. Once the files are used up, it will draw
+     * from the background service instead. If nothing is available, it will
+     * compute one inline.
      *
      * @see solidus.util.Encryptor#encryptZero
      */
     @Override
     public ECPair encryptZero() {
         ECPair encryption = null;
-        if (m_workerThreads > 0) {
+        if (m_decodeInBackground) {
             encryption = m_encryptionQueue.poll();
-        } else if (m_streamIsOpen) {
-            encryption = _readZeroEncryption();
+        } else if (!m_filesExhausted) {
+            encryption = _readInline();
         }
 
+        if (encryption == null && m_filesExhausted) {
+            encryption = m_pool.poll();
+        }
         if (encryption == null) {
             encryption = super.generateZeroEncryption();
         }
         return encryption;
     }
 
+    /**
+     * Stops decoding stored encryptions, closes the files, and stops the
+     * background service if this encryptor created it. This waits for the
+     * decoding threads to stop and discards any encryptions they decoded but
+     * did not hand out. After that the encryptor draws from the service if it
+     * was given one and otherwise computes encryptions inline. Encryptions not
+     * yet claimed from the files are left for a later encryptor.
+     *
+     * @throws IOException if a file cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (m_isClosed) return;
+            m_isClosed = true;
+            m_filesExhausted = true;
+            m_inlineChunk = null;
+        }
+        if (m_decoderService != null) {
+            m_decoderService.shutdownNow();
+            _awaitDecoders();
+            m_encryptionQueue.clear();
+        }
+        if (m_ownedService != null) m_ownedService.close();
+
+        IOException failure = null;
+        synchronized (this) {
+            for (; m_nextShard < m_shards.size(); m_nextShard++) {
+                try {
+                    m_shards.get(m_nextShard).close();
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) throw failure;
+    }
+
+    /**
+     * A single file of stored encryptions and its durable cursor.
+     */
+    private static class Shard {
+        private final long m_dataOffset;
+        private final int m_encodingLength;
+        private final long m_recordCount;
+        private final FileChannel m_channel;
+        private final FileChannel m_cursorChannel;
+
+        private long m_cursor;
+
+        private Shard(Path file, long dataOffset, int encodingLength, long recordCount, Path cursorFile)
+                throws IOException {
+            m_dataOffset = dataOffset;
+            m_encodingLength = encodingLength;
+            m_recordCount = recordCount;
+            m_channel = FileChannel.open(file, StandardOpenOption.READ);
+            m_cursorChannel = FileChannel.open(cursorFile, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                    StandardOpenOption.CREATE);
+
+            ByteBuffer cursorBuffer = ByteBuffer.allocate(Long.BYTES);
+            while (cursorBuffer.hasRemaining()) {
+                if (m_cursorChannel.read(cursorBuffer, cursorBuffer.position()) < 0) break;
+            }
+            m_cursor = (cursorBuffer.hasRemaining() ? 0 : cursorBuffer.getLong(0));
+            if (m_cursor < 0 || m_cursor > m_recordCount)
+                throw new IllegalArgumentException("Cursor does not match stored encryptions: " + cursorFile);
+        }
+
+        private Chunk claimChunk() throws IOException {
+            if (m_cursor >= m_recordCount) return null;
+
+            long start = m_cursor;
+            long end = Math.min(start + CHUNK_SIZE, m_recordCount);
+
+            // Record the claim before using anything in it.
+            ByteBuffer cursorBuffer = ByteBuffer.allocate(Long.BYTES);
+            cursorBuffer.putLong(0, end);
+            while (cursorBuffer.hasRemaining())
+                m_cursorChannel.write(cursorBuffer, cursorBuffer.position());
+            m_cursorChannel.force(false);
+            m_cursor = end;
+
+            int recordSize = 2 * (1 + m_encodingLength);
+            return new Chunk(m_channel.map(FileChannel.MapMode.READ_ONLY, m_dataOffset + start * recordSize,
+                    (end - start) * recordSize), m_encodingLength);
+        }
+
+        private void close() throws IOException {
+            m_channel.close();
+            m_cursorChannel.close();
+        }
+    }
+
+    /**
+     * A mapped run of encryptions claimed from a shard.
+     */
+    private static class Chunk {
+        private final ByteBuffer m_buffer;
+        private final int m_encodingLength;
+
+        private Chunk(ByteBuffer buffer, int encodingLength) {
+            m_buffer = buffer;
+            m_encodingLength = encodingLength;
+        }
+
+        private boolean hasRemaining() {
+            return m_buffer.hasRemaining();
+        }
+
+        private ECPair decodeRecord(EncryptionParams params) {
+            return new ECPair(_decodePoint(params), _decodePoint(params));
+        }
+
+        private ECPoint _decodePoint(EncryptionParams params) {
+            byte[] encoding = new byte[m_buffer.get() & 0xff];
+            if (encoding.length != m_encodingLength)
+                throw new IllegalStateException("Stored encryptions must all use the same encoding.");
+            m_buffer.get(encoding);
+            return params.decodePoint(encoding);
+        }
+    }
+
     /**
      * (FOR TESTING ONLY!) main method for testing only.
      *
@@ -196,15 +568,15 @@ public class FromFileEncryptor extends AbstractEncryptor {
         int encryptionsToGenerate = Integer.parseInt(args[2]);
         int threadCount = (args.length < 4 ? 0 : Integer.parseInt(args[3]));
 
-        FromFileEncryptor encryptor = new FromFileEncryptor(params, params.getGenerator().multiply(secretKey),
-                storedPath, true, threadCount, 10000);
-
-        Stopwatch watch = Stopwatch.createStarted();
-        for (int i = 0; i < encryptionsToGenerate; i++) {
-            encryptor.encryptZero();
-            if ((i + 1) % 10000 == 0) System.out.printf("Acquired %d encryptions\n", i + 1);
+        try (FromFileEncryptor encryptor = new FromFileEncryptor(params, params.getGenerator().multiply(secretKey),
+                storedPath, true, threadCount, 10000)) {
+            Stopwatch watch = Stopwatch.createStarted();
+            for (int i = 0; i < encryptionsToGenerate; i++) {
+                encryptor.encryptZero();
+                if ((i + 1) % 10000 == 0) System.out.printf("Acquired %d encryptions\n", i + 1);
+            }
+            watch.stop();
+            System.out.println("Total time: " + watch);
         }
-        watch.stop();
-        System.out.println("Total time: " + watch);
     }
 }
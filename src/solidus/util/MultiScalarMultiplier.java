@@ -0,0 +1,178 @@
+/*
+ * Solidus - Confidential Distributed Ledger Transactions via PVORM
+ *
+ * Copyright 2016-2017 Ethan Cecchetti, Fan Zhang and Yan Ji
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package solidus.util;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+import org.bouncycastle.math.ec.ECAlgorithms;
+import org.bouncycastle.math.ec.ECCurve;
+import org.bouncycastle.math.ec.ECPoint;
+import org.bouncycastle.math.ec.endo.ECEndomorphism;
+import org.bouncycastle.math.ec.endo.GLVEndomorphism;
+
+/**
+ * Computes sums of the form {@code k1 * P1 + k2 * P2 + ... + kn * Pn} far
+ * faster than performing each multiplication separately.
+ *
+ * For the small sums that appear in our zero-knowledge proofs this uses
+ * Straus' method: every scalar is recoded in wNAF form and all terms share a
+ * single chain of point doublings. If the curve has a GLV endomorphism, each
+ * scalar is first split into two half-length scalars, halving that chain
+ * again. For large sums it switches to Pippenger's bucket method, whose cost
+ * grows much more slowly with the number of terms.
+ *
+ * This class is immutable and thread-safe.
+ */
+public class MultiScalarMultiplier {
+    /**
+     * The number of terms at which Pippenger's method becomes faster than
+     * interleaved wNAF.
+     */
+    public static final int PIPPENGER_THRESHOLD = 512;
+
+    private final ECCurve m_curve;
+    private final BigInteger m_order;
+    private final GLVEndomorphism m_glvEndomorphism;
+
+    /**
+     * Constructs a new multiplier for points on the given curve in a group of
+     * the given order.
+     *
+     * @param curve the curve all points will be on.
+     * @param order the order of the group generated by the points. All
+     *            scalars are reduced modulo this value.
+     */
+    public MultiScalarMultiplier(ECCurve curve, BigInteger order) {
+        m_curve = curve;
+        m_order = order;
+
+        ECEndomorphism endomorphism = curve.getEndomorphism();
+        if (endomorphism instanceof GLVEndomorphism && endomorphism.hasEfficientPointMap()) {
+            m_glvEndomorphism = (GLVEndomorphism) endomorphism;
+        } else {
+            m_glvEndomorphism = null;
+        }
+    }
+
+    /**
+     * Computes {@code scalars[0] * points[0] + ... + scalars[n-1] *
+     * points[n-1]}. Scalars may be negative or larger than the group order.
+     * Neither array is modified.
+     *
+     * @param points the points to multiply.
+     * @param scalars the scalars to multiply each point by.
+     * @return the sum of the products of corresponding entries.
+     * @throws IllegalArgumentException if the arrays have different lengths.
+     */
+    public ECPoint sumOfMultiplies(ECPoint[] points, BigInteger[] scalars) {
+        if (points.length != scalars.length)
+            throw new IllegalArgumentException("Must provide exactly one scalar for each point.");
+
+        // Drop terms that contribute nothing so they don't cost anything.
+        ECPoint[] usedPoints = new ECPoint[points.length];
+        BigInteger[] usedScalars = new BigInteger[scalars.length];
+        int count = 0;
+        for (int i = 0; i < points.length; i++) {
+            BigInteger k = scalars[i].mod(m_order);
+            if (k.signum() != 0 && !points[i].isInfinity()) {
+                usedPoints[count] = points[i];
+                usedScalars[count] = k;
+                count++;
+            }
+        }
+
+        if (count == 0) {
+            return m_curve.getInfinity();
+        } else if (count == 1) {
+            return usedPoints[0].multiply(usedScalars[0]);
+        } else if (count == 2) {
+            return ECAlgorithms.sumOfTwoMultiplies(usedPoints[0], usedScalars[0], usedPoints[1], usedScalars[1]);
+        } else if (count < PIPPENGER_THRESHOLD) {
+            return ECAlgorithms.sumOfMultiplies(Arrays.copyOf(usedPoints, count), Arrays.copyOf(usedScalars, count));
+        } else {
+            return _pippenger(usedPoints, usedScalars, count);
+        }
+    }
+
+    /**
+     * Pippenger's bucket method. The inputs are all reduced, non-zero scalars
+     * and finite points. Both arrays may be modified.
+     */
+    private ECPoint _pippenger(ECPoint[] points, BigInteger[] scalars, int count) {
+        if (m_glvEndomorphism != null) {
+            // Split each term k * P into a * P + b * phi(P) with a and b about
+            // half as long as k. That doubles the terms but halves the windows.
+            ECPoint[] splitPoints = new ECPoint[2 * count];
+            BigInteger[] splitScalars = new BigInteger[2 * count];
+            for (int i = 0; i < count; i++) {
+                BigInteger[] ab = m_glvEndomorphism.decomposeScalar(scalars[i]);
+                ECPoint mapped = m_glvEndomorphism.getPointMap().map(points[i]);
+                splitPoints[2 * i] = ab[0].signum() < 0 ? points[i].negate() : points[i];
+                splitScalars[2 * i] = ab[0].abs();
+                splitPoints[2 * i + 1] = ab[1].signum() < 0 ? mapped.negate() : mapped;
+                splitScalars[2 * i + 1] = ab[1].abs();
+            }
+            points = splitPoints;
+            scalars = splitScalars;
+            count *= 2;
+        }
+
+        // Affine inputs make every bucket addition a cheaper mixed addition.
+        m_curve.normalizeAll(points, 0, count, null);
+
+        int maxBits = 0;
+        for (int i = 0; i < count; i++)
+            maxBits = Math.max(maxBits, scalars[i].bitLength());
+
+        int windowBits = _windowBits(count);
+        int windowMask = (1 << windowBits) - 1;
+        ECPoint[] buckets = new ECPoint[windowMask];
+
+        ECPoint result = m_curve.getInfinity();
+        for (int window = (maxBits - 1) / windowBits; window >= 0; window--) {
+            result = result.timesPow2(windowBits);
+
+            Arrays.fill(buckets, null);
+            int shift = window * windowBits;
+            for (int i = 0; i < count; i++) {
+                int digit = scalars[i].shiftRight(shift).intValue() & windowMask;
+                if (digit != 0) {
+                    buckets[digit - 1] = (buckets[digit - 1] == null ? points[i] : buckets[digit - 1].add(points[i]));
+                }
+            }
+
+            // Summing running totals from the top bucket down adds bucket j
+            // into the window sum exactly j times.
+            ECPoint runningSum = m_curve.getInfinity();
+            ECPoint windowSum = m_curve.getInfinity();
+            for (int j = buckets.length - 1; j >= 0; j--) {
+                if (buckets[j] != null) runningSum = runningSum.add(buckets[j]);
+                windowSum = windowSum.add(runningSum);
+            }
+            result = result.add(windowSum);
+        }
+        return result;
+    }
+
+    private static int _windowBits(int count) {
+        int log = 31 - Integer.numberOfLeadingZeros(count);
+        return Math.max(4, Math.min(16, log - 2));
+    }
+}
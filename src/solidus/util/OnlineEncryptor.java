@@ -18,31 +18,32 @@
 
 package solidus.util;
 
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-
 import org.bouncycastle.crypto.ec.ECPair;
 import org.bouncycastle.math.ec.ECPoint;
 
 /**
  * A simple extention of {@link solidus.util.AbstractEncryptor
  * AbstractEncryptor} to generate El Gamal encryptions while computing
- * randomization factors online or in the background. The Encryptor will use a
- * number of threads specified at construction to compute randomzation factors
- * in the background and only truly compute the randomizations online if there
- * are no background-computed factors available. If the Encryptor is
- * instantiated with no threads, this will always be the case.
+ * randomization factors online or in the background. Background computation is
+ * done by a {@link solidus.util.PrecomputeService PrecomputeService}, which
+ * may be shared with other encryptors, and the Encryptor only truly computes
+ * the randomizations online if there are no background-computed factors
+ * available. If the service has no threads, this will always be the case.
+ *
+ * An encryptor that creates its own service stops that service's threads
+ * when it is {@link #close() closed}. A shared service is left running.
  *
  * @see solidus.util.Encryptor
  * @author ethan@cs.cornell.edu
  */
-public class OnlineEncryptor extends AbstractEncryptor {
-    private final BlockingQueue<ECPair> m_encryptionQueue;
+public class OnlineEncryptor extends AbstractEncryptor implements AutoCloseable {
+    private final PrecomputeService.KeyPool m_pool;
+    // The service this encryptor created, or null if it was given one.
+    private final PrecomputeService m_ownedService;
 
     /**
-     * Constructs a new encryptor.
+     * Constructs a new encryptor with its own background threads. The
+     * threads run until the encryptor is {@link #close() closed}.
      *
      * @param params configuration parameters specifying the elliptic curve
      *            group and randomization source to use for encryption.
@@ -54,34 +55,35 @@ public class OnlineEncryptor extends AbstractEncryptor {
      *            used unless {@code workerThreads > 0}.
      * @param queueSize the maximum number of randomization factors to be stored
      *            before using any. If this many are awaiting use, background
-     *            threads will hang until some randomization factors get used.
+     *            threads will wait until some randomization factors get used.
      */
     public OnlineEncryptor(EncryptionParams params, ECPoint publicKey, boolean normalize, int workerThreads,
             int queueSize) {
-        super(params, publicKey, normalize);
-
-        m_encryptionQueue = new ArrayBlockingQueue<>(queueSize);
+        this(params, publicKey, normalize, new PrecomputeService(workerThreads, queueSize), true);
+    }
 
-        if (workerThreads > 0) {
-            ExecutorService service = Executors.newFixedThreadPool(workerThreads,
-                    new DaemonThreadFactory("EncryptorBG"));
-            for (int i = 0; i < workerThreads; i++) {
-                service.execute(() -> {
-                    while (true) {
-                        _queueEncryption(super.generateZeroEncryption());
-                    }
-                });
-            }
-            service.shutdown();
-        }
+    /**
+     * Constructs a new encryptor that draws background-computed randomization
+     * factors from the given service.
+     *
+     * @param params configuration parameters specifying the elliptic curve
+     *            group and randomization source to use for encryption.
+     * @param publicKey the public key to encrypt under.
+     * @param normalize whether or not to normalize points for fast
+     *            serialization.
+     * @param service the service to compute randomization factors in the
+     *            background.
+     */
+    public OnlineEncryptor(EncryptionParams params, ECPoint publicKey, boolean normalize,
+            PrecomputeService service) {
+        this(params, publicKey, normalize, service, false);
     }
 
-    private void _queueEncryption(ECPair encryption) {
-        try {
-            m_encryptionQueue.put(encryption);
-        } catch (InterruptedException e) {
-            throw new RuntimeException("Interrupted attempting to queue encryption", e);
-        }
+    private OnlineEncryptor(EncryptionParams params, ECPoint publicKey, boolean normalize, PrecomputeService service,
+            boolean ownsService) {
+        super(params, publicKey, normalize);
+        m_pool = service.register(this);
+        m_ownedService = (ownsService ? service : null);
     }
 
     /**
@@ -103,10 +105,20 @@ public class OnlineEncryptor extends AbstractEncryptor {
         // bottlenecking on the background thread.
         // This also avoids the need to special case for when there is no
         // background thread.
-        ECPair encryption = m_encryptionQueue.poll();
+        ECPair encryption = m_pool.poll();
         if (encryption == null) {
             encryption = super.generateZeroEncryption();
         }
         return encryption;
     }
+
+    /**
+     * Stops the background threads if this encryptor created its own
+     * service. The encryptor remains usable, but computes every encryption
+     * online once the precomputed ones run out.
+     */
+    @Override
+    public void close() {
+        if (m_ownedService != null) m_ownedService.close();
+    }
 }
@@ -0,0 +1,362 @@
+/*
+ * Solidus - Confidential Distributed Ledger Transactions via PVORM
+ *
+ * Copyright 2016-2017 Ethan Cecchetti, Fan Zhang and Yan Ji
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package solidus.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.bouncycastle.crypto.ec.ECPair;
+import org.bouncycastle.math.ec.ECPoint;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * A pool of background threads that precomputes encryptions of zero for any
+ * number of public keys. One service is shared by every
+ * {@link solidus.util.Encryptor Encryptor} created by an
+ * {@link solidus.util.EncryptionParams EncryptionParams} object, so the total
+ * number of background threads is fixed no matter how many keys are in use.
+ *
+ * Each registered encryptor gets its own {@link KeyPool} queue. The service
+ * tracks how quickly each queue is being consumed and sizes its target depth
+ * to cover a few seconds of recent demand, up to the queue capacity. Workers
+ * always refill the queue that will run dry soonest at its current rate of
+ * consumption. Queues that nobody has drawn from recently have a target depth
+ * of zero, so when nothing is being consumed the workers park instead of
+ * spinning.
+ *
+ * A failure while precomputing for one key is logged and does not stop the
+ * worker. That key is skipped for a short time before being retried, so a key
+ * that always fails cannot starve the others. The background threads run
+ * until the service is {@link #close() closed}.
+ */
+public class PrecomputeService implements AutoCloseable {
+    private static final Logger LOGGER = Logger.getLogger("solidus");
+
+    // Demand is an exponentially weighted rate of takes per second with this
+    // time constant.
+    private static final double DEMAND_TIME_CONSTANT_SECONDS = 5.0;
+    // Queues target enough encryptions to last this long at current demand.
+    private static final double TARGET_BUFFER_SECONDS = 2.0;
+    // Below this rate of takes per second a queue is considered idle.
+    private static final double IDLE_DEMAND_RATE = 0.05;
+    // Parked workers wake up this often to let idle demand decay.
+    private static final long PARK_TIMEOUT_MS = 1000;
+    // A queue whose encryptor failed is not refilled for this long.
+    private static final long FAILURE_RETRY_DELAY_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final int m_threadCount;
+    private final int m_queueCapacity;
+    private final List<KeyPool> m_pools;
+    private final ExecutorService m_workerService;
+
+    // These are guarded by this.
+    private int m_parkedWorkers;
+    private boolean m_isClosed;
+
+    /**
+     * Constructs a new service and starts its background threads.
+     *
+     * @param threadCount the total number of background threads to use across
+     *            all keys. If this is 0, nothing is ever precomputed and every
+     *            {@link KeyPool#poll() poll} is a miss.
+     * @param queueCapacity the maximum number of encryptions stored for each
+     *            key.
+     * @throws IllegalArgumentException if {@code threadCount < 0} or
+     *             {@code queueCapacity < 1}
+     */
+    public PrecomputeService(int threadCount, int queueCapacity) {
+        if (threadCount < 0) throw new IllegalArgumentException("Cannot use a negative number of threads.");
+        if (queueCapacity < 1) throw new IllegalArgumentException("Queue capacity must be positive.");
+
+        m_threadCount = threadCount;
+        m_queueCapacity = queueCapacity;
+        m_pools = new ArrayList<>();
+        m_parkedWorkers = 0;
+        m_isClosed = false;
+
+        if (threadCount > 0) {
+            m_workerService = Executors.newFixedThreadPool(threadCount, new DaemonThreadFactory("EncryptorBG"));
+            for (int i = 0; i < threadCount; i++)
+                m_workerService.execute(this::_runWorker);
+            m_workerService.shutdown();
+        } else {
+            m_workerService = null;
+        }
+    }
+
+    /**
+     * Registers an encryptor with the service, creating a queue of
+     * precomputed encryptions of zero for its public key. The queue will
+     * only be filled once the encryptor starts drawing from it, and never
+     * if the service has been closed.
+     *
+     * @param encryptor the encryptor whose encryptions should be precomputed.
+     * @return a new queue of encryptions for {@code encryptor}.
+     */
+    public KeyPool register(AbstractEncryptor encryptor) {
+        KeyPool pool = new KeyPool(encryptor, m_queueCapacity);
+        synchronized (this) {
+            m_pools.add(pool);
+        }
+        return pool;
+    }
+
+    /**
+     * Returns the total number of background threads in this service.
+     *
+     * @return the total number of background threads in this service.
+     */
+    public int getThreadCount() {
+        return m_threadCount;
+    }
+
+    /**
+     * Returns a snapshot of all queues registered with this service. The
+     * {@code KeyPool} objects themselves are live and can be used to read
+     * current metrics.
+     *
+     * @return all queues registered with this service.
+     */
+    public synchronized List<KeyPool> getPools() {
+        return ImmutableList.copyOf(m_pools);
+    }
+
+    /**
+     * Stops all background threads. Encryptions already in the queues can
+     * still be taken, but no more will be computed. Closing a service more
+     * than once has no further effect.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (m_isClosed) return;
+            m_isClosed = true;
+            notifyAll();
+        }
+        if (m_workerService != null) m_workerService.shutdownNow();
+    }
+
+    private void _runWorker() {
+        for (KeyPool pool = _awaitWork(); pool != null; pool = _awaitWork()) {
+            try {
+                for (ECPair encryption : pool.m_encryptor.generateZeroEncryptions(
+                        AbstractEncryptor.BACKGROUND_BATCH_SIZE)) {
+                    // Demand can shrink while we compute, so never block on a
+                    // full queue. Extra encryptions are simply discarded.
+                    if (!pool.m_queue.offer(encryption)) break;
+                }
+            } catch (RuntimeException e) {
+                // The encryptor will compute inline what we failed to
+                // precompute, so keep serving the other keys.
+                LOGGER.log(Level.WARNING, "Failed to precompute encryptions for " + pool.getPublicKey(), e);
+                synchronized (this) {
+                    pool.m_retryAfterNanos = System.nanoTime() + FAILURE_RETRY_DELAY_NANOS;
+                }
+            } finally {
+                synchronized (this) {
+                    pool.m_inProgress -= AbstractEncryptor.BACKGROUND_BATCH_SIZE;
+                }
+            }
+        }
+    }
+
+    // Returns the pool to fill next, or null once the service is closed.
+    private synchronized KeyPool _awaitWork() {
+        while (!m_isClosed) {
+            long now = System.nanoTime();
+            KeyPool neediest = null;
+            double neediestSeconds = Double.POSITIVE_INFINITY;
+            for (KeyPool pool : m_pools) {
+                pool._updateDemand(now);
+                if (now - pool.m_retryAfterNanos < 0) continue;
+                int depth = pool.m_queue.size() + pool.m_inProgress;
+                if (depth >= pool.m_targetDepth) continue;
+
+                double secondsUntilEmpty = depth / pool.m_demandRate;
+                if (secondsUntilEmpty < neediestSeconds) {
+                    neediest = pool;
+                    neediestSeconds = secondsUntilEmpty;
+                }
+            }
+
+            if (neediest != null) {
+                neediest.m_inProgress += AbstractEncryptor.BACKGROUND_BATCH_SIZE;
+                return neediest;
+            }
+
+            m_parkedWorkers++;
+            try {
+                wait(PARK_TIMEOUT_MS);
+            } catch (InterruptedException e) {
+                // Workers are only interrupted when the service is closed.
+                return null;
+            } finally {
+                m_parkedWorkers--;
+            }
+        }
+        return null;
+    }
+
+    // Checking for parked workers under the lock means a worker cannot miss
+    // this signal between deciding there is no work and parking.
+    private synchronized void _wakeWorkers() {
+        if (m_parkedWorkers > 0) notifyAll();
+    }
+
+    /**
+     * A queue of precomputed encryptions of zero for a single public key,
+     * along with metrics describing how it is being used.
+     */
+    public class KeyPool {
+        private final AbstractEncryptor m_encryptor;
+        private final BlockingQueue<ECPair> m_queue;
+        private final int m_capacity;
+
+        private final AtomicLong m_hits;
+        private final AtomicLong m_misses;
+
+        // These are guarded by the enclosing service's lock.
+        private int m_inProgress;
+        private long m_lastUpdateNanos;
+        private long m_retryAfterNanos;
+        private long m_lastTakes;
+        private double m_demandRate;
+        private volatile int m_targetDepth;
+
+        private KeyPool(AbstractEncryptor encryptor, int capacity) {
+            m_encryptor = encryptor;
+            m_queue = new ArrayBlockingQueue<>(capacity);
+            m_capacity = capacity;
+            m_hits = new AtomicLong();
+            m_misses = new AtomicLong();
+
+            m_inProgress = 0;
+            m_lastUpdateNanos = System.nanoTime();
+            m_retryAfterNanos = m_lastUpdateNanos;
+            m_lastTakes = 0;
+            m_demandRate = 0;
+            m_targetDepth = 0;
+        }
+
+        private void _updateDemand(long now) {
+            double elapsedSeconds = (now - m_lastUpdateNanos) / 1e9;
+            long takes = m_hits.get() + m_misses.get();
+            m_demandRate = m_demandRate * Math.exp(-elapsedSeconds / DEMAND_TIME_CONSTANT_SECONDS)
+                    + (takes - m_lastTakes) / DEMAND_TIME_CONSTANT_SECONDS;
+            m_lastUpdateNanos = now;
+            m_lastTakes = takes;
+
+            if (m_demandRate < IDLE_DEMAND_RATE) {
+                m_targetDepth = 0;
+            } else {
+                m_targetDepth = (int) Math.min(m_capacity, Math.ceil(m_demandRate * TARGET_BUFFER_SECONDS));
+            }
+        }
+
+        /**
+         * Takes a precomputed encryption of zero from the queue without
+         * waiting. Every call counts toward the demand for this key, whether
+         * or not it succeeds.
+         *
+         * @return a precomputed encryption of zero, or {@code null} if none
+         *         is available.
+         */
+        public ECPair poll() {
+            ECPair encryption = m_queue.poll();
+            if (encryption == null) {
+                m_misses.incrementAndGet();
+                _wakeWorkers();
+            } else {
+                m_hits.incrementAndGet();
+                if (m_queue.size() < m_targetDepth / 2) _wakeWorkers();
+            }
+            return encryption;
+        }
+
+        /**
+         * Returns the public key this queue holds encryptions for.
+         *
+         * @return the public key this queue holds encryptions for.
+         */
+        public ECPoint getPublicKey() {
+            return m_encryptor.getPublicKey();
+        }
+
+        /**
+         * Returns the number of encryptions currently in the queue.
+         *
+         * @return the number of encryptions currently in the queue.
+         */
+        public int getQueueDepth() {
+            return m_queue.size();
+        }
+
+        /**
+         * Returns the depth the service is currently trying to keep this
+         * queue at, based on recent demand.
+         *
+         * @return the current target depth of the queue.
+         */
+        public int getTargetDepth() {
+            return m_targetDepth;
+        }
+
+        /**
+         * Returns the recent rate at which encryptions have been taken from
+         * this queue, in encryptions per second, as of the last time the
+         * service scheduled work.
+         *
+         * @return the recent rate of demand in encryptions per second.
+         */
+        public double getDemandRate() {
+            synchronized (PrecomputeService.this) {
+                return m_demandRate;
+            }
+        }
+
+        /**
+         * Returns the number of calls to {@link #poll() poll} that returned a
+         * precomputed encryption.
+         *
+         * @return the number of successful polls.
+         */
+        public long getHitCount() {
+            return m_hits.get();
+        }
+
+        /**
+         * Returns the number of calls to {@link #poll() poll} that found the
+         * queue empty.
+         *
+         * @return the number of unsuccessful polls.
+         */
+        public long getMissCount() {
+            return m_misses.get();
+        }
+    }
+}
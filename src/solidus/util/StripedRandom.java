@@ -0,0 +1,113 @@
+/*
+ * Solidus - Confidential Distributed Ledger Transactions via PVORM
+ *
+ * Copyright 2016-2017 Ethan Cecchetti, Fan Zhang and Yan Ji
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package solidus.util;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.Random;
+
+import org.bouncycastle.crypto.engines.AESFastEngine;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.crypto.prng.X931SecureRandomBuilder;
+
+/**
+ * A source of randomness that gives every thread its own generator so that
+ * threads drawing randomness concurrently never contend on a lock.
+ *
+ * Each thread's generator is seeded from a single master source the first
+ * time that thread draws randomness, which is the only time the master is
+ * used (aside from occasional reseeding). If the master is a
+ * {@code SecureRandom}, each thread gets an X9.31 AES DRBG keyed from the
+ * master and reseeded from it, matching
+ * {@link solidus.util.CryptoConstants#buildPrng() CryptoConstants.buildPrng}.
+ * Otherwise, as when testing with a seeded {@code java.util.Random}, each
+ * thread gets a {@code java.util.Random} seeded from the master.
+ *
+ * Seeds passed to {@link #setSeed(long) setSeed} are mixed into the calling
+ * thread's generator only.
+ */
+public class StripedRandom extends Random {
+    private static final long serialVersionUID = 1L;
+
+    private static final int DRBG_KEY_BYTES = 32;
+
+    private final Random m_master;
+    private final transient ThreadLocal<Random> m_threadRandom;
+
+    /**
+     * Constructs a new striped source of randomness.
+     *
+     * @param master the source from which to seed each thread's generator.
+     */
+    public StripedRandom(Random master) {
+        m_master = master;
+        m_threadRandom = ThreadLocal.withInitial(this::_newThreadRandom);
+    }
+
+    private Random _newThreadRandom() {
+        if (m_master instanceof SecureRandom) {
+            byte[] key = new byte[DRBG_KEY_BYTES];
+            m_master.nextBytes(key);
+            return new X931SecureRandomBuilder((SecureRandom) m_master, false).build(new AESFastEngine(),
+                    new KeyParameter(key), false);
+        } else {
+            synchronized (m_master) {
+                return new Random(m_master.nextLong());
+            }
+        }
+    }
+
+    /**
+     * Returns a uniformly random integer in the range {@code [1, bound)} using
+     * rejection sampling on the calling thread's generator.
+     *
+     * @param bound the exclusive upper bound. Must be at least 2.
+     * @return a uniformly random integer in the range {@code [1, bound)}.
+     */
+    public BigInteger nextNonZeroBelow(BigInteger bound) {
+        Random random = m_threadRandom.get();
+        int bits = bound.bitLength();
+        byte[] bytes = new byte[(bits + 7) / 8];
+        int topMask = 0xff >>> (8 * bytes.length - bits);
+
+        BigInteger r;
+        do {
+            random.nextBytes(bytes);
+            bytes[0] &= topMask;
+            r = new BigInteger(1, bytes);
+        } while (r.signum() == 0 || r.compareTo(bound) >= 0);
+        return r;
+    }
+
+    @Override
+    protected int next(int bits) {
+        return m_threadRandom.get().nextInt() >>> (Integer.SIZE - bits);
+    }
+
+    @Override
+    public void nextBytes(byte[] bytes) {
+        m_threadRandom.get().nextBytes(bytes);
+    }
+
+    @Override
+    public void setSeed(long seed) {
+        // Random's constructor calls this before the thread-local exists.
+        if (m_threadRandom != null) m_threadRandom.get().setSeed(seed);
+    }
+}
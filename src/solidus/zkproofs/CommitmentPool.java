@@ -0,0 +1,235 @@
+/*
+ * Solidus - Confidential Distributed Ledger Transactions via PVORM
+ *
+ * Copyright 2016-2017 Ethan Cecchetti, Fan Zhang and Yan Ji
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package solidus.zkproofs;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.bouncycastle.math.ec.ECPoint;
+
+import solidus.io.SerialHelpers;
+import solidus.util.BatchNormalizer;
+import solidus.util.DaemonThreadFactory;
+import solidus.util.EncryptionParams;
+
+/**
+ * A pool of single-use {@link solidus.zkproofs.SigmaCommitment
+ * SigmaCommitment}s for one public key, typically a bank's encryption key.
+ * Proof builders that are given a pool take their nonces and commitments from
+ * it instead of performing those scalar multiplications on the critical path.
+ *
+ * Commitments come from three places, in order of preference: those loaded
+ * from disk with {@link #loadFromFile(Path) loadFromFile}, those precomputed
+ * by the pool's background threads, and finally fresh ones generated inline
+ * when the pool is empty. Every commitment is handed out at most once. The
+ * background threads run until the pool is {@link #close() closed}.
+ */
+public class CommitmentPool implements AutoCloseable {
+    // Background threads compute this many commitments at once so they can
+    // share a single field inversion when normalizing.
+    private static final int BATCH_SIZE = 64;
+
+    private final EncryptionParams m_params;
+    private final ECPoint m_key;
+    private final Queue<SigmaCommitment> m_stored;
+    private final BlockingQueue<SigmaCommitment> m_queue;
+    private final ExecutorService m_workerService;
+
+    /**
+     * Constructs a new pool and starts its background threads.
+     *
+     * @param params the params specifying the group and randomness source.
+     * @param key the public key to precompute commitments for.
+     * @param threadCount the number of background threads to precompute
+     *            commitments with. If this is 0, only loaded commitments are
+     *            precomputed.
+     * @param capacity the maximum number of commitments to precompute in the
+     *            background ahead of their use.
+     * @throws IllegalArgumentException if {@code threadCount < 0} or
+     *             {@code capacity < 1}
+     */
+    public CommitmentPool(EncryptionParams params, ECPoint key, int threadCount, int capacity) {
+        if (threadCount < 0) throw new IllegalArgumentException("Cannot use a negative number of threads.");
+        if (capacity < 1) throw new IllegalArgumentException("Pool capacity must be positive.");
+
+        m_params = params;
+        m_key = key.normalize();
+        m_stored = new ConcurrentLinkedQueue<>();
+        m_queue = new ArrayBlockingQueue<>(capacity);
+
+        // Commitments under the key are just fixed-base multiplications. The
+        // key is usually a bank key that already has a table.
+        if (!m_params.isFixedBase(m_key)) m_params.registerFixedBase(m_key);
+
+        if (threadCount > 0) {
+            m_workerService = Executors.newFixedThreadPool(threadCount, new DaemonThreadFactory("CommitmentBG"));
+            for (int i = 0; i < threadCount; i++)
+                m_workerService.execute(this::_runWorker);
+            m_workerService.shutdown();
+        } else {
+            m_workerService = null;
+        }
+    }
+
+    private void _runWorker() {
+        try {
+            while (true) {
+                for (SigmaCommitment commitment : _generateBatch(m_params, m_key, BATCH_SIZE))
+                    m_queue.put(commitment);
+            }
+        } catch (InterruptedException e) {
+            // Closing the pool interrupts its workers.
+        }
+    }
+
+    private static List<SigmaCommitment> _generateBatch(EncryptionParams params, ECPoint key, int count) {
+        BigInteger[] nonces = new BigInteger[count];
+        ECPoint[] points = new ECPoint[2 * count];
+        for (int i = 0; i < count; i++) {
+            nonces[i] = params.getRandomIndex();
+            points[2 * i] = params.multiplyFixed(params.getGenerator(), nonces[i]);
+            points[2 * i + 1] = params.multiplyFixed(key, nonces[i]);
+        }
+        BatchNormalizer.normalizeAll(points);
+
+        List<SigmaCommitment> commitments = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+            commitments.add(new SigmaCommitment(nonces[i], points[2 * i], key, points[2 * i + 1]));
+        return commitments;
+    }
+
+    /**
+     * @return the public key this pool holds commitments for.
+     */
+    public ECPoint getKey() {
+        return m_key;
+    }
+
+    /**
+     * Returns the number of commitments currently available without
+     * computing any inline.
+     *
+     * @return the number of precomputed commitments available.
+     */
+    public int getAvailableCount() {
+        return m_stored.size() + m_queue.size();
+    }
+
+    /**
+     * Takes a commitment for this pool's key. This never blocks. If nothing
+     * has been precomputed, the commitment is generated inline.
+     *
+     * @return a commitment that has never been handed out before.
+     */
+    public SigmaCommitment take() {
+        SigmaCommitment commitment = m_stored.poll();
+        if (commitment == null) commitment = m_queue.poll();
+        if (commitment == null) commitment = SigmaCommitment.generate(m_params, m_key);
+        return commitment;
+    }
+
+    /**
+     * Stops all background threads. Commitments already precomputed or loaded
+     * can still be taken, and once they run out new ones are generated
+     * inline. Closing a pool more than once has no further effect.
+     */
+    @Override
+    public void close() {
+        if (m_workerService != null) m_workerService.shutdownNow();
+    }
+
+    /**
+     * Writes {@code count} new commitments for {@code key} to a file that can
+     * later be loaded with {@link #loadFromFile(Path) loadFromFile}. The file
+     * contains secret nonces, so it must be protected as carefully as the
+     * secret keys the proofs are built with.
+     *
+     * @param file the file to write.
+     * @param params the params specifying the group and randomness source.
+     * @param key the public key to compute commitments for.
+     * @param count the number of commitments to write.
+     * @throws IOException if the file cannot be written.
+     */
+    public static void writeToFile(Path file, EncryptionParams params, ECPoint key, long count) throws IOException {
+        if (count < 0) throw new IllegalArgumentException("Cannot write a negative number of commitments.");
+
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file))) {
+            SerialHelpers.writeString(out, params.getCurveName());
+            SerialHelpers.writeECPoint(out, key, false);
+            SerialHelpers.writeLong(out, count);
+            for (long written = 0; written < count; written += BATCH_SIZE) {
+                for (SigmaCommitment commitment : _generateBatch(params, key,
+                        (int) Math.min(BATCH_SIZE, count - written))) {
+                    SerialHelpers.writeBigInteger(out, commitment.getNonce());
+                    SerialHelpers.writeECPoint(out, commitment.getGeneratorPoint(), false);
+                    SerialHelpers.writeECPoint(out, commitment.getKeyPoint(params, key), false);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds all of the commitments in a file written by
+     * {@link #writeToFile(Path, EncryptionParams, ECPoint, long) writeToFile}
+     * to this pool. They are used before any computed in the background. The
+     * file is deleted once it has been read so that no commitment in it can
+     * be handed out again after a restart.
+     *
+     * @param file the file of commitments to load.
+     * @throws IllegalArgumentException if the file holds commitments for the
+     *             wrong curve or the wrong key.
+     * @throws IOException if the file cannot be read or deleted.
+     */
+    public void loadFromFile(Path file) throws IOException {
+        List<SigmaCommitment> loaded = new ArrayList<>();
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+            String curveName = SerialHelpers.readString(in);
+            if (!m_params.getCurveName().equals(curveName)) {
+                throw new IllegalArgumentException("Commitments were for the wrong curve. Saved commitments were for "
+                        + "curve [" + curveName + "], but [" + m_params.getCurveName() + "] was expected");
+            }
+            if (!m_key.equals(SerialHelpers.readECPoint(in, m_params)))
+                throw new IllegalArgumentException("Wrong public key specified for this file.");
+
+            long count = SerialHelpers.readLong(in);
+            for (long i = 0; i < count; i++) {
+                BigInteger nonce = SerialHelpers.readBigInteger(in);
+                ECPoint generatorPoint = SerialHelpers.readECPoint(in, m_params);
+                ECPoint keyPoint = SerialHelpers.readECPoint(in, m_params);
+                loaded.add(new SigmaCommitment(nonce, generatorPoint, m_key, keyPoint));
+            }
+        }
+        Files.delete(file);
+        m_stored.addAll(loaded);
+    }
+}
@@ -58,6 +58,43 @@ public class DoubleSwapProof implements SerialWriter {
         public ECPair getCipher1();
 
         public ECPair getCipher2();
+
+        /**
+         * Returns the bytes this pair contributes to a proof challenge: the
+         * compressed encodings of the X and Y points of the first cipher
+         * followed by those of the second. Implementations that take part in
+         * many proofs may compute this once and return the cached value, so
+         * callers must not modify the returned array.
+         *
+         * @return the challenge encoding of this pair.
+         */
+        public default byte[] getChallengeEncoding() {
+            return encodeForChallenge(getCipher1(), getCipher2());
+        }
+    }
+
+    /**
+     * Computes the value that {@link CipherPair#getChallengeEncoding} should
+     * return for a pair of the two given ciphertexts.
+     *
+     * @param cipher1 The first cipher of the pair.
+     * @param cipher2 The second cipher of the pair.
+     * @return the concatenated compressed encodings of all four points.
+     */
+    public static byte[] encodeForChallenge(ECPair cipher1, ECPair cipher2) {
+        byte[][] encodings = { cipher1.getX().getEncoded(true), cipher1.getY().getEncoded(true),
+                cipher2.getX().getEncoded(true), cipher2.getY().getEncoded(true) };
+        int length = 0;
+        for (byte[] encoding : encodings)
+            length += encoding.length;
+
+        byte[] result = new byte[length];
+        int offset = 0;
+        for (byte[] encoding : encodings) {
+            System.arraycopy(encoding, 0, result, offset, encoding.length);
+            offset += encoding.length;
+        }
+        return result;
     }
 
     /**
@@ -139,19 +176,16 @@ public class DoubleSwapProof implements SerialWriter {
     public static DoubleSwapProof buildProof(EncryptionParams params, CipherPair preSwap1, CipherPair preSwap2,
             CipherPair postSwap1, CipherPair postSwap2, ECPoint publicKey, BigInteger secretKey, boolean isFake) {
         List<BigInteger> multipliers = _getChallenges(params, preSwap1, preSwap2, postSwap1, postSwap2, publicKey);
-        BigInteger e1 = multipliers.get(0);
-        BigInteger e2 = multipliers.get(1);
-        BigInteger e3 = multipliers.get(2);
 
         BigInteger andE = params.getRandomIndex();
 
-        ECPoint andOmegaPiece1 = preSwap1.getCipher1().getY().add(preSwap2.getCipher1().getY())
-                .subtract(postSwap1.getCipher1().getY()).subtract(postSwap2.getCipher1().getY())
-                .multiply(e1.multiply(andE));
-        ECPoint andOmegaPiece2 = preSwap1.getCipher2().getY().add(preSwap2.getCipher2().getY())
-                .subtract(postSwap1.getCipher2().getY()).subtract(postSwap2.getCipher2().getY())
-                .multiply(e2.multiply(andE));
-        ECPoint andOmega = andOmegaPiece1.add(andOmegaPiece2).add(params.getGenerator().multiply(e3.multiply(andE)));
+        ECPoint andBasePiece1 = preSwap1.getCipher1().getY().add(preSwap2.getCipher1().getY())
+                .subtract(postSwap1.getCipher1().getY()).subtract(postSwap2.getCipher1().getY());
+        ECPoint andBasePiece2 = preSwap1.getCipher2().getY().add(preSwap2.getCipher2().getY())
+                .subtract(postSwap1.getCipher2().getY()).subtract(postSwap2.getCipher2().getY());
+        ECPoint andOmega = params.sumOfMultiplies(
+                new ECPoint[] { andBasePiece1, andBasePiece2, params.getGenerator() },
+                _scaleMultipliers(multipliers, andE));
 
         BigInteger andC = params.hash(andOmega);
         BigInteger andS = andC.multiply(secretKey).add(andE).mod(params.getGroupSize());
@@ -169,28 +203,26 @@ public class DoubleSwapProof implements SerialWriter {
         ECPoint orOmega1, orOmega2;
         if (isFake) {
             // omega1 = e1 G1
-            orOmega1 = orG1Piece1.multiply(e1.multiply(orE)).add(orG1Piece2.multiply(e2.multiply(orE)))
-                    .add(params.getGenerator().multiply(e3.multiply(orE)));
+            orOmega1 = params.sumOfMultiplies(new ECPoint[] { orG1Piece1, orG1Piece2, params.getGenerator() },
+                    _scaleMultipliers(multipliers, orE));
 
             // omega2 = s2 G2 + c2 Y2
             ECPoint orY2Piece1 = preSwap1.getCipher1().getX().subtract(postSwap2.getCipher1().getX());
             ECPoint orY2Piece2 = preSwap1.getCipher2().getX().subtract(postSwap2.getCipher2().getX());
-            orOmega2 = orG2Piece1.multiply(e1.multiply(orRandS)).add(orG2Piece2.multiply(e2.multiply(orRandS)))
-                    .add(params.getGenerator().multiply(e3.multiply(orRandS)))
-                    .add(orY2Piece1.multiply(e1.multiply(orRandC))).add(orY2Piece2.multiply(e2.multiply(orRandC)))
-                    .add(publicKey.multiply(e3.multiply(orRandC)));
+            orOmega2 = params.sumOfMultiplies(
+                    new ECPoint[] { orG2Piece1, orG2Piece2, params.getGenerator(), orY2Piece1, orY2Piece2, publicKey },
+                    _scaleMultipliers(multipliers, orRandS, orRandC));
         } else {
             // omega1 = s1 G1 + c1 Y1
             ECPoint orY1Piece1 = preSwap1.getCipher1().getX().subtract(postSwap1.getCipher1().getX());
             ECPoint orY1Piece2 = preSwap1.getCipher2().getX().subtract(postSwap1.getCipher2().getX());
-            orOmega1 = orG1Piece1.multiply(e1.multiply(orRandS)).add(orG1Piece2.multiply(e2.multiply(orRandS)))
-                    .add(params.getGenerator().multiply(e3.multiply(orRandS)))
-                    .add(orY1Piece1.multiply(e1.multiply(orRandC))).add(orY1Piece2.multiply(e2.multiply(orRandC)))
-                    .add(publicKey.multiply(e3.multiply(orRandC)));
+            orOmega1 = params.sumOfMultiplies(
+                    new ECPoint[] { orG1Piece1, orG1Piece2, params.getGenerator(), orY1Piece1, orY1Piece2, publicKey },
+                    _scaleMultipliers(multipliers, orRandS, orRandC));
 
             // omega2 = e2 G2
-            orOmega2 = orG2Piece1.multiply(e1.multiply(orE)).add(orG2Piece2.multiply(e2.multiply(orE)))
-                    .add(params.getGenerator().multiply(e3.multiply(orE)));
+            orOmega2 = params.sumOfMultiplies(new ECPoint[] { orG2Piece1, orG2Piece2, params.getGenerator() },
+                    _scaleMultipliers(multipliers, orE));
         }
         BigInteger orDetC = params.hash(orOmega1, orOmega2).subtract(orRandC).mod(params.getGroupSize());
         BigInteger orDetS = orE.subtract(orDetC.multiply(secretKey)).mod(params.getGroupSize());
@@ -209,21 +241,26 @@ public class DoubleSwapProof implements SerialWriter {
         return new DoubleSwapProof(params, andOmega, andS, orOmega1, orOmega2, orC1, orS1, orS2);
     }
 
+    /**
+     * Returns the three challenge multipliers times each factor in turn:
+     * {@code [e1 * f1, e2 * f1, e3 * f1, e1 * f2, ...]}. Every equation in
+     * this proof is a multi-exponentiation with scalars of this shape.
+     */
+    private static BigInteger[] _scaleMultipliers(List<BigInteger> multipliers, BigInteger... factors) {
+        BigInteger[] scaled = new BigInteger[multipliers.size() * factors.length];
+        int index = 0;
+        for (BigInteger factor : factors) {
+            for (BigInteger multiplier : multipliers)
+                scaled[index++] = multiplier.multiply(factor);
+        }
+        return scaled;
+    }
+
     private static List<BigInteger> _getChallenges(EncryptionParams params, CipherPair preSwap1, CipherPair preSwap2,
             CipherPair postSwap1, CipherPair postSwap2, ECPoint publicKey) {
-        return params.hashEachIndexWithAllPoints(CHALLENGE_INDICES, preSwap1.getCipher1().getX(),
-                preSwap1.getCipher1().getY(), preSwap1.getCipher2().getX(), preSwap1.getCipher2().getY(),
-
-                preSwap2.getCipher1().getX(), preSwap2.getCipher1().getY(), preSwap2.getCipher2().getX(),
-                preSwap2.getCipher2().getY(),
-
-                postSwap1.getCipher1().getX(), postSwap1.getCipher1().getY(), postSwap1.getCipher2().getX(),
-                postSwap1.getCipher2().getY(),
-
-                postSwap2.getCipher1().getX(), postSwap2.getCipher1().getY(), postSwap2.getCipher2().getX(),
-                postSwap2.getCipher2().getY(),
-
-                publicKey);
+        return params.newTranscript().absorb(preSwap1.getChallengeEncoding()).absorb(preSwap2.getChallengeEncoding())
+                .absorb(postSwap1.getChallengeEncoding()).absorb(postSwap2.getChallengeEncoding()).absorb(publicKey)
+                .challenges(CHALLENGE_INDICES);
     }
 
     private final EncryptionParams m_params;
@@ -272,34 +309,29 @@ public class DoubleSwapProof implements SerialWriter {
 
     private boolean _checkAndProof(List<BigInteger> multipliers, CipherPair preSwap1, CipherPair preSwap2,
             CipherPair postSwap1, CipherPair postSwap2, ECPoint publicKey) {
-        BigInteger e1 = multipliers.get(0);
-        BigInteger e2 = multipliers.get(1);
-        BigInteger e3 = multipliers.get(2);
         BigInteger c = m_params.hash(m_andOmega);
 
         ECPoint targetPiece1 = preSwap1.getCipher1().getX().add(preSwap2.getCipher1().getX())
                 .subtract(postSwap1.getCipher1().getX().add(postSwap2.getCipher1().getX()));
         ECPoint targetPiece2 = preSwap1.getCipher2().getX().add(preSwap2.getCipher2().getX())
                 .subtract(postSwap1.getCipher2().getX().add(postSwap2.getCipher2().getX()));
-        ECPoint cYPlusOmega = targetPiece1.multiply(e1.multiply(c)).add(targetPiece2.multiply(e2.multiply(c)))
-                .add(publicKey.multiply(e3.multiply(c))).add(m_andOmega);
 
         ECPoint basePiece1 = preSwap1.getCipher1().getY().add(preSwap2.getCipher1().getY())
                 .subtract(postSwap1.getCipher1().getY().add(postSwap2.getCipher1().getY()));
         ECPoint basePiece2 = preSwap1.getCipher2().getY().add(preSwap2.getCipher2().getY())
                 .subtract(postSwap1.getCipher2().getY().add(postSwap2.getCipher2().getY()));
-        ECPoint sG = basePiece1.multiply(e1.multiply(m_andS)).add(basePiece2.multiply(e2.multiply(m_andS)))
-                .add(m_params.getGenerator().multiply(e3.multiply(m_andS)));
 
-        return cYPlusOmega.equals(sG);
+        // c * Y + omega == s * G is checked as c * Y - s * G == -omega.
+        ECPoint cYMinusSG = m_params.sumOfMultiplies(
+                new ECPoint[] { targetPiece1, targetPiece2, publicKey, basePiece1, basePiece2,
+                        m_params.getGenerator() },
+                _scaleMultipliers(multipliers, c, m_andS.negate()));
+
+        return cYMinusSG.add(m_andOmega).isInfinity();
     }
 
     private boolean _checkOrProof(List<BigInteger> multipliers, CipherPair preSwap1, CipherPair preSwap2,
             CipherPair postSwap1, CipherPair postSwap2, ECPoint publicKey) {
-        BigInteger e1 = multipliers.get(0);
-        BigInteger e2 = multipliers.get(1);
-        BigInteger e3 = multipliers.get(2);
-
         ECPoint orG1Piece1 = preSwap1.getCipher1().getY().subtract(postSwap1.getCipher1().getY());
         ECPoint orG1Piece2 = preSwap1.getCipher2().getY().subtract(postSwap1.getCipher2().getY());
 
@@ -314,19 +346,17 @@ public class DoubleSwapProof implements SerialWriter {
 
         BigInteger c2 = m_params.hash(m_orOmega1, m_orOmega2).subtract(m_orC1).mod(m_params.getGroupSize());
 
-        ECPoint omega1MinusS1G1 = m_orOmega1
-                .subtract(orG1Piece1.multiply(e1.multiply(m_orS1)).add(orG1Piece2.multiply(e2.multiply(m_orS1)))
-                        .add(m_params.getGenerator().multiply(e3.multiply(m_orS1))));
-        ECPoint c1Y1 = orY1Piece1.multiply(e1.multiply(m_orC1)).add(orY1Piece2.multiply(e2.multiply(m_orC1)))
-                .add(publicKey.multiply(e3.multiply(m_orC1)));
+        // omega1 == s1 G1 + c1 Y1
+        ECPoint s1G1PlusC1Y1 = m_params.sumOfMultiplies(
+                new ECPoint[] { orG1Piece1, orG1Piece2, m_params.getGenerator(), orY1Piece1, orY1Piece2, publicKey },
+                _scaleMultipliers(multipliers, m_orS1, m_orC1));
 
-        ECPoint omega2MinusS2G2 = m_orOmega2
-                .subtract(orG2Piece1.multiply(e1.multiply(m_orS2)).add(orG2Piece2.multiply(e2.multiply(m_orS2)))
-                        .add(m_params.getGenerator().multiply(e3.multiply(m_orS2))));
-        ECPoint c2Y2 = orY2Piece1.multiply(e1.multiply(c2)).add(orY2Piece2.multiply(e2.multiply(c2)))
-                .add(publicKey.multiply(e3.multiply(c2)));
+        // omega2 == s2 G2 + c2 Y2
+        ECPoint s2G2PlusC2Y2 = m_params.sumOfMultiplies(
+                new ECPoint[] { orG2Piece1, orG2Piece2, m_params.getGenerator(), orY2Piece1, orY2Piece2, publicKey },
+                _scaleMultipliers(multipliers, m_orS2, c2));
 
-        return omega1MinusS1G1.equals(c1Y1) && omega2MinusS2G2.equals(c2Y2);
+        return m_orOmega1.equals(s1G1PlusC1Y1) && m_orOmega2.equals(s2G2PlusC2Y2);
     }
 
     @Override
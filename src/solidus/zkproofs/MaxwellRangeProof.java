@@ -130,13 +130,13 @@ public class MaxwellRangeProof implements SerialWriter {
             BigInteger secretKey, ExecutorService executor) {
         Encryptor encryptor = params.getEncryptor(publicKey);
 
-        List<BigInteger> multipliers = params.hashEachIndexWithAllPoints(CHALLENGE_INDEX_LIST, cipher.getX(),
-                cipher.getY(), publicKey);
+        List<BigInteger> multipliers = params.newTranscript().absorb(cipher.getX(), cipher.getY(), publicKey)
+                .challenges(CHALLENGE_INDEX_LIST);
         BigInteger e1 = multipliers.get(0);
         BigInteger e2 = multipliers.get(1);
-        ECPoint genE1 = params.getGenerator().multiply(e1);
-        ECPoint genE2 = params.getGenerator().multiply(e2);
-        ECPoint pubKeyE2 = publicKey.multiply(e2);
+        ECPoint genE1 = params.multiplyFixed(params.getGenerator(), e1);
+        ECPoint genE2 = params.multiplyFixed(params.getGenerator(), e2);
+        ECPoint pubKeyE2 = params.multiplyFixed(publicKey, e2);
 
         List<Future<ProofAndMultiple>> proofFutureList = new ArrayList<>();
         ImmutableList.Builder<ECPair> encryptedBitsBuilder = new ImmutableList.Builder<>();
@@ -260,20 +260,20 @@ public class MaxwellRangeProof implements SerialWriter {
             return false;
         }
 
-        List<BigInteger> multipliers = m_params.hashEachIndexWithAllPoints(CHALLENGE_INDEX_LIST, cipher.getX(),
-                cipher.getY(), publicKey);
+        List<BigInteger> multipliers = m_params.newTranscript().absorb(cipher.getX(), cipher.getY(), publicKey)
+                .challenges(CHALLENGE_INDEX_LIST);
         BigInteger e1 = multipliers.get(0);
         BigInteger e2 = multipliers.get(1);
 
-        ECPoint genE1 = m_params.getGenerator().multiply(e1);
-        ECPoint genE2 = m_params.getGenerator().multiply(e2);
-        ECPoint pubKeyE2 = publicKey.multiply(e2);
+        ECPoint genE1 = m_params.multiplyFixed(m_params.getGenerator(), e1);
+        ECPoint genE2 = m_params.multiplyFixed(m_params.getGenerator(), e2);
+        ECPoint pubKeyE2 = m_params.multiplyFixed(publicKey, e2);
 
         List<Future<Boolean>> verificationFutureList = new ArrayList<>();
 
         for (int i = 0; i < m_encryptedBits.size(); i++) {
-            Callable<Boolean> orProofVerifier = new OneBitVerifier(m_orProofList.get(i), m_encryptedBits.get(i), e1,
-                    pubKeyE2, genE1, genE2, publicKey);
+            Callable<Boolean> orProofVerifier = new OneBitVerifier(m_params, m_orProofList.get(i),
+                    m_encryptedBits.get(i), e1, pubKeyE2, genE1, genE2, publicKey);
             verificationFutureList.add(Utils.submitJob(orProofVerifier, executor));
         }
 
@@ -349,9 +349,9 @@ public class MaxwellRangeProof implements SerialWriter {
 
         @Override
         public ProofAndMultiple call() throws Exception {
-            ECPoint bitZeroCaseX = cipherOfBit.getX().multiply(e1).add(pubKeyE2);
+            ECPoint bitZeroCaseX = params.multiply(cipherOfBit.getX(), e1).add(pubKeyE2);
             ECPoint bitOneCaseX = bitZeroCaseX.subtract(genE1);
-            ECPoint logBase = cipherOfBit.getY().multiply(e1).add(genE2);
+            ECPoint logBase = params.multiply(cipherOfBit.getY(), e1).add(genE2);
 
             // b == 0; Ai = riY = x riG = xBi;
             // b == 1: Ai = xiG + riY = G + xriG => Ai - G = xBi;
@@ -365,6 +365,7 @@ public class MaxwellRangeProof implements SerialWriter {
     }
 
     private static class OneBitVerifier implements Callable<Boolean> {
+        private final EncryptionParams params;
         private final OneOfTwoDlogProof orProof;
         private final ECPair cipherOfBit;
         private final BigInteger e1;
@@ -373,8 +374,9 @@ public class MaxwellRangeProof implements SerialWriter {
         private final ECPoint genE2;
         private final ECPoint publicKey;
 
-        public OneBitVerifier(OneOfTwoDlogProof orProof, ECPair cipherOfBit, BigInteger e1, ECPoint pubKeyE2,
-                ECPoint genE1, ECPoint genE2, ECPoint publicKey) {
+        public OneBitVerifier(EncryptionParams params, OneOfTwoDlogProof orProof, ECPair cipherOfBit, BigInteger e1,
+                ECPoint pubKeyE2, ECPoint genE1, ECPoint genE2, ECPoint publicKey) {
+            this.params = params;
             this.orProof = orProof;
             this.cipherOfBit = cipherOfBit;
             this.e1 = e1;
@@ -386,9 +388,9 @@ public class MaxwellRangeProof implements SerialWriter {
 
         @Override
         public Boolean call() throws Exception {
-            ECPoint bitZeroCaseX = cipherOfBit.getX().multiply(e1).add(pubKeyE2);
+            ECPoint bitZeroCaseX = params.multiply(cipherOfBit.getX(), e1).add(pubKeyE2);
             ECPoint bitOneCaseX = bitZeroCaseX.subtract(genE1);
-            ECPoint eitherCaseY = cipherOfBit.getY().multiply(e1).add(genE2);
+            ECPoint eitherCaseY = params.multiply(cipherOfBit.getY(), e1).add(genE2);
 
             return orProof.verify(eitherCaseY, bitZeroCaseX, bitOneCaseX, publicKey);
         }
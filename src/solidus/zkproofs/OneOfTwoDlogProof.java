@@ -62,21 +62,38 @@ public class OneOfTwoDlogProof implements SerialWriter {
 
     public static OneOfTwoDlogProof buildProof(EncryptionParams params, ECPoint base, ECPoint point1, ECPoint point2,
             ECPoint publicKey, BigInteger secretKey, boolean isFirst) {
-        BigInteger e1 = params.getRandomIndex();
-        BigInteger e2 = params.getRandomIndex();
+        return buildProof(params, base, point1, point2, publicKey, secretKey, isFirst, null);
+    }
+
+    /**
+     * Builds the same proof as
+     * {@link #buildProof(EncryptionParams, ECPoint, ECPoint, ECPoint, ECPoint, BigInteger, boolean)
+     * buildProof}, but takes its nonces and their commitments under the
+     * generator and {@code publicKey} from {@code pool}. Only the commitments
+     * to {@code base} are computed inline.
+     */
+    public static OneOfTwoDlogProof buildProof(EncryptionParams params, ECPoint base, ECPoint point1, ECPoint point2,
+            ECPoint publicKey, BigInteger secretKey, boolean isFirst, CommitmentPool pool) {
+        SigmaCommitment commitment1 = SigmaCommitment.take(params, pool, null);
+        SigmaCommitment commitment2 = SigmaCommitment.take(params, pool, null);
+        SigmaCommitment simulated = SigmaCommitment.take(params, pool, publicKey);
+        BigInteger e1 = commitment1.getNonce();
+        BigInteger e2 = commitment2.getNonce();
 
-        BigInteger r = params.getRandomIndex();
+        BigInteger r = simulated.getNonce();
+        ECPoint keyR = simulated.getKeyPoint(params, publicKey);
 
-        ECPoint basePoint1 = base.multiply(e1);
-        ECPoint keyPoint1 = params.getGenerator().multiply(e1);
-        ECPoint basePoint2 = base.multiply(e2);
-        ECPoint keyPoint2 = params.getGenerator().multiply(e2);
+        ECPoint basePoint1, keyPoint1, basePoint2, keyPoint2;
         if (isFirst) {
-            basePoint2 = basePoint2.add(point2.multiply(r));
-            keyPoint2 = keyPoint2.add(publicKey.multiply(r));
+            basePoint1 = params.multiply(base, e1);
+            keyPoint1 = commitment1.getGeneratorPoint();
+            basePoint2 = params.sumOfMultiplies(new ECPoint[] { base, point2 }, new BigInteger[] { e2, r });
+            keyPoint2 = commitment2.getGeneratorPoint().add(keyR);
         } else {
-            basePoint1 = basePoint1.add(point1.multiply(r));
-            keyPoint1 = keyPoint1.add(publicKey.multiply(r));
+            basePoint1 = params.sumOfMultiplies(new ECPoint[] { base, point1 }, new BigInteger[] { e1, r });
+            keyPoint1 = commitment1.getGeneratorPoint().add(keyR);
+            basePoint2 = params.multiply(base, e2);
+            keyPoint2 = commitment2.getGeneratorPoint();
         }
 
         BigInteger c = params.hash(base, point1, point2, publicKey, basePoint1, keyPoint1, basePoint2, keyPoint2);
@@ -107,10 +124,12 @@ public class OneOfTwoDlogProof implements SerialWriter {
     }
 
     public boolean verify(ECPoint base, ECPoint point1, ECPoint point2, ECPoint publicKey) {
-        ECPoint basePoint1 = base.multiply(m_s1).add(point1.multiply(m_c1));
-        ECPoint keyPoint1 = m_params.getGenerator().multiply(m_s1).add(publicKey.multiply(m_c1));
-        ECPoint basePoint2 = base.multiply(m_s2).add(point2.multiply(m_c2));
-        ECPoint keyPoint2 = m_params.getGenerator().multiply(m_s2).add(publicKey.multiply(m_c2));
+        ECPoint basePoint1 = m_params.sumOfMultiplies(new ECPoint[] { base, point1 }, new BigInteger[] { m_s1, m_c1 });
+        ECPoint keyPoint1 = m_params.sumOfMultiplies(new ECPoint[] { m_params.getGenerator(), publicKey },
+                new BigInteger[] { m_s1, m_c1 });
+        ECPoint basePoint2 = m_params.sumOfMultiplies(new ECPoint[] { base, point2 }, new BigInteger[] { m_s2, m_c2 });
+        ECPoint keyPoint2 = m_params.sumOfMultiplies(new ECPoint[] { m_params.getGenerator(), publicKey },
+                new BigInteger[] { m_s2, m_c2 });
 
         BigInteger c = m_params.hash(base, point1, point2, publicKey, basePoint1, keyPoint1, basePoint2, keyPoint2);
 
@@ -63,14 +63,44 @@ public class PlaintextEqDisKeyProof implements SerialWriter {
      */
     public static PlaintextEqDisKeyProof buildProof(EncryptionParams params, ECPair cipher1, ECPair cipher2,
             ECPoint publicKey1, ECPoint publicKey2, BigInteger plaintext, BigInteger rand1, BigInteger rand2) {
-        BigInteger e1 = params.getRandomIndex();
-        BigInteger e2 = params.getRandomIndex();
-        BigInteger e3 = params.getRandomIndex();
+        return buildProof(params, cipher1, cipher2, publicKey1, publicKey2, plaintext, rand1, rand2, null);
+    }
 
+    /**
+     * Constructs the same proof as
+     * {@link #buildProof(EncryptionParams, ECPair, ECPair, ECPoint, ECPoint, BigInteger, BigInteger, BigInteger)
+     * buildProof} but takes its three nonces and their commitments from
+     * {@code pool}. Commitments under whichever of the keys matches the
+     * pool's key are precomputed. The other must still be computed inline.
+     *
+     * @param params The public encryption parameters
+     * @param cipher1 The first ciphertext
+     * @param cipher2 The second ciphertext
+     * @param publicKey1 The public key used to encrypt {@code cipher1}
+     * @param publicKey2 The public key used to encrypt {@code cipher2}
+     * @param plaintext The plaintext value encrypted by the two ciphertexts
+     * @param rand1 The randomization factor of {@code cipher1}
+     * @param rand2 The randomization factor of {@code cipher2}
+     * @param pool The pool to take commitments from, or {@code null} to
+     *            generate them inline.
+     * @return A new proof that {@code cipher1} encrypts the same value as
+     *         {@code cipher2} under {@code publicKey1} and {@code publicKey2},
+     *         respectively.
+     */
+    public static PlaintextEqDisKeyProof buildProof(EncryptionParams params, ECPair cipher1, ECPair cipher2,
+            ECPoint publicKey1, ECPoint publicKey2, BigInteger plaintext, BigInteger rand1, BigInteger rand2,
+            CommitmentPool pool) {
+        SigmaCommitment commitment1 = SigmaCommitment.take(params, pool, null);
+        SigmaCommitment commitment2 = SigmaCommitment.take(params, pool, publicKey1);
+        SigmaCommitment commitment3 = SigmaCommitment.take(params, pool, publicKey2);
+        BigInteger e1 = commitment1.getNonce();
+        BigInteger e2 = commitment2.getNonce();
+        BigInteger e3 = commitment3.getNonce();
+
+        ECPoint genE1 = commitment1.getGeneratorPoint();
         BigInteger c = params.hash(cipher1.getX(), cipher1.getY(), cipher2.getX(), cipher2.getY(), publicKey1,
-                publicKey2, params.getGenerator().multiply(e1).add(publicKey1.multiply(e2)),
-                params.getGenerator().multiply(e2), params.getGenerator().multiply(e1).add(publicKey2.multiply(e3)),
-                params.getGenerator().multiply(e3));
+                publicKey2, genE1.add(commitment2.getKeyPoint(params, publicKey1)), commitment2.getGeneratorPoint(),
+                genE1.add(commitment3.getKeyPoint(params, publicKey2)), commitment3.getGeneratorPoint());
 
         BigInteger s1 = e1.subtract(c.multiply(plaintext));
         BigInteger s2 = e2.subtract(c.multiply(rand1));
@@ -110,12 +140,15 @@ public class PlaintextEqDisKeyProof implements SerialWriter {
      *         keys, {@code false} otherwise.
      */
     public boolean verify(ECPair cipher1, ECPair cipher2, ECPoint publicKey1, ECPoint publicKey2) {
+        ECPoint generator = m_params.getGenerator();
         BigInteger c = m_params.hash(cipher1.getX(), cipher1.getY(), cipher2.getX(), cipher2.getY(), publicKey1,
                 publicKey2,
-                cipher1.getX().multiply(m_c).add(m_params.getGenerator().multiply(m_s1).add(publicKey1.multiply(m_s2))),
-                cipher1.getY().multiply(m_c).add(m_params.getGenerator().multiply(m_s2)),
-                cipher2.getX().multiply(m_c).add(m_params.getGenerator().multiply(m_s1).add(publicKey2.multiply(m_s3))),
-                cipher2.getY().multiply(m_c).add(m_params.getGenerator().multiply(m_s3)));
+                m_params.sumOfMultiplies(new ECPoint[] { cipher1.getX(), generator, publicKey1 },
+                        new BigInteger[] { m_c, m_s1, m_s2 }),
+                m_params.sumOfMultiplies(new ECPoint[] { cipher1.getY(), generator }, new BigInteger[] { m_c, m_s2 }),
+                m_params.sumOfMultiplies(new ECPoint[] { cipher2.getX(), generator, publicKey2 },
+                        new BigInteger[] { m_c, m_s1, m_s3 }),
+                m_params.sumOfMultiplies(new ECPoint[] { cipher2.getY(), generator }, new BigInteger[] { m_c, m_s3 }));
 
         return c.equals(m_c);
     }
@@ -70,9 +70,33 @@ public class PlaintextEqProof implements SerialWriter {
      */
     public static PlaintextEqProof buildProof(EncryptionParams params, ECPair cipher1, ECPair cipher2,
             ECPoint publicKey, BigInteger secretKey) {
-        BigInteger e = params.getRandomIndex();
-        ECPoint cipherChallengePoint = cipher1.getY().subtract(cipher2.getY()).multiply(e);
-        ECPoint keyChallengePoint = params.getGenerator().multiply(e);
+        return buildProof(params, cipher1, cipher2, publicKey, secretKey, null);
+    }
+
+    /**
+     * Generates the same proof as
+     * {@link #buildProof(EncryptionParams, ECPair, ECPair, ECPoint, BigInteger)
+     * buildProof} but takes its nonce and generator commitment from
+     * {@code pool}.
+     *
+     * @param params The public encryption parameters
+     * @param cipher1 The first ciphertext
+     * @param cipher2 The second ciphertext
+     * @param publicKey The public encryption key used to encrypt the
+     *            ciphertexts.
+     * @param secretKey The secret decryption key for both ciphers and
+     *            {@code publicKey}.
+     * @param pool The pool to take a commitment from, or {@code null} to
+     *            generate one inline.
+     * @return a zk proof that the provided ciphertext encrypt the same
+     *         plaintext under the public key.
+     */
+    public static PlaintextEqProof buildProof(EncryptionParams params, ECPair cipher1, ECPair cipher2,
+            ECPoint publicKey, BigInteger secretKey, CommitmentPool pool) {
+        SigmaCommitment commitment = SigmaCommitment.take(params, pool, null);
+        BigInteger e = commitment.getNonce();
+        ECPoint cipherChallengePoint = params.multiply(cipher1.getY().subtract(cipher2.getY()), e);
+        ECPoint keyChallengePoint = commitment.getGeneratorPoint();
 
         BigInteger c = params.hash(cipher1.getX(), cipher1.getY(), cipher2.getX(), cipher2.getY(), publicKey,
                 cipherChallengePoint, keyChallengePoint);
@@ -89,9 +113,11 @@ public class PlaintextEqProof implements SerialWriter {
     }
 
     public boolean verify(ECPair cipher1, ECPair cipher2, ECPoint publicKey) {
-        ECPoint cipherChallengePoint = cipher1.getX().subtract(cipher2.getX()).multiply(m_c)
-                .add(cipher1.getY().subtract(cipher2.getY()).multiply(m_s));
-        ECPoint keyChallengePoint = publicKey.multiply(m_c).add(m_params.getGenerator().multiply(m_s));
+        ECPoint cipherChallengePoint = m_params.sumOfMultiplies(
+                new ECPoint[] { cipher1.getX().subtract(cipher2.getX()), cipher1.getY().subtract(cipher2.getY()) },
+                new BigInteger[] { m_c, m_s });
+        ECPoint keyChallengePoint = m_params.sumOfMultiplies(new ECPoint[] { publicKey, m_params.getGenerator() },
+                new BigInteger[] { m_c, m_s });
 
         BigInteger newC = m_params.hash(cipher1.getX(), cipher1.getY(), cipher2.getX(), cipher2.getY(), publicKey,
                 cipherChallengePoint, keyChallengePoint);
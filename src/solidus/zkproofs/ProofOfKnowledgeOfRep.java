@@ -33,10 +33,34 @@ import solidus.util.EncryptionParams;
 public class ProofOfKnowledgeOfRep implements Signature {
     public static ProofOfKnowledgeOfRep buildProof(EncryptionParams params, ECPair cipher, ECPoint publicKey,
             BigInteger messageMultiple, BigInteger randomness, byte[]... messageParts) {
-        BigInteger e1 = params.getRandomIndex();
-        BigInteger e2 = params.getRandomIndex();
+        return buildProof(params, cipher, publicKey, messageMultiple, randomness, null, messageParts);
+    }
+
+    /**
+     * Builds a proof taking its nonces and their commitments from
+     * {@code pool}. If the pool is for {@code publicKey}, building the proof
+     * requires no scalar multiplications at all.
+     *
+     * @param params the public encryption parameters.
+     * @param cipher the ciphertext the proof is about.
+     * @param publicKey the public key {@code cipher} is encrypted under.
+     * @param messageMultiple the discrete log of the plaintext point.
+     * @param randomness the randomization factor of {@code cipher}.
+     * @param pool the pool to take commitments from, or {@code null} to
+     *            generate them inline.
+     * @param messageParts the message to bind the proof to.
+     * @return a new proof of knowledge of the representation of
+     *         {@code cipher}.
+     */
+    public static ProofOfKnowledgeOfRep buildProof(EncryptionParams params, ECPair cipher, ECPoint publicKey,
+            BigInteger messageMultiple, BigInteger randomness, CommitmentPool pool, byte[]... messageParts) {
+        SigmaCommitment commitment1 = SigmaCommitment.take(params, pool, null);
+        SigmaCommitment commitment2 = SigmaCommitment.take(params, pool, publicKey);
+        BigInteger e1 = commitment1.getNonce();
+        BigInteger e2 = commitment2.getNonce();
 
-        ECPoint combinedPoint = params.getGenerator().multiply(e1.add(e2)).add(publicKey.multiply(e2)).normalize();
+        ECPoint combinedPoint = commitment1.getGeneratorPoint().add(commitment2.getGeneratorPoint())
+                .add(commitment2.getKeyPoint(params, publicKey)).normalize();
 
         BigInteger c = params.hashDataAndPoints(messageParts, cipher.getX(), cipher.getY(), publicKey, combinedPoint);
 
@@ -72,8 +96,9 @@ public class ProofOfKnowledgeOfRep implements Signature {
         BigInteger c = m_params.hashDataAndPoints(messageParts, m_cipher.getX(), m_cipher.getY(), verificationKey,
                 m_combinedPoint);
 
-        ECPoint point1 = m_cipher.getX().add(m_cipher.getY()).multiply(c).add(m_combinedPoint);
-        ECPoint point2 = m_params.getGenerator().multiply(m_s1.add(m_s2)).add(verificationKey.multiply(m_s2));
+        ECPoint point1 = m_params.multiply(m_cipher.getX().add(m_cipher.getY()), c).add(m_combinedPoint);
+        ECPoint point2 = m_params.multiplyFixed(m_params.getGenerator(), m_s1.add(m_s2))
+                .add(m_params.multiplyFixed(verificationKey, m_s2));
         return point1.equals(point2);
     }
 
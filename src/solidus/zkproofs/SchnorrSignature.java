@@ -33,17 +33,53 @@ import solidus.util.EncryptionParams;
 public class SchnorrSignature implements Signature {
     public static SchnorrSignature sign(EncryptionParams params, BigInteger signingKey, SerialWriter firstMessagePart,
             SerialWriter... messageParts) {
+        return sign(params, signingKey, null, firstMessagePart, messageParts);
+    }
+
+    /**
+     * Signs the serialized forms of the given message parts using a nonce and
+     * commitment taken from {@code pool}, if it is not {@code null}.
+     *
+     * @param params the public encryption parameters.
+     * @param signingKey the secret signing key.
+     * @param pool the pool to take a commitment from, or {@code null} to
+     *            generate one inline.
+     * @param firstMessagePart the first part of the message to sign.
+     * @param messageParts the rest of the message to sign.
+     * @return a signature on the message.
+     * @see #sign(EncryptionParams, BigInteger, CommitmentPool, byte[]...)
+     */
+    public static SchnorrSignature sign(EncryptionParams params, BigInteger signingKey, CommitmentPool pool,
+            SerialWriter firstMessagePart, SerialWriter... messageParts) {
         byte[][] encodedMessageParts = new byte[messageParts.length + 1][];
         encodedMessageParts[0] = firstMessagePart.toByteArray();
         for (int i = 0; i < messageParts.length; i++) {
             encodedMessageParts[i + 1] = messageParts[i].toByteArray();
         }
-        return sign(params, signingKey, encodedMessageParts);
+        return sign(params, signingKey, pool, encodedMessageParts);
     }
 
     public static SchnorrSignature sign(EncryptionParams params, BigInteger signingKey, byte[]... messageParts) {
-        BigInteger randMult = params.getRandomIndex();
-        ECPoint randPoint = params.getGenerator().multiply(randMult);
+        return sign(params, signingKey, (CommitmentPool) null, messageParts);
+    }
+
+    /**
+     * Signs the given message using a nonce and commitment taken from
+     * {@code pool}, if it is not {@code null}. Only the generator commitment
+     * is used, so the pool can be for any key.
+     *
+     * @param params the public encryption parameters.
+     * @param signingKey the secret signing key.
+     * @param pool the pool to take a commitment from, or {@code null} to
+     *            generate one inline.
+     * @param messageParts the message to sign.
+     * @return a signature on the message.
+     */
+    public static SchnorrSignature sign(EncryptionParams params, BigInteger signingKey, CommitmentPool pool,
+            byte[]... messageParts) {
+        SigmaCommitment commitment = SigmaCommitment.take(params, pool, null);
+        BigInteger randMult = commitment.getNonce();
+        ECPoint randPoint = commitment.getGeneratorPoint();
         BigInteger challenge = params.hashDataAndPoints(messageParts, randPoint);
         BigInteger s = randMult.subtract(signingKey.multiply(challenge)).mod(params.getGroupSize());
 
@@ -62,7 +98,8 @@ public class SchnorrSignature implements Signature {
 
     @Override
     public boolean verify(ECPoint verificationKey, byte[]... messageParts) {
-        ECPoint challengePoint = m_params.getGenerator().multiply(m_s).add(verificationKey.multiply(m_challenge));
+        ECPoint challengePoint = m_params.multiplyFixed(m_params.getGenerator(), m_s)
+                .add(m_params.multiplyFixed(verificationKey, m_challenge));
         return m_params.hashDataAndPoints(messageParts, challengePoint).equals(m_challenge);
     }
 
@@ -0,0 +1,106 @@
+/*
+ * Solidus - Confidential Distributed Ledger Transactions via PVORM
+ *
+ * Copyright 2016-2017 Ethan Cecchetti, Fan Zhang and Yan Ji
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package solidus.zkproofs;
+
+import java.math.BigInteger;
+
+import org.bouncycastle.math.ec.ECPoint;
+
+import solidus.util.EncryptionParams;
+
+/**
+ * The first message of a sigma protocol: a random nonce {@code r} together
+ * with the commitments {@code rG} and {@code rY} for the generator {@code G}
+ * and a public key {@code Y}. Computing the commitments is most of the cost
+ * of building a proof, so they can be precomputed by a
+ * {@link solidus.zkproofs.CommitmentPool CommitmentPool}.
+ *
+ * A commitment must never be used in more than one proof. Reusing a nonce
+ * with two different challenges reveals the secret it was used to hide.
+ */
+public class SigmaCommitment {
+    /**
+     * Generates a new commitment with a fresh random nonce.
+     *
+     * @param params the params specifying the group and randomness source.
+     * @param key the public key to commit to the nonce under, or {@code null}
+     *            to only commit with the generator.
+     * @return a new commitment.
+     */
+    public static SigmaCommitment generate(EncryptionParams params, ECPoint key) {
+        BigInteger nonce = params.getRandomIndex();
+        return new SigmaCommitment(nonce, params.multiplyFixed(params.getGenerator(), nonce), key,
+                key == null ? null : params.multiplyFixed(key, nonce));
+    }
+
+    // Takes a commitment from the pool if there is one and otherwise
+    // generates one inline.
+    static SigmaCommitment take(EncryptionParams params, CommitmentPool pool, ECPoint key) {
+        if (pool != null) return pool.take();
+        return generate(params, key);
+    }
+
+    private final BigInteger m_nonce;
+    private final ECPoint m_generatorPoint;
+    private final ECPoint m_key;
+    private final ECPoint m_keyPoint;
+
+    SigmaCommitment(BigInteger nonce, ECPoint generatorPoint, ECPoint key, ECPoint keyPoint) {
+        m_nonce = nonce;
+        m_generatorPoint = generatorPoint;
+        m_key = key;
+        m_keyPoint = keyPoint;
+    }
+
+    /**
+     * @return the secret nonce {@code r}.
+     */
+    public BigInteger getNonce() {
+        return m_nonce;
+    }
+
+    /**
+     * @return the commitment {@code rG} to the generator.
+     */
+    public ECPoint getGeneratorPoint() {
+        return m_generatorPoint;
+    }
+
+    /**
+     * @return the public key {@code Y} this commitment was computed for, or
+     *         {@code null} if it only commits with the generator.
+     */
+    public ECPoint getKey() {
+        return m_key;
+    }
+
+    /**
+     * Returns {@code rY} for the given key {@code Y}. If {@code Y} is the key
+     * this commitment was computed for, this uses the precomputed value.
+     * Otherwise it multiplies inline.
+     *
+     * @param params the params to multiply with if necessary.
+     * @param key the public key {@code Y}.
+     * @return {@code key * r}
+     */
+    public ECPoint getKeyPoint(EncryptionParams params, ECPoint key) {
+        if (m_keyPoint != null && m_key.equals(key)) return m_keyPoint;
+        return params.multiplyFixed(key, m_nonce);
+    }
+}
@@ -22,11 +22,11 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Base64;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Map;
@@ -173,7 +173,36 @@ public class ZooKeeperDriver implements Runnable, AutoCloseable {
      */
     public ZooKeeperDriver(LocalBank bank, EncryptionParams params, int threads, String connectString,
             boolean runVerification) throws IOException {
-        m_driver = new InternalDriver(bank, params, threads, connectString, runVerification);
+        this(bank, params, threads, connectString, runVerification, null);
+    }
+
+    /**
+     * Constructs a new driver as with
+     * {@link #ZooKeeperDriver(LocalBank, EncryptionParams, int, String, boolean)},
+     * but optionally stores the PVORMs of other banks in memory-mapped files
+     * instead of on the heap. Each node keeps a full copy of every other bank's
+     * PVORM, so with many large banks this keeps the heap (and garbage
+     * collection pauses) small.
+     *
+     * @param bank The bank used by this Solidus node. This bank should not be
+     *            used for any other {@code ZooKeeperDriver} instances.
+     * @param params The system parameters currently in use.
+     * @param threads The number of threads to use for creating and verifying
+     *            transactions.
+     * @param connectString The string to pass to a ZooKeeper object to connect
+     *            to the ZooKeeper service.
+     * @param runVerification Specifies whether or not to run verification on
+     *            third-party transactions.
+     * @param remotePvormDirectory The directory in which to store one file for
+     *            the PVORM of each other bank, or {@code null} to keep them on
+     *            the heap. It is created if it does not exist and existing
+     *            files for the same banks are overwritten.
+     * @throws IOException If an error occurs connecting to the ZooKeeper
+     *             system or creating {@code remotePvormDirectory}.
+     */
+    public ZooKeeperDriver(LocalBank bank, EncryptionParams params, int threads, String connectString,
+            boolean runVerification, Path remotePvormDirectory) throws IOException {
+        m_driver = new InternalDriver(bank, params, threads, connectString, runVerification, remotePvormDirectory);
     }
 
     /**
@@ -435,6 +464,7 @@ public class ZooKeeperDriver implements Runnable, AutoCloseable {
         private final Map<String, RemoteBank> m_otherBanks;
 
         private final boolean m_runVerification;
+        private final Path m_remotePvormDirectory;
 
         private final String m_bankId;
         private final String m_bankLockPath;
@@ -462,7 +492,7 @@ public class ZooKeeperDriver implements Runnable, AutoCloseable {
         private int m_maxTxNumProcessed;
 
         public InternalDriver(LocalBank bank, EncryptionParams params, int threads, String connectString,
-                boolean runVerification) throws IOException {
+                boolean runVerification, Path remotePvormDirectory) throws IOException {
             m_logger = Logger.getLogger("solidus");
 
             m_params = params;
@@ -470,8 +500,10 @@ public class ZooKeeperDriver implements Runnable, AutoCloseable {
             m_otherBanks = new ConcurrentHashMap<>();
 
             m_runVerification = runVerification;
+            m_remotePvormDirectory = remotePvormDirectory;
+            if (m_remotePvormDirectory != null) Files.createDirectories(m_remotePvormDirectory);
 
-            m_bankId = _getIdFromKey(m_bank.getPublicEncryptionKey());
+            m_bankId = m_bank.getPublicEncryptionKeyId().getStringId();
             m_bankLockPath = CommonDir.LOCK.resolveToString(m_bankId);
 
             if (threads > 0) {
@@ -522,10 +554,6 @@ public class ZooKeeperDriver implements Runnable, AutoCloseable {
             }
         }
 
-        private String _getIdFromKey(ECPoint point) {
-            return Base64.getUrlEncoder().encodeToString(point.getEncoded(true));
-        }
-
         private void _createFile(Path filepath, byte[] data) throws KeeperException, InterruptedException {
             m_zk.create(filepath.toString(), data, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
         }
@@ -584,7 +612,7 @@ public class ZooKeeperDriver implements Runnable, AutoCloseable {
                     TransactionRequest request = m_pendingRequests.take();
                     if (request == TransactionRequest.TERMINATION_REQUEST) break;
 
-                    String otherBankId = _getIdFromKey(request.getDestBankKey());
+                    String otherBankId = request.getDestBankId().getStringId();
                     if (!m_otherBanks.containsKey(otherBankId)) {
                         m_logger.warning(
                                 "Trying to send to unknown bank " + otherBankId + ". Ignoring transaction request.");
@@ -690,8 +718,10 @@ public class ZooKeeperDriver implements Runnable, AutoCloseable {
                         }
                     }
                 }
+                Path pvormStorageFile = (m_remotePvormDirectory == null ? null
+                        : m_remotePvormDirectory.resolve(bankId));
                 RemoteBank bank = RemoteBank.serialReadIn(new ByteArrayInputStream(byteOutStream.toByteArray()),
-                        m_params);
+                        m_params, pvormStorageFile);
                 m_logger.fine("Bank " + bankId + " bootstrapped from " + numFiles + " files.");
                 return bank;
             } catch (KeeperException e) {
@@ -877,14 +907,14 @@ public class ZooKeeperDriver implements Runnable, AutoCloseable {
 
             if (!m_currentTxHeader.getDestBankKey().equals(m_bank.getPublicEncryptionKey())) {
                 m_logger.warning(String.format("Not processing transaction %s because it was for a bank %s not me (%s)",
-                        m_currentTxId, _getIdFromKey(m_currentTxHeader.getDestBankKey()), m_bankId));
+                        m_currentTxId, m_currentTxHeader.getDestBankId().getStringId(), m_bankId));
                 return;
             }
             if (!m_currentTxHeader.verifyProofs()) {
                 m_logger.warning("Not processing transaction because proofs did not verify.");
                 return;
             }
-            m_currentOtherBank = m_otherBanks.get(_getIdFromKey(m_currentTxHeader.getSourceBankKey()));
+            m_currentOtherBank = m_otherBanks.get(m_currentTxHeader.getSourceBankId().getStringId());
 
             // TODO: Maybe check that we're not already handling this?
 
@@ -1050,8 +1080,8 @@ public class ZooKeeperDriver implements Runnable, AutoCloseable {
                         trans.getSenderUpdate());
             } else {
                 m_logger.fine("Processing commit in file " + txFilepath);
-                RemoteBank sourceBank = m_otherBanks.get(_getIdFromKey(trans.getSourceBankKey()));
-                RemoteBank destBank = m_otherBanks.get(_getIdFromKey(trans.getDestBankKey()));
+                RemoteBank sourceBank = m_otherBanks.get(trans.getSourceBankId().getStringId());
+                RemoteBank destBank = m_otherBanks.get(trans.getDestBankId().getStringId());
                 // Verify the transaction and apply it.
                 if (trans.verifySenderSignature(sourceBank.getSigVerKey())
                         && trans.verifyReceiverSignature(destBank.getSigVerKey())) {
@@ -0,0 +1,142 @@
+/*
+ * Solidus - Confidential Distributed Ledger Transactions via PVORM
+ *
+ * Copyright 2016-2017 Ethan Cecchetti, Fan Zhang and Yan Ji
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package test.solidus.applications;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.bouncycastle.crypto.ec.ECPair;
+import org.bouncycastle.math.ec.ECPoint;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import solidus.applications.EncryptionPrecomputer;
+import solidus.io.SerialHelpers;
+import solidus.util.CryptoConstants;
+import solidus.util.Decryptor;
+import solidus.util.EncryptionParams;
+import solidus.util.FromFileEncryptor;
+
+import test.util.TestUtils;
+
+public class EncryptionPrecomputerTest {
+    private static final BigInteger SECRET_KEY = BigInteger.valueOf(123456789);
+
+    private static final EncryptionParams PARAMS = new EncryptionParams.Builder(new Random(TestUtils.RANDOM_SEED),
+            CryptoConstants.CURVE, CryptoConstants.DIGEST).setMaxDiscreteLog(16).forTesting().build();
+    private static final ECPoint PUBLIC_KEY = PARAMS.getGenerator().multiply(SECRET_KEY).normalize();
+    private static final Decryptor DECRYPTOR = PARAMS.getDecryptor(SECRET_KEY);
+
+    private static final int ENCRYPTION_COUNT = 30;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private static List<ECPair> _readEncryptions(Path file) throws IOException {
+        List<ECPair> encryptions = new ArrayList<>();
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+            SerialHelpers.readString(in);
+            SerialHelpers.readECPoint(in, PARAMS);
+            // Skip the index marker, version, and point encoding length.
+            in.read();
+            SerialHelpers.readInt(in);
+            SerialHelpers.readInt(in);
+            long count = SerialHelpers.readLong(in);
+            for (long i = 0; i < count; i++)
+                encryptions.add(SerialHelpers.readECPair(in, PARAMS));
+        }
+        return encryptions;
+    }
+
+    private static void _precompute(Path output, int shards, boolean compressed)
+            throws IOException, InterruptedException {
+        List<String> args = new ArrayList<>();
+        args.add(output.toString());
+        args.add(SECRET_KEY.toString());
+        args.add(Integer.toString(ENCRYPTION_COUNT));
+        args.add("2");
+        args.add(Integer.toString(shards));
+        if (compressed) args.add("compressed");
+        EncryptionPrecomputer.main(args.toArray(new String[args.size()]));
+    }
+
+    @Test
+    public void testRegeneratedFileIsReadFromStart() throws IOException, InterruptedException {
+        Path file = tempFolder.getRoot().toPath().resolve("encryptions");
+        _precompute(file, 1, false);
+        try (FromFileEncryptor encryptor = new FromFileEncryptor(PARAMS, PUBLIC_KEY, file, false, 0, 100)) {
+            for (ECPair expected : _readEncryptions(file))
+                Assert.assertEquals(expected, encryptor.encryptZero());
+        }
+        Assert.assertTrue(Files.exists(FromFileEncryptor.getCursorFile(file)));
+
+        // The old cursor says the whole file is used. The new file must not
+        // inherit it.
+        _precompute(file, 1, false);
+        Assert.assertFalse(Files.exists(FromFileEncryptor.getCursorFile(file)));
+        List<ECPair> regenerated = _readEncryptions(file);
+        Assert.assertEquals(ENCRYPTION_COUNT, regenerated.size());
+        try (FromFileEncryptor encryptor = new FromFileEncryptor(PARAMS, PUBLIC_KEY, file, false, 0, 100)) {
+            for (ECPair expected : regenerated)
+                Assert.assertEquals(expected, encryptor.encryptZero());
+        }
+    }
+
+    @Test
+    public void testDefaultsToSingleFile() throws IOException, InterruptedException {
+        Path file = tempFolder.getRoot().toPath().resolve("encryptions");
+        EncryptionPrecomputer.main(
+                new String[] { file.toString(), SECRET_KEY.toString(), Integer.toString(ENCRYPTION_COUNT), "2" });
+        Assert.assertTrue(Files.isRegularFile(file));
+        Assert.assertEquals(ENCRYPTION_COUNT, _readEncryptions(file).size());
+    }
+
+    @Test
+    public void testCompressedShards() throws IOException, InterruptedException {
+        Path directory = tempFolder.getRoot().toPath().resolve("shards");
+        _precompute(directory, 3, true);
+
+        Set<ECPair> stored = new HashSet<>();
+        for (int i = 0; i < 3; i++) {
+            List<ECPair> shard = _readEncryptions(directory.resolve(EncryptionPrecomputer.SHARD_PREFIX + i));
+            Assert.assertEquals(ENCRYPTION_COUNT / 3, shard.size());
+            stored.addAll(shard);
+        }
+        Assert.assertEquals(ENCRYPTION_COUNT, stored.size());
+
+        try (FromFileEncryptor encryptor = new FromFileEncryptor(PARAMS, PUBLIC_KEY, directory, false, 0, 100)) {
+            for (int i = 0; i < ENCRYPTION_COUNT; i++) {
+                ECPair encryption = encryptor.encryptZero();
+                Assert.assertTrue(stored.contains(encryption));
+                Assert.assertEquals(0, DECRYPTOR.decryptBalance(encryption));
+            }
+        }
+    }
+}
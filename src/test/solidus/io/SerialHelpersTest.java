@@ -0,0 +1,81 @@
+/*
+ * Solidus - Confidential Distributed Ledger Transactions via PVORM
+ *
+ * Copyright 2016-2017 Ethan Cecchetti, Fan Zhang and Yan Ji
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package test.solidus.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.util.Random;
+
+import org.bouncycastle.math.ec.ECPoint;
+import org.junit.Assert;
+import org.junit.Test;
+
+import solidus.io.SerialHelpers;
+import solidus.util.CryptoConstants;
+import solidus.util.EncryptionParams;
+
+import test.util.TestUtils;
+
+public class SerialHelpersTest {
+    @Test
+    public void testInternedPoints() throws IOException {
+        EncryptionParams params = EncryptionParams.newTestParams(new Random(TestUtils.RANDOM_SEED),
+                CryptoConstants.CURVE, CryptoConstants.DIGEST);
+        // Leave the point unnormalized so that the interned copy must differ.
+        ECPoint point = params.getGenerator().multiply(params.getRandomIndex());
+
+        ECPoint first = SerialHelpers.readInternedECPoint(_serialize(point, true), params);
+        Assert.assertEquals(point, first);
+        Assert.assertTrue(first.isNormalized());
+        Assert.assertSame(first, SerialHelpers.readInternedECPoint(_serialize(point, true), params));
+        Assert.assertSame(first, SerialHelpers.readInternedECPoint(_serialize(point, false), params));
+        Assert.assertNotSame(first, SerialHelpers.readECPoint(_serialize(point, true), params));
+
+        Assert.assertEquals(1, params.getInternedPointStats().hitCount());
+        Assert.assertEquals(2, params.getInternedPointStats().missCount());
+    }
+
+    @Test
+    public void testInternedFixedBase() throws IOException {
+        EncryptionParams params = EncryptionParams.newTestParams(new Random(TestUtils.RANDOM_SEED),
+                CryptoConstants.CURVE, CryptoConstants.DIGEST);
+        // The generator is always registered as a fixed base.
+        ECPoint generator = params.getGenerator().multiply(BigInteger.ONE);
+        Assert.assertSame(params.getGenerator(),
+                SerialHelpers.readInternedECPoint(_serialize(generator, true), params));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInternedInvalidPoint() throws IOException {
+        EncryptionParams params = EncryptionParams.newTestParams(new Random(TestUtils.RANDOM_SEED),
+                CryptoConstants.CURVE, CryptoConstants.DIGEST);
+        byte[] encoding = params.getGenerator().getEncoded(true);
+        encoding[0] = 0x05;
+        params.decodeInternedPoint(encoding);
+    }
+
+    private static InputStream _serialize(ECPoint point, boolean compressed) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SerialHelpers.writeECPoint(out, point, compressed);
+        return new ByteArrayInputStream(out.toByteArray());
+    }
+}
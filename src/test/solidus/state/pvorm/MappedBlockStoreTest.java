@@ -0,0 +1,148 @@
+/*
+ * Solidus - Confidential Distributed Ledger Transactions via PVORM
+ *
+ * Copyright 2016-2017 Ethan Cecchetti, Fan Zhang and Yan Ji
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package test.solidus.state.pvorm;
+
+import java.math.BigInteger;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.bouncycastle.math.ec.ECPoint;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import solidus.state.pvorm.EncryptedPvorm;
+import solidus.state.pvorm.EncryptedPvorm.Block;
+import solidus.state.pvorm.OwnedPvorm;
+import solidus.util.CryptoConstants;
+import solidus.util.EncryptionParams;
+
+import test.util.TestUtils;
+
+/**
+ * Tests the memory-mapped block store through the public interface of
+ * {@code EncryptedPvorm}.
+ */
+public class MappedBlockStoreTest {
+    private static final EncryptionParams PARAMS = new EncryptionParams.Builder(new Random(TestUtils.RANDOM_SEED),
+            CryptoConstants.CURVE, CryptoConstants.DIGEST).setMaxDiscreteLog(255).forTesting().build();
+
+    private static final int TREE_DEPTH = 4;
+    private static final int BUCKET_SIZE = 2;
+    private static final int STASH_SIZE = 5;
+
+    private static final int READER_THREADS = 4;
+    private static final int READER_PASSES = 5;
+
+    private static EncryptedPvorm m_heapPvorm;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void setup() {
+        BigInteger secretKey = new BigInteger("3f1c5a7e9b2d4f6a8c0e1b3d5f7a9c2e4b6d8f0a1c3e5b7d9f2a4c6e8b0d1f3a", 16);
+        OwnedPvorm.Builder builder = new OwnedPvorm.Builder(PARAMS, secretKey, TREE_DEPTH, BUCKET_SIZE, STASH_SIZE);
+        for (long i = 1; i <= 6; i++)
+            builder.insert(PARAMS.getGenerator().multiply(BigInteger.valueOf(i * 0x5b2fdfcda608bf98L)), i);
+        m_heapPvorm = builder.build().getEncryptedPvorm();
+    }
+
+    private Path _newFile() {
+        return tempFolder.getRoot().toPath().resolve("pvorm.blocks");
+    }
+
+    @Test
+    public void testCacheEviction() {
+        try (EncryptedPvorm mappedPvorm = m_heapPvorm.duplicate(_newFile(), 2)) {
+            // The stash and the first two tree buckets.
+            Block a = mappedPvorm.getBlock(1, 0);
+            Block b = mappedPvorm.getBlock(2, 0);
+            Assert.assertSame(a, mappedPvorm.getBlock(1, 0));
+
+            // Reading a third block evicts the least recently used one (b),
+            // which is decoded again on the next read.
+            Block c = mappedPvorm.getBlock(3, 0);
+            Assert.assertSame(a, mappedPvorm.getBlock(1, 0));
+            Block decodedB = mappedPvorm.getBlock(2, 0);
+            Assert.assertNotSame(b, decodedB);
+            Assert.assertEquals(b, decodedB);
+            Assert.assertEquals(m_heapPvorm.getBlock(2, 0), decodedB);
+
+            // Reading b again evicted c, while a was used more recently and
+            // stays cached.
+            Assert.assertSame(a, mappedPvorm.getBlock(1, 0));
+            Block decodedC = mappedPvorm.getBlock(3, 0);
+            Assert.assertNotSame(c, decodedC);
+            Assert.assertEquals(m_heapPvorm.getBlock(3, 0), decodedC);
+
+            Assert.assertEquals(m_heapPvorm, mappedPvorm);
+        }
+    }
+
+    @Test
+    public void testConcurrentReads() throws Exception {
+        // A cache much smaller than the tree makes the readers constantly
+        // evict each other's blocks.
+        try (EncryptedPvorm mappedPvorm = m_heapPvorm.duplicate(_newFile(), 8)) {
+            ExecutorService executor = Executors.newFixedThreadPool(READER_THREADS);
+            try {
+                List<Future<Boolean>> results = new ArrayList<>();
+                for (int i = 0; i < READER_THREADS; i++) {
+                    results.add(executor.submit(() -> {
+                        for (int pass = 0; pass < READER_PASSES; pass++) {
+                            if (!mappedPvorm.equals(m_heapPvorm)) return false;
+                        }
+                        return true;
+                    }));
+                }
+                for (Future<Boolean> result : results)
+                    Assert.assertTrue(result.get());
+            } finally {
+                executor.shutdown();
+            }
+            Assert.assertArrayEquals(m_heapPvorm.getRootDigest(), mappedPvorm.getRootDigest());
+        }
+    }
+
+    @Test
+    public void testClose() {
+        EncryptedPvorm mappedPvorm = m_heapPvorm.duplicate(_newFile(), 2);
+        mappedPvorm.close();
+        mappedPvorm.close();
+        try {
+            mappedPvorm.getBlock(1, 0);
+            Assert.fail("Expected a closed PVORM to reject reads");
+        } catch (IllegalStateException e) {
+            // Expected.
+        }
+
+        // Closing a PVORM on the heap does nothing.
+        EncryptedPvorm heapCopy = m_heapPvorm.duplicate();
+        heapCopy.close();
+        Assert.assertEquals(m_heapPvorm, heapCopy);
+    }
+}
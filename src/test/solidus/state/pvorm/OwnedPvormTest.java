@@ -18,16 +18,30 @@
 
 package test.solidus.state.pvorm;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.math.BigInteger;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import com.google.common.collect.ImmutableMap;
 
 import org.bouncycastle.math.ec.ECPoint;
 import org.junit.Assert;
 import org.junit.BeforeClass;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import solidus.state.pvorm.EncryptedPvorm;
 import solidus.state.pvorm.OwnedPvorm;
@@ -55,6 +69,9 @@ public class OwnedPvormTest {
 
     private static EncryptedPvorm m_pvorm1Duplicate;
 
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
     @BeforeClass
     public static void setup() {
         ECPoint gen = PARAMS.getGenerator();
@@ -85,6 +102,18 @@ public class OwnedPvormTest {
         m_pvorm1Duplicate = m_pvorm1.getEncryptedPvorm().duplicate();
     }
 
+    /**
+     * Returns a builder for a fresh PVORM of the given depth holding the
+     * shared account balances.
+     */
+    private static OwnedPvorm.Builder _newBuilder(int treeDepth) {
+        BigInteger secretKey = new BigInteger("7b3d5f1a9c2e4b6d8f0a1c3e5b7d9f2a4c6e8b0d1f3a5c7e9b2d4f6a8c0e1b3d", 16);
+        OwnedPvorm.Builder builder = new OwnedPvorm.Builder(PARAMS, secretKey, treeDepth, BUCKET_SIZE, STASH_SIZE);
+        for (Map.Entry<ECPoint, Long> entry : m_accountBalances.entrySet())
+            builder.insert(entry.getKey(), entry.getValue());
+        return builder;
+    }
+
     @Test
     public void testBalances() {
         Assert.assertEquals(m_accountBalances,
@@ -94,6 +123,259 @@ public class OwnedPvormTest {
         Assert.assertEquals(m_accountBalances, m_pvorm1Duplicate.decryptAll(PARAMS, m_pvorm1.getSecretKey()));
     }
 
+    @Test
+    public void testParallelDecryptAll() throws InterruptedException {
+        EncryptedPvorm pvorm = m_pvorm1.getEncryptedPvorm();
+        List<ECPoint> serialKeys = new ArrayList<>();
+        pvorm.decryptAll(PARAMS, m_pvorm1.getSecretKey(), null, (key, balance) -> serialKeys.add(key));
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        Map<ECPoint, Long> parallelBalances = new LinkedHashMap<>();
+        pvorm.decryptAll(PARAMS, m_pvorm1.getSecretKey(), executor, parallelBalances::put);
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(1, TimeUnit.SECONDS));
+
+        Assert.assertEquals(m_accountBalances, parallelBalances);
+        Assert.assertEquals(serialKeys, new ArrayList<>(parallelBalances.keySet()));
+    }
+
+    @Test
+    public void testParallelBuild() throws InterruptedException {
+        // Deep enough that the tree is encrypted in several ranges.
+        int treeDepth = 9;
+        OwnedPvorm.Builder builder = _newBuilder(treeDepth);
+
+        List<Long> progress = new ArrayList<>();
+        long totalBlocks = ((1L << (treeDepth + 1)) - 2) * BUCKET_SIZE + STASH_SIZE + 1;
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        OwnedPvorm pvorm = builder.setExecutor(executor).setProgressListener((encrypted, total) -> {
+            Assert.assertEquals(totalBlocks, total);
+            progress.add(encrypted);
+        }).build();
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(1, TimeUnit.SECONDS));
+
+        Assert.assertEquals(m_accountBalances, pvorm.getEncryptedPvorm().decryptAll(PARAMS, pvorm.getSecretKey()));
+        Assert.assertTrue(progress.size() > 1);
+        for (int i = 1; i < progress.size(); i++)
+            Assert.assertTrue(progress.get(i - 1) < progress.get(i));
+        Assert.assertEquals(totalBlocks, progress.get(progress.size() - 1).longValue());
+    }
+
+    @Test
+    public void testDuplicatesAreIndependent() {
+        OwnedPvorm pvorm = _newBuilder(3).fastBuildForTest();
+
+        EncryptedPvorm snapshot = pvorm.getEncryptedPvorm().duplicate();
+        EncryptedPvorm verifierCopy = snapshot.duplicate();
+        byte[] snapshotBytes = snapshot.toByteArray(true);
+
+        Encryptor encryptor = PARAMS.getEncryptor(pvorm.getPublicKey());
+        for (ECPoint key : m_accountBalances.keySet()) {
+            PvormUpdate update = pvorm.update(encryptor.encryptPoint(key), encryptor.encryptBalance(1), true);
+            Assert.assertTrue(verifierCopy.verifyUpdate(update));
+            verifierCopy.applyLastVerifiedUpdate();
+        }
+
+        Assert.assertEquals(pvorm.getEncryptedPvorm(), verifierCopy);
+        Assert.assertArrayEquals(snapshotBytes, snapshot.toByteArray(true));
+        Assert.assertEquals(m_accountBalances, snapshot.decryptAll(PARAMS, pvorm.getSecretKey()));
+    }
+
+    @Test
+    public void testPipelinedUpdates() throws InterruptedException, ExecutionException {
+        OwnedPvorm pvorm = _newBuilder(3).fastBuildForTest();
+        EncryptedPvorm verifierCopy = pvorm.getEncryptedPvorm().duplicate();
+
+        Encryptor encryptor = PARAMS.getEncryptor(pvorm.getPublicKey());
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        List<Future<PvormUpdate>> updates = new ArrayList<>();
+        try (OwnedPvorm.UpdatePipeline pipeline = pvorm.newUpdatePipeline(executor, 3)) {
+            for (ECPoint key : m_accountBalances.keySet()) {
+                updates.add(pipeline.update(encryptor.encryptPoint(key), encryptor.encryptBalance(1), true));
+                updates.add(pipeline.update(encryptor.encryptPoint(key), encryptor.encryptBalance(-1), false));
+            }
+        }
+
+        // Each update must verify against the state left by the one before.
+        for (Future<PvormUpdate> update : updates) {
+            Assert.assertTrue(verifierCopy.verifyUpdate(update.get()));
+            verifierCopy.applyLastVerifiedUpdate();
+        }
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(1, TimeUnit.SECONDS));
+
+        Assert.assertEquals(pvorm.getEncryptedPvorm(), verifierCopy);
+        Assert.assertEquals(m_accountBalances, verifierCopy.decryptAll(PARAMS, pvorm.getSecretKey()));
+    }
+
+    @Test
+    public void testPipelineFailureStopsLaterUpdates() throws InterruptedException {
+        OwnedPvorm pvorm = _newBuilder(3).fastBuildForTest();
+        EncryptedPvorm verifierCopy = pvorm.getEncryptedPvorm().duplicate();
+
+        Encryptor encryptor = PARAMS.getEncryptor(pvorm.getPublicKey());
+        List<ECPoint> keys = new ArrayList<>(m_accountBalances.keySet());
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try (OwnedPvorm.UpdatePipeline pipeline = pvorm.newUpdatePipeline(executor, 3)) {
+            Future<PvormUpdate> first = pipeline.update(encryptor.encryptPoint(keys.get(0)),
+                    encryptor.encryptBalance(1), true);
+            // Pushing the balance past MAX_BALANCE makes the range proof
+            // impossible, so this update fails once it is being finished.
+            Future<PvormUpdate> failing = pipeline.update(encryptor.encryptPoint(keys.get(1)),
+                    encryptor.encryptBalance(MAX_BALANCE), true);
+
+            // Later updates either fail in flight or, if the failure has
+            // already been seen, are rejected outright.
+            List<Future<PvormUpdate>> later = new ArrayList<>();
+            for (ECPoint key : keys.subList(2, keys.size())) {
+                try {
+                    later.add(pipeline.update(encryptor.encryptPoint(key), encryptor.encryptBalance(1), true));
+                } catch (IllegalStateException e) {
+                    Assert.assertNotNull(e.getCause());
+                }
+            }
+
+            try {
+                Assert.assertTrue(verifierCopy.verifyUpdate(first.get()));
+            } catch (ExecutionException e) {
+                throw new AssertionError("The update before the failure should finish", e);
+            }
+            try {
+                failing.get();
+                Assert.fail("Expected an update with an out-of-range balance to fail");
+            } catch (ExecutionException e) {
+                Assert.assertFalse(e.getCause() instanceof IllegalStateException);
+            }
+            for (Future<PvormUpdate> update : later) {
+                try {
+                    update.get();
+                    Assert.fail("Expected an update after a failure to fail");
+                } catch (ExecutionException e) {
+                    Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+                }
+            }
+
+            try {
+                pipeline.update(encryptor.encryptPoint(keys.get(0)), encryptor.encryptBalance(1), true);
+                Assert.fail("Expected the pipeline to reject updates after a failure");
+            } catch (IllegalStateException e) {
+                // Expected.
+            }
+        } finally {
+            executor.shutdown();
+        }
+        Assert.assertTrue(executor.awaitTermination(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testChainedVerification() throws InterruptedException {
+        OwnedPvorm pvorm = _newBuilder(3).fastBuildForTest();
+        EncryptedPvorm verifierCopy = pvorm.getEncryptedPvorm().duplicate();
+
+        Encryptor encryptor = PARAMS.getEncryptor(pvorm.getPublicKey());
+        List<PvormUpdate> updates = new ArrayList<>();
+        for (ECPoint key : m_accountBalances.keySet()) {
+            updates.add(pvorm.update(encryptor.encryptPoint(key), encryptor.encryptBalance(2), true));
+            updates.add(pvorm.update(encryptor.encryptPoint(key), encryptor.encryptBalance(-2), true));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            // Skipping an update makes the next one invalid, which discards
+            // it and everything queued after it, but not what came before.
+            Assert.assertTrue(verifierCopy.verifyChained(updates.get(0), executor));
+            Assert.assertTrue(verifierCopy.verifyChained(updates.get(2), executor));
+            Assert.assertTrue(verifierCopy.verifyChained(updates.get(3), executor));
+            Assert.assertEquals(3, verifierCopy.getPendingVerificationCount());
+            Assert.assertTrue(verifierCopy.applyNextVerifiedUpdate());
+            Assert.assertFalse(verifierCopy.applyNextVerifiedUpdate());
+            Assert.assertEquals(0, verifierCopy.getPendingVerificationCount());
+
+            Assert.assertFalse(m_pvorm2.getEncryptedPvorm().verifyChained(updates.get(1), executor));
+
+            for (PvormUpdate update : updates.subList(1, updates.size()))
+                Assert.assertTrue(verifierCopy.verifyChained(update, executor));
+            Assert.assertEquals(updates.size() - 1, verifierCopy.getPendingVerificationCount());
+            while (verifierCopy.getPendingVerificationCount() > 0)
+                Assert.assertTrue(verifierCopy.applyNextVerifiedUpdate());
+        } finally {
+            executor.shutdown();
+        }
+        Assert.assertTrue(executor.awaitTermination(1, TimeUnit.SECONDS));
+
+        Assert.assertEquals(pvorm.getEncryptedPvorm(), verifierCopy);
+        Assert.assertEquals(m_accountBalances, verifierCopy.decryptAll(PARAMS, pvorm.getSecretKey()));
+    }
+
+    @Test
+    public void testRootDigest() throws IOException {
+        OwnedPvorm pvorm = _newBuilder(3).fastBuildForTest();
+        EncryptedPvorm verifierCopy = pvorm.getEncryptedPvorm().duplicate();
+        EncryptedPvorm unverifiedCopy = pvorm.getEncryptedPvorm().duplicate();
+
+        byte[] initialDigest = pvorm.getEncryptedPvorm().getRootDigest();
+        Assert.assertArrayEquals(initialDigest, verifierCopy.getRootDigest());
+        Assert.assertFalse(Arrays.equals(initialDigest, m_pvorm2.getEncryptedPvorm().getRootDigest()));
+        EncryptedPvorm snapshot = pvorm.getEncryptedPvorm().duplicate();
+
+        Encryptor encryptor = PARAMS.getEncryptor(pvorm.getPublicKey());
+        for (ECPoint key : m_accountBalances.keySet()) {
+            PvormUpdate update = pvorm.update(encryptor.encryptPoint(key), encryptor.encryptBalance(1), false);
+            byte[] updatedDigest = pvorm.getEncryptedPvorm().getRootDigest();
+
+            // Replicas diverge until they apply the update.
+            Assert.assertTrue(verifierCopy.verifyUpdate(update));
+            Assert.assertFalse(Arrays.equals(updatedDigest, verifierCopy.getRootDigest()));
+            verifierCopy.applyLastVerifiedUpdate();
+            unverifiedCopy.applyUpdateWithoutVerification(update);
+            Assert.assertArrayEquals(updatedDigest, verifierCopy.getRootDigest());
+            Assert.assertArrayEquals(updatedDigest, unverifiedCopy.getRootDigest());
+        }
+
+        // The incrementally maintained digest matches one computed from
+        // scratch, and a copy taken before the updates keeps its digest.
+        EncryptedPvorm readCopy = EncryptedPvorm.serialReadIn(
+                new ByteArrayInputStream(pvorm.getEncryptedPvorm().toByteArray(true)), PARAMS);
+        Assert.assertArrayEquals(pvorm.getEncryptedPvorm().getRootDigest(), readCopy.getRootDigest());
+        Assert.assertArrayEquals(initialDigest, snapshot.getRootDigest());
+    }
+
+    @Test
+    public void testMappedStorage() throws IOException {
+        Path storageFile = tempFolder.getRoot().toPath().resolve("pvorm.blocks");
+        Path readFile = tempFolder.getRoot().toPath().resolve("read.blocks");
+        EncryptedPvorm heapPvorm = m_pvorm2.getEncryptedPvorm();
+        EncryptedPvorm mappedPvorm = heapPvorm.duplicate(storageFile);
+        Assert.assertEquals(heapPvorm, mappedPvorm);
+        Assert.assertArrayEquals(heapPvorm.getRootDigest(), mappedPvorm.getRootDigest());
+        Assert.assertEquals(m_accountBalances, mappedPvorm.decryptAll(PARAMS, m_pvorm2.getSecretKey()));
+        TestUtils.testSerialization(mappedPvorm,
+                (inStream, params) -> EncryptedPvorm.serialReadIn(inStream, params, readFile), PARAMS);
+    }
+
+    @Test
+    public void testMappedStorageUpdates() throws IOException {
+        // Large enough that the mapped PVORM cannot cache every block and must
+        // decode some from the file.
+        int treeDepth = 11;
+        OwnedPvorm pvorm = _newBuilder(treeDepth).fastBuildForTest();
+
+        Path storageFile = tempFolder.getRoot().toPath().resolve("pvorm.blocks");
+        EncryptedPvorm mappedPvorm = pvorm.getEncryptedPvorm().duplicate(storageFile);
+        Encryptor encryptor = PARAMS.getEncryptor(pvorm.getPublicKey());
+        for (ECPoint key : m_accountBalances.keySet()) {
+            PvormUpdate update = pvorm.update(encryptor.encryptPoint(key), encryptor.encryptBalance(1), true);
+            Assert.assertTrue(mappedPvorm.verifyUpdate(update));
+            mappedPvorm.applyLastVerifiedUpdate();
+        }
+        Assert.assertEquals(pvorm.getEncryptedPvorm(), mappedPvorm);
+
+        Map<ECPoint, Long> balances = mappedPvorm.decryptAll(PARAMS, pvorm.getSecretKey());
+        for (Map.Entry<ECPoint, Long> entry : m_accountBalances.entrySet())
+            Assert.assertEquals(entry.getValue() + 1, balances.get(entry.getKey()).longValue());
+    }
+
     @Test
     public void testSerializeEncryptedPvorms() {
         TestUtils.testSerialization(m_pvorm1.getEncryptedPvorm(), EncryptedPvorm::serialReadIn, PARAMS);
@@ -47,15 +47,25 @@ public class PlaintextCircuitOramTest {
     @Parameters
     public static Collection<Object[]> oramConfigurations() {
         return ImmutableList.copyOf(new Object[][] {
-                // Tree depth, bucket size, stash size, number of accounts
-                { 1, 1, 1, 1 }, { 4, 1, 2, 2 }, { 4, 2, 4, 4 }, { 4, 2, 10, 16 }, { 5, 4, 10, 32 } });
+                // Tree depth, bucket size, stash size, number of accounts,
+                // fingerprint of the update transcripts
+                { 1, 1, 1, 1, 7049817898963479685L }, { 4, 1, 2, 2, -6328250945912880002L },
+                { 4, 2, 4, 4, 3085714515145913830L }, { 4, 2, 10, 16, -3633283852917681747L },
+                { 5, 4, 10, 32, 433337261721437889L } });
     }
 
+    // The number of times each account is updated when fingerprinting the
+    // transcripts, which must never change for a given random seed.
+    private static final int TRANSCRIPT_ROUNDS = 3;
+
     private final EncryptionParams m_params;
     private final List<ECPoint> m_accountKeys;
     private final PlaintextCircuitOram m_oram;
+    private final long m_transcriptFingerprint;
 
-    public PlaintextCircuitOramTest(int treeDepth, int bucketSize, int stashSize, int numAccounts) {
+    public PlaintextCircuitOramTest(int treeDepth, int bucketSize, int stashSize, int numAccounts,
+            long transcriptFingerprint) {
+        m_transcriptFingerprint = transcriptFingerprint;
         Random rand = new Random(TestUtils.RANDOM_SEED);
         m_params = EncryptionParams.newTestParams(rand, CryptoConstants.CURVE, CryptoConstants.DIGEST);
 
@@ -84,4 +94,35 @@ public class PlaintextCircuitOramTest {
             Assert.assertEquals(i + m_accountKeys.size(), m_oram.getBalance(m_accountKeys.get(i)));
         }
     }
+
+    @Test
+    public void testTranscriptFingerprint() {
+        PlaintextCircuitOram oram = new PlaintextCircuitOram(m_oram.getTreeDepth(), m_oram.getBucketSize(),
+                m_oram.getStashSize(), new Random(TestUtils.RANDOM_SEED));
+        for (int i = 0; i < m_accountKeys.size(); i++)
+            oram.insert(m_accountKeys.get(i), i);
+
+        long fingerprint = 0;
+        for (int round = 0; round < TRANSCRIPT_ROUNDS; round++) {
+            for (ECPoint key : m_accountKeys) {
+                PlaintextCircuitOram.UpdateTranscript transcript = oram.update(key, 1);
+                fingerprint = _fold(fingerprint, transcript.getLeafId());
+                fingerprint = _fold(fingerprint, transcript.getInitialPosition());
+                for (PlaintextCircuitOram.Eviction eviction : transcript.getEvictions()) {
+                    fingerprint = _fold(fingerprint, eviction.getLeafId());
+                    for (PlaintextCircuitOram.BlockPosition position : eviction.getSwapsWithTemp())
+                        fingerprint = _fold(fingerprint, position);
+                }
+            }
+        }
+        Assert.assertEquals(m_transcriptFingerprint, fingerprint);
+    }
+
+    private static long _fold(long fingerprint, PlaintextCircuitOram.BlockPosition position) {
+        return _fold(_fold(fingerprint, position.getBucketIndex()), position.getBlockIndexInBucket());
+    }
+
+    private static long _fold(long fingerprint, int value) {
+        return fingerprint * 1000003 + value;
+    }
 }
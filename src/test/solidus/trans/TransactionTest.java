@@ -18,7 +18,9 @@
 
 package test.solidus.trans;
 
+import java.io.IOException;
 import java.math.BigInteger;
+import java.nio.file.Path;
 import java.util.List;
 import java.util.Random;
 import java.util.concurrent.ExecutorService;
@@ -34,6 +36,7 @@ import org.junit.experimental.theories.Theories;
 import org.junit.experimental.theories.Theory;
 import org.junit.experimental.theories.suppliers.TestedOn;
 import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 
 import com.google.common.collect.ImmutableList;
@@ -47,6 +50,7 @@ import solidus.trans.TransactionRequest;
 import solidus.util.CryptoConstants;
 import solidus.util.EncryptionParams;
 import solidus.util.Utils;
+import solidus.zkproofs.CommitmentPool;
 
 import test.util.TestUtils;
 
@@ -62,6 +66,7 @@ public class TransactionTest {
     private static final int STARTING_BALANCE = 10;
 
     private static final int THREAD_COUNT = 4;
+    private static final int POOL_SIZE = 20;
 
     private static EncryptionParams m_params;
 
@@ -70,6 +75,7 @@ public class TransactionTest {
     private static LocalBank m_bank1;
     private static LocalBank m_bank2;
 
+    private static BigInteger m_testUser1SecretKey;
     private static User m_testUser1;
     private static User m_testUser2;
 
@@ -97,12 +103,17 @@ public class TransactionTest {
                 new User(m_params, bank2PublicEncKey, BigInteger.valueOf(0x4c461852897a0503L)));
         List<Long> startingBalances = Utils.buildRepeatList(Long.valueOf(STARTING_BALANCE), bank1Users.size());
 
+        m_testUser1SecretKey = BigInteger.valueOf(0x2481b437a2e7796bL);
         m_testUser1 = bank1Users.get(0);
         m_testUser2 = bank2Users.get(0);
 
+        // Build one bank's PVORM in a thread pool and the other's inline so
+        // transactions cover both.
+        ExecutorService buildExecutor = Executors.newFixedThreadPool(2);
         m_bank1 = new LocalBank(m_params, TREE_DEPTH, BUCKET_SIZE, STASH_SIZE, m_bank1SecretDecKey,
                 new BigInteger("79a44357e85b276035d886b7ec68f34115510578bd3d796c06a035ce3206c7e8", 16), bank1Users,
-                startingBalances);
+                startingBalances, buildExecutor);
+        buildExecutor.shutdown();
         m_bank2 = new LocalBank(m_params, TREE_DEPTH, BUCKET_SIZE, STASH_SIZE, m_bank2SecretDecKey,
                 new BigInteger("5ac742296ceb03cbd20097c84923e5b52bce0409629a3be71108aac60203b0ab", 16), bank2Users,
                 startingBalances);
@@ -111,6 +122,17 @@ public class TransactionTest {
     @Rule
     public ExpectedException thrown = ExpectedException.none();
 
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private CommitmentPool _loadedPool(String name, ECPoint key) throws IOException {
+        Path file = tempFolder.getRoot().toPath().resolve(name);
+        CommitmentPool.writeToFile(file, m_params, key, POOL_SIZE);
+        CommitmentPool pool = new CommitmentPool(m_params, key, 0, 1);
+        pool.loadFromFile(file);
+        return pool;
+    }
+
     @Test
     public void testRequest() {
         TransactionRequest req = m_testUser1.buildTransactionRequest(m_bank2.getPublicEncryptionKey(),
@@ -222,4 +244,64 @@ public class TransactionTest {
             Assert.assertTrue(executor.awaitTermination(1, TimeUnit.SECONDS));
         }
     }
+
+    @Test
+    public void testReplacedOwnedCommitmentPoolIsClosed() {
+        ECPoint bank1Key = m_bank1.getPublicEncryptionKey();
+        CommitmentPool ownedPool = new CommitmentPool(m_params, bank1Key, 1, 1 << 20);
+        CommitmentPool callerPool = new CommitmentPool(m_params, bank1Key, 1, 1 << 20);
+        try {
+            m_bank1.setCommitmentPool(ownedPool, true);
+            Assert.assertSame(ownedPool, m_bank1.getCommitmentPool());
+            m_bank1.setCommitmentPool(callerPool);
+            TestUtils.assertStopsGrowing(ownedPool::getAvailableCount);
+
+            // The bank does not close a pool its caller still owns.
+            m_bank1.setCommitmentPool(null);
+            int available = callerPool.getAvailableCount();
+            while (callerPool.getAvailableCount() == available)
+                Thread.yield();
+        } finally {
+            m_bank1.setCommitmentPool(null);
+            ownedPool.close();
+            callerPool.close();
+        }
+    }
+
+    @Test
+    public void testTransactionWithCommitmentPools() throws IOException {
+        ECPoint bank1Key = m_bank1.getPublicEncryptionKey();
+        CommitmentPool userPool = _loadedPool("user-commitments", bank1Key);
+        CommitmentPool bankPool = _loadedPool("bank-commitments", bank1Key);
+        User pooledUser = new User(m_params, bank1Key, m_testUser1SecretKey, userPool);
+        Assert.assertEquals(m_testUser1.getAccountKey(), pooledUser.getAccountKey());
+
+        EncryptedPvorm snapshotBank1 = m_bank1.getEncryptedPvorm();
+        m_bank1.setCommitmentPool(bankPool);
+        try {
+            TransactionRequest req = pooledUser.buildTransactionRequest(m_bank2.getPublicEncryptionKey(),
+                    m_testUser2.getAccountKey(), 1);
+            Assert.assertTrue(req.verifySignature());
+            Assert.assertTrue(userPool.getAvailableCount() < POOL_SIZE);
+
+            TransactionHeader header = m_bank1.generateHeader(req, null);
+            Assert.assertTrue(header.verifyProofs());
+            Transaction.SenderInfo senderInfo = m_bank1.sendTransaction(header, null);
+            Transaction.ReceiverInfo receiverInfo = m_bank2.receiveTransaction(header, null);
+            Transaction trans = new Transaction(senderInfo, receiverInfo);
+            Assert.assertTrue(snapshotBank1.verifyUpdate(trans.getSenderUpdate(), null));
+            Assert.assertTrue(trans.verifySenderSignature(m_bank1.getPublicSigKey()));
+            snapshotBank1.applyLastVerifiedUpdate();
+            Assert.assertTrue(bankPool.getAvailableCount() < POOL_SIZE);
+
+            // Send the money back, with the pool signing the receiving side.
+            req = m_testUser2.buildTransactionRequest(bank1Key, m_testUser1.getAccountKey(), 1);
+            header = m_bank2.generateHeader(req, null);
+            trans = new Transaction(m_bank2.sendTransaction(header, null), m_bank1.receiveTransaction(header, null));
+            Assert.assertTrue(snapshotBank1.verifyUpdate(trans.getReceiverUpdate(), null));
+            Assert.assertTrue(trans.verifyReceiverSignature(m_bank1.getPublicSigKey()));
+        } finally {
+            m_bank1.setCommitmentPool(null);
+        }
+    }
 }
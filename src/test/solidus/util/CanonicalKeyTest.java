@@ -0,0 +1,72 @@
+/*
+ * Solidus - Confidential Distributed Ledger Transactions via PVORM
+ *
+ * Copyright 2016-2017 Ethan Cecchetti, Fan Zhang and Yan Ji
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package test.solidus.util;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+import org.bouncycastle.math.ec.ECPoint;
+import org.junit.Assert;
+import org.junit.Test;
+
+import solidus.util.CanonicalKey;
+import solidus.util.CryptoConstants;
+import solidus.util.EncryptionParams;
+
+import test.util.TestUtils;
+
+public class CanonicalKeyTest {
+    private static final EncryptionParams PARAMS = EncryptionParams.newTestParams(new Random(TestUtils.RANDOM_SEED),
+            CryptoConstants.CURVE, CryptoConstants.DIGEST);
+
+    @Test
+    public void testRepresentationIndependent() {
+        BigInteger scalar = PARAMS.getRandomIndex();
+        // Computing the same point two ways leaves it in different
+        // projective coordinates.
+        ECPoint point1 = PARAMS.getGenerator().multiply(scalar);
+        ECPoint point2 = PARAMS.getGenerator().multiply(scalar.subtract(BigInteger.ONE)).add(PARAMS.getGenerator());
+
+        CanonicalKey key1 = CanonicalKey.of(point1);
+        CanonicalKey key2 = CanonicalKey.of(point2);
+        Assert.assertEquals(key1, key2);
+        Assert.assertEquals(key1.hashCode(), key2.hashCode());
+        Assert.assertEquals(key1.getFingerprint(), key2.getFingerprint());
+        Assert.assertEquals(0, key1.compareTo(key2));
+        Assert.assertEquals(key1.getStringId(), key2.getStringId());
+        Assert.assertEquals(point1, key1.getPoint());
+        Assert.assertArrayEquals(point1.getEncoded(true), key1.getEncoded());
+    }
+
+    @Test
+    public void testDistinctKeys() {
+        CanonicalKey key1 = CanonicalKey.of(PARAMS.getGenerator());
+        CanonicalKey key2 = CanonicalKey.of(PARAMS.getGenerator().twice());
+        Assert.assertNotEquals(key1, key2);
+        Assert.assertNotEquals(key1.getStringId(), key2.getStringId());
+        Assert.assertEquals(-Integer.signum(key1.compareTo(key2)), Integer.signum(key2.compareTo(key1)));
+        Assert.assertNotEquals(0, key1.compareTo(key2));
+    }
+
+    @Test
+    public void testStringIdRoundTrip() {
+        CanonicalKey key = CanonicalKey.of(PARAMS.getGenerator().multiply(PARAMS.getRandomIndex()));
+        Assert.assertEquals(key, CanonicalKey.fromStringId(key.getStringId(), PARAMS));
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Solidus - Confidential Distributed Ledger Transactions via PVORM
+ *
+ * Copyright 2016-2017 Ethan Cecchetti, Fan Zhang and Yan Ji
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package test.solidus.util;
+
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+
+import org.bouncycastle.math.ec.ECPoint;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+import solidus.util.ChallengeTranscript;
+import solidus.util.CryptoConstants;
+import solidus.util.EncryptionParams;
+
+import test.util.TestUtils;
+
+public class ChallengeTranscriptTest {
+    private static final List<Byte> INDICES = ImmutableList.of((byte) 0, (byte) 1, (byte) 2);
+
+    @Test
+    public void testMatchesDirectHash() {
+        EncryptionParams params = _buildParams(CryptoConstants.DIGEST);
+        ECPoint[] points = _randomPoints(params, 5);
+
+        List<BigInteger> challenges = params.newTranscript().absorb(points).challenges(INDICES);
+        for (int i = 0; i < INDICES.size(); i++) {
+            MessageDigest digest = CryptoConstants.DIGEST.get();
+            for (ECPoint point : points)
+                digest.update(point.getEncoded(true));
+            digest.update(INDICES.get(i));
+            Assert.assertEquals(new BigInteger(digest.digest()).mod(params.getGroupSize()), challenges.get(i));
+        }
+        Assert.assertEquals(challenges, params.hashEachIndexWithAllPoints(INDICES, points));
+    }
+
+    @Test
+    public void testForkIsIndependent() {
+        EncryptionParams params = _buildParams(CryptoConstants.DIGEST);
+        ECPoint[] points = _randomPoints(params, 3);
+
+        ChallengeTranscript transcript = params.newTranscript().absorb(points[0]);
+        ChallengeTranscript fork = transcript.fork().absorb(points[1]);
+        transcript.absorb(points[2]);
+
+        Assert.assertEquals(params.newTranscript().absorb(points[0], points[1]).challenge(), fork.challenge());
+        Assert.assertEquals(params.newTranscript().absorb(points[0], points[2]).challenge(), transcript.challenge());
+    }
+
+    @Test
+    public void testPreEncodedMatchesPoints() {
+        EncryptionParams params = _buildParams(CryptoConstants.DIGEST);
+        ECPoint[] points = _randomPoints(params, 4);
+
+        ChallengeTranscript encodedTranscript = params.newTranscript();
+        for (ECPoint point : points)
+            encodedTranscript.absorb(point.getEncoded(true));
+        Assert.assertEquals(params.newTranscript().absorb(points).challenges(INDICES),
+                encodedTranscript.challenges(INDICES));
+    }
+
+    @Test
+    public void testUncloneableDigest() {
+        EncryptionParams cloneableParams = _buildParams(CryptoConstants.DIGEST);
+        EncryptionParams uncloneableParams = _buildParams(() -> new UncloneableDigest(CryptoConstants.DIGEST.get()));
+        ECPoint[] points = _randomPoints(cloneableParams, 4);
+
+        ChallengeTranscript expected = cloneableParams.newTranscript().absorb(points[0], points[1]);
+        ChallengeTranscript actual = uncloneableParams.newTranscript().absorb(points[0], points[1]);
+        Assert.assertEquals(expected.challenges(INDICES), actual.challenges(INDICES));
+        Assert.assertEquals(expected.fork().absorb(points[2]).challenge(),
+                actual.fork().absorb(points[2]).challenge());
+        Assert.assertEquals(cloneableParams.hash(points), uncloneableParams.hash(points));
+    }
+
+    private static EncryptionParams _buildParams(Supplier<MessageDigest> digestSupplier) {
+        return EncryptionParams.newTestParams(new Random(TestUtils.RANDOM_SEED), CryptoConstants.CURVE,
+                digestSupplier);
+    }
+
+    private static ECPoint[] _randomPoints(EncryptionParams params, int count) {
+        ECPoint[] points = new ECPoint[count];
+        for (int i = 0; i < count; i++)
+            points[i] = params.getGenerator().multiply(params.getRandomIndex());
+        return points;
+    }
+
+    // Wraps another digest without implementing Cloneable.
+    private static class UncloneableDigest extends MessageDigest {
+        private final MessageDigest m_inner;
+
+        private UncloneableDigest(MessageDigest inner) {
+            super(inner.getAlgorithm());
+            m_inner = inner;
+        }
+
+        @Override
+        protected void engineUpdate(byte input) {
+            m_inner.update(input);
+        }
+
+        @Override
+        protected void engineUpdate(byte[] input, int offset, int len) {
+            m_inner.update(input, offset, len);
+        }
+
+        @Override
+        protected byte[] engineDigest() {
+            return m_inner.digest();
+        }
+
+        @Override
+        protected void engineReset() {
+            m_inner.reset();
+        }
+    }
+}
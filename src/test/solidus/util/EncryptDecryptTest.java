@@ -18,7 +18,13 @@
 
 package test.solidus.util;
 
+import java.io.IOException;
 import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
 import java.util.stream.IntStream;
 
@@ -27,14 +33,17 @@ import org.bouncycastle.math.ec.ECPoint;
 import org.junit.Assert;
 import org.junit.Assume;
 import org.junit.Rule;
+import org.junit.Test;
 import org.junit.experimental.theories.DataPoints;
 import org.junit.experimental.theories.Theories;
 import org.junit.experimental.theories.Theory;
 import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 
 import solidus.util.CryptoConstants;
 import solidus.util.Decryptor;
+import solidus.util.DiscreteLogTable;
 import solidus.util.EncryptionParams;
 import solidus.util.Encryptor;
 
@@ -51,8 +60,11 @@ public class EncryptDecryptTest {
     @Rule
     public ExpectedException thrown = ExpectedException.none();
 
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
     @DataPoints("table gap")
-    public static final int[] ALL_TABLE_GAPS = new int[] { 1, 3 };
+    public static final int[] ALL_TABLE_GAPS = new int[] { 1, 3, 300 };
 
     @DataPoints("good balances")
     public static final long[] GOOD_BALANCES = new long[] { -MAX_BALANCE, -MAX_BALANCE + 1, -MAX_BALANCE / 2, -2, -1, 0,
@@ -133,4 +145,100 @@ public class EncryptDecryptTest {
         ECPair enc = params.getEncryptor(PUBLIC_KEY).encryptValue(balance);
         params.getDecryptor(SECRET_KEY).decryptBalance(enc);
     }
+
+    @Theory
+    public void testDecryptFullRange(int tableGap) {
+        EncryptionParams params = _buildParams(tableGap, false, false);
+        ECPoint point = params.getGenerator().multiply(BigInteger.valueOf(-MAX_BALANCE));
+        for (long balance = -MAX_BALANCE; balance <= MAX_BALANCE; balance++) {
+            Assert.assertEquals(balance, params.lookupDiscreteLog(point));
+            point = point.add(params.getGenerator());
+        }
+    }
+
+    @Theory
+    public void testBatchLookupMatchesLookup(int tableGap) {
+        EncryptionParams params = _buildParams(tableGap, false, false);
+        // GOOD_BALANCES already repeats MAX_BALANCE. Every value then appears
+        // a second time with a different projective representation.
+        ECPoint[] points = new ECPoint[2 * GOOD_BALANCES.length];
+        for (int i = 0; i < GOOD_BALANCES.length; i++) {
+            ECPoint point = params.getGenerator().multiply(BigInteger.valueOf(GOOD_BALANCES[i]));
+            points[i] = point;
+            points[i + GOOD_BALANCES.length] = point.twice().subtract(point);
+        }
+        ECPoint[] original = points.clone();
+
+        long[] logs = params.lookupDiscreteLogs(points);
+        Assert.assertArrayEquals(original, points);
+        Assert.assertEquals(points.length, logs.length);
+        for (int i = 0; i < points.length; i++) {
+            Assert.assertEquals(GOOD_BALANCES[i % GOOD_BALANCES.length], logs[i]);
+            Assert.assertEquals(params.lookupDiscreteLog(points[i]), logs[i]);
+        }
+        Assert.assertEquals(0, params.lookupDiscreteLogs(new ECPoint[0]).length);
+    }
+
+    @Theory
+    public void testBatchLookupMiss(int tableGap, BigInteger balance) {
+        EncryptionParams params = _buildParams(tableGap, false, false);
+        ECPoint missing = params.getGenerator().multiply(balance);
+        try {
+            params.lookupDiscreteLog(missing);
+            Assert.fail("Expected lookup of " + balance + " to fail.");
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+
+        // A single miss anywhere in the batch fails the whole batch, just as
+        // looking the points up one at a time would.
+        ECPoint found = params.getGenerator().multiply(BigInteger.valueOf(MAX_BALANCE / 2));
+        thrown.expect(IllegalArgumentException.class);
+        params.lookupDiscreteLogs(new ECPoint[] { found, missing, found });
+    }
+
+    @Test
+    public void testPersistentTable() throws IOException {
+        Path tableFile = tempFolder.getRoot().toPath().resolve("dlog.table");
+        EncryptionParams.Builder paramsBuilder = new EncryptionParams.Builder(new Random(TestUtils.RANDOM_SEED),
+                CryptoConstants.CURVE, CryptoConstants.DIGEST).setMaxDiscreteLog(MAX_BALANCE)
+                        .setDiscreteLogTableFile(tableFile).forTesting();
+        EncryptionParams builtParams = paramsBuilder.build();
+        Assert.assertTrue(Files.isRegularFile(tableFile));
+        FileTime builtTime = FileTime.fromMillis(0);
+        Files.setLastModifiedTime(tableFile, builtTime);
+
+        EncryptionParams loadedParams = new EncryptionParams.Builder(new Random(TestUtils.RANDOM_SEED),
+                CryptoConstants.CURVE, CryptoConstants.DIGEST).setMaxDiscreteLog(MAX_BALANCE)
+                        .setDiscreteLogTableFile(tableFile).forTesting().build();
+        // The second params object should map the existing table, not rebuild it.
+        Assert.assertEquals(builtTime, Files.getLastModifiedTime(tableFile));
+
+        for (EncryptionParams params : new EncryptionParams[] { builtParams, loadedParams }) {
+            for (long balance : GOOD_BALANCES) {
+                ECPoint point = params.getGenerator().multiply(BigInteger.valueOf(balance));
+                Assert.assertEquals(balance, params.lookupDiscreteLog(point));
+            }
+        }
+    }
+
+    @Test
+    public void testParallelTableBuild() {
+        // Large enough to take the parallel path and to need more than one
+        // round with three threads.
+        int babySteps = 1 << 16;
+        ECPoint generator = CryptoConstants.CURVE.getG();
+        DiscreteLogTable table = DiscreteLogTable.build(generator, babySteps, 3);
+        Assert.assertEquals(babySteps, table.getBabySteps());
+
+        ECPoint point = generator.getCurve().getInfinity();
+        for (int babyStep = 1; babyStep <= babySteps; babyStep++) {
+            point = point.add(generator).normalize();
+            long fingerprint = DiscreteLogTable.fingerprint(point);
+            List<Integer> candidates = new ArrayList<>();
+            for (int candidate; (candidate = table.getCandidate(fingerprint, candidates.size())) != 0;)
+                candidates.add(candidate);
+            Assert.assertTrue(candidates.contains(babyStep));
+        }
+    }
 }
@@ -0,0 +1,184 @@
+/*
+ * Solidus - Confidential Distributed Ledger Transactions via PVORM
+ *
+ * Copyright 2016-2017 Ethan Cecchetti, Fan Zhang and Yan Ji
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package test.solidus.util;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.bouncycastle.crypto.ec.ECPair;
+import org.bouncycastle.math.ec.ECPoint;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import solidus.io.SerialHelpers;
+import solidus.util.CryptoConstants;
+import solidus.util.Decryptor;
+import solidus.util.EncryptionParams;
+import solidus.util.Encryptor;
+import solidus.util.FromFileEncryptor;
+
+import test.util.TestUtils;
+
+public class FromFileEncryptorTest {
+    private static final BigInteger SECRET_KEY = BigInteger.valueOf(123456789);
+
+    private static final EncryptionParams PARAMS = new EncryptionParams.Builder(new Random(TestUtils.RANDOM_SEED),
+            CryptoConstants.CURVE, CryptoConstants.DIGEST).setMaxDiscreteLog(16).forTesting().build();
+    private static final ECPoint PUBLIC_KEY = PARAMS.getGenerator().multiply(SECRET_KEY).normalize();
+    private static final Decryptor DECRYPTOR = PARAMS.getDecryptor(SECRET_KEY);
+
+    private static final int ENCRYPTIONS_PER_FILE = 20;
+    private static final long WAIT_MS = 10000;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private List<ECPair> _writeEncryptions(Path file) throws IOException {
+        Encryptor encryptor = PARAMS.getEncryptor(PUBLIC_KEY);
+        List<ECPair> encryptions = new ArrayList<>();
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file))) {
+            SerialHelpers.writeString(out, PARAMS.getCurveName());
+            SerialHelpers.writeECPoint(out, PUBLIC_KEY, false);
+            for (int i = 0; i < ENCRYPTIONS_PER_FILE; i++) {
+                ECPair encryption = encryptor.encryptZero();
+                encryption = new ECPair(encryption.getX().normalize(), encryption.getY().normalize());
+                SerialHelpers.writeECPair(out, encryption, false);
+                encryptions.add(encryption);
+            }
+        }
+        return encryptions;
+    }
+
+    private static long _readCursor(Path file) throws IOException {
+        Path cursorFile = file.resolveSibling(file.getFileName() + FromFileEncryptor.CURSOR_SUFFIX);
+        return ByteBuffer.wrap(Files.readAllBytes(cursorFile)).getLong();
+    }
+
+    @Test
+    public void testInlineReadsInOrderAndResumes() throws IOException {
+        Path file = tempFolder.getRoot().toPath().resolve("encryptions");
+        List<ECPair> stored = _writeEncryptions(file);
+
+        FromFileEncryptor encryptor = new FromFileEncryptor(PARAMS, PUBLIC_KEY, file, false, 0, 100);
+        for (ECPair expected : stored)
+            Assert.assertEquals(expected, encryptor.encryptZero());
+        Assert.assertEquals(ENCRYPTIONS_PER_FILE, _readCursor(file));
+
+        // Once the file is used up, new encryptions are generated.
+        ECPair generated = encryptor.encryptZero();
+        Assert.assertFalse(stored.contains(generated));
+        Assert.assertEquals(0, DECRYPTOR.decryptBalance(generated));
+
+        // A restarted encryptor must not reuse anything from the file.
+        FromFileEncryptor restarted = new FromFileEncryptor(PARAMS, PUBLIC_KEY, file, false, 0, 100);
+        for (int i = 0; i < ENCRYPTIONS_PER_FILE; i++)
+            Assert.assertFalse(stored.contains(restarted.encryptZero()));
+    }
+
+    @Test
+    public void testShardDirectoryInBackground() throws IOException {
+        Path directory = tempFolder.newFolder("shards").toPath();
+        Set<ECPair> stored = new HashSet<>();
+        stored.addAll(_writeEncryptions(directory.resolve("shard-0")));
+        stored.addAll(_writeEncryptions(directory.resolve("shard-1")));
+
+        Set<ECPair> seen = new HashSet<>();
+        try (FromFileEncryptor encryptor = new FromFileEncryptor(PARAMS, PUBLIC_KEY, directory, false, 2, 100)) {
+            long deadline = System.currentTimeMillis() + WAIT_MS;
+            while (!seen.containsAll(stored) && System.currentTimeMillis() < deadline) {
+                ECPair encryption = encryptor.encryptZero();
+                Assert.assertEquals(0, DECRYPTOR.decryptBalance(encryption));
+                seen.add(encryption);
+            }
+        }
+
+        Assert.assertTrue(seen.containsAll(stored));
+        Assert.assertEquals(ENCRYPTIONS_PER_FILE, _readCursor(directory.resolve("shard-0")));
+        Assert.assertEquals(ENCRYPTIONS_PER_FILE, _readCursor(directory.resolve("shard-1")));
+    }
+
+    @Test
+    public void testCloseWhileDecoding() throws IOException {
+        Path file = tempFolder.getRoot().toPath().resolve("encryptions");
+        List<ECPair> stored = _writeEncryptions(file);
+
+        // The queue holds a single encryption, so the decoders are blocked
+        // when the encryptor is closed.
+        FromFileEncryptor encryptor = new FromFileEncryptor(PARAMS, PUBLIC_KEY, file, false, 2, 1);
+        encryptor.close();
+        encryptor.close();
+
+        // A closed encryptor still works, but discards whatever was decoded
+        // and generates new encryptions instead.
+        for (int i = 0; i < 4; i++) {
+            ECPair encryption = encryptor.encryptZero();
+            Assert.assertEquals(0, DECRYPTOR.decryptBalance(encryption));
+            Assert.assertFalse(stored.contains(encryption));
+        }
+    }
+
+    @Test
+    public void testCompressedWithIndex() throws IOException {
+        Path file = tempFolder.getRoot().toPath().resolve("compressed");
+        Encryptor encryptor = PARAMS.getEncryptor(PUBLIC_KEY);
+        List<ECPair> stored = new ArrayList<>();
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file))) {
+            FromFileEncryptor.writeHeader(out, PARAMS, PUBLIC_KEY, ENCRYPTIONS_PER_FILE, true);
+            for (int i = 0; i < ENCRYPTIONS_PER_FILE; i++) {
+                ECPair encryption = encryptor.encryptZero();
+                SerialHelpers.writeECPair(out, encryption, true);
+                stored.add(encryption);
+            }
+        }
+
+        FromFileEncryptor fileEncryptor = new FromFileEncryptor(PARAMS, PUBLIC_KEY, file, false, 0, 100);
+        for (ECPair expected : stored)
+            Assert.assertEquals(expected, fileEncryptor.encryptZero());
+        Assert.assertEquals(ENCRYPTIONS_PER_FILE, _readCursor(file));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTruncatedIndexedFile() throws IOException {
+        Path file = tempFolder.getRoot().toPath().resolve("truncated");
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file))) {
+            FromFileEncryptor.writeHeader(out, PARAMS, PUBLIC_KEY, ENCRYPTIONS_PER_FILE, false);
+            SerialHelpers.writeECPair(out, PARAMS.getEncryptor(PUBLIC_KEY).encryptZero(), false);
+        }
+        new FromFileEncryptor(PARAMS, PUBLIC_KEY, file, false, 0, 100);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongKey() throws IOException {
+        Path file = tempFolder.getRoot().toPath().resolve("encryptions");
+        _writeEncryptions(file);
+        new FromFileEncryptor(PARAMS, PARAMS.getGenerator(), file, false, 0, 100);
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Solidus - Confidential Distributed Ledger Transactions via PVORM
+ *
+ * Copyright 2016-2017 Ethan Cecchetti, Fan Zhang and Yan Ji
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package test.solidus.util;
+
+import java.math.BigInteger;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bouncycastle.crypto.ec.ECPair;
+import org.bouncycastle.math.ec.ECPoint;
+import org.junit.Assert;
+import org.junit.Test;
+
+import solidus.util.CryptoConstants;
+import solidus.util.Decryptor;
+import solidus.util.EncryptionParams;
+import solidus.util.Encryptor;
+import solidus.util.OnlineEncryptor;
+import solidus.util.PrecomputeService;
+
+import test.util.TestUtils;
+
+public class PrecomputeServiceTest {
+    private static final BigInteger SECRET_KEY_1 = BigInteger.valueOf(123456789);
+    private static final BigInteger SECRET_KEY_2 = BigInteger.valueOf(987654321);
+
+    private static final long WAIT_MS = 10000;
+
+    private static final EncryptionParams PARAMS = new EncryptionParams.Builder(new Random(TestUtils.RANDOM_SEED),
+            CryptoConstants.CURVE, CryptoConstants.DIGEST).setMaxDiscreteLog(16).forTesting().build();
+
+    private static ECPoint _publicKey(BigInteger secretKey) {
+        return PARAMS.getGenerator().multiply(secretKey).normalize();
+    }
+
+    @Test
+    public void testIdleKeysAreNotPrecomputed() throws InterruptedException {
+        PrecomputeService service = new PrecomputeService(2, 1000);
+        new OnlineEncryptor(PARAMS, _publicKey(SECRET_KEY_1), false, service);
+
+        Thread.sleep(200);
+        PrecomputeService.KeyPool pool = service.getPools().get(0);
+        Assert.assertEquals(0, pool.getQueueDepth());
+        Assert.assertEquals(0, pool.getTargetDepth());
+    }
+
+    @Test
+    public void testDemandIsServed() throws InterruptedException {
+        PrecomputeService service = new PrecomputeService(1, 1000);
+        ECPoint publicKey = _publicKey(SECRET_KEY_1);
+        Encryptor busy = new OnlineEncryptor(PARAMS, publicKey, false, service);
+        new OnlineEncryptor(PARAMS, _publicKey(SECRET_KEY_2), false, service);
+        Assert.assertEquals(2, service.getPools().size());
+
+        PrecomputeService.KeyPool busyPool = service.getPools().get(0);
+        PrecomputeService.KeyPool idlePool = service.getPools().get(1);
+        Assert.assertEquals(publicKey, busyPool.getPublicKey());
+
+        Decryptor decryptor = PARAMS.getDecryptor(SECRET_KEY_1);
+        long deadline = System.currentTimeMillis() + WAIT_MS;
+        while (busyPool.getHitCount() == 0 && System.currentTimeMillis() < deadline) {
+            ECPair encryption = busy.encryptZero();
+            Assert.assertEquals(0, decryptor.decryptBalance(encryption));
+            Thread.sleep(1);
+        }
+
+        Assert.assertTrue(busyPool.getHitCount() > 0);
+        Assert.assertTrue(busyPool.getMissCount() > 0);
+        Assert.assertTrue(busyPool.getDemandRate() > 0);
+        Assert.assertEquals(0, idlePool.getHitCount() + idlePool.getMissCount());
+        Assert.assertEquals(0, idlePool.getQueueDepth());
+    }
+
+    @Test
+    public void testSharedByParams() {
+        EncryptionParams params = new EncryptionParams.Builder(new Random(TestUtils.RANDOM_SEED),
+                CryptoConstants.CURVE, CryptoConstants.DIGEST).setEncryptorThreads(1).forTesting().build();
+        params.getEncryptor(_publicKey(SECRET_KEY_1));
+        params.getEncryptor(_publicKey(SECRET_KEY_2));
+
+        Assert.assertEquals(1, params.getPrecomputeService().getThreadCount());
+        Assert.assertEquals(2, params.getPrecomputeService().getPools().size());
+    }
+
+    @Test
+    public void testFailuresDoNotStopWorkers() throws InterruptedException {
+        PrecomputeService service = new PrecomputeService(1, 1000);
+        AtomicInteger failures = new AtomicInteger();
+        Encryptor failing = new OnlineEncryptor(PARAMS, _publicKey(SECRET_KEY_2), false, service) {
+            @Override
+            protected List<ECPair> generateZeroEncryptions(int count) {
+                failures.incrementAndGet();
+                throw new IllegalStateException("Injected failure");
+            }
+        };
+        Encryptor working = new OnlineEncryptor(PARAMS, _publicKey(SECRET_KEY_1), false, service);
+        PrecomputeService.KeyPool workingPool = service.getPools().get(1);
+
+        long deadline = System.currentTimeMillis() + WAIT_MS;
+        while (failures.get() == 0 && System.currentTimeMillis() < deadline) {
+            failing.encryptZero();
+            Thread.sleep(1);
+        }
+        Assert.assertTrue(failures.get() > 0);
+
+        // The only worker must still be alive to serve the other key.
+        while (workingPool.getHitCount() == 0 && System.currentTimeMillis() < deadline) {
+            working.encryptZero();
+            Thread.sleep(1);
+        }
+        Assert.assertTrue(workingPool.getHitCount() > 0);
+        service.close();
+    }
+
+    @Test
+    public void testClose() throws InterruptedException {
+        PrecomputeService service = new PrecomputeService(2, 1000);
+        Encryptor encryptor = new OnlineEncryptor(PARAMS, _publicKey(SECRET_KEY_1), false, service);
+        service.close();
+        service.close();
+
+        // Closed services compute nothing, but their encryptors still work.
+        PrecomputeService.KeyPool pool = service.getPools().get(0);
+        Decryptor decryptor = PARAMS.getDecryptor(SECRET_KEY_1);
+        for (int i = 0; i < 50; i++) {
+            Assert.assertEquals(0, decryptor.decryptBalance(encryptor.encryptZero()));
+            Thread.sleep(1);
+        }
+        Thread.sleep(200);
+        Assert.assertEquals(0, pool.getHitCount());
+        Assert.assertEquals(0, pool.getQueueDepth());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeThreads() {
+        new PrecomputeService(-1, 1000);
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Solidus - Confidential Distributed Ledger Transactions via PVORM
+ *
+ * Copyright 2016-2017 Ethan Cecchetti, Fan Zhang and Yan Ji
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package test.solidus.util;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+import org.bouncycastle.math.ec.ECPoint;
+import org.junit.Assert;
+import org.junit.Test;
+
+import solidus.util.BatchNormalizer;
+import solidus.util.CryptoConstants;
+import solidus.util.EncryptionParams;
+import solidus.util.MultiScalarMultiplier;
+
+import test.util.TestUtils;
+
+public class ScalarMultiplicationTest {
+    private static final BigInteger SECRET_KEY = new BigInteger(
+            "2afe91f84df247fa7e52ba800c9980de0335ec9849a28f2d462080129899cb11", 16);
+    private static final ECPoint PUBLIC_KEY = CryptoConstants.CURVE.getG().multiply(SECRET_KEY).normalize();
+    private static final ECPoint OTHER_KEY = CryptoConstants.CURVE.getG().multiply(BigInteger.valueOf(12345))
+            .normalize();
+
+    private static final EncryptionParams PARAMS = new EncryptionParams.Builder(new Random(TestUtils.RANDOM_SEED),
+            CryptoConstants.CURVE, CryptoConstants.DIGEST).addFixedBasePoint(PUBLIC_KEY).forTesting().build();
+
+    private static final int TRIALS = 20;
+
+    private BigInteger[] _interestingScalars() {
+        BigInteger n = PARAMS.getGroupSize();
+        return new BigInteger[] { BigInteger.ZERO, BigInteger.ONE, BigInteger.valueOf(-1), n,
+                n.subtract(BigInteger.ONE), n.add(BigInteger.ONE), n.negate(),
+                PARAMS.getRandomIndex().multiply(PARAMS.getRandomIndex()), PARAMS.getRandomIndex().negate() };
+    }
+
+    @Test
+    public void testRegistration() {
+        Assert.assertTrue(PARAMS.isFixedBase(PARAMS.getGenerator()));
+        Assert.assertTrue(PARAMS.isFixedBase(PUBLIC_KEY));
+        Assert.assertFalse(PARAMS.isFixedBase(OTHER_KEY));
+
+        PARAMS.getEncryptor(OTHER_KEY);
+        Assert.assertTrue(PARAMS.isFixedBase(OTHER_KEY));
+    }
+
+    @Test
+    public void testMultiply() {
+        Assert.assertTrue(PARAMS.usesEndomorphism());
+        ECPoint base = PARAMS.getGenerator().multiply(PARAMS.getRandomIndex());
+        for (BigInteger scalar : _interestingScalars()) {
+            Assert.assertEquals(base.multiply(scalar), PARAMS.multiply(base, scalar));
+        }
+        for (int i = 0; i < TRIALS; i++) {
+            BigInteger scalar = PARAMS.getRandomIndex();
+            Assert.assertEquals(base.multiply(scalar), PARAMS.multiply(base, scalar));
+        }
+        Assert.assertTrue(PARAMS.multiply(PARAMS.getInfinity(), PARAMS.getRandomIndex()).isInfinity());
+    }
+
+    @Test
+    public void testMultiplyFixed() {
+        ECPoint unregistered = PARAMS.getGenerator().multiply(PARAMS.getRandomIndex()).normalize();
+        for (ECPoint base : new ECPoint[] { PARAMS.getGenerator(), PUBLIC_KEY, unregistered }) {
+            for (BigInteger scalar : _interestingScalars()) {
+                Assert.assertEquals(base.multiply(scalar), PARAMS.multiplyFixed(base, scalar));
+            }
+            for (int i = 0; i < TRIALS; i++) {
+                BigInteger scalar = PARAMS.getRandomIndex();
+                Assert.assertEquals(base.multiply(scalar), PARAMS.multiplyFixed(base, scalar));
+            }
+        }
+    }
+
+    private void _checkSumOfMultiplies(int terms) {
+        ECPoint[] points = new ECPoint[terms];
+        BigInteger[] scalars = new BigInteger[terms];
+        ECPoint expected = PARAMS.getInfinity();
+        for (int i = 0; i < terms; i++) {
+            // Include a few degenerate terms along with random ones.
+            if (i % 7 == 3) {
+                points[i] = PARAMS.getInfinity();
+            } else if (i % 7 == 5) {
+                points[i] = PARAMS.getGenerator();
+            } else {
+                points[i] = PARAMS.getGenerator().multiply(PARAMS.getRandomIndex());
+            }
+            if (i % 5 == 4) {
+                scalars[i] = BigInteger.ZERO;
+            } else if (i % 5 == 2) {
+                scalars[i] = PARAMS.getRandomIndex().negate();
+            } else {
+                scalars[i] = PARAMS.getRandomIndex().multiply(PARAMS.getRandomIndex());
+            }
+            expected = expected.add(points[i].multiply(scalars[i]));
+        }
+        Assert.assertEquals(expected, PARAMS.sumOfMultiplies(points, scalars));
+    }
+
+    @Test
+    public void testSumOfMultiplies() {
+        for (int terms = 0; terms <= 8; terms++)
+            _checkSumOfMultiplies(terms);
+        _checkSumOfMultiplies(MultiScalarMultiplier.PIPPENGER_THRESHOLD + 3);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSumOfMultipliesMismatchedLengths() {
+        PARAMS.sumOfMultiplies(new ECPoint[] { PARAMS.getGenerator() }, new BigInteger[0]);
+    }
+
+    @Test
+    public void testBatchNormalize() {
+        ECPoint[] points = new ECPoint[TRIALS];
+        ECPoint[] expected = new ECPoint[TRIALS];
+        for (int i = 0; i < TRIALS; i++) {
+            if (i % 7 == 3) {
+                points[i] = PARAMS.getInfinity();
+            } else if (i % 7 == 5) {
+                points[i] = PUBLIC_KEY;
+            } else if (i % 7 != 6) {
+                points[i] = PARAMS.getGenerator().multiply(PARAMS.getRandomIndex());
+            }
+            expected[i] = (points[i] == null ? null : points[i].normalize());
+        }
+
+        BatchNormalizer.normalizeAll(points);
+        for (int i = 0; i < TRIALS; i++) {
+            Assert.assertEquals(expected[i], points[i]);
+            if (points[i] != null) {
+                Assert.assertTrue(points[i].isNormalized());
+                if (!points[i].isInfinity())
+                    Assert.assertEquals(expected[i].getAffineXCoord(), points[i].getXCoord());
+            }
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Solidus - Confidential Distributed Ledger Transactions via PVORM
+ *
+ * Copyright 2016-2017 Ethan Cecchetti, Fan Zhang and Yan Ji
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package test.solidus.util;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import solidus.util.StripedRandom;
+
+import test.util.TestUtils;
+
+public class StripedRandomTest {
+    private static final int TRIALS = 1000;
+    private static final int THREADS = 4;
+
+    @Test
+    public void testNonZeroBelowSmallBound() {
+        StripedRandom random = new StripedRandom(new Random(TestUtils.RANDOM_SEED));
+        BigInteger bound = BigInteger.valueOf(5);
+        Set<BigInteger> seen = new HashSet<>();
+        for (int i = 0; i < TRIALS; i++) {
+            BigInteger r = random.nextNonZeroBelow(bound);
+            Assert.assertTrue(r.signum() > 0);
+            Assert.assertTrue(r.compareTo(bound) < 0);
+            seen.add(r);
+        }
+        Assert.assertEquals(4, seen.size());
+    }
+
+    @Test
+    public void testNonZeroBelowLargeBound() {
+        StripedRandom random = new StripedRandom(new SecureRandom());
+        BigInteger bound = BigInteger.ONE.shiftLeft(255).add(BigInteger.valueOf(19));
+        for (int i = 0; i < TRIALS; i++) {
+            BigInteger r = random.nextNonZeroBelow(bound);
+            Assert.assertTrue(r.signum() > 0);
+            Assert.assertTrue(r.compareTo(bound) < 0);
+        }
+    }
+
+    @Test
+    public void testThreadsGetIndependentStreams() throws Exception {
+        for (Random master : new Random[] { new Random(TestUtils.RANDOM_SEED), new SecureRandom() }) {
+            StripedRandom random = new StripedRandom(master);
+            ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+            try {
+                Callable<Long> draw = () -> random.nextLong();
+                Set<Long> draws = new HashSet<>();
+                for (int i = 0; i < THREADS; i++) {
+                    Future<Long> result = executor.submit(draw);
+                    draws.add(result.get());
+                }
+                draws.add(random.nextLong());
+                Assert.assertEquals(THREADS + 1, draws.size());
+            } finally {
+                executor.shutdown();
+            }
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Solidus - Confidential Distributed Ledger Transactions via PVORM
+ *
+ * Copyright 2016-2017 Ethan Cecchetti, Fan Zhang and Yan Ji
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package test.solidus.zkproofs;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.bouncycastle.crypto.ec.ECPair;
+import org.bouncycastle.math.ec.ECPoint;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import solidus.util.CryptoConstants;
+import solidus.util.EncryptionParams;
+import solidus.zkproofs.CommitmentPool;
+import solidus.zkproofs.OneOfTwoDlogProof;
+import solidus.zkproofs.PlaintextEqDisKeyProof;
+import solidus.zkproofs.PlaintextEqProof;
+import solidus.zkproofs.ProofOfKnowledgeOfRep;
+import solidus.zkproofs.SchnorrSignature;
+import solidus.zkproofs.SigmaCommitment;
+
+import test.util.TestUtils;
+
+public class CommitmentPoolTest {
+    private static final EncryptionParams PARAMS = EncryptionParams.newTestParams(new Random(TestUtils.RANDOM_SEED),
+            CryptoConstants.CURVE, CryptoConstants.DIGEST);
+
+    private static final BigInteger SECRET_KEY = BigInteger.valueOf(987654321);
+    private static final ECPoint PUBLIC_KEY = PARAMS.getGenerator().multiply(SECRET_KEY).normalize();
+    private static final BigInteger OTHER_SECRET_KEY = BigInteger.valueOf(123456789);
+    private static final ECPoint OTHER_PUBLIC_KEY = PARAMS.getGenerator().multiply(OTHER_SECRET_KEY).normalize();
+
+    private static final int COMMITMENT_COUNT = 20;
+    private static final byte[] MESSAGE = new byte[] { 1, 2, 3 };
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private static ECPair _encrypt(ECPoint key, BigInteger value, BigInteger rand) {
+        return new ECPair(PARAMS.getGenerator().multiply(value).add(key.multiply(rand)),
+                PARAMS.getGenerator().multiply(rand));
+    }
+
+    @Test
+    public void testCommitmentsAreConsistent() {
+        try (CommitmentPool pool = new CommitmentPool(PARAMS, PUBLIC_KEY, 2, COMMITMENT_COUNT)) {
+            Set<BigInteger> nonces = new HashSet<>();
+            for (int i = 0; i < COMMITMENT_COUNT; i++) {
+                SigmaCommitment commitment = pool.take();
+                Assert.assertTrue(nonces.add(commitment.getNonce()));
+                Assert.assertEquals(PARAMS.getGenerator().multiply(commitment.getNonce()),
+                        commitment.getGeneratorPoint());
+                Assert.assertEquals(PUBLIC_KEY.multiply(commitment.getNonce()),
+                        commitment.getKeyPoint(PARAMS, PUBLIC_KEY));
+                Assert.assertEquals(OTHER_PUBLIC_KEY.multiply(commitment.getNonce()),
+                        commitment.getKeyPoint(PARAMS, OTHER_PUBLIC_KEY));
+            }
+        }
+    }
+
+    @Test
+    public void testClose() {
+        CommitmentPool pool = new CommitmentPool(PARAMS, PUBLIC_KEY, 2, 1 << 20);
+        while (pool.getAvailableCount() == 0)
+            Thread.yield();
+        pool.close();
+        pool.close();
+        TestUtils.assertStopsGrowing(pool::getAvailableCount);
+
+        // A closed pool still hands out what it precomputed, then generates
+        // commitments inline.
+        int available = pool.getAvailableCount();
+        for (int i = 0; i <= available; i++) {
+            SigmaCommitment commitment = pool.take();
+            Assert.assertEquals(PUBLIC_KEY.multiply(commitment.getNonce()),
+                    commitment.getKeyPoint(PARAMS, PUBLIC_KEY));
+        }
+        Assert.assertEquals(0, pool.getAvailableCount());
+    }
+
+    @Test
+    public void testProofsWithPoolVerify() {
+        try (CommitmentPool pool = new CommitmentPool(PARAMS, PUBLIC_KEY, 1, COMMITMENT_COUNT)) {
+            _checkProofsWithPool(pool);
+        }
+    }
+
+    private static void _checkProofsWithPool(CommitmentPool pool) {
+        BigInteger value = BigInteger.valueOf(42);
+        BigInteger rand1 = PARAMS.getRandomIndex();
+        BigInteger rand2 = PARAMS.getRandomIndex();
+        ECPair cipher1 = _encrypt(PUBLIC_KEY, value, rand1);
+        ECPair cipher2 = _encrypt(PUBLIC_KEY, value, rand2);
+        ECPair otherCipher = _encrypt(OTHER_PUBLIC_KEY, value, rand2);
+
+        Assert.assertTrue(SchnorrSignature.sign(PARAMS, SECRET_KEY, pool, MESSAGE).verify(PUBLIC_KEY, MESSAGE));
+        Assert.assertTrue(PlaintextEqProof.buildProof(PARAMS, cipher1, cipher2, PUBLIC_KEY, SECRET_KEY, pool)
+                .verify(cipher1, cipher2, PUBLIC_KEY));
+        Assert.assertTrue(PlaintextEqDisKeyProof
+                .buildProof(PARAMS, cipher1, otherCipher, PUBLIC_KEY, OTHER_PUBLIC_KEY, value, rand1, rand2, pool)
+                .verify(cipher1, otherCipher, PUBLIC_KEY, OTHER_PUBLIC_KEY));
+        Assert.assertTrue(ProofOfKnowledgeOfRep.buildProof(PARAMS, cipher1, PUBLIC_KEY, value, rand1, pool, MESSAGE)
+                .verify(PUBLIC_KEY, MESSAGE));
+
+        ECPoint base = PARAMS.getGenerator().multiply(BigInteger.valueOf(7));
+        ECPoint point = base.multiply(SECRET_KEY);
+        Assert.assertTrue(OneOfTwoDlogProof.buildProof(PARAMS, base, point, PUBLIC_KEY, PUBLIC_KEY, SECRET_KEY, true,
+                pool).verify(base, point, PUBLIC_KEY, PUBLIC_KEY));
+    }
+
+    @Test
+    public void testLoadFromFile() throws IOException {
+        Path file = tempFolder.getRoot().toPath().resolve("commitments");
+        CommitmentPool.writeToFile(file, PARAMS, PUBLIC_KEY, COMMITMENT_COUNT);
+
+        CommitmentPool pool = new CommitmentPool(PARAMS, PUBLIC_KEY, 0, 1);
+        pool.loadFromFile(file);
+        Assert.assertFalse(Files.exists(file));
+        Assert.assertEquals(COMMITMENT_COUNT, pool.getAvailableCount());
+
+        for (int i = 0; i < COMMITMENT_COUNT; i++) {
+            SigmaCommitment commitment = pool.take();
+            Assert.assertEquals(PUBLIC_KEY.multiply(commitment.getNonce()),
+                    commitment.getKeyPoint(PARAMS, PUBLIC_KEY));
+        }
+        Assert.assertEquals(0, pool.getAvailableCount());
+        // An empty pool still hands out fresh commitments.
+        Assert.assertNotNull(pool.take());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testLoadWrongKey() throws IOException {
+        Path file = tempFolder.getRoot().toPath().resolve("commitments");
+        CommitmentPool.writeToFile(file, PARAMS, OTHER_PUBLIC_KEY, 1);
+        new CommitmentPool(PARAMS, PUBLIC_KEY, 0, 1).loadFromFile(file);
+    }
+}
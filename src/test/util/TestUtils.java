@@ -20,6 +20,7 @@ package test.util;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.util.function.IntSupplier;
 
 import org.junit.Assert;
 
@@ -68,5 +69,27 @@ public class TestUtils {
         Assert.assertArrayEquals(serialized, deserialized.toByteArray(compressPoints));
     }
 
+    /**
+     * Asserts that a count filled by background threads soon stops changing,
+     * as it should once those threads have been stopped. The threads may
+     * finish the work they had started first.
+     *
+     * @param count the count to watch.
+     */
+    public static void assertStopsGrowing(IntSupplier count) {
+        try {
+            int previous = count.getAsInt();
+            for (int attempt = 0; attempt < 20; attempt++) {
+                Thread.sleep(250);
+                int current = count.getAsInt();
+                if (current == previous) return;
+                previous = current;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Assert.fail("Background threads kept running");
+    }
+
     private TestUtils() {}
 }